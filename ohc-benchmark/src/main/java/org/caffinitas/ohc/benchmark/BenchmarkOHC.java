@@ -38,6 +38,8 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 
+import org.caffinitas.ohc.Compression;
+import org.caffinitas.ohc.Eviction;
 import org.caffinitas.ohc.OHCache;
 import org.caffinitas.ohc.OHCacheBuilder;
 import org.caffinitas.ohc.benchmark.distribution.DistributionFactory;
@@ -62,6 +64,12 @@ public final class BenchmarkOHC
     public static final String BUCKET_HISTOGRAM = "bh";
     public static final String TYPE = "type";
     public static final String CSV = "csv";
+    public static final String OPTIMISTIC_READS = "or";
+    public static final String READ_BUFFER_SIZE = "rb";
+    public static final String EVICTION = "e";
+    public static final String LOG_STRUCTURED = "ls";
+    public static final String COMPRESSION = "cm";
+    public static final String COMPRESSION_THRESHOLD = "ct";
 
     public static final String DEFAULT_VALUE_SIZE_DIST = "fixed(512)";
     public static final String DEFAULT_KEY_DIST = "uniform(1..10000)";
@@ -99,6 +107,13 @@ public final class BenchmarkOHC
 
             String type = cmd.getOptionValue(TYPE, "linked");
 
+            boolean optimisticReads = Boolean.parseBoolean(cmd.getOptionValue(OPTIMISTIC_READS, "false"));
+            int readBufferSize = Integer.parseInt(cmd.getOptionValue(READ_BUFFER_SIZE, "0"));
+            Eviction eviction = Eviction.valueOf(cmd.getOptionValue(EVICTION, "LRU"));
+            boolean logStructured = Boolean.parseBoolean(cmd.getOptionValue(LOG_STRUCTURED, "false"));
+            Compression compression = Compression.valueOf(cmd.getOptionValue(COMPRESSION, "LZ4"));
+            int compressionThreshold = Integer.parseInt(cmd.getOptionValue(COMPRESSION_THRESHOLD, "0"));
+
             Driver[] drivers = new Driver[threads];
             Random rnd = new Random();
             String readKeyDistStr = cmd.getOptionValue(READ_KEY_DIST, DEFAULT_KEY_DIST);
@@ -122,6 +137,12 @@ public final class BenchmarkOHC
                                          .loadFactor(loadFactor)
                                          .segmentCount(segmentCount)
                                          .capacity(capacity)
+                                         .optimisticReads(optimisticReads)
+                                         .readBufferSize(readBufferSize)
+                                         .eviction(eviction)
+                                         .logStructured(logStructured)
+                                         .compression(compression)
+                                         .compressionThreshold(compressionThreshold)
                                          .build();
 
             printMessage("Cache configuration: hash-table-size: %d%n" +
@@ -173,10 +194,12 @@ public final class BenchmarkOHC
                             "\"r_oneMinuteRate\";\"r_fiveMinuteRate\";\"r_fifteenMinuteRate\";\"r_meanRate\";" +
                             "\"r_snapMin\";\"r_snapMax\";\"r_snapMean\";\"r_snapStdDev\";" +
                             "\"r_snap75\";\"r_snap95\";\"r_snap98\";\"r_snap99\";\"r_snap999\";\"r_snapMedian\";" +
+                            "\"r_all99\";\"r_all999\";\"r_allMax\";" +
                             "\"w_count\";" +
                             "\"w_oneMinuteRate\";\"w_fiveMinuteRate\";\"w_fifteenMinuteRate\";\"w_meanRate\";" +
                             "\"w_snapMin\";\"w_snapMax\";\"w_snapMean\";\"w_snapStdDev\";" +
-                            "\"w_snap75\";\"w_snap95\";\"w_snap98\";\"w_snap99\";\"w_snap999\";\"w_snapMedian\"");
+                            "\"w_snap75\";\"w_snap95\";\"w_snap98\";\"w_snap99\";\"w_snap999\";\"w_snapMedian\";" +
+                            "\"w_all99\";\"w_all999\";\"w_allMax\"");
             }
 
             printMessage("Starting benchmark with%n" +
@@ -335,6 +358,13 @@ public final class BenchmarkOHC
 
         options.addOption(CSV, true, "CSV stats output file");
 
+        options.addOption(OPTIMISTIC_READS, true, "enable optimistic (lock-free) reads. Default: false");
+        options.addOption(READ_BUFFER_SIZE, true, "number of buffered LRU promotions per segment. Default: 0 (disabled)");
+        options.addOption(LOG_STRUCTURED, true, "store entries in log-structured chunks (linked only). Default: false");
+        options.addOption(COMPRESSION, true, "value compression - LZ4 or SNAPPY. Default: LZ4");
+        options.addOption(COMPRESSION_THRESHOLD, true, "compress values of at least this size in bytes. Default: 0 (disabled)");
+        options.addOption(EVICTION, true, "eviction policy - LRU, W_TINY_LFU, LIRS (tables only) or TWO_Q (tables only). Default: LRU");
+
         CommandLine cmd = parser.parse(options, args);
         if (cmd.hasOption("h"))
         {
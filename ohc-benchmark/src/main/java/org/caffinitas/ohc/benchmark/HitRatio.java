@@ -0,0 +1,169 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.benchmark;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+
+import org.caffinitas.ohc.Eviction;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.caffinitas.ohc.benchmark.distribution.Distribution;
+import org.caffinitas.ohc.benchmark.distribution.OptionDistribution;
+
+/**
+ * Trace driven hit ratio comparison of eviction policies.
+ * <p>
+ * Replays a synthetic key trace single threaded against one cache per eviction policy. Each key is looked up and
+ * put if not present, like a read-through cache does.
+ * </p>
+ */
+public final class HitRatio
+{
+    public static final String TRACE = "trace";
+    public static final String KEY_DIST = "kd";
+    public static final String LOOP_LENGTH = "l";
+    public static final String SCAN_FRACTION = "sf";
+    public static final String OPERATIONS = "n";
+    public static final String CAPACITY = "cap";
+    public static final String SEGMENT_COUNT = "sc";
+    public static final String VALUE_SIZE = "vs";
+    public static final String TYPE = "type";
+    public static final String EVICTION = "e";
+
+    public static final String DEFAULT_KEY_DIST = "zipf(1..1000000,.9)";
+
+    public static void main(String[] args) throws Exception
+    {
+        Locale.setDefault(Locale.ENGLISH);
+        Locale.setDefault(Locale.Category.FORMAT, Locale.ENGLISH);
+
+        CommandLine cmd = parseArguments(args);
+
+        String trace = cmd.getOptionValue(TRACE, "zipf");
+        String keyDist = cmd.getOptionValue(KEY_DIST, DEFAULT_KEY_DIST);
+        long loopLength = Long.parseLong(cmd.getOptionValue(LOOP_LENGTH, "40000"));
+        double scanFraction = Double.parseDouble(cmd.getOptionValue(SCAN_FRACTION, ".3"));
+        int operations = Integer.parseInt(cmd.getOptionValue(OPERATIONS, "2000000"));
+        long capacity = Long.parseLong(cmd.getOptionValue(CAPACITY, "" + (16 * 1024 * 1024)));
+        int segmentCount = Integer.parseInt(cmd.getOptionValue(SEGMENT_COUNT, "1"));
+        int valueSize = Integer.parseInt(cmd.getOptionValue(VALUE_SIZE, "512"));
+        String type = cmd.getOptionValue(TYPE, "tables");
+        String evictions = cmd.getOptionValue(EVICTION, "LRU,W_TINY_LFU,LIRS,TWO_Q");
+
+        System.out.printf("trace: %s, key distribution: %s, loop length: %d, scan fraction: %.2f, operations: %d%n" +
+                          "type: %s, capacity: %d, segments: %d, value size: %d%n",
+                          trace, keyDist, loopLength, scanFraction, operations,
+                          type, capacity, segmentCount, valueSize);
+
+        byte[] value = new byte[valueSize];
+        for (String e : evictions.split(","))
+        {
+            Eviction eviction = Eviction.valueOf(e.trim());
+
+            Distribution dist = OptionDistribution.get(keyDist).get();
+            dist.setSeed(1L);
+            Random scanRandom = new Random(1L);
+
+            long hits = 0L;
+            long lookups = 0L;
+            try (OHCache<Long, byte[]> cache = OHCacheBuilder.<Long, byte[]>newBuilder()
+                                                             .type((Class<? extends OHCache>) Class.forName("org.caffinitas.ohc." + type + ".OHCacheImpl"))
+                                                             .keySerializer(BenchmarkUtils.longSerializer)
+                                                             .valueSerializer(BenchmarkUtils.serializer)
+                                                             .segmentCount(segmentCount)
+                                                             .capacity(capacity)
+                                                             .eviction(eviction)
+                                                             .build())
+            {
+                long scanKey = Long.MAX_VALUE / 2;
+                for (int i = 0; i < operations; i++)
+                {
+                    long key;
+                    switch (trace)
+                    {
+                        case "zipf":
+                            key = dist.next();
+                            break;
+                        case "loop":
+                            key = i % loopLength;
+                            break;
+                        case "scan":
+                            key = scanRandom.nextDouble() < scanFraction ? scanKey++ : dist.next();
+                            break;
+                        default:
+                            throw new IllegalArgumentException("unknown trace " + trace);
+                    }
+
+                    // first 20% of the trace warm up the cache
+                    boolean measure = i >= operations / 5;
+                    if (measure)
+                        lookups++;
+
+                    if (cache.get(key) != null)
+                    {
+                        if (measure)
+                            hits++;
+                    }
+                    else
+                        cache.put(key, value);
+                }
+            }
+
+            System.out.printf("%-12s hit ratio: %6.2f%%%n", eviction, 100d * hits / lookups);
+        }
+    }
+
+    private static CommandLine parseArguments(String[] args) throws ParseException
+    {
+        CommandLineParser parser = new PosixParser();
+        Options options = new Options();
+
+        options.addOption("h", false, "help");
+
+        options.addOption(TRACE, true, "trace - zipf (keys from key distribution), loop (keys 0..loop-length-1 cyclic) " +
+                                       "or scan (keys from key distribution mixed with keys accessed once). Default: zipf");
+        options.addOption(KEY_DIST, true, "key distribution - default: " + DEFAULT_KEY_DIST);
+        options.addOption(LOOP_LENGTH, true, "number of keys in loop trace - default: 40000");
+        options.addOption(SCAN_FRACTION, true, "fraction of keys accessed once in scan trace - default: .3");
+        options.addOption(OPERATIONS, true, "number of operations - default: 2000000");
+        options.addOption(CAPACITY, true, "size of the cache - default: 16MB");
+        options.addOption(SEGMENT_COUNT, true, "number of segments - default: 1");
+        options.addOption(VALUE_SIZE, true, "value size - default: 512");
+        options.addOption(TYPE, true, "implementation type - default: tables - option: linked");
+        options.addOption(EVICTION, true, "comma separated list of eviction policies - default: LRU,W_TINY_LFU,LIRS,TWO_Q");
+
+        CommandLine cmd = parser.parse(options, args);
+        if (cmd.hasOption("h"))
+        {
+            HelpFormatter formatter = new HelpFormatter();
+            String help = "";
+            for (String s : OptionDistribution.help())
+                help = help + '\n' + s;
+            formatter.printHelp(160, "HitRatio", null, options, help);
+            System.exit(0);
+        }
+
+        return cmd;
+    }
+}
@@ -19,11 +19,16 @@ import com.codahale.metrics.Clock;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.UniformReservoir;
+import org.caffinitas.ohc.histo.EstimatedHistogram;
 
 public class MergeableTimer
 {
+    // 120 buckets cover latencies up to about 8 seconds
+    static final int ALL_SAMPLES_BUCKETS = 120;
+
     final Meter meter;
     final Histogram histogram;
+    private final long[] allSamples = new long[ALL_SAMPLES_BUCKETS + 1];
 
     final long started = System.currentTimeMillis();
 
@@ -33,6 +38,21 @@ public class MergeableTimer
         this.histogram = new Histogram(new UniformReservoir());
     }
 
+    synchronized void merge(EstimatedHistogram samples)
+    {
+        long[] buckets = samples.getBuckets(false);
+        for (int i = 0; i < buckets.length; i++)
+            allSamples[i] += buckets[i];
+    }
+
+    /**
+     * Histogram of all recorded samples, use it for the tail percentiles.
+     */
+    synchronized EstimatedHistogram allSamples()
+    {
+        return new EstimatedHistogram(new EstimatedHistogram(ALL_SAMPLES_BUCKETS).getBucketOffsets(), allSamples.clone());
+    }
+
     long runtime()
     {
         return System.currentTimeMillis() - started;
@@ -22,18 +22,22 @@ import java.util.concurrent.atomic.AtomicReference;
 import com.codahale.metrics.Clock;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.UniformReservoir;
+import org.caffinitas.ohc.histo.EstimatedHistogram;
 
 public final class MergeableTimerSource
 {
     private final Clock clock;
     private final AtomicLong count;
     private final AtomicReference<Histogram> histogram;
+    // records every sample - the sampling histogram misses rare stalls like rehashes
+    private final AtomicReference<EstimatedHistogram> allSamples;
 
     public MergeableTimerSource()
     {
         this.clock = Clock.defaultClock();
         this.count = new AtomicLong();
         this.histogram = new AtomicReference<>(new Histogram(new UniformReservoir()));
+        this.allSamples = new AtomicReference<>(new EstimatedHistogram(MergeableTimer.ALL_SAMPLES_BUCKETS));
     }
 
     public <T> T time(Callable<T> event) throws Exception
@@ -54,6 +58,7 @@ public final class MergeableTimerSource
         Histogram hist = this.histogram.getAndSet(new Histogram(new UniformReservoir()));
         for (long l : hist.getSnapshot().getValues())
             timer.histogram.update(l);
+        timer.merge(allSamples.getAndSet(new EstimatedHistogram(MergeableTimer.ALL_SAMPLES_BUCKETS)));
         timer.meter.mark(count.getAndSet(0L));
     }
 
@@ -62,6 +67,7 @@ public final class MergeableTimerSource
         if (duration >= 0)
         {
             histogram.get().update(duration);
+            allSamples.get().add(duration);
             count.incrementAndGet();
         }
     }
@@ -69,6 +75,7 @@ public final class MergeableTimerSource
     public void clear()
     {
         this.histogram.set(new Histogram(new UniformReservoir()));
+        this.allSamples.set(new EstimatedHistogram(MergeableTimer.ALL_SAMPLES_BUCKETS));
         this.count.set(0L);
     }
 }
@@ -32,6 +32,7 @@ import javax.management.openmbean.CompositeDataSupport;
 
 import com.codahale.metrics.Snapshot;
 import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.histo.EstimatedHistogram;
 
 final class Shared
 {
@@ -139,10 +140,21 @@ final class Shared
         double oneMinuteRate = timer.meter.getOneMinuteRate();
         double fiveMinuteRate = timer.meter.getFiveMinuteRate();
         double fifteenMinuteRate = timer.meter.getFifteenMinuteRate();
+        EstimatedHistogram all = timer.allSamples();
+        double all99 = Double.NaN;
+        double all999 = Double.NaN;
+        double allMax = Double.NaN;
+        if (all.count() > 0L && !all.isOverflowed())
+        {
+            all99 = all.percentile(.99d) / NANOS_PER_MILLI;
+            all999 = all.percentile(.999d) / NANOS_PER_MILLI;
+            allMax = all.max() / NANOS_PER_MILLI;
+        }
         System.out.printf("     %-10s: one/five/fifteen/mean:  %.0f/%.0f/%.0f/%.0f%n" +
                           "                 count:                  %10d %n" +
                           "                 min/max/mean/stddev:    %8.5f/%8.5f/%8.5f/%8.5f%n" +
-                          "                 75/95/98/99/999/median: %8.5f/%8.5f/%8.5f/%8.5f/%8.5f/%8.5f%n",
+                          "                 75/95/98/99/999/median: %8.5f/%8.5f/%8.5f/%8.5f/%8.5f/%8.5f%n" +
+                          "                 all samples 99/999/max: %8.5f/%8.5f/%8.5f%n",
                           header,
                           //
                           oneMinuteRate, fiveMinuteRate, fifteenMinuteRate, meanRate,
@@ -150,13 +162,15 @@ final class Shared
                           count,
                           //
                           snapMin, snapMax, snapMean, snapStdDev,
-                          snap75, snap95, snap98, snap99, snap999, snapMedian);
+                          snap75, snap95, snap98, snap99, snap999, snapMedian,
+                          all99, all999, allMax);
 
         if (csv != null)
-            csv.printf(";%d;%.0f;%.0f;%.0f;%.0f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f",
+            csv.printf(";%d;%.0f;%.0f;%.0f;%.0f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f",
                        count,
                        oneMinuteRate, fiveMinuteRate, fifteenMinuteRate, meanRate,
                        snapMin, snapMax, snapMean, snapStdDev,
-                       snap75, snap95, snap98, snap99, snap999, snapMedian);
+                       snap75, snap95, snap98, snap99, snap999, snapMedian,
+                       all99, all999, allMax);
     }
 }
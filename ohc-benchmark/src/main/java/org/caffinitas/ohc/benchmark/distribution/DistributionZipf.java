@@ -0,0 +1,90 @@
+package org.caffinitas.ohc.benchmark.distribution;
+/*
+ * 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * 
+ */
+
+
+import java.util.Random;
+
+/**
+ * Zipfian distribution over {@code [min..max]} with exponent {@code 0 < theta < 1}, {@code min} being the most
+ * frequently used value. Uses the algorithm from Gray et al, "Quickly generating billion-record synthetic databases".
+ */
+public class DistributionZipf extends Distribution
+{
+
+    final Random random = new Random();
+    final long min, items;
+    final double theta, zetan, alpha, eta;
+
+    public DistributionZipf(long min, long max, double theta, double zetan)
+    {
+        this.min = min;
+        this.items = max - min + 1;
+        this.theta = theta;
+        this.zetan = zetan;
+        this.alpha = 1d / (1d - theta);
+        this.eta = (1d - Math.pow(2d / items, 1d - theta)) / (1d - zeta(2, theta) / zetan);
+    }
+
+    static double zeta(long n, double theta)
+    {
+        double sum = 0d;
+        for (long i = 1; i <= n; i++)
+            sum += 1d / Math.pow(i, theta);
+        return sum;
+    }
+
+    @Override
+    public long next()
+    {
+        return min + rank(random.nextDouble());
+    }
+
+    @Override
+    public double nextDouble()
+    {
+        return next();
+    }
+
+    private long rank(double u)
+    {
+        double uz = u * zetan;
+        if (uz < 1d)
+            return 0L;
+        if (uz < 1d + Math.pow(.5d, theta))
+            return 1L;
+        long r = (long) (items * Math.pow(eta * u - eta + 1d, alpha));
+        return r >= items ? items - 1 : r;
+    }
+
+    @Override
+    public long inverseCumProb(double cumProb)
+    {
+        return min + rank(cumProb);
+    }
+
+    @Override
+    public void setSeed(long seed)
+    {
+        random.setSeed(seed);
+    }
+
+}
@@ -131,8 +131,9 @@ public class OptionDistribution extends Option
                             GroupedOptions.formatMultiLine("GAUSSIAN(min..max,mean,stdev)", "A gaussian/normal distribution, with explicitly defined mean and stdev"),
                             GroupedOptions.formatMultiLine("UNIFORM(min..max)", "A uniform distribution over the range [min, max]"),
                             GroupedOptions.formatMultiLine("FIXED(val)", "A fixed distribution, always returning the same value"),
+                            GroupedOptions.formatMultiLine("ZIPF(min..max,theta)", "A zipfian distribution over the range [min..max] with 0 < theta < 1, where min is the most popular value"),
                             "Preceding the name with ~ will invert the distribution, e.g. ~exp(1..10) will yield 10 most, instead of least, often",
-                            "Aliases: extr, qextr, gauss, normal, norm, weibull"
+                            "Aliases: extr, qextr, gauss, normal, norm, weibull, zipfian"
         );
     }
 
@@ -163,6 +164,8 @@ public class OptionDistribution extends Option
         lookup.put("norm", lookup.get("gaussian"));
         lookup.put("uniform", new UniformImpl());
         lookup.put("fixed", new FixedImpl());
+        lookup.put("zipf", new ZipfImpl());
+        lookup.put("zipfian", lookup.get("zipf"));
         LOOKUP = lookup;
     }
 
@@ -338,6 +341,30 @@ public class OptionDistribution extends Option
         }
     }
 
+    private static final class ZipfImpl implements Impl
+    {
+
+        @Override
+        public DistributionFactory getFactory(List<String> params)
+        {
+            if (params.size() > 2 || params.size() < 1)
+                throw new IllegalArgumentException("Invalid parameter list for zipf distribution: " + params);
+            try
+            {
+                String[] bounds = params.get(0).split("\\.\\.+");
+                final long min = parseLong(bounds[0]);
+                final long max = parseLong(bounds[1]);
+                final double theta = params.size() == 2 ? Double.parseDouble(params.get(1)) : .99d;
+                if (theta <= 0d || theta >= 1d)
+                    throw new IllegalArgumentException();
+                return new ZipfFactory(min, max, theta);
+            } catch (Exception e)
+            {
+                throw new IllegalArgumentException("Invalid parameter list for zipf distribution: " + params);
+            }
+        }
+    }
+
     private static final class InverseFactory implements DistributionFactory
     {
         final DistributionFactory wrapped;
@@ -442,6 +469,27 @@ public class OptionDistribution extends Option
         }
     }
 
+    private static final class ZipfFactory implements DistributionFactory
+    {
+        final long min, max;
+        final double theta;
+        // zeta(n, theta) is expensive for large ranges - calculate it once
+        final double zetan;
+        private ZipfFactory(long min, long max, double theta)
+        {
+            this.min = min;
+            this.max = max;
+            this.theta = theta;
+            this.zetan = DistributionZipf.zeta(max - min + 1, theta);
+        }
+
+        @Override
+        public Distribution get()
+        {
+            return new DistributionZipf(min, max, theta, zetan);
+        }
+    }
+
     private static final class FixedFactory implements DistributionFactory
     {
         final long key;
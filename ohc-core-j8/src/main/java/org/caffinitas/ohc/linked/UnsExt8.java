@@ -46,6 +46,16 @@ final class UnsExt8 extends UnsExt
         return unsafe.getAndAddInt(null, address + offset, value);
     }
 
+    boolean hasLoadFence()
+    {
+        return true;
+    }
+
+    void loadFence()
+    {
+        unsafe.loadFence();
+    }
+
     long crc32(long address, long offset, long len)
     {
         CRC32 crc = new CRC32();
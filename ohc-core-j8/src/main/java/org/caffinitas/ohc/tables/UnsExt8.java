@@ -43,4 +43,14 @@ final class UnsExt8 extends UnsExt
     {
         return unsafe.getAndAddInt(null, address + offset, value);
     }
+
+    boolean hasLoadFence()
+    {
+        return true;
+    }
+
+    void loadFence()
+    {
+        unsafe.loadFence();
+    }
 }
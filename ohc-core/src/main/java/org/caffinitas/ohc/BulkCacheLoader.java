@@ -0,0 +1,33 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache loader that loads the values for multiple keys at once.
+ * Used by {@link OHCache#getAllWithLoaderAsync(Iterable, BulkCacheLoader)} and to coalesce concurrent
+ * {@link OHCache#getWithLoaderAsync(Object, CacheLoader)} misses, see {@link OHCacheBuilder#bulkLoadWindowMicros(long)}.
+ */
+public interface BulkCacheLoader<K, V> extends CacheLoader<K, V>
+{
+    /**
+     * Loads the values for the given keys. Keys missing in the returned map fail with a
+     * {@link TemporaryLoadException}. A {@link PermanentLoadException} applies to all given keys.
+     */
+    Map<K, V> loadAll(Set<K> keys) throws PermanentLoadException, Exception;
+}
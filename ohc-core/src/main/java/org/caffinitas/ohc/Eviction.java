@@ -0,0 +1,50 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc;
+
+/**
+ * Replacement strategy used to choose the hash entries to evict when a segment is full.
+ */
+public enum Eviction
+{
+    /**
+     * Least recently used.
+     */
+    LRU,
+
+    /**
+     * Window TinyLFU - new entries are placed in a small LRU admission window. Entries leaving the window are
+     * only admitted to the main (segmented LRU) space if they have been accessed more frequently than the entry
+     * that would be evicted instead. Access frequencies are estimated using a count-min sketch per segment.
+     * Protects the cache against pollution by scans.
+     */
+    W_TINY_LFU,
+
+    /**
+     * (For tables implementation only) Low inter-reference recency set - entries are classified by the recency of
+     * their last two accesses. 99% of the capacity holds entries with a low inter-reference recency (LIR),
+     * entries with a high inter-reference recency (HIR) are evicted first. Non-resident HIR entries are tracked
+     * by hash. Handles looping and scanning access patterns.
+     */
+    LIRS,
+
+    /**
+     * (For tables implementation only) 2Q - new entries are added to a FIFO queue (A1in, 25% of the capacity).
+     * Entries evicted from A1in are tracked by hash (A1out) and added to the main LRU queue (Am) if they are put
+     * again while tracked.
+     */
+    TWO_Q
+}
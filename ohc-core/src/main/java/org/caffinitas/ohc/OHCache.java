@@ -16,12 +16,15 @@
 package org.caffinitas.ohc;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -38,6 +41,15 @@ public interface OHCache<K, V> extends Closeable
      */
     void put(K key, V value);
 
+    /**
+     * Adds the key/value, which expires after the given time-to-live.
+     * A time-to-live of {@code 0} or less means that the entry does not expire - but max-idle expiration
+     * still applies.
+     * If the entry size of key/value exceeds the configured maximum entry length, any previously existing entry
+     * for the key is removed.
+     */
+    void put(K key, V value, long ttl, TimeUnit unit);
+
     /**
      * Adds key/value if either the key is not present or the existing value matches parameter {@code old}.
      * If the entry size of key/value exceeds the configured maximum entry length, the old value is removed.
@@ -61,6 +73,13 @@ public interface OHCache<K, V> extends Closeable
 
     V get(K key);
 
+    /**
+     * Returns the values for the given keys that are present in the cache.
+     * All keys are serialized and hashed first, then the keys are looked up grouped by segment, so each segment is
+     * locked only once. Values are deserialized after the segment locks have been released.
+     */
+    Map<K, V> getAll(Iterable<K> keys);
+
     boolean containsKey(K key);
 
     // direct access support
@@ -73,6 +92,25 @@ public interface OHCache<K, V> extends Closeable
      */
     DirectValueAccess putDirect(K key, long valueLen);
 
+    /**
+     * Adds the key with a value of {@code valueLen} bytes read from the channel directly into the memory of the new
+     * hash entry. The entry becomes visible when the value has been read completely. On EOF or an I/O error the
+     * entry is discarded and its memory is freed. Values are stored uncompressed, like {@link #putDirect(Object, long)}
+     * does.
+     * If the entry size of key/value exceeds the configured maximum entry length, any previously existing entry
+     * for the key is removed.
+     *
+     * @return {@code true} if the entry has been added
+     * @throws java.io.EOFException if the channel ends before {@code valueLen} bytes have been read
+     */
+    boolean putFrom(K key, ReadableByteChannel channel, long valueLen) throws IOException;
+
+    /**
+     * Like {@link #putFrom(Object, ReadableByteChannel, long)}, executed using the executor service configured via
+     * {@link OHCacheBuilder#executorService(java.util.concurrent.ScheduledExecutorService)}.
+     */
+    Future<Boolean> putFromAsync(K key, ReadableByteChannel channel, long valueLen);
+
     /**
      * Returns a closeable byte buffer.
      * You must close the returned {@link DirectValueAccess} instance after use.
@@ -83,6 +121,51 @@ public interface OHCache<K, V> extends Closeable
      */
     DirectValueAccess getDirect(K key);
 
+    /**
+     * Adds a key/value given in serialized form, as the key and value serializers would produce it, bypassing the
+     * serializers. The remaining bytes of each buffer are copied directly into the cache, the positions of the buffers
+     * are not changed.
+     * If the entry size of key/value exceeds the configured maximum entry length, any previously existing entry
+     * for the key is removed.
+     */
+    void putRaw(ByteBuffer key, ByteBuffer value);
+
+    /**
+     * Like {@link #getDirect(Object)} for a key in serialized form - the remaining bytes of the buffer.
+     * You must close the returned {@link DirectValueAccess} instance after use.
+     *
+     * @return reference-counted byte buffer or {@code null} if key does not exist.
+     */
+    DirectValueAccess getRaw(ByteBuffer key);
+
+    /**
+     * Removes the entry for a key in serialized form - the remaining bytes of the buffer.
+     */
+    void removeRaw(ByteBuffer key);
+
+    /**
+     * Returns closeable byte buffers for the values of the given keys that are present in the cache, like
+     * {@link #getAll(Iterable)} does.
+     * You must close each returned {@link DirectValueAccess} instance after use.
+     */
+    Map<K, DirectValueAccess> getAllDirect(Iterable<K> keys);
+
+    /**
+     * Writes the serialized value for the given key to the channel without copying it to the heap.
+     * The hash entry is referenced only while writing. Compressed values are written decompressed.
+     *
+     * @return {@code true} if the key exists and its value has been written
+     */
+    boolean getTo(K key, WritableByteChannel channel) throws IOException;
+
+    /**
+     * Writes the serialized values for the given keys in iteration order to the channel using gathering writes.
+     * Keys that are not present are skipped. The hash entries are referenced only while writing.
+     *
+     * @return number of values written
+     */
+    int getAllTo(Iterable<K> keys, GatheringByteChannel channel) throws IOException;
+
     // cache loader support
 
     Future<V> getWithLoaderAsync(K key, CacheLoader<K, V> loader);
@@ -91,6 +174,17 @@ public interface OHCache<K, V> extends Closeable
 
     V getWithLoader(K key, CacheLoader<K, V> loader, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException;
 
+    /**
+     * Returns the values for the given keys. The keys that are neither present nor being loaded are loaded with a
+     * single call to {@link BulkCacheLoader#loadAll(java.util.Set)}, keys that are being loaded by other requests
+     * are awaited.
+     * The returned future completes when all keys have been loaded. It fails with the failure of the first key
+     * in iteration order whose value could not be loaded.
+     */
+    Future<Map<K, V>> getAllWithLoaderAsync(Iterable<K> keys, BulkCacheLoader<K, V> loader);
+
+    Map<K, V> getAllWithLoader(Iterable<K> keys, BulkCacheLoader<K, V> loader) throws InterruptedException, ExecutionException;
+
     // iterators
 
     /**
@@ -145,6 +239,32 @@ public interface OHCache<K, V> extends Closeable
 
     CloseableIterator<K> deserializeKeys(ReadableByteChannel channel) throws IOException;
 
+    /**
+     * Writes all entries to one file per segment in the given directory. The files are written concurrently
+     * by tasks submitted to the given executor, using gathering writes of many entries at once. Each file has the
+     * format written by {@link #serializeHotNEntries(int, WritableByteChannel)}.
+     * A manifest with the number of entries and the size of each file is written when all files are complete and
+     * have been forced to the storage device.
+     * <p>
+     *     Note: Entries are not written atomically across segments, so the snapshot does not reflect a single point
+     *     in time. During a rehash, the implementation might write entries twice or not at all.
+     * </p>
+     *
+     * @return number of entries written
+     */
+    long snapshot(File directory, ExecutorService executor) throws IOException, InterruptedException;
+
+    /**
+     * Reads the files of a snapshot written by {@link #snapshot(File, ExecutorService)} concurrently by tasks
+     * submitted to the given executor. The snapshot may have been written by an instance with a different number
+     * of segments. Entries that cannot be added (for example because the cache is too small) are skipped.
+     *
+     * @return number of entries added
+     * @throws IOException if the manifest is missing or a file does not match the manifest, including the number
+     * of entries it contains
+     */
+    long restoreSnapshot(File directory, ExecutorService executor) throws IOException, InterruptedException;
+
     // statistics / information
 
     void resetStatistics();
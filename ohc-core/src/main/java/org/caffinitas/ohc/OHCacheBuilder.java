@@ -70,8 +70,19 @@ import org.caffinitas.ohc.linked.OHCacheImpl;
  *     </tr>
  *     <tr>
  *         <td>{@code bucketLength}</td>
- *         <td>(For tables implementation only) Number of entries per bucket.</td>
- *         <td>{@code 8}</td>
+ *         <td>(For tables implementation only) Maximum probe length of the open-addressing hash table. An insert
+ *         that moves an entry further away from its home slot resizes the hash table, if the table is at least
+ *         half as full as the load factor allows.</td>
+ *         <td>{@code 64}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code probeTags}</td>
+ *         <td>(For tables implementation only) Keep one tag byte per slot of the hash table in a separate array
+ *         instead of the hash value in the slot (9 instead of 16 bytes per slot) and compare the tags of eight slots
+ *         at once before reading any slot. Lookups of absent keys usually only read the tags, hits read the hash
+ *         value from the hash entry together with the key. Inserts and removals read the hash values of the moved
+ *         hash entries.</td>
+ *         <td>{@code false}</td>
  *     </tr>
  *     <tr>
  *         <td>{@code throwOOME}</td>
@@ -85,6 +96,113 @@ import org.caffinitas.ohc.linked.OHCacheImpl;
  *         very long and you've proven that it really improves performace</td>
  *         <td>{@code MURMUR3}</td>
  *     </tr>
+ *     <tr>
+ *         <td>{@code optimisticReads}</td>
+ *         <td>Lookups do not acquire the segment lock but validate their result against concurrent modifications
+ *         and retry with the lock on conflicts. Hits and misses of such lookups are recorded in the read buffer
+ *         (128 entries if {@code readBufferSize} is {@code 0}) and applied to the LRU and the frequency sketch
+ *         by the reader that manages to acquire the segment lock.
+ *         Only pays off when readers of the same segment actually run in parallel on multiple cores.
+ *         Requires {@code sun.misc.Unsafe.loadFence()} (Java 8) - silently disabled otherwise.</td>
+ *         <td>{@code false}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code readBufferSize}</td>
+ *         <td>Number of hits per segment that are buffered and applied to the LRU in a batch instead of
+ *         promoting each hit immediately. Buffered hits may be dropped under contention. {@code 0} disables buffering.</td>
+ *         <td>{@code 0}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code eviction}</td>
+ *         <td>Replacement strategy used to choose the hash entries to evict, see {@link Eviction}.
+ *         {@code LIRS} and {@code TWO_Q} are supported by the tables implementation only.</td>
+ *         <td>{@code LRU}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code windowSize}</td>
+ *         <td>(For {@link Eviction#W_TINY_LFU} only) Fraction of each segment's capacity used for the admission window.</td>
+ *         <td>{@code .01f}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code defaultTTLmillis}</td>
+ *         <td>Time-to-live in milliseconds of entries added without an explicit TTL, {@code 0} means that entries do not expire.</td>
+ *         <td>{@code 0}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code maxIdleMillis}</td>
+ *         <td>Entries expire if they have not been accessed for the given number of milliseconds, {@code 0} disables max-idle expiration.</td>
+ *         <td>{@code 0}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code refreshAfterWriteMillis}</td>
+ *         <td>(For linked implementation only) Entries loaded by a {@code CacheLoader} that are older than the given
+ *         number of milliseconds are reloaded asynchronously when accessed via {@code getWithLoader}, which returns
+ *         the existing value immediately.
+ *         Refreshes start slightly early with a random probability depending on the average load time, so entries
+ *         written at the same time are not refreshed at the same time. Loaded entries need 8 to 15 additional bytes
+ *         for the refresh timestamp. {@code 0} disables refresh.</td>
+ *         <td>{@code 0}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code bulkLoadWindowMicros}</td>
+ *         <td>(For linked implementation only) Misses of {@code getWithLoader} using a {@link BulkCacheLoader} are
+ *         collected for the given number of microseconds and loaded with a single call to
+ *         {@link BulkCacheLoader#loadAll(java.util.Set)}. {@code 0} loads each miss individually.</td>
+ *         <td>{@code 0}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code bulkLoadBatchSize}</td>
+ *         <td>(For {@code bulkLoadWindowMicros} only) Collected misses are loaded immediately when this number of keys
+ *         has been reached.</td>
+ *         <td>{@code 100}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code logStructured}</td>
+ *         <td>(For linked implementation only) Hash entries are appended to large off-heap chunks instead of being
+ *         allocated individually. A background thread relocates live entries out of chunks with a low live ratio
+ *         and releases whole chunks.</td>
+ *         <td>{@code false}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code logChunkSize}</td>
+ *         <td>(For {@code logStructured} only) Size of the off-heap chunks in bytes. Larger hash entries are allocated
+ *         individually. {@code 0} derives the chunk size from the capacity.</td>
+ *         <td>{@code 0}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code storageFile}</td>
+ *         <td>(For linked implementation only) Path of a file, for example on {@code /dev/shm} or a local SSD, whose
+ *         memory-mapped regions are used as the chunks of the {@code logStructured} storage, which is implicitly
+ *         enabled. When the cache is closed, the chunks are check-summed and the file is marked as cleanly closed.
+ *         A cache opened on a cleanly closed file rebuilds its hash tables from the entries in the file, without
+ *         copying them. {@link org.caffinitas.ohc.DirectValueAccess} instances must be closed before the cache
+ *         is closed.</td>
+ *         <td>{@code null}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code spillFile}</td>
+ *         <td>(For linked implementation only) Path of a file, for example on a local SSD, used as a second tier
+ *         for evicted entries. A {@code get} that misses in memory reads the entry from the file and adds it back
+ *         to the cache. The file is used as a ring buffer and its content is discarded when the cache is closed.</td>
+ *         <td>{@code null}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code spillCapacity}</td>
+ *         <td>(For {@code spillFile} only) Size of the spill file in bytes. {@code 0} uses four times the capacity.</td>
+ *         <td>{@code 0}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code compression}</td>
+ *         <td>Algorithm used to compress serialized values, see {@link Compression}. Requires the corresponding
+ *         library in the class path.</td>
+ *         <td>{@code LZ4}</td>
+ *     </tr>
+ *     <tr>
+ *         <td>{@code compressionThreshold}</td>
+ *         <td>Serialized values of at least this size in bytes are stored compressed, if compression saves memory.
+ *         {@code 0} disables compression.</td>
+ *         <td>{@code 0}</td>
+ *     </tr>
  * </table>
  * <p>
  *     You may also use system properties prefixed with {@code org.caffinitas.org.} to other defaults.
@@ -98,7 +216,8 @@ public class OHCacheBuilder<K, V>
 {
     private int segmentCount;
     private int hashTableSize = 8192;
-    private int bucketLength = 8;
+    private int bucketLength = 64;
+    private boolean probeTags;
     private long capacity;
     private CacheSerializer<K> keySerializer;
     private CacheSerializer<V> valueSerializer;
@@ -108,6 +227,22 @@ public class OHCacheBuilder<K, V>
     private ScheduledExecutorService executorService;
     private boolean throwOOME;
     private HashAlgorithm hashAlgorighm = HashAlgorithm.MURMUR3;
+    private boolean optimisticReads;
+    private int readBufferSize;
+    private Eviction eviction = Eviction.LRU;
+    private float windowSize = .01f;
+    private long defaultTTLmillis;
+    private long maxIdleMillis;
+    private long refreshAfterWriteMillis;
+    private long bulkLoadWindowMicros;
+    private int bulkLoadBatchSize = 100;
+    private boolean logStructured;
+    private long logChunkSize;
+    private String storageFile;
+    private String spillFile;
+    private long spillCapacity;
+    private Compression compression = Compression.LZ4;
+    private int compressionThreshold;
 
     private OHCacheBuilder()
     {
@@ -119,11 +254,28 @@ public class OHCacheBuilder<K, V>
         segmentCount = fromSystemProperties("segmentCount", segmentCount);
         hashTableSize = fromSystemProperties("hashTableSize", hashTableSize);
         bucketLength = fromSystemProperties("bucketLength", bucketLength);
+        probeTags = fromSystemProperties("probeTags", probeTags);
         capacity = fromSystemProperties("capacity", capacity);
         loadFactor = fromSystemProperties("loadFactor", loadFactor);
         maxEntrySize = fromSystemProperties("maxEntrySize", maxEntrySize);
         throwOOME = fromSystemProperties("throwOOME", throwOOME);
         hashAlgorighm = HashAlgorithm.valueOf(fromSystemProperties("hashAlgorighm", hashAlgorighm.name()));
+        optimisticReads = fromSystemProperties("optimisticReads", optimisticReads);
+        readBufferSize = fromSystemProperties("readBufferSize", readBufferSize);
+        eviction = Eviction.valueOf(fromSystemProperties("eviction", eviction.name()));
+        windowSize = fromSystemProperties("windowSize", windowSize);
+        defaultTTLmillis = fromSystemProperties("defaultTTLmillis", defaultTTLmillis);
+        maxIdleMillis = fromSystemProperties("maxIdleMillis", maxIdleMillis);
+        refreshAfterWriteMillis = fromSystemProperties("refreshAfterWriteMillis", refreshAfterWriteMillis);
+        bulkLoadWindowMicros = fromSystemProperties("bulkLoadWindowMicros", bulkLoadWindowMicros);
+        bulkLoadBatchSize = fromSystemProperties("bulkLoadBatchSize", bulkLoadBatchSize);
+        logStructured = fromSystemProperties("logStructured", logStructured);
+        logChunkSize = fromSystemProperties("logChunkSize", logChunkSize);
+        storageFile = fromSystemProperties("storageFile", storageFile);
+        spillFile = fromSystemProperties("spillFile", spillFile);
+        spillCapacity = fromSystemProperties("spillCapacity", spillCapacity);
+        compression = Compression.valueOf(fromSystemProperties("compression", compression.name()));
+        compressionThreshold = fromSystemProperties("compressionThreshold", compressionThreshold);
         String t = fromSystemProperties("type", null);
         if (t != null)
             try
@@ -222,6 +374,32 @@ public class OHCacheBuilder<K, V>
         }
     }
 
+    /**
+     * Builds a cache with primitive {@code long} keys using the implementation configured via {@link #type(Class)}.
+     * A key serializer is not needed.
+     */
+    @SuppressWarnings("unchecked")
+    public OHLongCache<V> buildLongCache()
+    {
+        // the implementations of OHCache that support long keys have an OHLongCacheImpl next to them
+        if (!"OHCacheImpl".equals(type.getSimpleName()))
+            throw new UnsupportedOperationException(type.getName() + " does not support long keys");
+        try
+        {
+            return (OHLongCache<V>) Class.forName(type.getPackage().getName() + ".OHLongCacheImpl")
+                                         .getDeclaredConstructor(OHCacheBuilder.class)
+                                         .newInstance(this);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new UnsupportedOperationException(type.getName() + " does not support long keys");
+        }
+        catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
     public Class<? extends OHCache> getType()
     {
         return type;
@@ -255,6 +433,17 @@ public class OHCacheBuilder<K, V>
         return this;
     }
 
+    public boolean isProbeTags()
+    {
+        return probeTags;
+    }
+
+    public OHCacheBuilder<K, V> probeTags(boolean probeTags)
+    {
+        this.probeTags = probeTags;
+        return this;
+    }
+
     public long getCapacity()
     {
         return capacity;
@@ -353,4 +542,180 @@ public class OHCacheBuilder<K, V>
         this.throwOOME = throwOOME;
         return this;
     }
+
+    public boolean isOptimisticReads()
+    {
+        return optimisticReads;
+    }
+
+    public OHCacheBuilder<K, V> optimisticReads(boolean optimisticReads)
+    {
+        this.optimisticReads = optimisticReads;
+        return this;
+    }
+
+    public int getReadBufferSize()
+    {
+        return readBufferSize;
+    }
+
+    public OHCacheBuilder<K, V> readBufferSize(int readBufferSize)
+    {
+        this.readBufferSize = readBufferSize;
+        return this;
+    }
+
+    public Eviction getEviction()
+    {
+        return eviction;
+    }
+
+    public OHCacheBuilder<K, V> eviction(Eviction eviction)
+    {
+        this.eviction = eviction;
+        return this;
+    }
+
+    public float getWindowSize()
+    {
+        return windowSize;
+    }
+
+    public OHCacheBuilder<K, V> windowSize(float windowSize)
+    {
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    public long getDefaultTTLmillis()
+    {
+        return defaultTTLmillis;
+    }
+
+    public OHCacheBuilder<K, V> defaultTTLmillis(long defaultTTLmillis)
+    {
+        this.defaultTTLmillis = defaultTTLmillis;
+        return this;
+    }
+
+    public long getMaxIdleMillis()
+    {
+        return maxIdleMillis;
+    }
+
+    public OHCacheBuilder<K, V> maxIdleMillis(long maxIdleMillis)
+    {
+        this.maxIdleMillis = maxIdleMillis;
+        return this;
+    }
+
+    public long getRefreshAfterWriteMillis()
+    {
+        return refreshAfterWriteMillis;
+    }
+
+    public OHCacheBuilder<K, V> refreshAfterWriteMillis(long refreshAfterWriteMillis)
+    {
+        this.refreshAfterWriteMillis = refreshAfterWriteMillis;
+        return this;
+    }
+
+    public long getBulkLoadWindowMicros()
+    {
+        return bulkLoadWindowMicros;
+    }
+
+    public OHCacheBuilder<K, V> bulkLoadWindowMicros(long bulkLoadWindowMicros)
+    {
+        this.bulkLoadWindowMicros = bulkLoadWindowMicros;
+        return this;
+    }
+
+    public int getBulkLoadBatchSize()
+    {
+        return bulkLoadBatchSize;
+    }
+
+    public OHCacheBuilder<K, V> bulkLoadBatchSize(int bulkLoadBatchSize)
+    {
+        this.bulkLoadBatchSize = bulkLoadBatchSize;
+        return this;
+    }
+
+    public boolean isLogStructured()
+    {
+        return logStructured;
+    }
+
+    public OHCacheBuilder<K, V> logStructured(boolean logStructured)
+    {
+        this.logStructured = logStructured;
+        return this;
+    }
+
+    public long getLogChunkSize()
+    {
+        return logChunkSize;
+    }
+
+    public OHCacheBuilder<K, V> logChunkSize(long logChunkSize)
+    {
+        this.logChunkSize = logChunkSize;
+        return this;
+    }
+
+    public String getStorageFile()
+    {
+        return storageFile;
+    }
+
+    public OHCacheBuilder<K, V> storageFile(String storageFile)
+    {
+        this.storageFile = storageFile;
+        return this;
+    }
+
+    public String getSpillFile()
+    {
+        return spillFile;
+    }
+
+    public OHCacheBuilder<K, V> spillFile(String spillFile)
+    {
+        this.spillFile = spillFile;
+        return this;
+    }
+
+    public long getSpillCapacity()
+    {
+        return spillCapacity;
+    }
+
+    public OHCacheBuilder<K, V> spillCapacity(long spillCapacity)
+    {
+        this.spillCapacity = spillCapacity;
+        return this;
+    }
+
+    public Compression getCompression()
+    {
+        return compression;
+    }
+
+    public OHCacheBuilder<K, V> compression(Compression compression)
+    {
+        this.compression = compression;
+        return this;
+    }
+
+    public int getCompressionThreshold()
+    {
+        return compressionThreshold;
+    }
+
+    public OHCacheBuilder<K, V> compressionThreshold(int compressionThreshold)
+    {
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
 }
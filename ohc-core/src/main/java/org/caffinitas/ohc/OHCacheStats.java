@@ -35,11 +35,22 @@ public final class OHCacheStats
     private final long removeCount;
     private final long totalAllocated;
     private final long lruCompactions;
+    private final long expireCount;
+    private final long compressionInputBytes;
+    private final long compressionOutputBytes;
+    private final long compressionNanos;
+    private final long spillHitCount;
+    private final long spillMissCount;
+    private final long spillWriteCount;
+    private final long spillReadNanos;
+    private final long spillWriteNanos;
 
     public OHCacheStats(long hitCount, long missCount, long evictionCount,
                         long[] segmentSizes, long size, long capacity, long free, long rehashCount,
                         long putAddCount, long putReplaceCount, long putFailCount, long removeCount,
-                        long totalAllocated, long lruCompactions)
+                        long totalAllocated, long lruCompactions, long expireCount,
+                        long compressionInputBytes, long compressionOutputBytes, long compressionNanos,
+                        long spillHitCount, long spillMissCount, long spillWriteCount, long spillReadNanos, long spillWriteNanos)
     {
         this.hitCount = hitCount;
         this.missCount = missCount;
@@ -55,6 +66,15 @@ public final class OHCacheStats
         this.removeCount = removeCount;
         this.totalAllocated = totalAllocated;
         this.lruCompactions = lruCompactions;
+        this.expireCount = expireCount;
+        this.compressionInputBytes = compressionInputBytes;
+        this.compressionOutputBytes = compressionOutputBytes;
+        this.compressionNanos = compressionNanos;
+        this.spillHitCount = spillHitCount;
+        this.spillMissCount = spillMissCount;
+        this.spillWriteCount = spillWriteCount;
+        this.spillReadNanos = spillReadNanos;
+        this.spillWriteNanos = spillWriteNanos;
     }
 
     public long getCapacity()
@@ -142,6 +162,94 @@ public final class OHCacheStats
         return lruCompactions;
     }
 
+    public long getExpireCount()
+    {
+        return expireCount;
+    }
+
+    /**
+     * Serialized size of all values that have been considered for compression.
+     */
+    public long getCompressionInputBytes()
+    {
+        return compressionInputBytes;
+    }
+
+    /**
+     * Stored size of all values that have been considered for compression - values, for which compression does not
+     * save memory, are stored uncompressed.
+     */
+    public long getCompressionOutputBytes()
+    {
+        return compressionOutputBytes;
+    }
+
+    /**
+     * Ratio of {@link #getCompressionOutputBytes()} to {@link #getCompressionInputBytes()} or {@code 1} if no value
+     * has been considered for compression.
+     */
+    public double getCompressionRatio()
+    {
+        return compressionInputBytes > 0L ? (double) compressionOutputBytes / compressionInputBytes : 1d;
+    }
+
+    /**
+     * Time spent compressing values in nanoseconds.
+     */
+    public long getCompressionNanos()
+    {
+        return compressionNanos;
+    }
+
+    /**
+     * Number of misses in off-heap memory that have been served from the spill tier.
+     */
+    public long getSpillHitCount()
+    {
+        return spillHitCount;
+    }
+
+    /**
+     * Number of misses in off-heap memory that have not been found in the spill tier.
+     */
+    public long getSpillMissCount()
+    {
+        return spillMissCount;
+    }
+
+    /**
+     * Ratio of spill tier hits to spill tier lookups or {@code 0} if the spill tier has not been used.
+     */
+    public double getSpillHitRate()
+    {
+        long lookups = spillHitCount + spillMissCount;
+        return lookups > 0L ? (double) spillHitCount / lookups : 0d;
+    }
+
+    /**
+     * Number of evicted entries written to the spill tier.
+     */
+    public long getSpillWriteCount()
+    {
+        return spillWriteCount;
+    }
+
+    /**
+     * Time spent reading entries from the spill tier in nanoseconds.
+     */
+    public long getSpillReadNanos()
+    {
+        return spillReadNanos;
+    }
+
+    /**
+     * Time spent writing evicted entries to the spill file in nanoseconds.
+     */
+    public long getSpillWriteNanos()
+    {
+        return spillWriteNanos;
+    }
+
     public String toString()
     {
         return Objects.toStringHelper(this)
@@ -157,6 +265,9 @@ public final class OHCacheStats
                       .add("segmentSizes(#/min/max/avg)", String.format("%d/%d/%d/%.2f", segmentSizes.length, getMinSegmentSize(), getMaxSegmentSize(), getAverageSegmentSize()))
                       .add("totalAllocated", totalAllocated)
                       .add("lruCompactions", lruCompactions)
+                      .add("expireCount", expireCount)
+                      .add("compression(in/out/ratio/nanos)", String.format("%d/%d/%.3f/%d", compressionInputBytes, compressionOutputBytes, getCompressionRatio(), compressionNanos))
+                      .add("spill(hit/miss/write/readNanos/writeNanos)", String.format("%d/%d/%d/%d/%d", spillHitCount, spillMissCount, spillWriteCount, spillReadNanos, spillWriteNanos))
                       .toString();
     }
 
@@ -203,6 +314,15 @@ public final class OHCacheStats
         if (putReplaceCount != that.putReplaceCount) return false;
 //        if (rehashCount != that.rehashCount) return false;
         if (removeCount != that.removeCount) return false;
+        if (expireCount != that.expireCount) return false;
+//        if (compressionInputBytes != that.compressionInputBytes) return false;
+//        if (compressionOutputBytes != that.compressionOutputBytes) return false;
+//        if (compressionNanos != that.compressionNanos) return false;
+//        if (spillHitCount != that.spillHitCount) return false;
+//        if (spillMissCount != that.spillMissCount) return false;
+//        if (spillWriteCount != that.spillWriteCount) return false;
+//        if (spillReadNanos != that.spillReadNanos) return false;
+//        if (spillWriteNanos != that.spillWriteNanos) return false;
         if (size != that.size) return false;
 //        if (totalAllocated != that.totalAllocated) return false;
         if (!Arrays.equals(segmentSizes, that.segmentSizes)) return false;
@@ -224,6 +344,15 @@ public final class OHCacheStats
         result = 31 * result + (int) (putReplaceCount ^ (putReplaceCount >>> 32));
         result = 31 * result + (int) (putFailCount ^ (putFailCount >>> 32));
         result = 31 * result + (int) (removeCount ^ (removeCount >>> 32));
+        result = 31 * result + (int) (expireCount ^ (expireCount >>> 32));
+//        result = 31 * result + (int) (compressionInputBytes ^ (compressionInputBytes >>> 32));
+//        result = 31 * result + (int) (compressionOutputBytes ^ (compressionOutputBytes >>> 32));
+//        result = 31 * result + (int) (compressionNanos ^ (compressionNanos >>> 32));
+//        result = 31 * result + (int) (spillHitCount ^ (spillHitCount >>> 32));
+//        result = 31 * result + (int) (spillMissCount ^ (spillMissCount >>> 32));
+//        result = 31 * result + (int) (spillWriteCount ^ (spillWriteCount >>> 32));
+//        result = 31 * result + (int) (spillReadNanos ^ (spillReadNanos >>> 32));
+//        result = 31 * result + (int) (spillWriteNanos ^ (spillWriteNanos >>> 32));
 //        result = 31 * result + (int) (totalAllocated ^ (totalAllocated >>> 32));
         return result;
     }
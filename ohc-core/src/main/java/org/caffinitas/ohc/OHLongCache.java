@@ -0,0 +1,68 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache with primitive {@code long} keys, built via {@link OHCacheBuilder#buildLongCache()}.
+ * <p>
+ * Keys are not boxed and need no key serializer. A key is stored as 8 bytes in its hash entry, hashed with a
+ * 64 bit mixer and compared with a single 8 byte read.
+ * </p>
+ */
+public interface OHLongCache<V> extends Closeable
+{
+    /**
+     * Adds the key/value.
+     * If the entry size of key/value exceeds the configured maximum entry length, any previously existing entry
+     * for the key is removed.
+     */
+    void put(long key, V value);
+
+    /**
+     * Adds the key/value, which expires after the given time-to-live.
+     * A time-to-live of {@code 0} or less means that the entry does not expire - but max-idle expiration
+     * still applies.
+     */
+    void put(long key, V value, long ttl, TimeUnit unit);
+
+    /**
+     * Adds the key/value if the key is not present.
+     */
+    boolean putIfAbsent(long key, V value);
+
+    void remove(long key);
+
+    V get(long key);
+
+    boolean containsKey(long key);
+
+    void clear();
+
+    void resetStatistics();
+
+    long size();
+
+    long capacity();
+
+    long memUsed();
+
+    long freeCapacity();
+
+    OHCacheStats stats();
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.caffinitas.ohc.alloc;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.caffinitas.ohc.OHCacheBuilder;
+
+/**
+ * Size-class slab allocator.
+ * <p>
+ * Memory is reserved from the OS in regions. Each region is carved into chunks of a single size class, so
+ * allocations and frees of small blocks do not enter {@code malloc()}/{@code free()}. Each region has its own
+ * free list and counts its allocated chunks. A region that has no allocated chunks anymore is returned to the OS,
+ * except for one empty region per arena, which is kept for the next region needed by any size class. This way,
+ * memory freed in one size class can be reused by other size classes.
+ * </p>
+ * <p>
+ * To reduce lock contention the allocator is split into arenas, each with its own regions.
+ * A thread allocates from the arena of its thread-id - a chunk is always returned to the region it was carved from.
+ * Memory not available for allocations is bounded by one partially used region per size class and arena plus
+ * one empty region per arena. The end of a region that is too small for another chunk is not used.
+ * </p>
+ * <p>
+ * Each chunk is preceded by an 8 byte header, that contains the address of its region or, for blocks
+ * that are too large for a size class and are allocated directly, the negated size of the block.
+ * </p>
+ */
+public class SlabAllocator implements IAllocator
+{
+    private static final long HEADER_LEN = 8L;
+
+    // region header - the regions of a size class with free chunks form a doubly linked list
+    private static final long REGION_OFF_NEXT = 0L;
+    private static final long REGION_OFF_PREV = 8L;
+    // head of the list of freed chunks - the next pointer is stored in the chunk header
+    private static final long REGION_OFF_FREE = 16L;
+    // chunks from this address up to the end of the region have not been used yet
+    private static final long REGION_OFF_POS = 24L;
+    // number of allocated chunks (int)
+    private static final long REGION_OFF_LIVE = 32L;
+    // size class (int)
+    private static final long REGION_OFF_CLASS = 36L;
+    // arena (int)
+    private static final long REGION_OFF_ARENA = 40L;
+    private static final long REGION_HEADER_LEN = 48L;
+
+    // size classes up to 64 bytes in steps of 8, then 4 classes per power of 2
+    static final int CLASSES = 56;
+    static final long MAX_CLASS_SIZE = classSize(CLASSES - 1);
+
+    private final Arena[] arenas;
+    private final int arenaMask;
+    private final long regionSize;
+
+    // memory reserved from the OS
+    private final AtomicLong totalAllocated = new AtomicLong();
+
+    public SlabAllocator()
+    {
+        this(Runtime.getRuntime().availableProcessors() * 2,
+             Long.getLong(OHCacheBuilder.SYSTEM_PROPERTY_PREFIX + "slabRegionSize", 1024L * 1024));
+    }
+
+    public SlabAllocator(int arenas, long regionSize)
+    {
+        if (regionSize < REGION_HEADER_LEN + MAX_CLASS_SIZE)
+            throw new IllegalArgumentException("region size must not be less than " + (REGION_HEADER_LEN + MAX_CLASS_SIZE));
+        int n = 1;
+        while (n < arenas)
+            n <<= 1;
+        this.arenas = new Arena[n];
+        for (int i = 0; i < n; i++)
+            this.arenas[i] = new Arena(i);
+        this.arenaMask = n - 1;
+        this.regionSize = regionSize;
+    }
+
+    public long allocate(long size)
+    {
+        if (size > MAX_CLASS_SIZE - HEADER_LEN)
+            return size <= Long.MAX_VALUE - HEADER_LEN ? allocateLarge(size + HEADER_LEN) : 0L;
+
+        long total = size + HEADER_LEN;
+
+        int arena = (int) Thread.currentThread().getId() & arenaMask;
+        long adr = arenas[arena].allocate(sizeClass(total));
+        return adr != 0L ? adr + HEADER_LEN : 0L;
+    }
+
+    private long allocateLarge(long total)
+    {
+        long adr;
+        try
+        {
+            adr = UnsafeAllocator.unsafe.allocateMemory(total);
+        }
+        catch (OutOfMemoryError oom)
+        {
+            return 0L;
+        }
+        UnsafeAllocator.unsafe.putLong(adr, -total);
+        totalAllocated.addAndGet(total);
+        return adr + HEADER_LEN;
+    }
+
+    public void free(long peer)
+    {
+        long adr = peer - HEADER_LEN;
+        long header = UnsafeAllocator.unsafe.getLong(adr);
+        if (header < 0L)
+        {
+            UnsafeAllocator.unsafe.freeMemory(adr);
+            totalAllocated.addAndGet(header);
+            return;
+        }
+
+        arenas[UnsafeAllocator.unsafe.getInt(header + REGION_OFF_ARENA)].free(header, adr);
+    }
+
+    public long getTotalAllocated()
+    {
+        return totalAllocated.get();
+    }
+
+    static int sizeClass(long total)
+    {
+        if (total <= 64L)
+            return (int) ((total + 7L) >>> 3) - 1;
+        long n = total - 1L;
+        int k = 63 - Long.numberOfLeadingZeros(n);
+        int sub = (int) ((n - (1L << k)) >>> (k - 2));
+        return 8 + (k - 6) * 4 + sub;
+    }
+
+    static long classSize(int sizeClass)
+    {
+        if (sizeClass < 8)
+            return (sizeClass + 1) * 8L;
+        int k = 6 + (sizeClass - 8) / 4;
+        int sub = (sizeClass - 8) % 4;
+        return (1L << k) + (sub + 1) * (1L << (k - 2));
+    }
+
+    private final class Arena
+    {
+        private final int index;
+
+        // head of the list of regions with free chunks per size class
+        private final long[] partial = new long[CLASSES];
+
+        // empty region kept for the next region needed by any size class or 0L
+        private long emptyRegion;
+
+        Arena(int index)
+        {
+            this.index = index;
+        }
+
+        synchronized long allocate(int sizeClass)
+        {
+            long region = partial[sizeClass];
+            if (region == 0L)
+            {
+                region = takeRegion(sizeClass);
+                if (region == 0L)
+                    return 0L;
+                link(sizeClass, region);
+            }
+
+            long len = classSize(sizeClass);
+            long adr = UnsafeAllocator.unsafe.getLong(region + REGION_OFF_FREE);
+            if (adr != 0L)
+                UnsafeAllocator.unsafe.putLong(region + REGION_OFF_FREE, UnsafeAllocator.unsafe.getLong(adr));
+            else
+            {
+                adr = UnsafeAllocator.unsafe.getLong(region + REGION_OFF_POS);
+                UnsafeAllocator.unsafe.putLong(region + REGION_OFF_POS, adr + len);
+            }
+            UnsafeAllocator.unsafe.putInt(region + REGION_OFF_LIVE, UnsafeAllocator.unsafe.getInt(region + REGION_OFF_LIVE) + 1);
+
+            if (full(region, len))
+                unlink(sizeClass, region);
+
+            UnsafeAllocator.unsafe.putLong(adr, region);
+            return adr;
+        }
+
+        synchronized void free(long region, long adr)
+        {
+            int sizeClass = UnsafeAllocator.unsafe.getInt(region + REGION_OFF_CLASS);
+            boolean wasFull = full(region, classSize(sizeClass));
+
+            UnsafeAllocator.unsafe.putLong(adr, UnsafeAllocator.unsafe.getLong(region + REGION_OFF_FREE));
+            UnsafeAllocator.unsafe.putLong(region + REGION_OFF_FREE, adr);
+            int live = UnsafeAllocator.unsafe.getInt(region + REGION_OFF_LIVE) - 1;
+            UnsafeAllocator.unsafe.putInt(region + REGION_OFF_LIVE, live);
+
+            if (live == 0)
+            {
+                if (!wasFull)
+                    unlink(sizeClass, region);
+                releaseRegion(region);
+            }
+            else if (wasFull)
+                link(sizeClass, region);
+        }
+
+        private boolean full(long region, long len)
+        {
+            return UnsafeAllocator.unsafe.getLong(region + REGION_OFF_FREE) == 0L
+                   && UnsafeAllocator.unsafe.getLong(region + REGION_OFF_POS) + len > region + regionSize;
+        }
+
+        private long takeRegion(int sizeClass)
+        {
+            long region = emptyRegion;
+            if (region != 0L)
+                emptyRegion = 0L;
+            else
+            {
+                try
+                {
+                    region = UnsafeAllocator.unsafe.allocateMemory(regionSize);
+                }
+                catch (OutOfMemoryError oom)
+                {
+                    return 0L;
+                }
+                totalAllocated.addAndGet(regionSize);
+            }
+
+            UnsafeAllocator.unsafe.putLong(region + REGION_OFF_FREE, 0L);
+            UnsafeAllocator.unsafe.putLong(region + REGION_OFF_POS, region + REGION_HEADER_LEN);
+            UnsafeAllocator.unsafe.putInt(region + REGION_OFF_LIVE, 0);
+            UnsafeAllocator.unsafe.putInt(region + REGION_OFF_CLASS, sizeClass);
+            UnsafeAllocator.unsafe.putInt(region + REGION_OFF_ARENA, index);
+            return region;
+        }
+
+        private void releaseRegion(long region)
+        {
+            if (emptyRegion == 0L)
+            {
+                emptyRegion = region;
+                return;
+            }
+
+            UnsafeAllocator.unsafe.freeMemory(region);
+            totalAllocated.addAndGet(-regionSize);
+        }
+
+        private void link(int sizeClass, long region)
+        {
+            long next = partial[sizeClass];
+            UnsafeAllocator.unsafe.putLong(region + REGION_OFF_NEXT, next);
+            UnsafeAllocator.unsafe.putLong(region + REGION_OFF_PREV, 0L);
+            if (next != 0L)
+                UnsafeAllocator.unsafe.putLong(next + REGION_OFF_PREV, region);
+            partial[sizeClass] = region;
+        }
+
+        private void unlink(int sizeClass, long region)
+        {
+            long next = UnsafeAllocator.unsafe.getLong(region + REGION_OFF_NEXT);
+            long prev = UnsafeAllocator.unsafe.getLong(region + REGION_OFF_PREV);
+            if (prev == 0L)
+                partial[sizeClass] = next;
+            else
+                UnsafeAllocator.unsafe.putLong(prev + REGION_OFF_NEXT, next);
+            if (next != 0L)
+                UnsafeAllocator.unsafe.putLong(next + REGION_OFF_PREV, prev);
+        }
+    }
+}
@@ -22,6 +22,8 @@ import org.caffinitas.ohc.DirectValueAccess;
 class DirectValueAccessImpl implements DirectValueAccess
 {
     private final long hashEntryAdr;
+    // temporary buffer with a copy of the value, freed on close (instead of dereferencing the hash entry)
+    private final long valueCopyAdr;
     volatile boolean closed;
     private final ByteBuffer buffer;
 
@@ -33,7 +35,20 @@ class DirectValueAccessImpl implements DirectValueAccess
     DirectValueAccessImpl(long hashEntryAdr, long keyLen, long valueLen)
     {
         this.hashEntryAdr = hashEntryAdr;
-        this.buffer = Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA + Util.roundUpTo8(keyLen), valueLen);
+        this.valueCopyAdr = 0L;
+        this.buffer = Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA + keyLen, valueLen);
+    }
+
+    private DirectValueAccessImpl(long valueCopyAdr, long valueLen)
+    {
+        this.hashEntryAdr = 0L;
+        this.valueCopyAdr = valueCopyAdr;
+        this.buffer = Uns.directBufferFor(valueCopyAdr, 0L, valueLen);
+    }
+
+    static DirectValueAccessImpl copyOf(long valueCopyAdr, long valueLen)
+    {
+        return new DirectValueAccessImpl(valueCopyAdr, valueLen);
     }
 
     public ByteBuffer buffer()
@@ -58,7 +73,10 @@ class DirectValueAccessImpl implements DirectValueAccess
         if (!closed)
         {
             closed = true;
-            HashEntries.dereference(hashEntryAdr);
+            if (valueCopyAdr != 0L)
+                Uns.free(valueCopyAdr);
+            else
+                HashEntries.dereference(hashEntryAdr);
         }
     }
 }
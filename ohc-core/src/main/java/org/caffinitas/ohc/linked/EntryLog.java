@@ -0,0 +1,591 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Log-structured storage of hash entries.
+ * <p>
+ * Hash entries are appended to large off-heap chunks - allocating a hash entry is a pointer bump. Each hash entry
+ * is preceded by an 8 byte block header that contains the offset of the block in its chunk and the length of the
+ * hash entry, which is negated when the hash entry is freed. Each chunk counts its live bytes, so freeing a hash
+ * entry does not need a lock.
+ * </p>
+ * <p>
+ * The segment of a hash entry is not known when it is allocated, since the hash is calculated while the key is
+ * serialized into the allocated memory. Chunks are therefore appended to by stripes selected by thread-id.
+ * </p>
+ * <p>
+ * A background thread compacts chunks that are no longer appended to and whose live ratio dropped below
+ * {@link #COMPACT_LIVE_RATIO}: linked hash entries are copied into a new block and replaced in their segment.
+ * Hash entries that are referenced outside of their segment (e.g. by a {@link org.caffinitas.ohc.DirectValueAccess})
+ * are not moved - the chunk is retried later. Once all hash entries have been moved, the chunk is retired and
+ * released by the free of its last hash entry.
+ * </p>
+ * <p>
+ * Chunks can be provided by a memory-mapped {@link EntryLogFile}. Retired chunks of the file are released by the
+ * compactor once their last hash entry has been freed. When the cache is closed, the chunks are frozen - hash
+ * entries freed afterwards are not marked as freed in the file - and check-summed after all hash entries have
+ * been released.
+ * A cache opened on such a file re-inserts the hash entries of all chunks with a valid checksum into their segments.
+ * </p>
+ */
+final class EntryLog
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntryLog.class);
+
+    // offset of number of live bytes in a chunk, RETIRED is added when the chunk is retired
+    private static final long CHUNK_OFF_LIVE = 0L;
+    // offset of the end of the last block in a chunk, set when the chunk is sealed
+    private static final long CHUNK_OFF_LIMIT = 8L;
+    // offset of the CRC32 of the blocks of a chunk, set when a chunk of a storage file is frozen
+    private static final long CHUNK_OFF_CHECKSUM = 16L;
+    private static final long CHUNK_HEADER_LEN = 24L;
+
+    private static final long RETIRED = 1L << 62;
+    // added to the number of live bytes when a chunk of a storage file is frozen
+    private static final long FROZEN = 1L << 61;
+
+    // offset of the offset of a block in its chunk (int)
+    private static final long BLOCK_OFF_CHUNK_OFFSET = 0L;
+    // offset of the length of the hash entry (int), negative if the hash entry has been freed
+    private static final long BLOCK_OFF_LENGTH = 4L;
+    private static final long BLOCK_HEADER_LEN = 8L;
+
+    static final double COMPACT_LIVE_RATIO = .5d;
+    private static final long COMPACT_INTERVAL_MILLIS = 100L;
+
+    static final long MIN_CHUNK_SIZE = 64L * 1024L;
+    static final long MAX_CHUNK_SIZE = 1L << 30;
+    private static final long DEFAULT_MAX_CHUNK_SIZE = 16L * 1024L * 1024L;
+
+    private final OHCacheImpl<?, ?> cache;
+
+    private final long chunkSize;
+    private final int maxChunks;
+    // number of chunks that have not been retired
+    private final AtomicInteger chunks = new AtomicInteger();
+
+    private final Appender[] appenders;
+    private final int appenderMask;
+    // appender for hash entries moved by compaction
+    private final Appender compactionAppender = new Appender();
+
+    // chunks that are no longer appended to - guarded by itself
+    private final List<Long> sealed = new ArrayList<>();
+
+    // memory-mapped file providing the chunks or null
+    private final EntryLogFile file;
+    // retired chunks of the storage file that still contain live hash entries - guarded by itself
+    private final List<Long> retiring = new ArrayList<>();
+
+    private final ScheduledExecutorService compactor;
+    private volatile boolean closed;
+
+    private long relocatedEntries;
+    private long retiredChunks;
+    private long recoveredEntries;
+
+    EntryLog(OHCacheImpl<?, ?> cache, long capacity, int segments, long chunkSize)
+    {
+        this(cache, capacity, segments, chunkSize, null, 0, 0);
+    }
+
+    EntryLog(OHCacheImpl<?, ?> cache, long capacity, int segments, long chunkSize,
+             File storageFile, int hashAlgorithm, int compression)
+    {
+        this.cache = cache;
+
+        int stripes = (int) Util.roundUpToPowerOf2(Math.min(segments, Runtime.getRuntime().availableProcessors()), 1 << 30);
+        appenders = new Appender[stripes];
+        for (int i = 0; i < stripes; i++)
+            appenders[i] = new Appender();
+        appenderMask = stripes - 1;
+
+        if (chunkSize <= 0L)
+            chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(DEFAULT_MAX_CHUNK_SIZE, Util.roundUpToPowerOf2(capacity / (stripes * 8L), MAX_CHUNK_SIZE)));
+        else if (chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE)
+            throw new IllegalArgumentException("Illegal log chunk size " + chunkSize);
+        this.chunkSize = chunkSize;
+
+        // garbage up to the compaction threshold plus the chunks currently appended to
+        long max = (long) (capacity / COMPACT_LIVE_RATIO / (chunkSize - CHUNK_HEADER_LEN)) + stripes + 2L;
+        this.maxChunks = (int) Math.min(max, Integer.MAX_VALUE);
+
+        if (storageFile != null)
+            try
+            {
+                // retired chunks that still contain pinned hash entries need additional slots
+                file = new EntryLogFile(storageFile, chunkSize, (int) Math.min(max * 2L, Integer.MAX_VALUE), hashAlgorithm, compression);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Failed to open storage file " + storageFile, e);
+            }
+        else
+            file = null;
+
+        compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "OHC log compactor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        compactor.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    compact();
+                }
+                catch (Throwable t)
+                {
+                    LOGGER.error("Failed to compact entry log", t);
+                }
+            }
+        }, COMPACT_INTERVAL_MILLIS, COMPACT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    long chunkSize()
+    {
+        return chunkSize;
+    }
+
+    int chunks()
+    {
+        return chunks.get();
+    }
+
+    synchronized long relocatedEntries()
+    {
+        return relocatedEntries;
+    }
+
+    synchronized long retiredChunks()
+    {
+        return retiredChunks;
+    }
+
+    synchronized long recoveredEntries()
+    {
+        return recoveredEntries;
+    }
+
+    /**
+     * Re-inserts the hash entries of a reopened storage file into their segments. Chunks whose checksum does not
+     * match are discarded.
+     */
+    synchronized void recover()
+    {
+        if (file == null)
+            return;
+
+        long now = System.currentTimeMillis();
+        for (long chunk : file.chunks())
+        {
+            long limit = Uns.getLong(chunk, CHUNK_OFF_LIMIT);
+            if (!file.reopened() || limit <= CHUNK_HEADER_LEN || limit > chunkSize
+                || Uns.getLong(chunk, CHUNK_OFF_CHECKSUM) != Uns.crc32(chunk, CHUNK_HEADER_LEN, limit - CHUNK_HEADER_LEN))
+            {
+                if (file.reopened() && limit != 0L)
+                    LOGGER.warn("Discarding chunk with invalid checksum");
+                Uns.putLong(chunk, CHUNK_OFF_LIMIT, 0L);
+                file.release(chunk);
+                continue;
+            }
+
+            chunks.incrementAndGet();
+            Uns.putLong(chunk, CHUNK_OFF_LIVE, Uns.getLong(chunk, CHUNK_OFF_LIVE) & ~FROZEN);
+            synchronized (sealed)
+            {
+                sealed.add(chunk);
+            }
+
+            int len;
+            for (long off = CHUNK_HEADER_LEN; off < limit; off += BLOCK_HEADER_LEN + Util.roundUpTo8(Math.abs(len)))
+            {
+                len = Uns.getInt(chunk, off + BLOCK_OFF_LENGTH);
+                if (len < 0)
+                    continue;
+
+                long block = chunk + off;
+                Uns.allocatedBlock(block, BLOCK_HEADER_LEN);
+                long hashEntryAdr = block + BLOCK_HEADER_LEN;
+                Uns.allocatedBlock(hashEntryAdr, len);
+
+                long hash = HashEntries.getHash(hashEntryAdr);
+                long keyLen = HashEntries.getKeyLen(hashEntryAdr);
+                long expireAt = HashEntries.getExpireAt(hashEntryAdr);
+                long idleExpireAt = HashEntries.getIdleExpireAt(hashEntryAdr);
+                HashEntries.init(hash, keyLen, HashEntries.getValueLen(hashEntryAdr), hashEntryAdr,
+                                 Util.SENTINEL_NOT_PRESENT, HashEntries.getFlags(hashEntryAdr));
+                HashEntries.setExpireAt(hashEntryAdr, expireAt);
+                HashEntries.setIdleExpireAt(hashEntryAdr, idleExpireAt);
+
+                if ((expireAt != 0L && expireAt <= now) || (idleExpireAt != 0L && idleExpireAt <= now)
+                    || !cache.segment(hash).putEntry(hashEntryAdr, hash, keyLen, len, false, 0L, 0L))
+                    free(hashEntryAdr);
+                else
+                    recoveredEntries++;
+            }
+        }
+    }
+
+    /**
+     * Allocates a hash entry in the chunk of the current thread's stripe.
+     *
+     * @return address of the hash entry with {@link Util#FLAG_LOG} set or {@code 0L} if the hash entry is too large
+     * for a chunk or the maximum number of chunks has been reached
+     */
+    long allocate(long bytes)
+    {
+        return allocate(appenders[(int) Thread.currentThread().getId() & appenderMask], bytes);
+    }
+
+    /**
+     * Allocates a hash entry for a hash entry moved by compaction.
+     */
+    long allocateRelocated(long bytes)
+    {
+        return allocate(compactionAppender, bytes);
+    }
+
+    private long allocate(Appender appender, long bytes)
+    {
+        long len = BLOCK_HEADER_LEN + Util.roundUpTo8(bytes);
+        if (len > chunkSize - CHUNK_HEADER_LEN || closed)
+            return 0L;
+
+        synchronized (appender)
+        {
+            if (closed)
+                return 0L;
+            if (appender.chunk == 0L || appender.offset + len > chunkSize)
+                if (!nextChunk(appender))
+                    return 0L;
+
+            long chunk = appender.chunk;
+            long off = appender.offset;
+            appender.offset += len;
+
+            Uns.getAndAddLong(chunk, CHUNK_OFF_LIVE, len);
+            Uns.putInt(chunk, off + BLOCK_OFF_CHUNK_OFFSET, (int) off);
+            Uns.putInt(chunk, off + BLOCK_OFF_LENGTH, (int) bytes);
+
+            long block = chunk + off;
+            Uns.allocatedBlock(block, BLOCK_HEADER_LEN);
+            long hashEntryAdr = block + BLOCK_HEADER_LEN;
+            Uns.allocatedBlock(hashEntryAdr, bytes);
+            HashEntries.setFlags(hashEntryAdr, Util.FLAG_LOG);
+            return hashEntryAdr;
+        }
+    }
+
+    private boolean nextChunk(Appender appender)
+    {
+        if (appender.chunk != 0L)
+        {
+            seal(appender.chunk, appender.offset);
+            appender.chunk = 0L;
+        }
+
+        if (chunks.incrementAndGet() > maxChunks)
+        {
+            chunks.decrementAndGet();
+            return false;
+        }
+        long chunk = file != null ? file.allocate() : Uns.allocate(chunkSize);
+        if (chunk == 0L)
+        {
+            chunks.decrementAndGet();
+            return false;
+        }
+
+        Uns.putLong(chunk, CHUNK_OFF_LIVE, 0L);
+        Uns.putLong(chunk, CHUNK_OFF_LIMIT, 0L);
+        appender.chunk = chunk;
+        appender.offset = CHUNK_HEADER_LEN;
+        return true;
+    }
+
+    private void seal(long chunk, long limit)
+    {
+        Uns.putLong(chunk, CHUNK_OFF_LIMIT, limit);
+        synchronized (sealed)
+        {
+            sealed.add(chunk);
+        }
+    }
+
+    private void retire(long chunk)
+    {
+        chunks.decrementAndGet();
+        if (file == null)
+            addLive(chunk, RETIRED);
+        else
+            synchronized (retiring)
+            {
+                retiring.add(chunk);
+            }
+    }
+
+    /**
+     * Releases retired chunks of the storage file whose last hash entry has been freed.
+     */
+    private void releaseRetired()
+    {
+        synchronized (retiring)
+        {
+            for (Iterator<Long> iter = retiring.iterator(); iter.hasNext(); )
+            {
+                long chunk = iter.next();
+                if (Uns.getLong(chunk, CHUNK_OFF_LIVE) == 0L)
+                {
+                    iter.remove();
+                    Uns.putLong(chunk, CHUNK_OFF_LIMIT, 0L);
+                    file.release(chunk);
+                }
+            }
+        }
+    }
+
+    private static void addLive(long chunk, long delta)
+    {
+        // only one thread can observe the transition to "retired and no live bytes"
+        if (Uns.getAndAddLong(chunk, CHUNK_OFF_LIVE, delta) + delta == RETIRED)
+            Uns.free(chunk);
+    }
+
+    /**
+     * Frees a hash entry allocated via {@link #allocate(long)}.
+     */
+    static void free(long hashEntryAdr)
+    {
+        long block = hashEntryAdr - BLOCK_HEADER_LEN;
+        long off = Uns.getInt(block, BLOCK_OFF_CHUNK_OFFSET);
+        long chunk = block - off;
+        int bytes = Uns.getInt(block, BLOCK_OFF_LENGTH);
+        // the hash entry stays in the storage file
+        boolean frozen = (Uns.getLong(chunk, CHUNK_OFF_LIVE) & FROZEN) != 0L;
+        if (!frozen)
+            Uns.putInt(block, BLOCK_OFF_LENGTH, -bytes);
+
+        Uns.freedBlock(hashEntryAdr);
+        Uns.freedBlock(block);
+
+        if (!frozen)
+            addLive(chunk, -(BLOCK_HEADER_LEN + Util.roundUpTo8(bytes)));
+    }
+
+    /**
+     * Moves the hash entries out of all sealed chunks whose live ratio is below {@link #COMPACT_LIVE_RATIO}
+     * and retires these chunks.
+     */
+    synchronized void compact()
+    {
+        if (file != null)
+            releaseRetired();
+
+        List<Long> candidates;
+        synchronized (sealed)
+        {
+            candidates = new ArrayList<>(sealed);
+        }
+
+        for (Long chunk : candidates)
+        {
+            if (closed)
+                return;
+
+            long limit = Uns.getLong(chunk, CHUNK_OFF_LIMIT);
+            long live = Uns.getLong(chunk, CHUNK_OFF_LIVE);
+            if (live > (limit - CHUNK_HEADER_LEN) * COMPACT_LIVE_RATIO)
+                continue;
+
+            if (!relocateAll(chunk, limit))
+                // retry later
+                continue;
+
+            synchronized (sealed)
+            {
+                sealed.remove(chunk);
+            }
+            retire(chunk);
+            retiredChunks++;
+        }
+    }
+
+    private boolean relocateAll(long chunk, long limit)
+    {
+        boolean all = true;
+        int len;
+        for (long off = CHUNK_HEADER_LEN; off < limit; off += BLOCK_HEADER_LEN + Util.roundUpTo8(Math.abs(len)))
+        {
+            len = Uns.getInt(chunk, off + BLOCK_OFF_LENGTH);
+            if (len < 0)
+                continue;
+
+            // the hash entry might be freed concurrently - the segment only moves it, if it is still linked
+            long hash = Uns.getLong(chunk, off + BLOCK_HEADER_LEN + Util.ENTRY_OFF_HASH);
+            if (cache.segment(hash).relocateEntry(chunk + off + BLOCK_HEADER_LEN, hash, this))
+                relocatedEntries++;
+            else
+                all = false;
+        }
+        return all;
+    }
+
+    /**
+     * Stops the compactor and retires all chunks - chunks are released when their last hash entry is freed.
+     * Chunks of a storage file are frozen instead, see {@link #release()}.
+     */
+    void close()
+    {
+        closed = true;
+        compactor.shutdown();
+        try
+        {
+            compactor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            // ignored
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this)
+        {
+            if (file != null)
+            {
+                closeFile();
+                return;
+            }
+
+            for (Appender appender : appenders)
+                closeAppender(appender);
+            closeAppender(compactionAppender);
+
+            synchronized (sealed)
+            {
+                for (Long chunk : sealed)
+                    retire(chunk);
+                sealed.clear();
+            }
+        }
+    }
+
+    /**
+     * Check-sums the frozen chunks of the storage file, closes the file and unmaps the chunks. Must be called
+     * after all hash entries have been freed, since unlinking a hash entry modifies its header.
+     */
+    void release()
+    {
+        if (file == null)
+            return;
+
+        synchronized (sealed)
+        {
+            for (Long chunk : sealed)
+            {
+                long limit = Uns.getLong(chunk, CHUNK_OFF_LIMIT);
+                Uns.putLong(chunk, CHUNK_OFF_CHECKSUM, Uns.crc32(chunk, CHUNK_HEADER_LEN, limit - CHUNK_HEADER_LEN));
+            }
+            sealed.clear();
+        }
+
+        try
+        {
+            file.close();
+        }
+        catch (IOException e)
+        {
+            LOGGER.error("Failed to close storage file", e);
+        }
+        file.unmap();
+    }
+
+    private void closeFile()
+    {
+        for (Appender appender : appenders)
+            sealAppender(appender);
+        sealAppender(compactionAppender);
+
+        // hash entries in retired chunks have been moved
+        synchronized (retiring)
+        {
+            for (Long chunk : retiring)
+            {
+                Uns.putLong(chunk, CHUNK_OFF_LIMIT, 0L);
+                file.release(chunk);
+            }
+            retiring.clear();
+        }
+
+        synchronized (sealed)
+        {
+            for (Long chunk : sealed)
+                Uns.getAndAddLong(chunk, CHUNK_OFF_LIVE, FROZEN);
+        }
+    }
+
+    private void sealAppender(Appender appender)
+    {
+        synchronized (appender)
+        {
+            if (appender.chunk != 0L)
+            {
+                seal(appender.chunk, appender.offset);
+                appender.chunk = 0L;
+            }
+        }
+    }
+
+    private void closeAppender(Appender appender)
+    {
+        synchronized (appender)
+        {
+            if (appender.chunk != 0L)
+            {
+                retire(appender.chunk);
+                appender.chunk = 0L;
+            }
+        }
+    }
+
+    private static final class Appender
+    {
+        // chunk appended to - blocks are appended at 'offset'
+        long chunk;
+        long offset;
+    }
+}
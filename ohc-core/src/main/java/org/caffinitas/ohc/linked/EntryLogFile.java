@@ -0,0 +1,246 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Memory-mapped file that provides the chunks of a persistent {@link EntryLog}.
+ * <p>
+ * The file starts with a header page followed by slots of the chunk size. Each slot is mapped individually
+ * when it is used for the first time and stays mapped until the file is closed - released slots are reused.
+ * </p>
+ * <p>
+ * Hash entries only refer to other hash entries by address in their LRU and bucket pointers, which are rebuilt
+ * when the file is reopened. Block headers store offsets in their chunk, so the content of a chunk does not
+ * depend on the address it is mapped to.
+ * </p>
+ * <p>
+ * The header is only marked as cleanly closed after all chunks have been check-summed and forced to the file.
+ * The mark is removed when the file is opened, so the file of a crashed process is discarded.
+ * </p>
+ */
+final class EntryLogFile
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntryLogFile.class);
+
+    // 'OHCL'
+    private static final int MAGIC = 0x4f48434c;
+    // version 3: 64 byte hash entry header, refresh-after-write timestamp after the value (version 2 had it in
+    // a 72 byte header)
+    private static final int VERSION = 3;
+
+    // offset of magic (int)
+    private static final long HEADER_OFF_MAGIC = 0L;
+    // offset of file format version (int)
+    private static final long HEADER_OFF_VERSION = 4L;
+    // offset of chunk size
+    private static final long HEADER_OFF_CHUNK_SIZE = 8L;
+    // offset of the ordinal of the hash algorithm (int)
+    private static final long HEADER_OFF_HASH_ALGORITHM = 16L;
+    // offset of the ordinal of the compression algorithm or -1 (int)
+    private static final long HEADER_OFF_COMPRESSION = 20L;
+    // offset of the number of slots in the file (int)
+    private static final long HEADER_OFF_SLOTS = 24L;
+    // offset of the cleanly-closed mark (int)
+    private static final long HEADER_OFF_CLEAN = 28L;
+    // offset of the CRC32 of the preceding header fields
+    private static final long HEADER_OFF_CHECKSUM = 32L;
+    private static final long HEADER_LEN = 4096L;
+
+    private final File path;
+    private final FileChannel channel;
+    private final long chunkSize;
+    private final int maxSlots;
+
+    private final MappedByteBuffer header;
+    private final long headerAdr;
+
+    // mapped slots - guarded by this
+    private final List<MappedByteBuffer> mapped = new ArrayList<>();
+    private final Map<Long, Integer> slotOf = new HashMap<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+
+    private final boolean reopened;
+
+    EntryLogFile(File path, long chunkSize, int maxSlots, int hashAlgorithm, int compression) throws IOException
+    {
+        this.path = path;
+        this.chunkSize = chunkSize;
+        this.maxSlots = maxSlots;
+
+        channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            boolean exists = channel.size() >= HEADER_LEN;
+
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0L, HEADER_LEN);
+            headerAdr = Uns.directBufferAddress(header);
+            Uns.allocatedBlock(headerAdr, HEADER_LEN);
+
+            int slots = exists ? validHeader(hashAlgorithm, compression) : -1;
+            reopened = slots >= 0;
+            if (reopened)
+            {
+                for (int slot = 0; slot < slots; slot++)
+                    map(slot);
+                LOGGER.info("Reopened storage file {} with {} chunks", path, slots);
+            }
+            else
+            {
+                if (exists)
+                    LOGGER.warn("Storage file {} has not been closed cleanly or does not match the configuration - discarding its content", path);
+                channel.truncate(HEADER_LEN);
+                Uns.setMemory(headerAdr, 0L, HEADER_LEN, (byte) 0);
+                Uns.putInt(headerAdr, HEADER_OFF_MAGIC, MAGIC);
+                Uns.putInt(headerAdr, HEADER_OFF_VERSION, VERSION);
+                Uns.putLong(headerAdr, HEADER_OFF_CHUNK_SIZE, chunkSize);
+                Uns.putInt(headerAdr, HEADER_OFF_HASH_ALGORITHM, hashAlgorithm);
+                Uns.putInt(headerAdr, HEADER_OFF_COMPRESSION, compression);
+            }
+
+            // a crash leaves the file marked as not cleanly closed
+            writeHeader(false);
+        }
+        catch (IOException | RuntimeException | Error e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private int validHeader(int hashAlgorithm, int compression)
+    {
+        if (Uns.getInt(headerAdr, HEADER_OFF_MAGIC) != MAGIC
+            || Uns.getInt(headerAdr, HEADER_OFF_VERSION) != VERSION
+            || Uns.getLong(headerAdr, HEADER_OFF_CHECKSUM) != Uns.crc32(headerAdr, 0L, HEADER_OFF_CHECKSUM)
+            || Uns.getInt(headerAdr, HEADER_OFF_CLEAN) != 1
+            || Uns.getLong(headerAdr, HEADER_OFF_CHUNK_SIZE) != chunkSize
+            || Uns.getInt(headerAdr, HEADER_OFF_HASH_ALGORITHM) != hashAlgorithm
+            || Uns.getInt(headerAdr, HEADER_OFF_COMPRESSION) != compression)
+            return -1;
+        return Uns.getInt(headerAdr, HEADER_OFF_SLOTS);
+    }
+
+    private void writeHeader(boolean clean)
+    {
+        Uns.putInt(headerAdr, HEADER_OFF_SLOTS, mapped.size());
+        Uns.putInt(headerAdr, HEADER_OFF_CLEAN, clean ? 1 : 0);
+        Uns.putLong(headerAdr, HEADER_OFF_CHECKSUM, Uns.crc32(headerAdr, 0L, HEADER_OFF_CHECKSUM));
+        header.force();
+    }
+
+    private long map(int slot) throws IOException
+    {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_LEN + slot * chunkSize, chunkSize);
+        long chunk = Uns.directBufferAddress(buffer);
+        Uns.allocatedBlock(chunk, chunkSize);
+        mapped.add(buffer);
+        slotOf.put(chunk, slot);
+        return chunk;
+    }
+
+    /**
+     * @return whether the file has been cleanly closed before and its chunks are returned by {@link #chunks()}
+     */
+    boolean reopened()
+    {
+        return reopened;
+    }
+
+    /**
+     * @return addresses of all mapped chunks - chunks that do not contain valid data must be {@link #release(long) released}
+     */
+    synchronized long[] chunks()
+    {
+        long[] chunks = new long[mapped.size()];
+        for (int slot = 0; slot < chunks.length; slot++)
+            chunks[slot] = Uns.directBufferAddress(mapped.get(slot));
+        return chunks;
+    }
+
+    /**
+     * @return address of an unused chunk or {@code 0L} if the maximum number of slots has been reached
+     */
+    synchronized long allocate()
+    {
+        Integer slot = freeSlots.pollFirst();
+        if (slot != null)
+            return Uns.directBufferAddress(mapped.get(slot));
+
+        if (mapped.size() >= maxSlots)
+            return 0L;
+        try
+        {
+            long chunk = map(mapped.size());
+            Uns.putInt(headerAdr, HEADER_OFF_SLOTS, mapped.size());
+            return chunk;
+        }
+        catch (IOException e)
+        {
+            LOGGER.error("Failed to map chunk of storage file " + path, e);
+            return 0L;
+        }
+    }
+
+    synchronized void release(long chunk)
+    {
+        freeSlots.addFirst(slotOf.get(chunk));
+    }
+
+    /**
+     * Drops the references to the mapped chunks - the mappings are removed when these are garbage collected.
+     */
+    synchronized void unmap()
+    {
+        for (MappedByteBuffer buffer : mapped)
+            Uns.freedBlock(Uns.directBufferAddress(buffer));
+        mapped.clear();
+        slotOf.clear();
+        freeSlots.clear();
+        Uns.freedBlock(headerAdr);
+    }
+
+    /**
+     * Forces all chunks to the file and marks the file as cleanly closed.
+     */
+    synchronized void close() throws IOException
+    {
+        try
+        {
+            for (MappedByteBuffer buffer : mapped)
+                buffer.force();
+            writeHeader(true);
+        }
+        finally
+        {
+            // mapped chunks stay valid after the channel has been closed
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import org.caffinitas.ohc.Eviction;
+import org.caffinitas.ohc.OHCacheBuilder;
+
+/**
+ * Replacement strategy of a segment.
+ * <p>
+ * Implementations maintain one or more doubly linked LRU queues using the LRU pointers of the hash entries.
+ * The queue a hash entry is linked in is stored in the hash entry header, so there are no on-heap
+ * objects per hash entry.
+ * </p>
+ * <p>
+ * All methods must be called while holding the segment lock.
+ * </p>
+ */
+abstract class EvictionPolicy
+{
+    static EvictionPolicy create(OHCacheBuilder builder, long capacity, int hashTableSize)
+    {
+        Eviction eviction = builder.getEviction();
+        if (eviction == null)
+            eviction = Eviction.LRU;
+        switch (eviction)
+        {
+            case LRU:
+                return new Lru();
+            case W_TINY_LFU:
+                return new WTinyLfu(capacity, builder.getWindowSize(), hashTableSize, builder.isThrowOOME());
+            default:
+                throw new IllegalArgumentException("eviction " + eviction + " not supported by linked implementation");
+        }
+    }
+
+    private final long[] heads;
+    private final long[] tails;
+    private final long[] bytes;
+
+    EvictionPolicy(int queues)
+    {
+        heads = new long[queues];
+        tails = new long[queues];
+        bytes = new long[queues];
+    }
+
+    /**
+     * Called after a new hash entry has been linked in the hash table.
+     */
+    abstract void added(long hashEntryAdr, long hash);
+
+    /**
+     * Called for a hash entry that has been accessed.
+     */
+    abstract void accessed(long hashEntryAdr, long hash);
+
+    /**
+     * Chooses the next hash entry to evict - the returned hash entry must then be removed from the segment.
+     *
+     * @return address of the hash entry to evict or {@code 0L} if the segment is empty
+     */
+    abstract long victim();
+
+    /**
+     * Called for a lookup of a key that is not in the segment.
+     */
+    void missed(long hash)
+    {
+    }
+
+    /**
+     * Whether {@link #missed(long)} needs to be called at all.
+     */
+    boolean tracksMisses()
+    {
+        return false;
+    }
+
+    /**
+     * Called for a hash entry that has been unlinked from the hash table.
+     */
+    void removed(long hashEntryAdr)
+    {
+        int queue = HashEntries.getQueue(hashEntryAdr);
+        unlink(queue, hashEntryAdr);
+        bytes[queue] -= HashEntries.getAllocLen(hashEntryAdr);
+    }
+
+    /**
+     * Called for a hash entry that has been replaced in the hash table - the new hash entry takes the
+     * position of the replaced one.
+     */
+    void replaced(long hashEntryAdr, long newHashEntryAdr)
+    {
+        int queue = HashEntries.getQueue(hashEntryAdr);
+
+        long next = HashEntries.getLRUNext(hashEntryAdr);
+        long prev = HashEntries.getLRUPrev(hashEntryAdr);
+
+        HashEntries.setLRUNext(newHashEntryAdr, next);
+        HashEntries.setLRUPrev(newHashEntryAdr, prev);
+        HashEntries.setQueue(newHashEntryAdr, queue);
+
+        if (heads[queue] == hashEntryAdr)
+            heads[queue] = newHashEntryAdr;
+        if (tails[queue] == hashEntryAdr)
+            tails[queue] = newHashEntryAdr;
+
+        if (next != 0L)
+            HashEntries.setLRUPrev(next, newHashEntryAdr);
+        if (prev != 0L)
+            HashEntries.setLRUNext(prev, newHashEntryAdr);
+
+        bytes[queue] += HashEntries.getAllocLen(newHashEntryAdr) - HashEntries.getAllocLen(hashEntryAdr);
+    }
+
+    void clear()
+    {
+        for (int q = 0; q < heads.length; q++)
+            heads[q] = tails[q] = bytes[q] = 0L;
+    }
+
+    /**
+     * Called after the capacity of the segment has been changed.
+     */
+    void updateCapacity(long diff)
+    {
+    }
+
+    /**
+     * Called after the hash table has been resized.
+     */
+    void resize(int hashTableSize)
+    {
+    }
+
+    void release()
+    {
+    }
+
+    /**
+     * Fills the given array with the hottest hash entries.
+     */
+    abstract void fillHotN(long[] r);
+
+    final int fillHotN(int queue, long[] r, int c)
+    {
+        for (long hashEntryAdr = heads[queue];
+             hashEntryAdr != 0L && c < r.length;
+             hashEntryAdr = HashEntries.getLRUNext(hashEntryAdr))
+            r[c++] = hashEntryAdr;
+        return c;
+    }
+
+    final long tail(int queue)
+    {
+        return tails[queue];
+    }
+
+    final long bytes(int queue)
+    {
+        return bytes[queue];
+    }
+
+    /**
+     * Links the hash entry as the head of the given queue.
+     */
+    final void addFirst(int queue, long hashEntryAdr)
+    {
+        link(queue, hashEntryAdr);
+        bytes[queue] += HashEntries.getAllocLen(hashEntryAdr);
+    }
+
+    /**
+     * Moves the hash entry to the head of the given queue.
+     */
+    final void moveToFront(int queue, long hashEntryAdr)
+    {
+        int current = HashEntries.getQueue(hashEntryAdr);
+        if (current == queue)
+        {
+            if (heads[queue] == hashEntryAdr)
+                // short-cut - entry already at head
+                return;
+            unlink(queue, hashEntryAdr);
+            link(queue, hashEntryAdr);
+            return;
+        }
+
+        long allocLen = HashEntries.getAllocLen(hashEntryAdr);
+        unlink(current, hashEntryAdr);
+        bytes[current] -= allocLen;
+        link(queue, hashEntryAdr);
+        bytes[queue] += allocLen;
+    }
+
+    private void link(int queue, long hashEntryAdr)
+    {
+        long head = heads[queue];
+        HashEntries.setLRUNext(hashEntryAdr, head);
+        HashEntries.setLRUPrev(hashEntryAdr, 0L);
+        HashEntries.setQueue(hashEntryAdr, queue);
+        if (head != 0L)
+            HashEntries.setLRUPrev(head, hashEntryAdr);
+        heads[queue] = hashEntryAdr;
+
+        if (tails[queue] == 0L)
+            tails[queue] = hashEntryAdr;
+    }
+
+    private void unlink(int queue, long hashEntryAdr)
+    {
+        long next = HashEntries.getLRUNext(hashEntryAdr);
+        long prev = HashEntries.getLRUPrev(hashEntryAdr);
+
+        if (heads[queue] == hashEntryAdr)
+            heads[queue] = next;
+        if (tails[queue] == hashEntryAdr)
+            tails[queue] = prev;
+
+        if (next != 0L)
+            HashEntries.setLRUPrev(next, prev);
+        if (prev != 0L)
+            HashEntries.setLRUNext(prev, next);
+    }
+
+    static final class Lru extends EvictionPolicy
+    {
+        Lru()
+        {
+            super(1);
+        }
+
+        void added(long hashEntryAdr, long hash)
+        {
+            addFirst(0, hashEntryAdr);
+        }
+
+        void accessed(long hashEntryAdr, long hash)
+        {
+            moveToFront(0, hashEntryAdr);
+        }
+
+        long victim()
+        {
+            return tail(0);
+        }
+
+        void fillHotN(long[] r)
+        {
+            fillHotN(0, r, 0);
+        }
+    }
+
+    /**
+     * Window TinyLFU.
+     * <p>
+     * New hash entries are added to the LRU <i>window</i> queue. If the window exceeds its size, its eldest hash entry
+     * (the <i>candidate</i>) is moved to the <i>probation</i> queue as long as the main space (probation + protected)
+     * is not full. Otherwise the candidate is only admitted to the probation queue if its estimated access frequency
+     * is higher than the one of the eldest probation hash entry (the <i>victim</i>) - the loser gets evicted.
+     * Hits in the probation queue promote the hash entry to the <i>protected</i> queue, whose eldest hash entries
+     * are demoted to probation if the protected queue exceeds 80% of the main space.
+     * </p>
+     */
+    static final class WTinyLfu extends EvictionPolicy
+    {
+        private static final int WINDOW = 0;
+        private static final int PROBATION = 1;
+        private static final int PROTECTED = 2;
+
+        private final float windowSize;
+        private long capacity;
+        private long windowMax;
+        private long mainMax;
+        private long protectedMax;
+
+        private final FrequencySketch sketch;
+
+        WTinyLfu(long capacity, float windowSize, int hashTableSize, boolean throwOOME)
+        {
+            super(3);
+
+            if (windowSize < 0f || windowSize >= 1f)
+                throw new IllegalArgumentException("window size must be between 0 and 1");
+            this.windowSize = windowSize;
+            this.capacity = capacity;
+            limits();
+
+            this.sketch = new FrequencySketch(hashTableSize, throwOOME);
+        }
+
+        void added(long hashEntryAdr, long hash)
+        {
+            sketch.increment(hash);
+
+            addFirst(WINDOW, hashEntryAdr);
+
+            // move candidates to probation while the main space is not full
+            while (bytes(WINDOW) > windowMax)
+            {
+                long candidate = tail(WINDOW);
+                if (candidate == hashEntryAdr
+                    || bytes(PROBATION) + bytes(PROTECTED) + HashEntries.getAllocLen(candidate) > mainMax)
+                    break;
+                moveToFront(PROBATION, candidate);
+            }
+        }
+
+        void accessed(long hashEntryAdr, long hash)
+        {
+            sketch.increment(hash);
+
+            switch (HashEntries.getQueue(hashEntryAdr))
+            {
+                case WINDOW:
+                    moveToFront(WINDOW, hashEntryAdr);
+                    break;
+                case PROBATION:
+                    moveToFront(PROTECTED, hashEntryAdr);
+                    while (bytes(PROTECTED) > protectedMax)
+                    {
+                        long demote = tail(PROTECTED);
+                        if (demote == hashEntryAdr)
+                            break;
+                        moveToFront(PROBATION, demote);
+                    }
+                    break;
+                case PROTECTED:
+                    moveToFront(PROTECTED, hashEntryAdr);
+                    break;
+            }
+        }
+
+        long victim()
+        {
+            long candidate = bytes(WINDOW) > windowMax ? tail(WINDOW) : 0L;
+
+            long victim = tail(PROBATION);
+            if (victim == 0L)
+                victim = tail(PROTECTED);
+
+            if (candidate == 0L)
+                return victim != 0L ? victim : tail(WINDOW);
+            if (victim == 0L)
+                return candidate;
+
+            if (sketch.frequency(HashEntries.getHash(candidate)) > sketch.frequency(HashEntries.getHash(victim)))
+            {
+                // admit candidate
+                moveToFront(PROBATION, candidate);
+                return victim;
+            }
+            return candidate;
+        }
+
+        void fillHotN(long[] r)
+        {
+            int c = fillHotN(PROTECTED, r, 0);
+            c = fillHotN(WINDOW, r, c);
+            fillHotN(PROBATION, r, c);
+        }
+
+        private void limits()
+        {
+            windowMax = (long) (capacity * (double) windowSize);
+            mainMax = capacity - windowMax;
+            protectedMax = (long) (mainMax * .8d);
+        }
+
+        void updateCapacity(long diff)
+        {
+            capacity += diff;
+            limits();
+        }
+
+        void missed(long hash)
+        {
+            sketch.increment(hash);
+        }
+
+        boolean tracksMisses()
+        {
+            return true;
+        }
+
+        void resize(int hashTableSize)
+        {
+            sketch.ensureCapacity(hashTableSize);
+        }
+
+        void release()
+        {
+            sketch.release();
+        }
+    }
+}
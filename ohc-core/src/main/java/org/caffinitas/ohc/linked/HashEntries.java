@@ -21,13 +21,24 @@ package org.caffinitas.ohc.linked;
 final class HashEntries
 {
     static void init(long hash, long keyLen, long valueLen, long hashEntryAdr, int sentinel)
+    {
+        init(hash, keyLen, valueLen, hashEntryAdr, sentinel, 0);
+    }
+
+    static void init(long hash, long keyLen, long valueLen, long hashEntryAdr, int sentinel, int flags)
     {
         Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_HASH, hash);
         setNext(hashEntryAdr, 0L);
-        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_KEY_LENGTH, keyLen);
-        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_VALUE_LENGTH, valueLen);
+        Uns.putInt(hashEntryAdr, Util.ENTRY_OFF_KEY_LENGTH, (int) keyLen);
+        Uns.putInt(hashEntryAdr, Util.ENTRY_OFF_VALUE_LENGTH, (int) valueLen);
         Uns.putInt(hashEntryAdr, Util.ENTRY_OFF_REFCOUNT, 1);
-        Uns.putInt(hashEntryAdr, Util.ENTRY_OFF_SENTINEL, sentinel);
+        Uns.putByte(hashEntryAdr, Util.ENTRY_OFF_SENTINEL, (byte) sentinel);
+        Uns.putByte(hashEntryAdr, Util.ENTRY_OFF_QUEUE, (byte) 0);
+        Uns.putByte(hashEntryAdr, Util.ENTRY_OFF_FLAGS, (byte) flags);
+        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_EXPIRE_AT, 0L);
+        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_IDLE_EXPIRE_AT, 0L);
+        if ((flags & Util.FLAG_REFRESH) != 0)
+            Uns.putLong(hashEntryAdr, Util.refreshAtOffset(keyLen, valueLen), 0L);
     }
 
     static boolean compareKey(long hashEntryAdr, KeyBuffer key, long serKeyLen)
@@ -35,6 +46,9 @@ final class HashEntries
         if (hashEntryAdr == 0L)
             return false;
 
+        if (key.isScratch())
+            return compare(hashEntryAdr, Util.ENTRY_OFF_DATA, key.address(), 0L, serKeyLen);
+
         long blkOff = Util.ENTRY_OFF_DATA;
         int p = 0;
         byte[] arr = key.array();
@@ -118,13 +132,115 @@ final class HashEntries
 
     static int getSentinel(long hashEntryAdr)
     {
-        return hashEntryAdr != 0L ? Uns.getInt(hashEntryAdr, Util.ENTRY_OFF_SENTINEL) : 0;
+        return hashEntryAdr != 0L ? Uns.getByte(hashEntryAdr, Util.ENTRY_OFF_SENTINEL) : 0;
     }
 
     static void setSentinel(long hashEntryAdr, int sentinelState)
     {
         if (hashEntryAdr != 0L)
-            Uns.putInt(hashEntryAdr, Util.ENTRY_OFF_SENTINEL, sentinelState);
+            Uns.putByte(hashEntryAdr, Util.ENTRY_OFF_SENTINEL, (byte) sentinelState);
+    }
+
+    static int getQueue(long hashEntryAdr)
+    {
+        return Uns.getByte(hashEntryAdr, Util.ENTRY_OFF_QUEUE);
+    }
+
+    static void setQueue(long hashEntryAdr, int queue)
+    {
+        Uns.putByte(hashEntryAdr, Util.ENTRY_OFF_QUEUE, (byte) queue);
+    }
+
+    static int getFlags(long hashEntryAdr)
+    {
+        return Uns.getByte(hashEntryAdr, Util.ENTRY_OFF_FLAGS);
+    }
+
+    static void setFlags(long hashEntryAdr, int flags)
+    {
+        Uns.putByte(hashEntryAdr, Util.ENTRY_OFF_FLAGS, (byte) flags);
+    }
+
+    static int getRefCount(long hashEntryAdr)
+    {
+        return Uns.getInt(hashEntryAdr, Util.ENTRY_OFF_REFCOUNT);
+    }
+
+    static void setRefCount(long hashEntryAdr, int refCount)
+    {
+        Uns.putInt(hashEntryAdr, Util.ENTRY_OFF_REFCOUNT, refCount);
+    }
+
+    static long getExpireAt(long hashEntryAdr)
+    {
+        return Uns.getLong(hashEntryAdr, Util.ENTRY_OFF_EXPIRE_AT);
+    }
+
+    static void setExpireAt(long hashEntryAdr, long expireAt)
+    {
+        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_EXPIRE_AT, expireAt);
+    }
+
+    static long getIdleExpireAt(long hashEntryAdr)
+    {
+        return Uns.getLong(hashEntryAdr, Util.ENTRY_OFF_IDLE_EXPIRE_AT);
+    }
+
+    static void setIdleExpireAt(long hashEntryAdr, long idleExpireAt)
+    {
+        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_IDLE_EXPIRE_AT, idleExpireAt);
+    }
+
+    /**
+     * @return the refresh-after-write timestamp or {@code 0L} if no refresh is due or the hash entry has no
+     * refresh-after-write timestamp
+     */
+    static long getRefreshAt(long hashEntryAdr)
+    {
+        if ((getFlags(hashEntryAdr) & Util.FLAG_REFRESH) == 0)
+            return 0L;
+        return Uns.getLong(hashEntryAdr, refreshAtOffset(hashEntryAdr));
+    }
+
+    /**
+     * Sets the refresh-after-write timestamp, if the hash entry has one.
+     */
+    static void setRefreshAt(long hashEntryAdr, long refreshAt)
+    {
+        if ((getFlags(hashEntryAdr) & Util.FLAG_REFRESH) != 0)
+            Uns.putLong(hashEntryAdr, refreshAtOffset(hashEntryAdr), refreshAt);
+    }
+
+    /**
+     * Atomically clears the refresh-after-write timestamp, if it is still the given one.
+     * Must only be called for hash entries with a refresh-after-write timestamp.
+     *
+     * @return {@code true} if the caller is responsible for the refresh
+     */
+    static boolean claimRefresh(long hashEntryAdr, long refreshAt)
+    {
+        return Uns.compareAndSwapLong(hashEntryAdr, refreshAtOffset(hashEntryAdr), refreshAt, 0L);
+    }
+
+    private static long refreshAtOffset(long hashEntryAdr)
+    {
+        return Util.refreshAtOffset(getKeyLen(hashEntryAdr), getValueLen(hashEntryAdr));
+    }
+
+    /**
+     * Returns the earlier one of the time-to-live and max-idle expiration timestamps.
+     *
+     * @return expiration timestamp or {@code 0L} if the hash entry does not expire
+     */
+    static long getDeadline(long hashEntryAdr)
+    {
+        long expireAt = getExpireAt(hashEntryAdr);
+        long idleExpireAt = getIdleExpireAt(hashEntryAdr);
+        if (expireAt == 0L)
+            return idleExpireAt;
+        if (idleExpireAt == 0L)
+            return expireAt;
+        return Math.min(expireAt, idleExpireAt);
     }
 
     static void setNext(long hashEntryAdr, long nextAdr)
@@ -137,17 +253,17 @@ final class HashEntries
 
     static long getKeyLen(long hashEntryAdr)
     {
-        return Uns.getLong(hashEntryAdr, Util.ENTRY_OFF_KEY_LENGTH);
+        return Uns.getInt(hashEntryAdr, Util.ENTRY_OFF_KEY_LENGTH);
     }
 
     static long getValueLen(long hashEntryAdr)
     {
-        return Uns.getLong(hashEntryAdr, Util.ENTRY_OFF_VALUE_LENGTH);
+        return Uns.getInt(hashEntryAdr, Util.ENTRY_OFF_VALUE_LENGTH);
     }
 
     static long getAllocLen(long address)
     {
-        return Util.allocLen(getKeyLen(address), getValueLen(address));
+        return Util.allocLen(getKeyLen(address), getValueLen(address), getFlags(address));
     }
 
     static void reference(long hashEntryAdr)
@@ -159,9 +275,20 @@ final class HashEntries
     {
         if (Uns.decrement(hashEntryAdr, Util.ENTRY_OFF_REFCOUNT))
         {
-            Uns.free(hashEntryAdr);
+            free(hashEntryAdr);
             return true;
         }
         return false;
     }
+
+    /**
+     * Releases the memory of a hash entry, either allocated individually or stored in the entry log.
+     */
+    static void free(long hashEntryAdr)
+    {
+        if ((getFlags(hashEntryAdr) & Util.FLAG_LOG) != 0)
+            EntryLog.free(hashEntryAdr);
+        else
+            Uns.free(hashEntryAdr);
+    }
 }
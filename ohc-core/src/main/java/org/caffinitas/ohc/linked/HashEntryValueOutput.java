@@ -24,7 +24,7 @@ final class HashEntryValueOutput extends AbstractOffHeapDataOutput
 {
     HashEntryValueOutput(long hashEntryAdr, long keyLen, long valueLen)
     {
-        super(hashEntryAdr, Util.ENTRY_OFF_DATA + Util.roundUpTo8(keyLen), valueLen);
+        super(hashEntryAdr, Util.ENTRY_OFF_DATA + keyLen, valueLen);
     }
 
     HashEntryValueOutput(long hashEntryAdr, long valueLen)
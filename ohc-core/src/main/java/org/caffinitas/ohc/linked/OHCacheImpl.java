@@ -16,29 +16,51 @@
 package org.caffinitas.ohc.linked;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.caffinitas.ohc.BulkCacheLoader;
 import org.caffinitas.ohc.CacheLoader;
 import org.caffinitas.ohc.CacheSerializer;
 import org.caffinitas.ohc.DirectValueAccess;
@@ -54,14 +76,69 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(OHCacheImpl.class);
 
+    // bounds the hash entries allocated ahead by putAll() and the time a segment lock is held by bulk operations
+    static final int BULK_BATCH_SIZE = 1024;
+
+    // snapshot files are written with gathering writes of up to this number of hash entries or bytes
+    private static final int SNAPSHOT_BATCH_ENTRIES = 512;
+    private static final long SNAPSHOT_BATCH_BYTES = 4L * 1024 * 1024;
+    private static final int SNAPSHOT_READ_BUFFER = 1024 * 1024;
+    private static final String SNAPSHOT_MANIFEST = "manifest";
+
+    // outcomes of deserializing a single entry
+    private static final int ENTRY_END = 0;
+    private static final int ENTRY_NOT_ADDED = 1;
+    private static final int ENTRY_ADDED = 2;
+
+    // number of pool slots tried for a scratch key buffer before falling back to a heap key buffer
+    private static final int SCRATCH_KEY_PROBES = 4;
+
     private final CacheSerializer<K> keySerializer;
     private final CacheSerializer<V> valueSerializer;
 
+    // fixed pool of reusable off-heap key buffers for single key operations, freed on close() - bounded, so that
+    // short-living threads do not accumulate off-heap memory
+    private final KeyBuffer[] scratchKeyBuffers;
+
+    // reusable buffer views of each thread to write values to channels
+    private final ThreadLocal<ChannelViews> channelViews = new ThreadLocal<>();
+
+    // average duration of CacheLoader.load calls, used for early refreshes
+    private volatile long loadNanos;
+
+    // loads in progress by the address of their sentinel hash entry, completed when the sentinel has its final status
+    private final ConcurrentMap<Long, SettableFuture<Void>> loadsInFlight = new ConcurrentHashMap<>();
+
+    // completes load waiters on the executor service - or on the calling thread if the executor service rejects
+    // the task (e.g. during shutdown), since each waiter holds a reference to the sentinel hash entry
+    private final Executor waiterExecutor = new Executor()
+    {
+        public void execute(Runnable command)
+        {
+            try
+            {
+                executorService.execute(command);
+            }
+            catch (RejectedExecutionException e)
+            {
+                command.run();
+            }
+        }
+    };
+
+    // bulk loads collecting getWithLoader misses per bulk cache loader, guarded by itself
+    private final Map<BulkCacheLoader<K, V>, BulkLoad> coalescedLoads = new IdentityHashMap<>();
+    private final long bulkLoadWindowMicros;
+    private final int bulkLoadBatchSize;
+
     private final OffHeapMap[] maps;
     private final long segmentMask;
     private final int segmentShift;
 
     private final long maxEntrySize;
+    private final long defaultTTLmillis;
+    // loaded hash entries get a refresh-after-write timestamp
+    private final boolean refreshAfterWrite;
 
     private long capacity;
 
@@ -74,7 +151,25 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
     private final boolean throwOOME;
     private final Hasher hasher;
 
+    private final EntryLog entryLog;
+
+    private final SpillStore spillStore;
+
+    private final Compressor compressor;
+    private final int compressionThreshold;
+    private final AtomicLong compressionInputBytes = new AtomicLong();
+    private final AtomicLong compressionOutputBytes = new AtomicLong();
+    private final AtomicLong compressionNanos = new AtomicLong();
+
     public OHCacheImpl(OHCacheBuilder<K, V> builder)
+    {
+        this(builder, false);
+    }
+
+    /**
+     * @param longKeys whether the cache is used by {@link OHLongCacheImpl}, which does not need a key serializer
+     */
+    OHCacheImpl(OHCacheBuilder<K, V> builder, boolean longKeys)
     {
         long capacity = builder.getCapacity();
         if (capacity <= 0L)
@@ -85,22 +180,54 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         this.throwOOME = builder.isThrowOOME();
         this.hasher = Hasher.create(builder.getHashAlgorighm());
 
+        int compressionThreshold = builder.getCompressionThreshold();
+        if (compressionThreshold < 0)
+            throw new IllegalArgumentException("compressionThreshold");
+        this.compressionThreshold = compressionThreshold;
+        this.compressor = compressionThreshold > 0 ? Compressor.create(builder.getCompression()) : null;
+
+        int bulkLoadBatchSize = builder.getBulkLoadBatchSize();
+        if (bulkLoadBatchSize <= 0)
+            throw new IllegalArgumentException("bulkLoadBatchSize");
+        this.bulkLoadBatchSize = bulkLoadBatchSize;
+        this.bulkLoadWindowMicros = Math.max(builder.getBulkLoadWindowMicros(), 0L);
+
+        // off-heap memory of the scratch key buffers is allocated on first use
+        scratchKeyBuffers = new KeyBuffer[(int) Util.roundUpToPowerOf2(Runtime.getRuntime().availableProcessors() * 4, 1 << 16)];
+        for (int i = 0; i < scratchKeyBuffers.length; i++)
+            scratchKeyBuffers[i] = KeyBuffer.scratch();
+
         // build segments
         int segments = builder.getSegmentCount();
         if (segments <= 0)
             segments = Runtime.getRuntime().availableProcessors() * 2;
         segments = (int) Util.roundUpToPowerOf2(segments, 1 << 30);
+
+        if (builder.getSpillFile() != null)
+        {
+            long spillCapacity = builder.getSpillCapacity();
+            if (spillCapacity < 0L)
+                throw new IllegalArgumentException("spillCapacity");
+            if (spillCapacity == 0L)
+                spillCapacity = Math.max(4L * capacity, SpillStore.MIN_CAPACITY);
+            this.spillStore = new SpillStore(this, new File(builder.getSpillFile()), spillCapacity, throwOOME);
+        }
+        else
+            this.spillStore = null;
+
         maps = new OffHeapMap[segments];
         for (int i = 0; i < segments; i++)
         {
             try
             {
-                maps[i] = new OffHeapMap(builder, capacity / segments);
+                maps[i] = new OffHeapMap(builder, capacity / segments, spillStore, segments);
             }
             catch (RuntimeException e)
             {
                 while (i-- >= 0)
                     maps[i].release();
+                if (spillStore != null)
+                    spillStore.close();
                 throw e;
             }
         }
@@ -112,14 +239,18 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
 
         // calculate max entry size
         long maxEntrySize = builder.getMaxEntrySize();
-        if (maxEntrySize > capacity / segments)
+        // key and value lengths are stored as 32 bit values in the entry header
+        if (maxEntrySize > capacity / segments || maxEntrySize > Integer.MAX_VALUE)
             throw new IllegalArgumentException("Illegal max entry size " + maxEntrySize);
         else if (maxEntrySize <= 0)
-            maxEntrySize = capacity / segments;
+            maxEntrySize = Math.min(capacity / segments, Integer.MAX_VALUE);
         this.maxEntrySize = maxEntrySize;
 
+        this.defaultTTLmillis = builder.getDefaultTTLmillis();
+        this.refreshAfterWrite = builder.getRefreshAfterWriteMillis() > 0L;
+
         this.keySerializer = builder.getKeySerializer();
-        if (keySerializer == null)
+        if (keySerializer == null && !longKeys)
             throw new NullPointerException("keySerializer == null");
         this.valueSerializer = builder.getValueSerializer();
         if (valueSerializer == null)
@@ -127,6 +258,17 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
 
         this.executorService = builder.getExecutorService();
 
+        if (builder.getStorageFile() != null)
+        {
+            this.entryLog = new EntryLog(this, capacity, segments, builder.getLogChunkSize(),
+                                         new File(builder.getStorageFile()),
+                                         builder.getHashAlgorighm().ordinal(),
+                                         compressor != null ? builder.getCompression().ordinal() : -1);
+            entryLog.recover();
+        }
+        else
+            this.entryLog = builder.isLogStructured() ? new EntryLog(this, capacity, segments, builder.getLogChunkSize()) : null;
+
         if (LOGGER.isDebugEnabled())
             LOGGER.debug("OHC instance with {} segments and capacity of {} created.", segments, capacity);
     }
@@ -140,14 +282,56 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         if (key == null)
             throw new NullPointerException();
 
-        KeyBuffer keySource = keySource(key);
+        return getDirect(scratchKeySource(key));
+    }
+
+    public DirectValueAccess getRaw(ByteBuffer key)
+    {
+        if (key == null)
+            throw new NullPointerException();
+
+        return getDirect(rawKeySource(key));
+    }
 
-        long hashEntryAdr = segment(keySource.hash()).getEntry(keySource, true);
+    private DirectValueAccess getDirect(KeyBuffer keySource)
+    {
+        long hashEntryAdr;
+        try
+        {
+            hashEntryAdr = segment(keySource.hash()).getEntry(keySource, true);
+        }
+        finally
+        {
+            keySource.release();
+        }
 
         if (hashEntryAdr == 0L)
             return null;
 
-        return new DirectValueAccessImpl(hashEntryAdr);
+        return directValueAccess(hashEntryAdr);
+    }
+
+    /**
+     * Takes over the reference to the given hash entry.
+     */
+    private DirectValueAccess directValueAccess(long hashEntryAdr)
+    {
+        if (!isCompressed(hashEntryAdr))
+            return new DirectValueAccessImpl(hashEntryAdr);
+
+        // compressed values are accessed via a decompressed copy
+        try
+        {
+            return DirectValueAccessImpl.copyOf(decompress(hashEntryAdr), uncompressedValueLen(hashEntryAdr));
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            HashEntries.dereference(hashEntryAdr);
+        }
     }
 
     public V get(K key)
@@ -155,16 +339,21 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         if (key == null)
             throw new NullPointerException();
 
-        KeyBuffer keySource = keySource(key);
-
-        long hashEntryAdr = segment(keySource.hash()).getEntry(keySource, true);
+        return get(scratchKeySource(key));
+    }
 
+    /**
+     * Looks up the given key and releases the key buffer.
+     */
+    private V get(KeyBuffer keySource)
+    {
+        long hashEntryAdr = getEntry(keySource);
         if (hashEntryAdr == 0L)
             return null;
 
         try
         {
-            return valueSerializer.deserialize(new HashEntryValueInput(hashEntryAdr));
+            return deserializeValue(hashEntryAdr);
         }
         catch (IOException e)
         {
@@ -176,14 +365,269 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         }
     }
 
+    /**
+     * Looks up the given key and releases the key buffer.
+     *
+     * @return referenced hash entry or {@code 0L}
+     */
+    private long getEntry(KeyBuffer keySource)
+    {
+        try
+        {
+            long hashEntryAdr = segment(keySource.hash()).getEntry(keySource, true);
+
+            if (hashEntryAdr == 0L && spillStore != null)
+                hashEntryAdr = getSpilled(keySource);
+            return hashEntryAdr;
+        }
+        finally
+        {
+            keySource.release();
+        }
+    }
+
     public boolean containsKey(K key)
     {
         if (key == null)
             throw new NullPointerException();
 
-        KeyBuffer keySource = keySource(key);
+        return containsKey(scratchKeySource(key));
+    }
+
+    private boolean containsKey(KeyBuffer keySource)
+    {
+        try
+        {
+            return segment(keySource.hash()).getEntry(keySource, false) != 0L;
+        }
+        finally
+        {
+            keySource.release();
+        }
+    }
+
+    public Map<K, V> getAll(Iterable<K> keys)
+    {
+        Object[] keyArr = toArray(keys);
+        long[] hashEntryAdrs = getEntries(keyArr);
+
+        Map<K, V> result = new HashMap<>(keyArr.length * 2);
+        try
+        {
+            for (int i = 0; i < keyArr.length; i++)
+                if (hashEntryAdrs[i] != 0L)
+                    result.put((K) keyArr[i], deserializeValue(hashEntryAdrs[i]));
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            dereference(hashEntryAdrs);
+        }
+        return result;
+    }
+
+    public Map<K, DirectValueAccess> getAllDirect(Iterable<K> keys)
+    {
+        Object[] keyArr = toArray(keys);
+        long[] hashEntryAdrs = getEntries(keyArr);
+
+        Map<K, DirectValueAccess> result = new HashMap<>(keyArr.length * 2);
+        try
+        {
+            for (int i = 0; i < keyArr.length; i++)
+            {
+                long hashEntryAdr = hashEntryAdrs[i];
+                if (hashEntryAdr == 0L)
+                    continue;
+                hashEntryAdrs[i] = 0L;
+                DirectValueAccess old = result.put((K) keyArr[i], directValueAccess(hashEntryAdr));
+                if (old != null)
+                    // duplicate key
+                    old.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            dereference(hashEntryAdrs);
+        }
+        return result;
+    }
+
+    public boolean getTo(K key, WritableByteChannel channel) throws IOException
+    {
+        if (key == null || channel == null)
+            throw new NullPointerException();
+
+        long hashEntryAdr = getEntry(scratchKeySource(key));
+        if (hashEntryAdr == 0L)
+            return false;
+
+        ChannelViews views = acquireChannelViews();
+        try
+        {
+            addView(views, hashEntryAdr);
+            views.write(channel);
+            return true;
+        }
+        finally
+        {
+            views.release();
+        }
+    }
+
+    public int getAllTo(Iterable<K> keys, GatheringByteChannel channel) throws IOException
+    {
+        if (channel == null)
+            throw new NullPointerException();
+
+        ChannelViews views = acquireChannelViews();
+        try
+        {
+            for (K key : keys)
+            {
+                if (key == null)
+                    throw new NullPointerException();
+                long hashEntryAdr = getEntry(scratchKeySource(key));
+                if (hashEntryAdr != 0L)
+                    addView(views, hashEntryAdr);
+            }
+            views.write(channel);
+            return views.count();
+        }
+        finally
+        {
+            views.release();
+        }
+    }
+
+    /**
+     * @return the channel views of the current thread or new channel views, if those are already in use
+     */
+    private ChannelViews acquireChannelViews()
+    {
+        ChannelViews views = channelViews.get();
+        if (views == null)
+        {
+            views = new ChannelViews();
+            channelViews.set(views);
+        }
+        if (views.acquire())
+            return views;
+
+        views = new ChannelViews();
+        views.acquire();
+        return views;
+    }
+
+    /**
+     * Adds a view on the value of the given hash entry, takes over the reference to the hash entry.
+     */
+    private void addView(ChannelViews views, long hashEntryAdr) throws IOException
+    {
+        if (!isCompressed(hashEntryAdr))
+        {
+            views.addEntry(hashEntryAdr, HashEntries.getKeyLen(hashEntryAdr), HashEntries.getValueLen(hashEntryAdr));
+            return;
+        }
+
+        long valueCopyAdr;
+        long valueLen;
+        try
+        {
+            valueLen = uncompressedValueLen(hashEntryAdr);
+            valueCopyAdr = decompress(hashEntryAdr);
+        }
+        finally
+        {
+            HashEntries.dereference(hashEntryAdr);
+        }
+        views.addCopy(valueCopyAdr, valueLen);
+    }
+
+    private Object[] toArray(Iterable<K> keys)
+    {
+        List<Object> keyList = new ArrayList<>();
+        for (K key : keys)
+        {
+            if (key == null)
+                throw new NullPointerException();
+            keyList.add(key);
+        }
+        return keyList.toArray();
+    }
+
+    /**
+     * Looks up the hash entries for the given keys. All keys are serialized and hashed first and then looked up
+     * grouped by segment, so each segment is locked only once. The keys are reordered by segment, the returned
+     * array contains the referenced hash entry for each key or {@code 0L}.
+     */
+    private long[] getEntries(Object[] keys)
+    {
+        int n = keys.length;
+        KeyBuffer[] keyBuffers = new KeyBuffer[n];
+        long[] hashes = new long[n];
+        for (int i = 0; i < n; i++)
+        {
+            keyBuffers[i] = keySource((K) keys[i]);
+            hashes[i] = keyBuffers[i].hash();
+        }
+
+        int[] order = new int[n];
+        int[] segStart = sortBySegment(hashes, n, order);
+        Object[] sortedKeys = new Object[n];
+        KeyBuffer[] sortedKeyBuffers = new KeyBuffer[n];
+        for (int p = 0; p < n; p++)
+        {
+            sortedKeys[p] = keys[order[p]];
+            sortedKeyBuffers[p] = keyBuffers[order[p]];
+        }
+        System.arraycopy(sortedKeys, 0, keys, 0, n);
+
+        long[] hashEntryAdrs = new long[n];
+        for (int seg = 0; seg < maps.length; seg++)
+            if (segStart[seg] < segStart[seg + 1])
+                maps[seg].getEntries(sortedKeyBuffers, segStart[seg], segStart[seg + 1], hashEntryAdrs);
+
+        if (spillStore != null)
+            for (int i = 0; i < n; i++)
+                if (hashEntryAdrs[i] == 0L)
+                    hashEntryAdrs[i] = getSpilled(sortedKeyBuffers[i]);
+
+        return hashEntryAdrs;
+    }
 
-        return segment(keySource.hash()).getEntry(keySource, false) != 0L;
+    /**
+     * Counting sort by segment. Stores the index of each of the first {@code n} hashes in segment order in
+     * {@code order}.
+     *
+     * @return index of the first element of each segment in {@code order}, followed by {@code n}
+     */
+    private int[] sortBySegment(long[] hashes, int n, int[] order)
+    {
+        int[] segStart = new int[maps.length + 1];
+        for (int i = 0; i < n; i++)
+            segStart[segmentIndex(hashes[i]) + 1]++;
+        for (int seg = 0; seg < maps.length; seg++)
+            segStart[seg + 1] += segStart[seg];
+
+        int[] pos = Arrays.copyOf(segStart, maps.length);
+        for (int i = 0; i < n; i++)
+            order[pos[segmentIndex(hashes[i])]++] = i;
+        return segStart;
+    }
+
+    private static void dereference(long[] hashEntryAdrs)
+    {
+        for (long hashEntryAdr : hashEntryAdrs)
+            if (hashEntryAdr != 0L)
+                HashEntries.dereference(hashEntryAdr);
     }
 
     public DirectValueAccess putDirect(K k, long valueLen)
@@ -196,7 +640,7 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         final long bytes = Util.allocLen(keyLen, valueLen);
 
         final long hashEntryAdr;
-        if ((maxEntrySize > 0L && bytes > maxEntrySize) || (hashEntryAdr = Uns.allocate(bytes, throwOOME)) == 0L)
+        if ((maxEntrySize > 0L && bytes > maxEntrySize) || (hashEntryAdr = allocateEntry(bytes)) == 0L)
         {
             // entry too large to be inserted or OS is not able to provide enough memory
             putFailCount++;
@@ -209,7 +653,8 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         final long hash = serializeForPut(k, null, keyLen, valueLen, hashEntryAdr);
 
         // initialize hash entry
-        HashEntries.init(hash, keyLen, valueLen, hashEntryAdr, Util.SENTINEL_NOT_PRESENT);
+        HashEntries.init(hash, keyLen, valueLen, hashEntryAdr, Util.SENTINEL_NOT_PRESENT, HashEntries.getFlags(hashEntryAdr));
+        HashEntries.setExpireAt(hashEntryAdr, expireAt(defaultTTLmillis));
 
         return new DirectValueAccessImpl(hashEntryAdr)
         {
@@ -224,22 +669,104 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         };
     }
 
+    public boolean putFrom(K key, ReadableByteChannel channel, long valueLen) throws IOException
+    {
+        if (key == null || channel == null)
+            throw new NullPointerException();
+        if (valueLen < 0L || valueLen > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("illegal value length " + valueLen);
+
+        DirectValueAccess direct = putDirect(key, valueLen);
+        if (direct == null)
+            return false;
+
+        boolean complete = false;
+        try
+        {
+            ByteBuffer buffer = direct.buffer();
+            if (!Util.readFully(channel, buffer))
+                throw new EOFException("channel ended after " + buffer.position() + " of " + valueLen + " bytes");
+            complete = true;
+        }
+        finally
+        {
+            if (complete)
+                direct.close();
+            else
+                direct.abort();
+        }
+        return true;
+    }
+
+    public Future<Boolean> putFromAsync(final K key, final ReadableByteChannel channel, final long valueLen)
+    {
+        if (key == null || channel == null)
+            throw new NullPointerException();
+        if (executorService == null || executorService.isShutdown() || closed)
+            throw new IllegalStateException("OHCache has no executor service - configure one via OHCacheBuilder.executorService()");
+
+        return executorService.submit(new Callable<Boolean>()
+        {
+            public Boolean call() throws IOException
+            {
+                return putFrom(key, channel, valueLen);
+            }
+        });
+    }
+
     public void put(K k, V v)
     {
-        putInternal(k, v, false, null);
+        putInternal(k, v, false, null, expireAt(defaultTTLmillis));
+    }
+
+    public void put(K k, V v, long ttl, TimeUnit unit)
+    {
+        putInternal(k, v, false, null, expireAt(unit.toMillis(ttl)));
     }
 
     public boolean addOrReplace(K key, V old, V value)
     {
-        return putInternal(key, value, false, old);
+        return putInternal(key, value, false, old, expireAt(defaultTTLmillis));
+    }
+
+    public void putRaw(ByteBuffer key, ByteBuffer value)
+    {
+        if (key == null || value == null)
+            throw new NullPointerException();
+
+        long hashEntryAdr = createRawEntry(key, value, expireAt(defaultTTLmillis));
+        if (hashEntryAdr == 0L)
+        {
+            // entry too large to be inserted or OS is not able to provide enough memory
+            putFailCount++;
+
+            removeRaw(key);
+
+            return;
+        }
+
+        long hash = HashEntries.getHash(hashEntryAdr);
+        long bytes = HashEntries.getAllocLen(hashEntryAdr);
+
+        if (!segment(hash).putEntry(hashEntryAdr, hash, key.remaining(), bytes, false, 0L, 0L))
+            HashEntries.free(hashEntryAdr);
     }
 
     public boolean putIfAbsent(K k, V v)
     {
-        return putInternal(k, v, true, null);
+        return putInternal(k, v, true, null, expireAt(defaultTTLmillis));
+    }
+
+    static long expireAt(long ttlMillis)
+    {
+        if (ttlMillis <= 0L)
+            return 0L;
+        long now = System.currentTimeMillis();
+        // guard against overflow for very long time-to-live values
+        return ttlMillis < Long.MAX_VALUE - now ? now + ttlMillis : Long.MAX_VALUE;
     }
 
-    private boolean putInternal(K k, V v, boolean ifAbsent, V old)
+    private boolean putInternal(K k, V v, boolean ifAbsent, V old, long expireAt)
     {
         if (k == null || v == null)
             throw new NullPointerException();
@@ -247,35 +774,24 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         long keyLen = keySerializer.serializedSize(k);
         long valueLen = valueSerializer.serializedSize(v);
 
-        long bytes = Util.allocLen(keyLen, valueLen);
-
         long oldValueAdr = 0L;
         long oldValueLen = 0L;
+        CompressedValue oldCompressed = null;
 
         try
         {
             if (old != null)
             {
                 oldValueLen = valueSerializer.serializedSize(old);
-                oldValueAdr = Uns.allocate(oldValueLen, throwOOME);
-                if (oldValueAdr == 0L)
-                    throw new RuntimeException("Unable to allocate " + oldValueLen + " bytes in off-heap");
-                try
-                {
-                    valueSerializer.serialize(old, new HashEntryValueOutput(oldValueAdr, oldValueLen));
-                }
-                catch (RuntimeException | Error e)
-                {
-                    throw e;
-                }
-                catch (Throwable e)
-                {
-                    throw new RuntimeException(e);
-                }
+                oldValueAdr = serializeValue(old, oldValueLen);
+
+                // the old value must be compared in the form it would have been stored
+                if (compresses(oldValueLen))
+                    oldCompressed = compress(oldValueAdr, 0L, oldValueLen);
             }
 
-            long hashEntryAdr;
-            if ((maxEntrySize > 0L && bytes > maxEntrySize) || (hashEntryAdr = Uns.allocate(bytes, throwOOME)) == 0L)
+            long hashEntryAdr = createEntry(k, v, keyLen, valueLen, expireAt);
+            if (hashEntryAdr == 0L)
             {
                 // entry too large to be inserted or OS is not able to provide enough memory
                 putFailCount++;
@@ -285,26 +801,165 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
                 return false;
             }
 
-            long hash = serializeForPut(k, v, keyLen, valueLen, hashEntryAdr);
-
-            // initialize hash entry
-            HashEntries.init(hash, keyLen, valueLen, hashEntryAdr, Util.SENTINEL_NOT_PRESENT);
+            long hash = HashEntries.getHash(hashEntryAdr);
+            long bytes = HashEntries.getAllocLen(hashEntryAdr);
 
-            if (segment(hash).putEntry(hashEntryAdr, hash, keyLen, bytes, ifAbsent, oldValueAdr, oldValueLen))
+            if (oldCompressed != null
+                ? segment(hash).putEntry(hashEntryAdr, hash, keyLen, bytes, ifAbsent, oldCompressed.address, oldCompressed.length)
+                : segment(hash).putEntry(hashEntryAdr, hash, keyLen, bytes, ifAbsent, oldValueAdr, oldValueLen))
                 return true;
 
-            Uns.free(hashEntryAdr);
+            HashEntries.free(hashEntryAdr);
             return false;
         }
         finally
         {
             Uns.free(oldValueAdr);
+            if (oldCompressed != null)
+                Uns.free(oldCompressed.address);
         }
     }
 
-    long serializeForPut(K k, V v, long keyLen, long valueLen, long hashEntryAdr)
+    /**
+     * Allocates and initializes a hash entry. The value is stored compressed, if it exceeds the compression threshold
+     * and compression saves memory.
+     *
+     * @return address of the hash entry or {@code 0L}, if the entry is too large or no memory could be allocated
+     */
+    private long createEntry(K k, V v, long keyLen, long valueLen, long expireAt)
     {
-        HashEntryKeyOutput key = new HashEntryKeyOutput(hashEntryAdr, keyLen);
+        return createEntry(k, 0L, v, keyLen, valueLen, expireAt, 0);
+    }
+
+    /**
+     * Like {@link #createEntry(Object, Object, long, long, long)} for a value returned by a {@link CacheLoader},
+     * with a refresh-after-write timestamp, if refresh-after-write is configured.
+     */
+    private long createLoadedEntry(K k, V v, long keyLen, long valueLen)
+    {
+        return createEntry(k, 0L, v, keyLen, valueLen, expireAt(defaultTTLmillis), refreshAfterWrite ? Util.FLAG_REFRESH : 0);
+    }
+
+    /**
+     * @param k      key or {@code null} for a key of {@link OHLongCacheImpl}
+     * @param longKey key of {@link OHLongCacheImpl}, if {@code k} is {@code null}
+     * @param extraFlags flags to set in addition to those set by the allocation and compression
+     */
+    private long createEntry(K k, long longKey, V v, long keyLen, long valueLen, long expireAt, int extraFlags)
+    {
+        long valueAdr = 0L;
+        CompressedValue compressed = null;
+        try
+        {
+            if (compresses(valueLen))
+            {
+                valueAdr = serializeValue(v, valueLen);
+                compressed = compress(valueAdr, 0L, valueLen);
+                compressionInputBytes.addAndGet(valueLen);
+                compressionOutputBytes.addAndGet(compressed != null ? compressed.length : valueLen);
+            }
+
+            long storedLen = compressed != null ? compressed.length : valueLen;
+            long bytes = Util.allocLen(keyLen, storedLen, extraFlags);
+
+            long hashEntryAdr;
+            if ((maxEntrySize > 0L && bytes > maxEntrySize) || (hashEntryAdr = allocateEntry(bytes)) == 0L)
+                return 0L;
+
+            long hash = k != null
+                        ? serializeForPut(k, valueAdr == 0L ? v : null, keyLen, storedLen, hashEntryAdr)
+                        : serializeForPut(longKey, valueAdr == 0L ? v : null, storedLen, hashEntryAdr);
+
+            int flags = HashEntries.getFlags(hashEntryAdr) | extraFlags;
+            long valueOff = Util.ENTRY_OFF_DATA + keyLen;
+            if (compressed != null)
+            {
+                Uns.copyMemory(compressed.address, 0L, hashEntryAdr, valueOff, storedLen);
+                flags |= Util.FLAG_COMPRESSED;
+            }
+            else if (valueAdr != 0L)
+                Uns.copyMemory(valueAdr, 0L, hashEntryAdr, valueOff, valueLen);
+
+            // initialize hash entry
+            HashEntries.init(hash, keyLen, storedLen, hashEntryAdr, Util.SENTINEL_NOT_PRESENT, flags);
+            HashEntries.setExpireAt(hashEntryAdr, expireAt);
+
+            return hashEntryAdr;
+        }
+        finally
+        {
+            Uns.free(valueAdr);
+            if (compressed != null)
+                Uns.free(compressed.address);
+        }
+    }
+
+    /**
+     * Like {@link #createEntry(Object, Object, long, long, long)} for a key and value in serialized form.
+     * Key and value are copied directly from the buffers and the hash is computed from the key in the hash entry.
+     */
+    private long createRawEntry(ByteBuffer key, ByteBuffer value, long expireAt)
+    {
+        long keyLen = key.remaining();
+        long valueLen = value.remaining();
+
+        CompressedValue compressed = null;
+        try
+        {
+            if (compresses(valueLen))
+            {
+                long valueAdr = Uns.allocate(valueLen, throwOOME);
+                if (valueAdr == 0L)
+                    throw new RuntimeException("Unable to allocate " + valueLen + " bytes in off-heap");
+                try
+                {
+                    Uns.copyMemory(value, valueAdr, 0L, valueLen);
+                    compressed = compress(valueAdr, 0L, valueLen);
+                }
+                finally
+                {
+                    Uns.free(valueAdr);
+                }
+                compressionInputBytes.addAndGet(valueLen);
+                compressionOutputBytes.addAndGet(compressed != null ? compressed.length : valueLen);
+            }
+
+            long storedLen = compressed != null ? compressed.length : valueLen;
+            long bytes = Util.allocLen(keyLen, storedLen);
+
+            long hashEntryAdr;
+            if ((maxEntrySize > 0L && bytes > maxEntrySize) || (hashEntryAdr = allocateEntry(bytes)) == 0L)
+                return 0L;
+
+            Uns.copyMemory(key, hashEntryAdr, Util.ENTRY_OFF_DATA, keyLen);
+            long hash = hasher.hash(hashEntryAdr, Util.ENTRY_OFF_DATA, (int) keyLen);
+
+            int flags = HashEntries.getFlags(hashEntryAdr);
+            long valueOff = Util.ENTRY_OFF_DATA + keyLen;
+            if (compressed != null)
+            {
+                Uns.copyMemory(compressed.address, 0L, hashEntryAdr, valueOff, storedLen);
+                flags |= Util.FLAG_COMPRESSED;
+            }
+            else
+                Uns.copyMemory(value, hashEntryAdr, valueOff, valueLen);
+
+            // initialize hash entry
+            HashEntries.init(hash, keyLen, storedLen, hashEntryAdr, Util.SENTINEL_NOT_PRESENT, flags);
+            HashEntries.setExpireAt(hashEntryAdr, expireAt);
+
+            return hashEntryAdr;
+        }
+        finally
+        {
+            if (compressed != null)
+                Uns.free(compressed.address);
+        }
+    }
+
+    long serializeForPut(K k, V v, long keyLen, long valueLen, long hashEntryAdr)
+    {
+        HashEntryKeyOutput key = new HashEntryKeyOutput(hashEntryAdr, keyLen);
         try
         {
             keySerializer.serialize(k, key);
@@ -319,9 +974,72 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         return key.hash(hasher);
     }
 
+    /**
+     * Reads the hash entry for a key missed in memory from the spill file and adds it back to its segment.
+     *
+     * @return referenced hash entry or {@code 0L}
+     */
+    private long getSpilled(KeyBuffer key)
+    {
+        OffHeapMap segment = segment(key.hash());
+        long pos = segment.spillPosition(key);
+        if (pos < 0L)
+        {
+            spillStore.miss();
+            return 0L;
+        }
+
+        long hashEntryAdr = spillStore.read(pos, key);
+        if (hashEntryAdr == 0L)
+        {
+            spillStore.miss();
+            return 0L;
+        }
+        spillStore.hit();
+
+        // reference for the caller - the segment owns the initial reference after the hash entry has been added
+        HashEntries.reference(hashEntryAdr);
+        if (segment.promoteEntry(hashEntryAdr, key.hash(), key.size(), HashEntries.getAllocLen(hashEntryAdr), pos))
+            return hashEntryAdr;
+
+        // the key has been put, removed or promoted concurrently
+        HashEntries.dereference(hashEntryAdr);
+        HashEntries.dereference(hashEntryAdr);
+        return segment.getEntry(key, true);
+    }
+
+    long allocateEntry(long bytes)
+    {
+        long hashEntryAdr;
+        if (entryLog != null && (hashEntryAdr = entryLog.allocate(bytes)) != 0L)
+            return hashEntryAdr;
+
+        // hash entries too large for the entry log are allocated individually
+        hashEntryAdr = Uns.allocate(bytes, throwOOME);
+        if (hashEntryAdr != 0L)
+            HashEntries.setFlags(hashEntryAdr, 0);
+        return hashEntryAdr;
+    }
+
+    private long serializeForPut(long k, V v, long valueLen, long hashEntryAdr)
+    {
+        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_DATA, k);
+        try
+        {
+            if (v != null)
+                valueSerializer.serialize(v, new HashEntryValueOutput(hashEntryAdr, Util.LONG_KEY_LEN, valueLen));
+        }
+        catch (Throwable e)
+        {
+            freeAndThrow(e, hashEntryAdr);
+        }
+
+        return Util.longKeyHash(k);
+    }
+
     private static void freeAndThrow(Throwable e, long hashEntryAdr)
     {
-        Uns.free(hashEntryAdr);
+        HashEntries.free(hashEntryAdr);
         if (e instanceof RuntimeException)
             throw (RuntimeException) e;
         if (e instanceof Error)
@@ -329,14 +1047,219 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         throw new RuntimeException(e);
     }
 
+    //
+    // value compression
+    //
+
+    /**
+     * Serialized value compressed into the form stored in hash entries:
+     * the serialized length as an int followed by the compressed bytes.
+     */
+    private static final class CompressedValue
+    {
+        final long address;
+        final long length;
+
+        CompressedValue(long address, long length)
+        {
+            this.address = address;
+            this.length = length;
+        }
+    }
+
+    private boolean compresses(long valueLen)
+    {
+        // compressors work on int lengths
+        return compressor != null && valueLen >= compressionThreshold && valueLen <= Integer.MAX_VALUE / 2;
+    }
+
+    private static boolean isCompressed(long hashEntryAdr)
+    {
+        return (HashEntries.getFlags(hashEntryAdr) & Util.FLAG_COMPRESSED) != 0;
+    }
+
+    private static long uncompressedValueLen(long hashEntryAdr)
+    {
+        return Uns.getInt(hashEntryAdr, Util.ENTRY_OFF_DATA + HashEntries.getKeyLen(hashEntryAdr));
+    }
+
+    /**
+     * Serializes a value into a temporary off-heap buffer.
+     */
+    private long serializeValue(V v, long valueLen)
+    {
+        long valueAdr = Uns.allocate(valueLen, throwOOME);
+        if (valueAdr == 0L)
+            throw new RuntimeException("Unable to allocate " + valueLen + " bytes in off-heap");
+        try
+        {
+            valueSerializer.serialize(v, new HashEntryValueOutput(valueAdr, valueLen));
+        }
+        catch (RuntimeException | Error e)
+        {
+            Uns.free(valueAdr);
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            Uns.free(valueAdr);
+            throw new RuntimeException(e);
+        }
+        return valueAdr;
+    }
+
+    /**
+     * Compresses a serialized value into a temporary off-heap buffer.
+     *
+     * @return the compressed value or {@code null}, if compression does not save memory
+     */
+    private CompressedValue compress(long valueAdr, long valueOff, long valueLen)
+    {
+        long start = System.nanoTime();
+
+        int maxLen = compressor.maxCompressedLength((int) valueLen);
+        long compressedAdr = Uns.allocate(4L + maxLen, throwOOME);
+        if (compressedAdr == 0L)
+            return null;
+
+        long compressedLen;
+        try
+        {
+            compressedLen = 4L + compressor.compress(valueAdr, valueOff, (int) valueLen, compressedAdr, 4L, maxLen);
+        }
+        catch (Throwable e)
+        {
+            Uns.free(compressedAdr);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            compressionNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        if (compressedLen >= valueLen)
+        {
+            Uns.free(compressedAdr);
+            return null;
+        }
+
+        Uns.putInt(compressedAdr, 0L, (int) valueLen);
+        return new CompressedValue(compressedAdr, compressedLen);
+    }
+
+    /**
+     * Decompresses the value of a hash entry into a temporary off-heap buffer.
+     */
+    private long decompress(long hashEntryAdr) throws IOException
+    {
+        long valueOff = Util.ENTRY_OFF_DATA + HashEntries.getKeyLen(hashEntryAdr);
+        int valueLen = Uns.getInt(hashEntryAdr, valueOff);
+        long valueAdr = Uns.allocateIOException(valueLen, throwOOME);
+        try
+        {
+            compressor.decompress(hashEntryAdr, valueOff + 4L, (int) HashEntries.getValueLen(hashEntryAdr) - 4,
+                                  valueAdr, 0L, valueLen);
+        }
+        catch (IOException | RuntimeException | Error e)
+        {
+            Uns.free(valueAdr);
+            throw e;
+        }
+        return valueAdr;
+    }
+
+    private V deserializeValue(long hashEntryAdr) throws IOException
+    {
+        if (!isCompressed(hashEntryAdr))
+            return valueSerializer.deserialize(new HashEntryValueInput(hashEntryAdr));
+
+        long valueAdr = decompress(hashEntryAdr);
+        try
+        {
+            return valueSerializer.deserialize(new HashEntryValueInput(valueAdr, uncompressedValueLen(hashEntryAdr)));
+        }
+        finally
+        {
+            Uns.free(valueAdr);
+        }
+    }
+
+    //
+    // OHLongCacheImpl operations
+    //
+
+    V getLongKey(long key)
+    {
+        return get(longKeySource(key));
+    }
+
+    boolean containsLongKey(long key)
+    {
+        return containsKey(longKeySource(key));
+    }
+
+    void removeLongKey(long key)
+    {
+        remove(longKeySource(key));
+    }
+
+    boolean putLongKey(long key, V v, boolean ifAbsent)
+    {
+        return putLongKey(key, v, ifAbsent, expireAt(defaultTTLmillis));
+    }
+
+    boolean putLongKey(long key, V v, boolean ifAbsent, long expireAt)
+    {
+        if (v == null)
+            throw new NullPointerException();
+
+        long hashEntryAdr = createEntry(null, key, v, Util.LONG_KEY_LEN, valueSerializer.serializedSize(v), expireAt, 0);
+        if (hashEntryAdr == 0L)
+        {
+            // entry too large to be inserted or OS is not able to provide enough memory
+            putFailCount++;
+
+            removeLongKey(key);
+
+            return false;
+        }
+
+        long hash = HashEntries.getHash(hashEntryAdr);
+        long bytes = HashEntries.getAllocLen(hashEntryAdr);
+
+        if (segment(hash).putEntry(hashEntryAdr, hash, Util.LONG_KEY_LEN, bytes, ifAbsent, 0L, 0L))
+            return true;
+
+        HashEntries.free(hashEntryAdr);
+        return false;
+    }
+
     public void remove(K k)
     {
         if (k == null)
             throw new NullPointerException();
 
-        KeyBuffer key = keySource(k);
+        remove(scratchKeySource(k));
+    }
+
+    public void removeRaw(ByteBuffer k)
+    {
+        if (k == null)
+            throw new NullPointerException();
+
+        remove(rawKeySource(k));
+    }
 
-        segment(key.hash()).removeEntry(key);
+    private void remove(KeyBuffer key)
+    {
+        try
+        {
+            segment(key.hash()).removeEntry(key);
+        }
+        finally
+        {
+            key.release();
+        }
     }
 
     public V getWithLoader(K key, CacheLoader<K, V> loader) throws InterruptedException, ExecutionException
@@ -349,12 +1272,79 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         return getWithLoaderAsync(key, loader).get(timeout, unit);
     }
 
-    public Future<V> getWithLoaderAsync(final K key, final CacheLoader<K, V> loader)
+    public Future<V> getWithLoaderAsync(K key, CacheLoader<K, V> loader)
+    {
+        checkExecutorService();
+
+        return getWithLoader(key, loader, null);
+    }
+
+    public Map<K, V> getAllWithLoader(Iterable<K> keys, BulkCacheLoader<K, V> loader) throws InterruptedException, ExecutionException
+    {
+        return getAllWithLoaderAsync(keys, loader).get();
+    }
+
+    public Future<Map<K, V>> getAllWithLoaderAsync(Iterable<K> keys, BulkCacheLoader<K, V> loader)
+    {
+        checkExecutorService();
+
+        final List<K> keyList = new ArrayList<>();
+        final List<ListenableFuture<V>> futures = new ArrayList<>();
+        // collects the loads of the keys that are neither present nor being loaded
+        BulkLoad bulkLoad = new BulkLoad(loader);
+        try
+        {
+            for (K key : keys)
+            {
+                futures.add(getWithLoader(key, loader, bulkLoad));
+                keyList.add(key);
+            }
+        }
+        catch (RuntimeException | Error e)
+        {
+            bulkLoad.fail(e);
+            throw e;
+        }
+
+        if (!bulkLoad.loads.isEmpty())
+            submit(bulkLoad);
+
+        // wait for all keys, so the values of the other keys are present when a load fails
+        return Futures.transform(Futures.successfulAsList(futures), new AsyncFunction<List<V>, Map<K, V>>()
+        {
+            public ListenableFuture<Map<K, V>> apply(List<V> values) throws InterruptedException
+            {
+                Map<K, V> result = new HashMap<>();
+                for (int i = 0; i < futures.size(); i++)
+                {
+                    try
+                    {
+                        result.put(keyList.get(i), futures.get(i).get());
+                    }
+                    catch (ExecutionException e)
+                    {
+                        return Futures.immediateFailedFuture(e.getCause());
+                    }
+                }
+                return Futures.immediateFuture(result);
+            }
+        });
+    }
+
+    private void checkExecutorService()
     {
-        if (key == null)
-            throw new NullPointerException();
         if (executorService == null || executorService.isShutdown() || closed)
             throw new IllegalStateException("OHCache has no executor service - configure one via OHCacheBuilder.executorService()");
+    }
+
+    /**
+     * @param bulkLoad collects the load of a missing key, the caller has to run it - or {@code null} to load a
+     *                 missing key individually or coalesced with other misses
+     */
+    private ListenableFuture<V> getWithLoader(K key, CacheLoader<K, V> loader, BulkLoad bulkLoad)
+    {
+        if (key == null)
+            throw new NullPointerException();
 
         final KeyBuffer keySource = keySource(key);
 
@@ -369,7 +1359,7 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
 
             long bytes = Util.allocLen(keyLen, 0L);
 
-            if ((maxEntrySize > 0L && bytes > maxEntrySize) || (hashEntryAdr = Uns.allocate(bytes, throwOOME)) == 0L)
+            if ((maxEntrySize > 0L && bytes > maxEntrySize) || (hashEntryAdr = allocateEntry(bytes)) == 0L)
             {
                 // entry too large to be inserted or OS is not able to provide enough memory
                 putFailCount++;
@@ -392,73 +1382,32 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
             final long hash = keyOut.hash(hasher);
 
             // initialize hash entry
-            HashEntries.init(hash, keyLen, 0L, hashEntryAdr, Util.SENTINEL_LOADING);
+            HashEntries.init(hash, keyLen, 0L, hashEntryAdr, Util.SENTINEL_LOADING, HashEntries.getFlags(hashEntryAdr));
+
+            // register the load before the sentinel becomes visible, so adjacent requestors always find it
+            PendingLoad pending = new PendingLoad(key, keyLen, segment, hashEntryAdr);
+            loadsInFlight.put(hashEntryAdr, pending.load);
 
             if (segment.putEntry(hashEntryAdr, hash, keyLen, bytes, true, 0L, 0L))
             {
                 // this request IS the initial requestor for the key
 
-                final long sentinelHashEntryAdr = hashEntryAdr;
-                return executorService.submit(new Callable<V>()
-                {
-                    public V call() throws Exception
-                    {
-                        Exception failure = null;
-                        V value = null;
-                        boolean replaced = false;
-
-                        try
-                        {
-                            value = loader.load(key);
-
-                            long valueLen = valueSerializer.serializedSize(value);
-
-                            long bytes = Util.allocLen(keyLen, valueLen);
-
-                            long hashEntryAdr;
-                            if ((maxEntrySize > 0L && bytes > maxEntrySize) || (hashEntryAdr = Uns.allocate(bytes, throwOOME)) == 0L)
-                                throw new RuntimeException("max entry size exceeded or malloc() failed");
-
-                            long hash = serializeForPut(key, value, keyLen, valueLen, hashEntryAdr);
-
-                            // initialize hash entry
-                            HashEntries.init(hash, keyLen, valueLen, hashEntryAdr, Util.SENTINEL_NOT_PRESENT);
-
-                            if (!segment.replaceEntry(hash, sentinelHashEntryAdr, hashEntryAdr, bytes))
-                                throw new RuntimeException("not enough free capacity");
-                            replaced = true;
-
-                            HashEntries.setSentinel(sentinelHashEntryAdr, Util.SENTINEL_SUCCESS);
-                            HashEntries.dereference(sentinelHashEntryAdr);
-                        }
-                        catch (PermanentLoadException e)
-                        {
-                            HashEntries.setSentinel(sentinelHashEntryAdr, Util.SENTINEL_PERMANENT_FAILURE);
-                            throw e;
-                        }
-                        catch (Throwable e)
-                        {
-                            failure = e instanceof Exception ? (Exception) e : new RuntimeException(e);
-                            HashEntries.setSentinel(sentinelHashEntryAdr, Util.SENTINEL_TEMPORARY_FAILURE);
-                            if (replaced)
-                                HashEntries.dereference(sentinelHashEntryAdr);
-                            else
-                                segment.removeEntry(sentinelHashEntryAdr);
-                        }
-
-                        if (failure != null)
-                            throw failure;
+                if (bulkLoad != null)
+                    bulkLoad.loads.add(pending);
+                else if (bulkLoadWindowMicros > 0L && loader instanceof BulkCacheLoader)
+                    coalesce((BulkCacheLoader<K, V>) loader, pending);
+                else
+                    load(loader, pending);
 
-                        return value;
-                    }
-                });
+                return pending.result;
             }
             else
             {
                 // this request IS NOT the initial requestor for the key, so it must
                 // free the unneeded but allocated sentinel
 
-                Uns.free(hashEntryAdr);
+                loadsInFlight.remove(hashEntryAdr);
+                HashEntries.free(hashEntryAdr);
             }
 
             // fall through
@@ -474,7 +1423,10 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
             case Util.SENTINEL_NOT_PRESENT:
                 try
                 {
-                    return Futures.immediateFuture(valueSerializer.deserialize(new HashEntryValueInput(hashEntryAdr)));
+                    V value = deserializeValue(hashEntryAdr);
+                    if (refreshDue(hashEntryAdr))
+                        refresh(key, loader, segment, hashEntryAdr);
+                    return Futures.immediateFuture(value);
                 }
                 catch (IOException e)
                 {
@@ -489,134 +1441,442 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
                 return Futures.immediateFailedFuture(new PermanentLoadException());
         }
 
-        // handle sentinel
-
-        final SettableFuture<V> future = SettableFuture.create();
+        // handle sentinel - wait for the load to complete
 
-        final long sentinelHashEntryAdr = hashEntryAdr;
-
-        // TODO / DOCUMENT: executorService shutdown with ongoing requests with referenced sentinel-entries --> off-heap memory leak
-        // Reason:
-        // The jobs started for adjacent getWithLoader*() calls are not running (and waiting) continuously.
-        // Instead these are scheduled regularly and poll the referenced sentinel hash-entry.
-        // The sentinel hash-entry is dereferenced within the following job for adjacent getWithLoader*() calls.
-        // So - if the following job is no longer called, the sentinel hash-entry will never be dereferenced and
-        // therefore never be deallocated.
-        // Workaround is to close the OHCache instance, then wait some time and shutdown the scheduled executor service
-        // when there are no more scheduled jobs.
+        SettableFuture<V> future = SettableFuture.create();
+        awaitLoad(keySource, segment, hashEntryAdr, future);
+        return future;
+    }
 
+    private void load(final CacheLoader<K, V> loader, final PendingLoad pending)
+    {
+        Runnable loadTask = new Runnable()
+        {
+            public void run()
+            {
+                V value = null;
+                Throwable failure = null;
+                try
+                {
+                    long loadStart = System.nanoTime();
+                    value = loader.load(pending.key);
+                    recordLoadTime(System.nanoTime() - loadStart);
+                }
+                catch (Throwable e)
+                {
+                    failure = e;
+                }
+                pending.complete(value, failure);
+            }
+        };
 
-        // The following job basically "spins" on the sentinel field of the sentinel hash-entry without
-        // any lock on the segment.
-        // It has two "exit" criterias:
+        try
+        {
+            executorService.execute(loadTask);
+        }
+        catch (RuntimeException | Error e)
+        {
+            pending.complete(null, e);
+            throw e;
+        }
+    }
 
-        executorService.schedule(new Runnable()
+    /**
+     * Adds a load to the bulk load collecting the misses for the given loader. The bulk load runs when
+     * {@code bulkLoadBatchSize} keys have been collected or {@code bulkLoadWindowMicros} after its first key.
+     */
+    private void coalesce(BulkCacheLoader<K, V> loader, PendingLoad pending)
+    {
+        BulkLoad bulkLoad;
+        synchronized (coalescedLoads)
         {
-            public void run()
+            bulkLoad = coalescedLoads.get(loader);
+            if (bulkLoad == null)
             {
-                if (future.isCancelled() || closed)
+                bulkLoad = new BulkLoad(loader);
+                if (bulkLoadBatchSize > 1)
                 {
-                    HashEntries.dereference(sentinelHashEntryAdr);
-                    return;
+                    try
+                    {
+                        bulkLoad.flush = executorService.schedule(flushTask(bulkLoad), bulkLoadWindowMicros, TimeUnit.MICROSECONDS);
+                    }
+                    catch (RuntimeException | Error e)
+                    {
+                        pending.complete(null, e);
+                        throw e;
+                    }
+                    coalescedLoads.put(loader, bulkLoad);
                 }
+            }
+            bulkLoad.loads.add(pending);
+            if (bulkLoad.loads.size() < bulkLoadBatchSize)
+                return;
+            coalescedLoads.remove(loader);
+        }
 
-                int sentinelStatus = HashEntries.getSentinel(sentinelHashEntryAdr);
-                switch (sentinelStatus)
+        if (bulkLoad.flush != null)
+            bulkLoad.flush.cancel(false);
+        submit(bulkLoad);
+    }
+
+    private Runnable flushTask(final BulkLoad bulkLoad)
+    {
+        return new Runnable()
+        {
+            public void run()
+            {
+                synchronized (coalescedLoads)
                 {
-                    // SENTINEL_NOT_PRESENT is an impossible status on the sentinel hash-entry
-                    case Util.SENTINEL_SUCCESS:
-                        break;
-                    case Util.SENTINEL_LOADING:
-                        reschedule(0L);
-                        return;
-                    case Util.SENTINEL_PERMANENT_FAILURE:
-                        failure(0L, new PermanentLoadException());
-                        return;
-                    case Util.SENTINEL_TEMPORARY_FAILURE:
-                        failure(0L, new TemporaryLoadException());
-                        return;
-                    default:
-                        failure(0L, new AssertionError("illegal sentinel value " + sentinelStatus));
+                    // the bulk load might have been submitted because it is full
+                    if (coalescedLoads.get(bulkLoad.loader) != bulkLoad)
                         return;
+                    coalescedLoads.remove(bulkLoad.loader);
                 }
+                bulkLoad.run();
+            }
+        };
+    }
+
+    private void submit(BulkLoad bulkLoad)
+    {
+        try
+        {
+            executorService.execute(bulkLoad);
+        }
+        catch (RuntimeException | Error e)
+        {
+            bulkLoad.fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Load of a missing key, whose sentinel hash entry has been added to the segment.
+     */
+    private final class PendingLoad
+    {
+        final K key;
+        final long keyLen;
+        final OffHeapMap segment;
+        final long sentinelHashEntryAdr;
+        // registered in loadsInFlight, completed when the sentinel has its final status
+        final SettableFuture<Void> load = SettableFuture.create();
+        // outcome of the load for the initial requestor
+        final SettableFuture<V> result = SettableFuture.create();
+
+        PendingLoad(K key, long keyLen, OffHeapMap segment, long sentinelHashEntryAdr)
+        {
+            this.key = key;
+            this.keyLen = keyLen;
+            this.segment = segment;
+            this.sentinelHashEntryAdr = sentinelHashEntryAdr;
+        }
+
+        /**
+         * Replaces the sentinel hash entry with a new hash entry for the loaded value or sets the failure status
+         * of the sentinel and notifies adjacent requestors.
+         */
+        void complete(V value, Throwable failure)
+        {
+            boolean replaced = false;
+
+            try
+            {
+                if (failure != null)
+                    throw failure;
 
-                long hashEntryAdr = segment.getEntry(keySource, true);
+                long valueLen = valueSerializer.serializedSize(value);
 
+                long hashEntryAdr = createLoadedEntry(key, value, keyLen, valueLen);
                 if (hashEntryAdr == 0L)
-                {
-                    // two possibilities that the entry does not exist:
-                    // - entry has been evicted (very very unlikely, so ignore this option)
-                    // - loader indicated temporary failure (very very likely)
-                    future.setException(new TemporaryLoadException());
-                }
+                    throw new RuntimeException("max entry size exceeded or malloc() failed");
 
-                if (hashEntryAdr == sentinelHashEntryAdr)
+                long hash = HashEntries.getHash(hashEntryAdr);
+                long bytes = HashEntries.getAllocLen(hashEntryAdr);
+
+                if (!segment.replaceEntry(hash, sentinelHashEntryAdr, hashEntryAdr, bytes))
+                    throw new RuntimeException("not enough free capacity");
+                replaced = true;
+
+                HashEntries.setSentinel(sentinelHashEntryAdr, Util.SENTINEL_SUCCESS);
+                loadCompleted(sentinelHashEntryAdr);
+                segment.dereferenceReplaced(sentinelHashEntryAdr);
+
+                result.set(value);
+            }
+            catch (PermanentLoadException e)
+            {
+                HashEntries.setSentinel(sentinelHashEntryAdr, Util.SENTINEL_PERMANENT_FAILURE);
+                loadCompleted(sentinelHashEntryAdr);
+                result.setException(e);
+            }
+            catch (Throwable e)
+            {
+                loadFailed(segment, sentinelHashEntryAdr, replaced);
+                result.setException(e);
+            }
+            finally
+            {
+                // notify adjacent requestors - the sentinel carries the outcome of the load
+                load.set(null);
+            }
+        }
+    }
+
+    /**
+     * Loads the values for multiple pending loads with a single {@link BulkCacheLoader#loadAll(Set)} call.
+     */
+    private final class BulkLoad implements Runnable
+    {
+        final BulkCacheLoader<K, V> loader;
+        final List<PendingLoad> loads = new ArrayList<>();
+        // runs a bulk load collecting misses after bulkLoadWindowMicros
+        ScheduledFuture<?> flush;
+
+        BulkLoad(BulkCacheLoader<K, V> loader)
+        {
+            this.loader = loader;
+        }
+
+        public void run()
+        {
+            Set<K> keys = new HashSet<>();
+            for (PendingLoad pending : loads)
+                keys.add(pending.key);
+
+            Map<K, V> values = null;
+            Throwable failure = null;
+            try
+            {
+                long loadStart = System.nanoTime();
+                values = loader.loadAll(keys);
+                recordLoadTime(System.nanoTime() - loadStart);
+            }
+            catch (Throwable e)
+            {
+                failure = e;
+            }
+
+            for (PendingLoad pending : loads)
+            {
+                if (failure != null)
                 {
-                    // oops, still the sentinel entry
-                    reschedule(0L);
-                    return;
+                    pending.complete(null, failure);
+                    continue;
                 }
 
-                sentinelStatus = HashEntries.getSentinel(hashEntryAdr);
-                switch (sentinelStatus)
+                V value = values != null ? values.get(pending.key) : null;
+                pending.complete(value, value != null ? null : new TemporaryLoadException("no value loaded for key"));
+            }
+        }
+
+        void fail(Throwable failure)
+        {
+            for (PendingLoad pending : loads)
+                pending.complete(null, failure);
+        }
+    }
+
+    private void recordLoadTime(long nanos)
+    {
+        // exponentially weighted moving average, races between loaders are harmless
+        long avg = loadNanos;
+        loadNanos = avg == 0L ? nanos : avg + (nanos - avg) / 8;
+    }
+
+    /**
+     * Checks whether the given hash entry has to be refreshed and claims the refresh, so only one request triggers
+     * it. The refresh starts before the refresh-after-write deadline with a probability that increases as the
+     * deadline approaches and with the average load time (probabilistic early recomputation, XFetch).
+     */
+    private boolean refreshDue(long hashEntryAdr)
+    {
+        long refreshAt = HashEntries.getRefreshAt(hashEntryAdr);
+        if (refreshAt == 0L)
+            return false;
+
+        double earlyMillis = -(loadNanos / 1000000d) * Math.log(1d - ThreadLocalRandom.current().nextDouble());
+        if (System.currentTimeMillis() + earlyMillis < refreshAt)
+            return false;
+
+        return HashEntries.claimRefresh(hashEntryAdr, refreshAt);
+    }
+
+    /**
+     * Loads a new value for an existing hash entry asynchronously and replaces the hash entry, if it has not been
+     * removed or replaced in the meantime. On failure the existing hash entry stays and is refreshed on its next access.
+     */
+    private void refresh(final K key, final CacheLoader<K, V> loader, final OffHeapMap segment, final long hashEntryAdr)
+    {
+        HashEntries.reference(hashEntryAdr);
+        try
+        {
+            executorService.submit(new Runnable()
+            {
+                public void run()
                 {
-                    case Util.SENTINEL_NOT_PRESENT:
-                        try
-                        {
-                            future.set(valueSerializer.deserialize(new HashEntryValueInput(hashEntryAdr)));
-                            HashEntries.dereference(hashEntryAdr);
-                            HashEntries.dereference(sentinelHashEntryAdr);
-                        }
-                        catch (Throwable e)
+                    try
+                    {
+                        long loadStart = System.nanoTime();
+                        V value = loader.load(key);
+                        recordLoadTime(System.nanoTime() - loadStart);
+
+                        long keyLen = keySerializer.serializedSize(key);
+                        long valueLen = valueSerializer.serializedSize(value);
+                        long newHashEntryAdr = createLoadedEntry(key, value, keyLen, valueLen);
+                        if (newHashEntryAdr == 0L)
                         {
-                            failure(hashEntryAdr, e);
+                            // entry too large to be inserted or OS is not able to provide enough memory
+                            putFailCount++;
+                            return;
                         }
-                        break;
-                    case Util.SENTINEL_SUCCESS:
-                    case Util.SENTINEL_LOADING:
+
+                        long hash = HashEntries.getHash(newHashEntryAdr);
+                        if (segment.replaceEntry(hash, hashEntryAdr, newHashEntryAdr, HashEntries.getAllocLen(newHashEntryAdr)))
+                            segment.dereferenceReplaced(hashEntryAdr);
+                        else
+                            // the hash entry has been removed or replaced in the meantime
+                            HashEntries.free(newHashEntryAdr);
+                    }
+                    catch (Throwable t)
+                    {
+                        LOGGER.debug("Failed to refresh cache entry", t);
+                        HashEntries.setRefreshAt(hashEntryAdr, System.currentTimeMillis());
+                    }
+                    finally
+                    {
                         HashEntries.dereference(hashEntryAdr);
-                        reschedule(hashEntryAdr);
-                        break;
-                    case Util.SENTINEL_PERMANENT_FAILURE:
-                        failure(hashEntryAdr, new PermanentLoadException());
-                        break;
-                    case Util.SENTINEL_TEMPORARY_FAILURE:
-                        failure(hashEntryAdr, new TemporaryLoadException());
-                        break;
-                    default:
-                        failure(hashEntryAdr, new AssertionError("illegal sentinel value " + sentinelStatus));
-                        break;
+                    }
                 }
-            }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            HashEntries.setRefreshAt(hashEntryAdr, System.currentTimeMillis());
+            HashEntries.dereference(hashEntryAdr);
+        }
+    }
+
+    /**
+     * Unregisters a load. Must be called after the final sentinel status has been set and before the sentinel hash
+     * entry might be released, since its address identifies the load.
+     */
+    private void loadCompleted(long sentinelHashEntryAdr)
+    {
+        loadsInFlight.remove(sentinelHashEntryAdr);
+    }
 
-            private void failure(long hashEntryAdr, Throwable e)
+    private void loadFailed(OffHeapMap segment, long sentinelHashEntryAdr, boolean replaced)
+    {
+        HashEntries.setSentinel(sentinelHashEntryAdr, Util.SENTINEL_TEMPORARY_FAILURE);
+        loadCompleted(sentinelHashEntryAdr);
+        if (replaced)
+            segment.dereferenceReplaced(sentinelHashEntryAdr);
+        else
+            segment.removeEntry(sentinelHashEntryAdr);
+    }
+
+    /**
+     * Completes the given future with the outcome of the load for the given sentinel hash entry, as soon as the load
+     * has completed. Takes over the reference to the sentinel hash entry.
+     * Each waiter is completed by its own task on the executor service, so the lookups and deserializations of many
+     * waiters do not run one after another on the thread that completed the load.
+     */
+    private void awaitLoad(final KeyBuffer keySource, final OffHeapMap segment, final long sentinelHashEntryAdr,
+                           final SettableFuture<V> future)
+    {
+        Runnable complete = new Runnable()
+        {
+            public void run()
             {
-                if (hashEntryAdr != 0L)
-                    HashEntries.dereference(hashEntryAdr);
-                HashEntries.dereference(sentinelHashEntryAdr);
-                future.setException(e);
+                completeLoadWaiter(keySource, segment, sentinelHashEntryAdr, future);
             }
+        };
 
-            private void reschedule(long hashEntryAdr)
-            {
+        SettableFuture<Void> load = loadsInFlight.get(sentinelHashEntryAdr);
+        if (load != null)
+            load.addListener(complete, waiterExecutor);
+        else
+            // load has already completed and the sentinel has its final status
+            complete.run();
+    }
+
+    private void completeLoadWaiter(KeyBuffer keySource, OffHeapMap segment, long sentinelHashEntryAdr,
+                                    SettableFuture<V> future)
+    {
+        int sentinelStatus = HashEntries.getSentinel(sentinelHashEntryAdr);
+        if (sentinelStatus != Util.SENTINEL_SUCCESS)
+        {
+            HashEntries.dereference(sentinelHashEntryAdr);
+            future.setException(loadFailure(sentinelStatus));
+            return;
+        }
+
+        long hashEntryAdr = segment.getEntry(keySource, true);
+        HashEntries.dereference(sentinelHashEntryAdr);
+
+        if (hashEntryAdr == 0L)
+        {
+            // entry has been evicted or removed in the meantime
+            future.setException(new TemporaryLoadException());
+            return;
+        }
+
+        sentinelStatus = HashEntries.getSentinel(hashEntryAdr);
+        switch (sentinelStatus)
+        {
+            case Util.SENTINEL_NOT_PRESENT:
                 try
                 {
-                    executorService.schedule(this, 10, TimeUnit.MILLISECONDS);
+                    future.set(deserializeValue(hashEntryAdr));
+                }
+                catch (Throwable e)
+                {
+                    future.setException(e);
                 }
-                catch (Throwable t)
+                finally
                 {
-                    failure(hashEntryAdr, t);
+                    HashEntries.dereference(hashEntryAdr);
                 }
-            }
-        }, 10, TimeUnit.MILLISECONDS);
+                break;
+            case Util.SENTINEL_LOADING:
+                // the value has been removed and is loaded again
+                awaitLoad(keySource, segment, hashEntryAdr, future);
+                break;
+            default:
+                HashEntries.dereference(hashEntryAdr);
+                future.setException(loadFailure(sentinelStatus));
+                break;
+        }
+    }
 
-        return future;
+    private static Throwable loadFailure(int sentinelStatus)
+    {
+        switch (sentinelStatus)
+        {
+            case Util.SENTINEL_PERMANENT_FAILURE:
+                return new PermanentLoadException();
+            case Util.SENTINEL_TEMPORARY_FAILURE:
+                return new TemporaryLoadException();
+            default:
+                // SENTINEL_LOADING is impossible after the load has completed, SENTINEL_NOT_PRESENT on a sentinel
+                return new AssertionError("illegal sentinel value " + sentinelStatus);
+        }
+    }
+
+    OffHeapMap segment(long hash)
+    {
+        return maps[segmentIndex(hash)];
+    }
+
+    private int segmentIndex(long hash)
+    {
+        return (int) ((hash & segmentMask) >>> segmentShift);
     }
 
-    private OffHeapMap segment(long hash)
+    EntryLog entryLog()
     {
-        int seg = (int) ((hash & segmentMask) >>> segmentShift);
-        return maps[seg];
+        return entryLog;
     }
 
     private KeyBuffer keySource(K o)
@@ -635,6 +1895,81 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         return key.finish(hasher);
     }
 
+    /**
+     * Serializes the key into a pooled off-heap scratch key buffer, falling back to a heap key buffer
+     * for large keys or if no scratch key buffer is available.
+     * The returned key buffer must be released via {@link KeyBuffer#release()}.
+     */
+    KeyBuffer scratchKeySource(K o)
+    {
+        KeyBuffer key = acquireScratchKeyBuffer(keySerializer.serializedSize(o));
+        if (key == null)
+            return keySource(o);
+
+        try
+        {
+            keySerializer.serialize(o, key);
+        }
+        catch (IOException e)
+        {
+            key.release();
+            throw new RuntimeException(e);
+        }
+        catch (RuntimeException | Error e)
+        {
+            key.release();
+            throw e;
+        }
+        return key.finish(hasher);
+    }
+
+    /**
+     * Stores a key of {@link OHLongCacheImpl} in a pooled scratch key buffer or, if none is
+     * available, in a heap key buffer. The returned key buffer must be released via {@link KeyBuffer#release()}.
+     */
+    private KeyBuffer longKeySource(long k)
+    {
+        KeyBuffer key = acquireScratchKeyBuffer((int) Util.LONG_KEY_LEN);
+        if (key == null)
+            key = new KeyBuffer((int) Util.LONG_KEY_LEN);
+        return key.finishLongKey(k);
+    }
+
+    /**
+     * Copies a serialized key into a pooled scratch key buffer or, if none is available, into a
+     * heap key buffer. The returned key buffer must be released via {@link KeyBuffer#release()}.
+     */
+    private KeyBuffer rawKeySource(ByteBuffer k)
+    {
+        KeyBuffer key = acquireScratchKeyBuffer(k.remaining());
+        if (key == null)
+            key = new KeyBuffer(k.remaining());
+        key.write(k);
+        return key.finish(hasher);
+    }
+
+    /**
+     * Takes a scratch key buffer from the pool, starting at a slot derived from the current thread's ID, so that
+     * threads usually find "their" buffer at the first attempt.
+     *
+     * @return a scratch key buffer prepared for a key of the given size or {@code null}
+     */
+    private KeyBuffer acquireScratchKeyBuffer(int size)
+    {
+        if (size > KeyBuffer.MAX_SCRATCH_SIZE)
+            return null;
+
+        int mask = scratchKeyBuffers.length - 1;
+        int slot = (int) Thread.currentThread().getId();
+        for (int i = 0; i < SCRATCH_KEY_PROBES; i++)
+        {
+            KeyBuffer key = scratchKeyBuffers[(slot + i) & mask];
+            if (key.acquire(size))
+                return key;
+        }
+        return null;
+    }
+
     //
     // maintenance
     //
@@ -675,11 +2010,24 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
                 Thread.currentThread().interrupt();
             }
 
+        if (entryLog != null)
+            // chunks are released when the hash entries are freed, chunks of a storage file are frozen
+            entryLog.close();
+
         clear();
 
         for (OffHeapMap map : maps)
             map.release();
 
+        for (KeyBuffer key : scratchKeyBuffers)
+            key.free();
+
+        if (spillStore != null)
+            spillStore.close();
+
+        if (entryLog != null)
+            entryLog.release();
+
         if (LOGGER.isDebugEnabled())
             LOGGER.debug("Closing OHC instance");
     }
@@ -693,6 +2041,11 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         for (OffHeapMap map : maps)
             map.resetStatistics();
         putFailCount = 0;
+        compressionInputBytes.set(0L);
+        compressionOutputBytes.set(0L);
+        compressionNanos.set(0L);
+        if (spillStore != null)
+            spillStore.resetStatistics();
     }
 
     public OHCacheStats stats()
@@ -714,7 +2067,16 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
                                putFailCount,
                                removeCount(),
                                Uns.getTotalAllocated(),
-                               0L);
+                               0L,
+                               expiredEntries(),
+                               compressionInputBytes.get(),
+                               compressionOutputBytes.get(),
+                               compressionNanos.get(),
+                               spillStore != null ? spillStore.hitCount() : 0L,
+                               spillStore != null ? spillStore.missCount() : 0L,
+                               spillStore != null ? spillStore.writeCount() : 0L,
+                               spillStore != null ? spillStore.readNanos() : 0L,
+                               spillStore != null ? spillStore.writeNanos() : 0L);
     }
 
     private long putAddCount()
@@ -725,6 +2087,14 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         return putAddCount;
     }
 
+    private long expiredEntries()
+    {
+        long expiredEntries = 0L;
+        for (OffHeapMap map : maps)
+            expiredEntries += map.expiredEntries();
+        return expiredEntries;
+    }
+
     private long putReplaceCount()
     {
         long putReplaceCount = 0L;
@@ -804,6 +2174,14 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         return r;
     }
 
+    boolean rehashing()
+    {
+        for (OffHeapMap map : maps)
+            if (map.rehashing())
+                return true;
+        return false;
+    }
+
     public long[] perSegmentSizes()
     {
         long[] r = new long[maps.length];
@@ -860,7 +2238,7 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
                 throw new IOException("File contains entries - expected keys");
             if (magic != Util.HEADER_KEYS)
                 throw new IOException("Illegal file header");
-            if (header.getInt() != 1)
+            if (header.getInt() != Util.HEADER_KEYS_VERSION)
                 throw new IOException("Illegal file version");
         }
         finally
@@ -962,68 +2340,204 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         };
     }
 
-    public boolean deserializeEntry(ReadableByteChannel channel) throws IOException
+    public boolean deserializeEntry(ReadableByteChannel channel) throws IOException
+    {
+        // an entry of version 2 or later starts with a marker, an entry of version 1 with its hash
+        byte[] marker = new byte[8];
+        if (!Util.readFully(channel, ByteBuffer.wrap(marker)))
+            return false;
+
+        int magic = Uns.getIntFromByteArray(marker, 0);
+        int version = Uns.getIntFromByteArray(marker, 4);
+        if (magic == Util.HEADER_ENTRY && version == Util.HEADER_ENTRIES_VERSION)
+            return deserializeEntry(channel, version) == ENTRY_ADDED;
+        if (magic == Util.HEADER_ENTRY_WRONG && version == Integer.reverseBytes(Util.HEADER_ENTRIES_VERSION))
+            throw new IOException("Entry from instance with different CPU architecture cannot be loaded");
+
+        byte[] valueKeyLen = new byte[2 * 8];
+        if (!Util.readFully(channel, ByteBuffer.wrap(valueKeyLen)))
+            return false;
+        long keyLen = Uns.getLongFromByteArray(valueKeyLen, 8);
+        return deserializeEntry(channel,
+                                Uns.getLongFromByteArray(marker, 0),
+                                Uns.getLongFromByteArray(valueKeyLen, 0),
+                                keyLen,
+                                Util.roundUpTo8(keyLen) - keyLen) == ENTRY_ADDED;
+    }
+
+    /**
+     * @return {@link #ENTRY_ADDED}, {@link #ENTRY_NOT_ADDED} if the entry has been read but could not be added or
+     * {@link #ENTRY_END} if there is no (complete) entry to read
+     */
+    private int deserializeEntry(ReadableByteChannel channel, int version) throws IOException
     {
-        // read hash, keyLen, valueLen
-        byte[] hashKeyValueLen = new byte[3 * 8];
-        ByteBuffer bb = ByteBuffer.wrap(hashKeyValueLen);
-        if (!Util.readFully(channel, bb))
-            return false;
+        // read hash, valueLen, keyLen
+        long hash;
+        long valueLen;
+        long keyLen;
+        long keyPadding;
+        if (version == 1)
+        {
+            byte[] hashKeyValueLen = new byte[3 * 8];
+            ByteBuffer bb = ByteBuffer.wrap(hashKeyValueLen);
+            if (!Util.readFully(channel, bb))
+                return ENTRY_END;
+
+            hash = Uns.getLongFromByteArray(hashKeyValueLen, 0);
+            valueLen = Uns.getLongFromByteArray(hashKeyValueLen, 8);
+            keyLen = Uns.getLongFromByteArray(hashKeyValueLen, 16);
+            keyPadding = Util.roundUpTo8(keyLen) - keyLen;
+        }
+        else
+        {
+            byte[] hashKeyValueLen = new byte[8 + 2 * 4];
+            ByteBuffer bb = ByteBuffer.wrap(hashKeyValueLen);
+            if (!Util.readFully(channel, bb))
+                return ENTRY_END;
+
+            hash = Uns.getLongFromByteArray(hashKeyValueLen, 0);
+            valueLen = Uns.getIntFromByteArray(hashKeyValueLen, 8);
+            keyLen = Uns.getIntFromByteArray(hashKeyValueLen, 12);
+            keyPadding = 0L;
+        }
 
-        long hash = Uns.getLongFromByteArray(hashKeyValueLen, 0);
-        long valueLen = Uns.getLongFromByteArray(hashKeyValueLen, 8);
-        long keyLen = Uns.getLongFromByteArray(hashKeyValueLen, 16);
+        return deserializeEntry(channel, hash, valueLen, keyLen, keyPadding);
+    }
 
-        long kvLen = Util.roundUpTo8(keyLen) + valueLen;
-        long totalLen = kvLen + Util.ENTRY_OFF_DATA;
+    /**
+     * Reads key and value of an entry after its hash, value length and key length have been read.
+     */
+    private int deserializeEntry(ReadableByteChannel channel, long hash, long valueLen, long keyLen, long keyPadding) throws IOException
+    {
+        long totalLen = Util.allocLen(keyLen, valueLen);
         long hashEntryAdr;
-        if ((maxEntrySize > 0L && totalLen > maxEntrySize) || (hashEntryAdr = Uns.allocate(totalLen, throwOOME)) == 0L)
+        if ((maxEntrySize > 0L && totalLen > maxEntrySize) || (hashEntryAdr = allocateEntry(totalLen)) == 0L)
         {
-            if (channel instanceof SeekableByteChannel)
-            {
-                SeekableByteChannel sc = (SeekableByteChannel) channel;
-                sc.position(sc.position() + kvLen);
-            }
-            else
-            {
-                ByteBuffer tmp = ByteBuffer.allocate(8192);
-                while (kvLen > 0L)
-                {
-                    tmp.clear();
-                    if (kvLen < tmp.capacity())
-                        tmp.limit((int) kvLen);
-                    if (!Util.readFully(channel, tmp))
-                        return false;
-                    kvLen -= tmp.limit();
-                }
-            }
-            return false;
+            return Util.skip(channel, keyLen + keyPadding + valueLen) ? ENTRY_NOT_ADDED : ENTRY_END;
         }
 
-        HashEntries.init(hash, keyLen, valueLen, hashEntryAdr, Util.SENTINEL_NOT_PRESENT);
+        HashEntries.init(hash, keyLen, valueLen, hashEntryAdr, Util.SENTINEL_NOT_PRESENT, HashEntries.getFlags(hashEntryAdr));
+        // expiration timestamps are not serialized
+        HashEntries.setExpireAt(hashEntryAdr, expireAt(defaultTTLmillis));
 
         // read key + value
-        if (!Util.readFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA, kvLen)) ||
-            !segment(hash).putEntry(hashEntryAdr, hash, keyLen, totalLen, false, 0L, 0L))
+        if (!Util.readFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA, keyLen)) ||
+            !Util.skip(channel, keyPadding) ||
+            !Util.readFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA + keyLen, valueLen)))
         {
-            Uns.free(hashEntryAdr);
-            return false;
+            HashEntries.free(hashEntryAdr);
+            return ENTRY_END;
         }
 
-        return true;
+        if (compresses(valueLen))
+        {
+            hashEntryAdr = compressEntry(hashEntryAdr, keyLen, valueLen);
+            totalLen = HashEntries.getAllocLen(hashEntryAdr);
+        }
+
+        if (!segment(hash).putEntry(hashEntryAdr, hash, keyLen, totalLen, false, 0L, 0L))
+        {
+            HashEntries.free(hashEntryAdr);
+            return ENTRY_NOT_ADDED;
+        }
+
+        return ENTRY_ADDED;
+    }
+
+    /**
+     * Replaces a hash entry with an uncompressed value by a new hash entry with the compressed value,
+     * if compression saves memory.
+     */
+    private long compressEntry(long hashEntryAdr, long keyLen, long valueLen)
+    {
+        long valueOff = Util.ENTRY_OFF_DATA + keyLen;
+
+        CompressedValue compressed;
+        try
+        {
+            compressed = compress(hashEntryAdr, valueOff, valueLen);
+        }
+        catch (Throwable e)
+        {
+            freeAndThrow(e, hashEntryAdr);
+            return 0L;
+        }
+        compressionInputBytes.addAndGet(valueLen);
+        compressionOutputBytes.addAndGet(compressed != null ? compressed.length : valueLen);
+        if (compressed == null)
+            return hashEntryAdr;
+
+        try
+        {
+            long compressedEntryAdr = allocateEntry(Util.allocLen(keyLen, compressed.length));
+            if (compressedEntryAdr == 0L)
+                return hashEntryAdr;
+
+            Uns.copyMemory(hashEntryAdr, Util.ENTRY_OFF_DATA, compressedEntryAdr, Util.ENTRY_OFF_DATA, keyLen);
+            Uns.copyMemory(compressed.address, 0L, compressedEntryAdr, valueOff, compressed.length);
+            HashEntries.init(HashEntries.getHash(hashEntryAdr), keyLen, compressed.length, compressedEntryAdr, Util.SENTINEL_NOT_PRESENT,
+                             HashEntries.getFlags(compressedEntryAdr) | Util.FLAG_COMPRESSED);
+            HashEntries.setExpireAt(compressedEntryAdr, HashEntries.getExpireAt(hashEntryAdr));
+
+            HashEntries.free(hashEntryAdr);
+            return compressedEntryAdr;
+        }
+        finally
+        {
+            Uns.free(compressed.address);
+        }
     }
 
     public boolean serializeEntry(K key, WritableByteChannel channel) throws IOException
     {
-        KeyBuffer keySource = keySource(key);
+        KeyBuffer keySource = scratchKeySource(key);
+        long hashEntryAdr;
+        try
+        {
+            hashEntryAdr = segment(keySource.hash()).getEntry(keySource, true);
+        }
+        finally
+        {
+            keySource.release();
+        }
 
-        long hashEntryAdr = segment(keySource.hash()).getEntry(keySource, true);
+        if (hashEntryAdr == 0L)
+            return false;
 
-        return hashEntryAdr != 0L && serializeEntry(channel, hashEntryAdr);
+        try
+        {
+            ByteBuffer marker = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+            marker.putInt(Util.HEADER_ENTRY);
+            marker.putInt(Util.HEADER_ENTRIES_VERSION);
+            marker.flip();
+            Util.writeFully(channel, marker);
+        }
+        catch (IOException | RuntimeException | Error e)
+        {
+            HashEntries.dereference(hashEntryAdr);
+            throw e;
+        }
+        return serializeEntry(channel, hashEntryAdr);
     }
 
     public int deserializeEntries(ReadableByteChannel channel) throws IOException
     {
+        int version = readEntriesHeader(channel);
+
+        int count = 0;
+        while (deserializeEntry(channel, version) == ENTRY_ADDED)
+            count++;
+        return count;
+    }
+
+    /**
+     * Reads the header written by {@link #serializeHotNEntries(int, WritableByteChannel)}.
+     *
+     * @return version of the entries format
+     */
+    private int readEntriesHeader(ReadableByteChannel channel) throws IOException
+    {
+        int version;
         long headerAddress = Uns.allocateIOException(8, throwOOME);
         try
         {
@@ -1037,7 +2551,8 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
                 throw new IOException("File contains keys - expected entries");
             if (magic != Util.HEADER_ENTRIES)
                 throw new IOException("Illegal file header");
-            if (header.getInt() != 1)
+            version = header.getInt();
+            if (version != 1 && version != Util.HEADER_ENTRIES_VERSION)
                 throw new IOException("Illegal file version");
         }
         finally
@@ -1045,10 +2560,7 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
             Uns.free(headerAddress);
         }
 
-        int count = 0;
-        while (deserializeEntry(channel))
-            count++;
-        return count;
+        return version;
     }
 
     public int serializeHotNEntries(int n, WritableByteChannel channel) throws IOException
@@ -1073,7 +2585,7 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         {
             ByteBuffer headerBuffer = Uns.directBufferFor(headerAddress, 0L, 8L);
             headerBuffer.putInt(entries ? Util.HEADER_ENTRIES : Util.HEADER_KEYS);
-            headerBuffer.putInt(1);
+            headerBuffer.putInt(entries ? Util.HEADER_ENTRIES_VERSION : Util.HEADER_KEYS_VERSION);
             headerBuffer.flip();
             Util.writeFully(channel, headerBuffer);
         }
@@ -1122,16 +2634,23 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         return cnt;
     }
 
-    private static boolean serializeEntry(WritableByteChannel channel, long hashEntryAdr) throws IOException
+    private boolean serializeEntry(WritableByteChannel channel, long hashEntryAdr) throws IOException
     {
         try
         {
             long keyLen = HashEntries.getKeyLen(hashEntryAdr);
             long valueLen = HashEntries.getValueLen(hashEntryAdr);
 
-            long totalLen = 3 * 8L + Util.roundUpTo8(keyLen) + valueLen;
+            if (isCompressed(hashEntryAdr))
+            {
+                // compressed values are serialized uncompressed
+                serializeDecompressed(channel, hashEntryAdr, keyLen);
+                return true;
+            }
+
+            long totalLen = 8L + 2 * 4L + keyLen + valueLen;
 
-            // write hash, keyLen, valueLen + key + value
+            // write hash, valueLen, keyLen + key + value
             Util.writeFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_HASH, totalLen));
 
             return true;
@@ -1142,41 +2661,483 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         }
     }
 
-    private static boolean serializeKey(WritableByteChannel channel, long hashEntryAdr) throws IOException
+    private void serializeDecompressed(WritableByteChannel channel, long hashEntryAdr, long keyLen) throws IOException
+    {
+        long valueLen = uncompressedValueLen(hashEntryAdr);
+        long valueAdr = decompress(hashEntryAdr);
+        try
+        {
+            // write hash, valueLen, keyLen + key + value
+            writeEntryHeader(channel, HashEntries.getHash(hashEntryAdr), valueLen, keyLen);
+            Util.writeFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA, keyLen));
+            Util.writeFully(channel, Uns.directBufferFor(valueAdr, 0L, valueLen));
+        }
+        finally
+        {
+            Uns.free(valueAdr);
+        }
+    }
+
+    private void writeEntryHeader(WritableByteChannel channel, long hash, long valueLen, long keyLen) throws IOException
     {
+        long headerAddress = Uns.allocateIOException(8L + 2 * 4L, throwOOME);
+        try
+        {
+            Uns.putLong(headerAddress, 0L, hash);
+            Uns.putInt(headerAddress, 8L, (int) valueLen);
+            Uns.putInt(headerAddress, 12L, (int) keyLen);
+            Util.writeFully(channel, Uns.directBufferFor(headerAddress, 0L, 8L + 2 * 4L));
+        }
+        finally
+        {
+            Uns.free(headerAddress);
+        }
+    }
+
+    private boolean serializeKey(WritableByteChannel channel, long hashEntryAdr) throws IOException
+    {
+        long headerAddress = 0L;
         try
         {
             long keyLen = HashEntries.getKeyLen(hashEntryAdr);
 
-            long totalLen = 8L + keyLen;
+            headerAddress = Uns.allocateIOException(8L, throwOOME);
+            Uns.putLong(headerAddress, 0L, keyLen);
 
-            // write hash, keyLen, valueLen + key + value
-            Util.writeFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_KEY_LENGTH, totalLen));
+            // write keyLen + key
+            Util.writeFully(channel, Uns.directBufferFor(headerAddress, 0L, 8L));
+            Util.writeFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA, keyLen));
 
             return true;
         }
         finally
+        {
+            Uns.free(headerAddress);
+            HashEntries.dereference(hashEntryAdr);
+        }
+    }
+
+    //
+    // snapshots - one file per segment in the format of serializeHotNEntries plus a manifest
+    //
+
+    public long snapshot(File directory, ExecutorService executor) throws IOException, InterruptedException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create snapshot directory " + directory);
+
+        // the manifest is written last and marks a complete snapshot
+        Files.deleteIfExists(new File(directory, SNAPSHOT_MANIFEST).toPath());
+
+        List<Callable<Long>> tasks = new ArrayList<>(maps.length);
+        for (int i = 0; i < maps.length; i++)
+        {
+            final OffHeapMap segment = maps[i];
+            final File file = snapshotFile(directory, i);
+            tasks.add(new Callable<Long>()
+            {
+                public Long call() throws IOException
+                {
+                    return snapshotSegment(segment, file);
+                }
+            });
+        }
+
+        long[] entries = runSnapshotTasks(tasks, executor);
+        long[] bytes = new long[maps.length];
+        long count = 0L;
+        for (int i = 0; i < maps.length; i++)
+        {
+            bytes[i] = snapshotFile(directory, i).length();
+            count += entries[i];
+        }
+
+        writeManifest(directory, entries, bytes);
+
+        return count;
+    }
+
+    public long restoreSnapshot(File directory, ExecutorService executor) throws IOException, InterruptedException
+    {
+        long[][] manifest = readManifest(directory);
+        long[] entries = manifest[0];
+        long[] bytes = manifest[1];
+
+        List<Callable<Long>> tasks = new ArrayList<>(bytes.length);
+        for (int i = 0; i < bytes.length; i++)
+        {
+            final File file = snapshotFile(directory, i);
+            if (file.length() != bytes[i])
+                throw new IOException("Snapshot file " + file + " does not match the manifest");
+            final long fileEntries = entries[i];
+            tasks.add(new Callable<Long>()
+            {
+                public Long call() throws IOException
+                {
+                    // entries are read in small pieces
+                    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                         BufferedReadableByteChannel buffered = new BufferedReadableByteChannel(channel, SNAPSHOT_READ_BUFFER))
+                    {
+                        return restoreSnapshotFile(buffered, file, fileEntries);
+                    }
+                }
+            });
+        }
+
+        long count = 0L;
+        for (long added : runSnapshotTasks(tasks, executor))
+            count += added;
+        return count;
+    }
+
+    /**
+     * Reads all entries of a snapshot file, also those that cannot be added, and verifies their number against
+     * the manifest.
+     *
+     * @return number of entries added
+     */
+    private long restoreSnapshotFile(ReadableByteChannel channel, File file, long expectedEntries) throws IOException
+    {
+        int version = readEntriesHeader(channel);
+
+        long read = 0L;
+        long added = 0L;
+        for (int outcome; (outcome = deserializeEntry(channel, version)) != ENTRY_END; read++)
+            if (outcome == ENTRY_ADDED)
+                added++;
+
+        if (read != expectedEntries)
+            throw new IOException("Snapshot file " + file + " contains " + read + " entries but the manifest " + expectedEntries);
+        return added;
+    }
+
+    private static File snapshotFile(File directory, int segment)
+    {
+        return new File(directory, "segment-" + segment);
+    }
+
+    private static long[] runSnapshotTasks(List<Callable<Long>> tasks, ExecutorService executor) throws IOException, InterruptedException
+    {
+        List<Future<Long>> futures = new ArrayList<>(tasks.size());
+        try
+        {
+            for (Callable<Long> task : tasks)
+                futures.add(executor.submit(task));
+        }
+        catch (RuntimeException | Error e)
+        {
+            // the submitted tasks access the segments
+            for (Future<Long> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (ExecutionException ignored)
+                {
+                    // the failure to submit is reported
+                }
+            }
+            throw e;
+        }
+
+        long[] results = new long[futures.size()];
+        Throwable failure = null;
+        for (int i = 0; i < results.length; i++)
+        {
+            try
+            {
+                results[i] = futures.get(i).get();
+            }
+            catch (ExecutionException e)
+            {
+                if (failure == null)
+                    failure = e.getCause();
+            }
+        }
+
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        if (failure != null)
+            throw new IOException(failure);
+        return results;
+    }
+
+    /**
+     * Writes the hash entries of a segment using gathering writes of up to {@link #SNAPSHOT_BATCH_ENTRIES}
+     * hash entries, which are referenced until they have been written.
+     *
+     * @return number of hash entries written
+     */
+    private long snapshotSegment(OffHeapMap segment, File file) throws IOException
+    {
+        ChannelViews views = new ChannelViews();
+        views.acquire();
+        List<Long> hashEntryAdrs = new ArrayList<>();
+        long entries = 0L;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+            header.putInt(Util.HEADER_ENTRIES);
+            header.putInt(Util.HEADER_ENTRIES_VERSION);
+            header.flip();
+            Util.writeFully(channel, header);
+
+            int batchEntries = 0;
+            long batchBytes = 0L;
+            for (int mapSegmentIndex = 0; mapSegmentIndex < segment.hashTableSize(); mapSegmentIndex += 1024)
+            {
+                segment.getEntryAddresses(mapSegmentIndex, 1024, hashEntryAdrs);
+                try
+                {
+                    for (int i = 0; i < hashEntryAdrs.size(); i++)
+                    {
+                        batchBytes += addSerializedEntry(views, hashEntryAdrs.set(i, 0L));
+                        batchEntries++;
+                        entries++;
+
+                        if (batchEntries == SNAPSHOT_BATCH_ENTRIES || batchBytes >= SNAPSHOT_BATCH_BYTES)
+                        {
+                            views.write(channel);
+                            views.release();
+                            views.acquire();
+                            batchEntries = 0;
+                            batchBytes = 0L;
+                        }
+                    }
+                }
+                finally
+                {
+                    for (long hashEntryAdr : hashEntryAdrs)
+                        if (hashEntryAdr != 0L)
+                            HashEntries.dereference(hashEntryAdr);
+                    hashEntryAdrs.clear();
+                }
+            }
+
+            views.write(channel);
+
+            // the manifest must not become durable before the data it describes
+            channel.force(false);
+        }
+        finally
+        {
+            views.release();
+        }
+        return entries;
+    }
+
+    /**
+     * Adds the serialized form of a hash entry, as {@link #serializeEntry(WritableByteChannel, long)} writes it,
+     * to the views. Takes over the reference to the hash entry.
+     *
+     * @return number of bytes added
+     */
+    private long addSerializedEntry(ChannelViews views, long hashEntryAdr) throws IOException
+    {
+        long keyLen = HashEntries.getKeyLen(hashEntryAdr);
+
+        if (!isCompressed(hashEntryAdr))
+        {
+            long valueLen = HashEntries.getValueLen(hashEntryAdr);
+            views.addSerializedEntry(hashEntryAdr, keyLen, valueLen);
+            return 8L + 2 * 4L + keyLen + valueLen;
+        }
+
+        try
+        {
+            // compressed values are serialized uncompressed
+            long valueLen = uncompressedValueLen(hashEntryAdr);
+            long headerLen = 8L + 2 * 4L + keyLen;
+            long valueAdr = decompress(hashEntryAdr);
+            long headerAdr;
+            try
+            {
+                headerAdr = Uns.allocateIOException(headerLen, throwOOME);
+            }
+            catch (IOException | RuntimeException | Error e)
+            {
+                Uns.free(valueAdr);
+                throw e;
+            }
+
+            Uns.putLong(headerAdr, 0L, HashEntries.getHash(hashEntryAdr));
+            Uns.putInt(headerAdr, 8L, (int) valueLen);
+            Uns.putInt(headerAdr, 12L, (int) keyLen);
+            Uns.copyMemory(hashEntryAdr, Util.ENTRY_OFF_DATA, headerAdr, 8L + 2 * 4L, keyLen);
+            views.addCopy(headerAdr, headerLen);
+            views.addCopy(valueAdr, valueLen);
+            return headerLen + valueLen;
+        }
+        finally
         {
             HashEntries.dereference(hashEntryAdr);
         }
     }
 
+    private static void writeManifest(File directory, long[] entries, long[] bytes) throws IOException
+    {
+        ByteBuffer manifest = ByteBuffer.allocate(3 * 4 + entries.length * 2 * 8).order(ByteOrder.nativeOrder());
+        manifest.putInt(Util.HEADER_MANIFEST);
+        manifest.putInt(Util.HEADER_MANIFEST_VERSION);
+        manifest.putInt(entries.length);
+        for (int i = 0; i < entries.length; i++)
+        {
+            manifest.putLong(entries[i]);
+            manifest.putLong(bytes[i]);
+        }
+        manifest.flip();
+
+        try (FileChannel channel = FileChannel.open(new File(directory, SNAPSHOT_MANIFEST).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            Util.writeFully(channel, manifest);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * @return number of entries ({@code [0][file]}) and size in bytes ({@code [1][file]}) of each snapshot file
+     */
+    private static long[][] readManifest(File directory) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(new File(directory, SNAPSHOT_MANIFEST).toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(3 * 4).order(ByteOrder.nativeOrder());
+            if (!Util.readFully(channel, header))
+                throw new EOFException();
+            header.flip();
+            int magic = header.getInt();
+            if (magic == Util.HEADER_MANIFEST_WRONG)
+                throw new IOException("File from instance with different CPU architecture cannot be loaded");
+            if (magic != Util.HEADER_MANIFEST)
+                throw new IOException("Illegal file header");
+            if (header.getInt() != Util.HEADER_MANIFEST_VERSION)
+                throw new IOException("Illegal file version");
+            int files = header.getInt();
+            if (files < 0 || files > 1 << 24)
+                throw new IOException("Illegal number of snapshot files " + files);
+
+            ByteBuffer sizes = ByteBuffer.allocate(files * 2 * 8).order(ByteOrder.nativeOrder());
+            if (!Util.readFully(channel, sizes))
+                throw new EOFException();
+            sizes.flip();
+            long[][] manifest = new long[2][files];
+            for (int i = 0; i < files; i++)
+            {
+                manifest[0][i] = sizes.getLong();
+                manifest[1][i] = sizes.getLong();
+            }
+            return manifest;
+        }
+    }
+
     //
     // convenience methods
     //
 
     public void putAll(Map<? extends K, ? extends V> m)
     {
-        // could be improved by grouping puts by segment - but increases heap pressure and complexity - decide later
-        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet())
-            put(entry.getKey(), entry.getValue());
+        long expireAt = expireAt(defaultTTLmillis);
+        Iterator<? extends Map.Entry<? extends K, ? extends V>> entries = m.entrySet().iterator();
+        long[] hashEntryAdrs = new long[Math.max(1, Math.min(m.size(), BULK_BATCH_SIZE))];
+        while (entries.hasNext())
+        {
+            int n = 0;
+            try
+            {
+                // serialize and allocate the hash entries of a batch outside of the segment locks
+                while (n < hashEntryAdrs.length && entries.hasNext())
+                {
+                    Map.Entry<? extends K, ? extends V> entry = entries.next();
+                    K k = entry.getKey();
+                    V v = entry.getValue();
+                    if (k == null || v == null)
+                        throw new NullPointerException();
+
+                    long hashEntryAdr = createEntry(k, v, keySerializer.serializedSize(k), valueSerializer.serializedSize(v), expireAt);
+                    if (hashEntryAdr == 0L)
+                    {
+                        // entry too large to be inserted or OS is not able to provide enough memory
+                        putFailCount++;
+
+                        remove(k);
+
+                        continue;
+                    }
+                    hashEntryAdrs[n++] = hashEntryAdr;
+                }
+
+                putEntries(hashEntryAdrs, n);
+            }
+            finally
+            {
+                // hash entries that have not been added
+                for (int i = 0; i < n; i++)
+                    if (hashEntryAdrs[i] != 0L)
+                    {
+                        putFailCount++;
+                        HashEntries.free(hashEntryAdrs[i]);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Adds the given hash entries grouped by segment, so each segment is locked once. Added hash entries are set
+     * to {@code 0L}.
+     */
+    private void putEntries(long[] hashEntryAdrs, int n)
+    {
+        long[] hashes = new long[n];
+        for (int i = 0; i < n; i++)
+            hashes[i] = HashEntries.getHash(hashEntryAdrs[i]);
+
+        int[] order = new int[n];
+        int[] segStart = sortBySegment(hashes, n, order);
+        long[] sorted = new long[n];
+        for (int p = 0; p < n; p++)
+            sorted[p] = hashEntryAdrs[order[p]];
+        System.arraycopy(sorted, 0, hashEntryAdrs, 0, n);
+
+        for (int seg = 0; seg < maps.length; seg++)
+            if (segStart[seg] < segStart[seg + 1])
+                maps[seg].putEntries(hashEntryAdrs, segStart[seg], segStart[seg + 1]);
     }
 
     public void removeAll(Iterable<K> iterable)
     {
-        // could be improved by grouping removes by segment - but increases heap pressure and complexity - decide later
-        for (K o : iterable)
-            remove(o);
+        Iterator<K> keys = iterable.iterator();
+        List<KeyBuffer> batch = new ArrayList<>();
+        while (keys.hasNext())
+        {
+            batch.clear();
+            while (batch.size() < BULK_BATCH_SIZE && keys.hasNext())
+            {
+                K k = keys.next();
+                if (k == null)
+                    throw new NullPointerException();
+                batch.add(keySource(k));
+            }
+
+            int n = batch.size();
+            long[] hashes = new long[n];
+            for (int i = 0; i < n; i++)
+                hashes[i] = batch.get(i).hash();
+
+            int[] order = new int[n];
+            int[] segStart = sortBySegment(hashes, n, order);
+            KeyBuffer[] sorted = new KeyBuffer[n];
+            for (int p = 0; p < n; p++)
+                sorted[p] = batch.get(order[p]);
+
+            for (int seg = 0; seg < maps.length; seg++)
+                if (segStart[seg] < segStart[seg + 1])
+                    maps[seg].removeEntries(sorted, segStart[seg], segStart[seg + 1]);
+        }
     }
 
     public long memUsed()
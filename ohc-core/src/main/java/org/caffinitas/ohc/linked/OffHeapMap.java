@@ -16,6 +16,8 @@
 package org.caffinitas.ohc.linked;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.caffinitas.ohc.OHCacheBuilder;
@@ -25,12 +27,19 @@ final class OffHeapMap
 {
     // maximum hash table size
     private static final int MAX_TABLE_SIZE = 1 << 30;
-
-    private long lruHead;
-    private long lruTail;
+    // number of buckets moved to the new hash table by each write or locked read during an incremental rehash
+    static final int REHASH_BUCKETS = 64;
 
     private long size;
     private Table table;
+    // Incremental rehash: the hash table being replaced by 'table' - null if no rehash is in progress.
+    // Its buckets below 'migratedBuckets' have been moved to 'table', the others are still used.
+    private Table oldTable;
+    private int migratedBuckets;
+    // hash table allocated in advance for the next rehash - see prepareRehash()
+    private Table spareTable;
+    private volatile int preparingRehash;
+    private static final AtomicIntegerFieldUpdater<OffHeapMap> preparingRehashUpdater = AtomicIntegerFieldUpdater.newUpdater(OffHeapMap.class, "preparingRehash");
 
     private long hitCount;
     private long missCount;
@@ -43,6 +52,7 @@ final class OffHeapMap
 
     private long rehashes;
     private long evictedEntries;
+    private long expiredEntries;
 
     private long freeCapacity;
 
@@ -50,12 +60,56 @@ final class OffHeapMap
 
     private final boolean throwOOME;
 
+    private final EvictionPolicy evictionPolicy;
+
+    // Optimistic reads: readers do not acquire the lock but validate their result against this seqlock-like stamp.
+    // Writers increment the stamp before and after they modify the hash table (stamp is odd during modification).
+    // Memory unlinked by writers is retired via 'epochs' instead of being released immediately.
+    private volatile long stamp;
+    private static final AtomicLongFieldUpdater<OffHeapMap> stampUpdater = AtomicLongFieldUpdater.newUpdater(OffHeapMap.class, "stamp");
+    private final ReadEpochs epochs;
+
+    private volatile long optimisticHitCount;
+    private volatile long optimisticMissCount;
+    private static final AtomicLongFieldUpdater<OffHeapMap> optimisticHitCountUpdater = AtomicLongFieldUpdater.newUpdater(OffHeapMap.class, "optimisticHitCount");
+    private static final AtomicLongFieldUpdater<OffHeapMap> optimisticMissCountUpdater = AtomicLongFieldUpdater.newUpdater(OffHeapMap.class, "optimisticMissCount");
+
+    // buffered LRU promotion - null if hits are promoted immediately
+    private final ReadBuffer readBuffer;
+
+    // expiration of hash entries with a time-to-live or max-idle deadline
+    private final long maxIdleMillis;
+    private final long refreshAfterWriteMillis;
+    private final TimerWheel timerWheel;
+    // number of linked hash entries with a deadline
+    private long expiringEntries;
+
+    // second tier for evicted hash entries - null if not configured
+    private final SpillStore spillStore;
+    private final SpillIndex spillIndex;
+
     OffHeapMap(OHCacheBuilder builder, long freeCapacity)
+    {
+        this(builder, freeCapacity, null, 0);
+    }
+
+    OffHeapMap(OHCacheBuilder builder, long freeCapacity, SpillStore spillStore, int segments)
     {
         this.freeCapacity = freeCapacity;
 
         this.throwOOME = builder.isThrowOOME();
 
+        this.epochs = builder.isOptimisticReads() && Uns.hasLoadFence() ? new ReadEpochs() : null;
+        // optimistic reads record hits and misses in a read buffer, since they do not hold the segment lock
+        int readBufferSize = builder.getReadBufferSize();
+        if (readBufferSize <= 0 && epochs != null)
+            readBufferSize = ReadBuffer.DEFAULT_OPTIMISTIC_SIZE;
+        this.readBuffer = readBufferSize > 0 ? new ReadBuffer(readBufferSize) : null;
+
+        this.maxIdleMillis = Math.max(builder.getMaxIdleMillis(), 0L);
+        this.refreshAfterWriteMillis = Math.max(builder.getRefreshAfterWriteMillis(), 0L);
+        this.timerWheel = new TimerWheel(System.currentTimeMillis(), throwOOME);
+
         int hts = builder.getHashTableSize();
         if (hts <= 0)
             hts = 8192;
@@ -65,24 +119,59 @@ final class OffHeapMap
         if (table == null)
             throw new RuntimeException("unable to allocate off-heap memory for segment");
 
+        evictionPolicy = EvictionPolicy.create(builder, freeCapacity, table.size());
+
         float lf = builder.getLoadFactor();
         if (lf <= .0d)
             lf = .75f;
         this.loadFactor = lf;
         threshold = (long) ((double) table.size() * loadFactor);
+
+        this.spillStore = spillStore;
+        if (spillStore != null)
+        {
+            // one slot per 256 bytes of spilled data
+            long buckets = spillStore.capacity() / segments / 256L / SpillIndex.BUCKET_SLOTS;
+            try
+            {
+                spillIndex = new SpillIndex((int) Math.max(Math.min(buckets, 1 << 24), 64L), throwOOME);
+            }
+            catch (RuntimeException e)
+            {
+                table.release();
+                evictionPolicy.release();
+                throw e;
+            }
+        }
+        else
+            spillIndex = null;
     }
 
     void release()
     {
+        LongArrayList derefList = null;
         lock.lock();
         try
         {
             table.release();
             table = null;
+            if (oldTable != null)
+                oldTable.release();
+            oldTable = null;
+            if (spareTable != null)
+                spareTable.release();
+            spareTable = null;
+            evictionPolicy.release();
+            timerWheel.clear();
+            if (spillIndex != null)
+                spillIndex.release();
+            if (epochs != null)
+                derefList = epochs.reclaimAll();
         }
         finally
         {
             lock.unlock();
+            dereference(derefList);
         }
     }
 
@@ -93,12 +182,12 @@ final class OffHeapMap
 
     long hitCount()
     {
-        return hitCount;
+        return hitCount + optimisticHitCount;
     }
 
     long missCount()
     {
-        return missCount;
+        return missCount + optimisticMissCount;
     }
 
     long putAddCount()
@@ -120,8 +209,11 @@ final class OffHeapMap
     {
         rehashes = 0L;
         evictedEntries = 0L;
+        expiredEntries = 0L;
         hitCount = 0L;
         missCount = 0L;
+        optimisticHitCount = 0L;
+        optimisticMissCount = 0L;
         putAddCount = 0L;
         putReplaceCount = 0L;
         removeCount = 0L;
@@ -143,6 +235,7 @@ final class OffHeapMap
         try
         {
             freeCapacity += diff;
+            evictionPolicy.updateCapacity(diff);
         }
         finally
         {
@@ -155,56 +248,454 @@ final class OffHeapMap
         return evictedEntries;
     }
 
+    long expiredEntries()
+    {
+        return expiredEntries;
+    }
+
     long getEntry(KeyBuffer key, boolean reference)
     {
+        if (epochs != null)
+        {
+            long hashEntryAdr = getEntryOptimistic(key, reference);
+            if (hashEntryAdr != -1L)
+            {
+                if (oldTable != null)
+                    tryMigrateOnRead();
+                return hashEntryAdr;
+            }
+            // fall back to locked read
+        }
+
+        lock.lock();
+        try
+        {
+            migrateOnRead();
+            return getEntryLocked(key, reference);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Looks up the hash entries for the keys {@code keys[from]} to {@code keys[to - 1]}, which must all belong to this
+     * segment, and stores the referenced hash entry addresses (or {@code 0L}) at the same indexes in
+     * {@code hashEntryAdrs}. The lock is taken once for all keys.
+     */
+    void getEntries(KeyBuffer[] keys, int from, int to, long[] hashEntryAdrs)
+    {
+        boolean locked = epochs == null;
+        if (!locked)
+            for (int i = from; i < to; i++)
+                if ((hashEntryAdrs[i] = getEntryOptimistic(keys[i], true)) == -1L)
+                    // fall back to locked read
+                    locked = true;
+
+        if (!locked)
+        {
+            if (oldTable != null)
+                tryMigrateOnRead();
+            return;
+        }
+
         lock.lock();
         try
         {
-            for (long hashEntryAdr = table.getFirst(key.hash());
+            migrateOnRead();
+            for (int i = from; i < to; i++)
+                if (epochs == null || hashEntryAdrs[i] == -1L)
+                    hashEntryAdrs[i] = getEntryLocked(keys[i], true);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private long getEntryLocked(KeyBuffer key, boolean reference)
+    {
+        for (long hashEntryAdr = tableFor(key.hash()).getFirst(key.hash());
+             hashEntryAdr != 0L;
+             hashEntryAdr = HashEntries.getNext(hashEntryAdr))
+        {
+            if (notSameKey(key, hashEntryAdr))
+                continue;
+
+            if (expiredOnAccess(hashEntryAdr))
+                // expired hash entries are reclaimed by the timer wheel
+                break;
+
+            // return existing entry
+
+            if (readBuffer == null)
+                evictionPolicy.accessed(hashEntryAdr, key.hash());
+            else if (readBuffer.record(hashEntryAdr, key.hash()))
+                readBuffer.drain(this);
+
+            if (reference)
+                HashEntries.reference(hashEntryAdr);
+
+            hitCount++;
+            return hashEntryAdr;
+        }
+
+        // not found
+        evictionPolicy.missed(key.hash());
+        missCount++;
+        return 0L;
+    }
+
+    /**
+     * Lock-free lookup. Returns {@code -1L} if the result could not be validated, e.g. due to a concurrent
+     * modification of the segment.
+     */
+    private long getEntryOptimistic(KeyBuffer key, boolean reference)
+    {
+        int slot = epochs.enter();
+        try
+        {
+            long stamp = this.stamp;
+            if ((stamp & 1L) != 0L)
+                // write in progress
+                return -1L;
+
+            for (long hashEntryAdr = tableFor(key.hash()).getFirst(key.hash());
                  hashEntryAdr != 0L;
                  hashEntryAdr = HashEntries.getNext(hashEntryAdr))
             {
                 if (notSameKey(key, hashEntryAdr))
+                {
+                    if (!validate(stamp))
+                        return -1L;
                     continue;
+                }
 
-                // return existing entry
+                if (expiredOnAccess(hashEntryAdr))
+                {
+                    if (!validate(stamp))
+                        return -1L;
+                    missedOptimistic(key.hash());
+                    return 0L;
+                }
 
-                touch(hashEntryAdr);
+                // return existing entry
 
                 if (reference)
                     HashEntries.reference(hashEntryAdr);
 
-                hitCount++;
+                if (!validate(stamp))
+                {
+                    if (reference)
+                        HashEntries.dereference(hashEntryAdr);
+                    return -1L;
+                }
+
+                promote(hashEntryAdr, key.hash());
+
+                optimisticHitCountUpdater.incrementAndGet(this);
                 return hashEntryAdr;
             }
 
+            if (!validate(stamp))
+                return -1L;
+
             // not found
-            missCount++;
+            missedOptimistic(key.hash());
             return 0L;
         }
         finally
+        {
+            epochs.exit(slot);
+        }
+    }
+
+    private boolean validate(long stamp)
+    {
+        // order the reads of the hash table before the re-read of the stamp
+        Uns.loadFence();
+        return this.stamp == stamp;
+    }
+
+    private void promote(long hashEntryAdr, long hash)
+    {
+        if (readBuffer.record(hashEntryAdr, hash))
+            tryDrainReadBuffer();
+    }
+
+    private void missedOptimistic(long hash)
+    {
+        optimisticMissCountUpdater.incrementAndGet(this);
+        if (evictionPolicy.tracksMisses() && readBuffer.recordMiss(hash))
+            tryDrainReadBuffer();
+    }
+
+    private void tryDrainReadBuffer()
+    {
+        // skipped if the segment is busy - the read buffer is then drained by a later reader
+        if (!lock.tryLock())
+            return;
+        try
+        {
+            readBuffer.drain(this);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Promotes a hash entry recorded in the read buffer, if it is still linked - lock must be held.
+     */
+    void touchIfLinked(long touchHashEntryAdr, long hash)
+    {
+        for (long hashEntryAdr = tableFor(hash).getFirst(hash);
+             hashEntryAdr != 0L;
+             hashEntryAdr = HashEntries.getNext(hashEntryAdr))
+        {
+            if (hashEntryAdr == touchHashEntryAdr)
+            {
+                evictionPolicy.accessed(hashEntryAdr, hash);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies a miss recorded in the read buffer - lock must be held.
+     */
+    void missed(long hash)
+    {
+        evictionPolicy.missed(hash);
+    }
+
+    /**
+     * Checks whether a hash entry found by a lookup has expired and extends its max-idle deadline if not.
+     */
+    private boolean expiredOnAccess(long hashEntryAdr)
+    {
+        long expireAt = HashEntries.getExpireAt(hashEntryAdr);
+        if (expireAt == 0L && maxIdleMillis == 0L)
+            return false;
+
+        long now = System.currentTimeMillis();
+        if (expireAt != 0L && expireAt <= now)
+            return true;
+
+        long idleExpireAt = HashEntries.getIdleExpireAt(hashEntryAdr);
+        if (idleExpireAt == 0L)
+            return false;
+        if (idleExpireAt <= now)
+            return true;
+        // the timer wheel reschedules the hash entry when it visits the old deadline
+        HashEntries.setIdleExpireAt(hashEntryAdr, now + maxIdleMillis);
+        return false;
+    }
+
+    private static boolean expired(long hashEntryAdr, long now)
+    {
+        long deadline = HashEntries.getDeadline(hashEntryAdr);
+        return deadline != 0L && deadline <= now;
+    }
+
+    /**
+     * Removes a hash entry recorded in the timer wheel, if it is still linked and has expired - lock must be held.
+     *
+     * @return {@code -1L} if the hash entry has been unlinked, its deadline if it has not expired yet or
+     * {@code 0L} if the hash entry is not linked
+     */
+    long expire(long expireHashEntryAdr, long hash, long now)
+    {
+        long prevEntryAdr = 0L;
+        for (long hashEntryAdr = tableFor(hash).getFirst(hash);
+             hashEntryAdr != 0L;
+             prevEntryAdr = hashEntryAdr, hashEntryAdr = HashEntries.getNext(hashEntryAdr))
+        {
+            if (hashEntryAdr != expireHashEntryAdr)
+                continue;
+
+            long deadline = HashEntries.getDeadline(hashEntryAdr);
+            if (deadline == 0L || deadline > now)
+                return deadline;
+
+            removeInternal(hashEntryAdr, prevEntryAdr);
+
+            size--;
+            expiredEntries++;
+
+            return -1L;
+        }
+        return 0L;
+    }
+
+    private LongArrayList expireEntries(LongArrayList derefList)
+    {
+        if (timerWheel.records() == 0L)
+            return derefList;
+
+        derefList = timerWheel.advance(this, System.currentTimeMillis(), derefList);
+
+        // drop records of hash entries that have been removed or replaced
+        if (timerWheel.records() > 2L * expiringEntries + 1024L)
+            derefList = timerWheel.compact(this, derefList);
+
+        return derefList;
+    }
+
+    private void scheduleExpiration(long hashEntryAdr, long hash)
+    {
+        if ((maxIdleMillis > 0L || refreshAfterWriteMillis > 0L)
+            && HashEntries.getSentinel(hashEntryAdr) == Util.SENTINEL_NOT_PRESENT)
+        {
+            long now = System.currentTimeMillis();
+            if (maxIdleMillis > 0L)
+                HashEntries.setIdleExpireAt(hashEntryAdr, now + maxIdleMillis);
+            if (refreshAfterWriteMillis > 0L)
+                HashEntries.setRefreshAt(hashEntryAdr, now + refreshAfterWriteMillis);
+        }
+
+        long deadline = HashEntries.getDeadline(hashEntryAdr);
+        if (deadline == 0L)
+            return;
+
+        expiringEntries++;
+        // if no record can be allocated, the hash entry is still treated as a miss after its deadline
+        timerWheel.schedule(hashEntryAdr, hash, deadline);
+    }
+
+    /**
+     * Lets a lookup that holds the lock advance an incremental rehash, so it also completes without writes -
+     * hash entries and hash tables retired by the migration are reclaimed by the next write.
+     */
+    private void migrateOnRead()
+    {
+        if (oldTable == null)
+            return;
+
+        if (epochs == null)
+        {
+            migrate(REHASH_BUCKETS);
+            return;
+        }
+
+        // moving hash entries is a modification for optimistic readers
+        stampUpdater.incrementAndGet(this);
+        migrate(REHASH_BUCKETS);
+        stampUpdater.incrementAndGet(this);
+    }
+
+    private void tryMigrateOnRead()
+    {
+        // skipped if the segment is busy
+        if (!lock.tryLock())
+            return;
+        try
+        {
+            migrateOnRead();
+        }
+        finally
         {
             lock.unlock();
         }
     }
 
+    private void lockForWrite()
+    {
+        lock.lock();
+        if (epochs != null)
+            stampUpdater.incrementAndGet(this);
+        migrate(REHASH_BUCKETS);
+    }
+
+    /**
+     * Unlocks the segment and dereferences the given hash entries, which have been unlinked while holding the lock.
+     */
+    private void unlockForWrite(long removeHashEntryAdr, LongArrayList derefList)
+    {
+        if (epochs != null)
+        {
+            // optimistic readers may still access unlinked hash entries
+            if (removeHashEntryAdr != 0L)
+                epochs.retireEntry(removeHashEntryAdr);
+            if (derefList != null)
+                for (int i = 0; i < derefList.size(); i++)
+                    epochs.retireEntry(derefList.getLong(i));
+            removeHashEntryAdr = 0L;
+            derefList = epochs.reclaim();
+
+            stampUpdater.incrementAndGet(this);
+        }
+
+        lock.unlock();
+
+        if (removeHashEntryAdr != 0L)
+            HashEntries.dereference(removeHashEntryAdr);
+        dereference(derefList);
+    }
+
+    private static void dereference(LongArrayList derefList)
+    {
+        if (derefList != null)
+            for (int i = 0; i < derefList.size(); i++)
+                HashEntries.dereference(derefList.getLong(i));
+    }
+
+    /**
+     * Releases the reference held by this map on a hash entry that has been unlinked via
+     * {@link #replaceEntry(long, long, long, long)}.
+     */
+    void dereferenceReplaced(long hashEntryAdr)
+    {
+        if (epochs == null)
+        {
+            HashEntries.dereference(hashEntryAdr);
+            return;
+        }
+
+        lockForWrite();
+        unlockForWrite(hashEntryAdr, null);
+    }
+
     boolean putEntry(long newHashEntryAdr, long hash, long keyLen, long bytes, boolean ifAbsent, long oldValueAdr, long oldValueLen)
     {
+        prepareRehash();
+
         long removeHashEntryAdr = 0L;
         LongArrayList derefList = null;
-        lock.lock();
+        lockForWrite();
         try
         {
+            derefList = expireEntries(derefList);
+
+            if (spillIndex != null)
+                // a spilled hash entry for the key is outdated
+                spillIndex.remove(hash, -1L);
+
             long oldHashEntryAdr = 0L;
             long hashEntryAdr;
             long prevEntryAdr = 0L;
-            for (hashEntryAdr = table.getFirst(hash);
+            for (hashEntryAdr = tableFor(hash).getFirst(hash);
                  hashEntryAdr != 0L;
                  prevEntryAdr = hashEntryAdr, hashEntryAdr = HashEntries.getNext(hashEntryAdr))
             {
                 if (notSameKey(newHashEntryAdr, hash, keyLen, hashEntryAdr))
                     continue;
 
+                if (expired(hashEntryAdr, System.currentTimeMillis()))
+                {
+                    // treat expired entry as absent
+                    removeInternal(hashEntryAdr, prevEntryAdr);
+                    removeHashEntryAdr = hashEntryAdr;
+
+                    size--;
+                    expiredEntries++;
+
+                    hashEntryAdr = 0L;
+                    break;
+                }
+
                 // replace existing entry
 
                 if (ifAbsent)
@@ -214,7 +705,7 @@ final class OffHeapMap
                 {
                     // code for replace() operation
                     long valueLen = HashEntries.getValueLen(hashEntryAdr);
-                    if (valueLen != oldValueLen || !HashEntries.compare(hashEntryAdr, Util.ENTRY_OFF_DATA + Util.roundUpTo8(keyLen), oldValueAdr, 0L, oldValueLen))
+                    if (valueLen != oldValueLen || !HashEntries.compare(hashEntryAdr, Util.ENTRY_OFF_DATA + keyLen, oldValueAdr, 0L, oldValueLen))
                         return false;
                 }
 
@@ -226,18 +717,16 @@ final class OffHeapMap
                 break;
             }
 
-            while (freeCapacity < bytes)
+            if (readBuffer != null && freeCapacity < bytes)
+                // apply pending LRU promotions before evicting
+                readBuffer.drain(this);
+
+            derefList = evict(bytes, derefList);
+            if (freeCapacity < bytes)
             {
-                long eldestHashAdr = removeEldest();
-                if (eldestHashAdr == 0L)
-                {
-                    if (oldHashEntryAdr != 0L)
-                        size--;
-                    return false;
-                }
-                if (derefList == null)
-                    derefList = new LongArrayList();
-                derefList.add(eldestHashAdr);
+                if (oldHashEntryAdr != 0L)
+                    size--;
+                return false;
             }
 
             if (hashEntryAdr == 0L)
@@ -261,18 +750,144 @@ final class OffHeapMap
         }
         finally
         {
-            lock.unlock();
-            if (removeHashEntryAdr != 0L)
-                HashEntries.dereference(removeHashEntryAdr);
-            if (derefList != null)
-                for (int i = 0; i < derefList.size(); i++)
-                    HashEntries.dereference(derefList.getLong(i));
+            unlockForWrite(removeHashEntryAdr, derefList);
+        }
+    }
+
+    /**
+     * Adds the hash entries {@code hashEntryAdrs[from]} to {@code hashEntryAdrs[to - 1]}, which must all belong to
+     * this segment, replacing the existing entries for the same keys. The lock is taken once for all hash entries.
+     * Existing entries are unlinked first, then eldest entries are evicted at once to make room for the whole batch.
+     * Added hash entries are set to {@code 0L} in {@code hashEntryAdrs}, the caller must free the remaining ones.
+     */
+    void putEntries(long[] hashEntryAdrs, int from, int to)
+    {
+        prepareRehash();
+
+        LongArrayList derefList = null;
+        lockForWrite();
+        try
+        {
+            derefList = expireEntries(derefList);
+
+            boolean[] replaced = new boolean[to - from];
+            long bytes = 0L;
+            for (int i = from; i < to; i++)
+            {
+                long newHashEntryAdr = hashEntryAdrs[i];
+                long hash = HashEntries.getHash(newHashEntryAdr);
+
+                if (spillIndex != null)
+                    // a spilled hash entry for the key is outdated
+                    spillIndex.remove(hash, -1L);
+
+                long hashEntryAdr = unlinkSameKey(newHashEntryAdr, hash);
+                if (hashEntryAdr != 0L)
+                {
+                    replaced[i - from] = !expired(hashEntryAdr, System.currentTimeMillis());
+                    if (!replaced[i - from])
+                        expiredEntries++;
+                    derefList = dereferenceLater(derefList, hashEntryAdr);
+                }
+
+                bytes += HashEntries.getAllocLen(newHashEntryAdr);
+            }
+
+            if (readBuffer != null && freeCapacity < bytes)
+                // apply pending LRU promotions before evicting
+                readBuffer.drain(this);
+
+            derefList = evict(bytes, derefList);
+
+            for (int i = from; i < to; i++)
+            {
+                long newHashEntryAdr = hashEntryAdrs[i];
+                long hash = HashEntries.getHash(newHashEntryAdr);
+                long entryBytes = HashEntries.getAllocLen(newHashEntryAdr);
+
+                // same key twice in the batch
+                long hashEntryAdr = unlinkSameKey(newHashEntryAdr, hash);
+                if (hashEntryAdr != 0L)
+                {
+                    replaced[i - from] = true;
+                    derefList = dereferenceLater(derefList, hashEntryAdr);
+                }
+
+                // only evicts, if the batch is larger than the capacity
+                derefList = evict(entryBytes, derefList);
+                if (freeCapacity < entryBytes)
+                    continue;
+
+                if (size >= threshold)
+                    rehash();
+
+                size++;
+                freeCapacity -= entryBytes;
+
+                add(newHashEntryAdr, hash);
+                hashEntryAdrs[i] = 0L;
+
+                if (replaced[i - from])
+                    putReplaceCount++;
+                else
+                    putAddCount++;
+            }
         }
+        finally
+        {
+            unlockForWrite(0L, derefList);
+        }
+    }
+
+    /**
+     * Unlinks the hash entry with the same key as the given new hash entry.
+     *
+     * @return the unlinked hash entry or {@code 0L}
+     */
+    private long unlinkSameKey(long newHashEntryAdr, long hash)
+    {
+        long keyLen = HashEntries.getKeyLen(newHashEntryAdr);
+        long prevEntryAdr = 0L;
+        for (long hashEntryAdr = tableFor(hash).getFirst(hash);
+             hashEntryAdr != 0L;
+             prevEntryAdr = hashEntryAdr, hashEntryAdr = HashEntries.getNext(hashEntryAdr))
+        {
+            if (notSameKey(newHashEntryAdr, hash, keyLen, hashEntryAdr))
+                continue;
+
+            removeInternal(hashEntryAdr, prevEntryAdr);
+            size--;
+            return hashEntryAdr;
+        }
+        return 0L;
+    }
+
+    /**
+     * Evicts eldest hash entries until the given number of bytes is free or no entry is left to evict.
+     */
+    private LongArrayList evict(long bytes, LongArrayList derefList)
+    {
+        while (freeCapacity < bytes)
+        {
+            long eldestHashAdr = removeEldest();
+            if (eldestHashAdr == 0L)
+                break;
+            derefList = dereferenceLater(derefList, eldestHashAdr);
+        }
+        return derefList;
+    }
+
+    private static LongArrayList dereferenceLater(LongArrayList derefList, long hashEntryAdr)
+    {
+        if (derefList == null)
+            derefList = new LongArrayList();
+        derefList.add(hashEntryAdr);
+        return derefList;
     }
 
     private long removeEldest()
     {
-        long hashEntryAdr = lruTail;
+        long hashEntryAdr = evictionPolicy.victim();
         if (hashEntryAdr == 0L)
             return 0L;
 
@@ -281,47 +896,113 @@ final class OffHeapMap
         size--;
         evictedEntries++;
 
+        if (spillStore != null && !expired(hashEntryAdr, System.currentTimeMillis()))
+        {
+            long hash = HashEntries.getHash(hashEntryAdr);
+            long pos = spillStore.write(hashEntryAdr);
+            if (pos >= 0L)
+                spillIndex.put(hash, pos);
+        }
+
         return hashEntryAdr;
     }
 
-    void clear()
+    /**
+     * @return position of the spilled hash entry for the given key or {@code -1L}
+     */
+    long spillPosition(KeyBuffer key)
     {
         lock.lock();
         try
         {
-            lruHead = lruTail = 0L;
-            size = 0L;
+            return spillIndex.get(key.hash());
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
 
-            long next;
-            long freed = 0L;
-            for (int p = 0; p < table.size(); p++)
-                for (long hashEntryAdr = table.getFirst(p);
-                     hashEntryAdr != 0L;
-                     hashEntryAdr = next)
-                {
-                    next = HashEntries.getNext(hashEntryAdr);
+    /**
+     * Adds a hash entry read from the spill file, if the spilled hash entry has neither been replaced nor removed
+     * in the meantime.
+     */
+    boolean promoteEntry(long newHashEntryAdr, long hash, long keyLen, long bytes, long spillPos)
+    {
+        lock.lock();
+        try
+        {
+            if (!spillIndex.remove(hash, spillPos))
+                return false;
+            return putEntry(newHashEntryAdr, hash, keyLen, bytes, true, 0L, 0L);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
 
-                    freed += HashEntries.getAllocLen(hashEntryAdr);
-                    HashEntries.dereference(hashEntryAdr);
-                }
+    void clear()
+    {
+        lockForWrite();
+        try
+        {
+            evictionPolicy.clear();
+            timerWheel.clear();
+            if (spillIndex != null)
+                spillIndex.clear();
+            size = 0L;
+            expiringEntries = 0L;
+
+            long freed = clear(table, 0);
+            if (oldTable != null)
+            {
+                freed += clear(oldTable, migratedBuckets);
+                releaseOldTable();
+            }
             freeCapacity += freed;
 
             table.clear();
         }
         finally
         {
-            lock.unlock();
+            unlockForWrite(0L, null);
         }
     }
 
+    /**
+     * Dereferences the hash entries in the buckets of the given hash table starting at the given bucket.
+     *
+     * @return number of bytes allocated by the hash entries
+     */
+    private long clear(Table tab, int firstBucket)
+    {
+        long next;
+        long freed = 0L;
+        for (int p = firstBucket; p < tab.size(); p++)
+            for (long hashEntryAdr = tab.getFirst(p);
+                 hashEntryAdr != 0L;
+                 hashEntryAdr = next)
+            {
+                next = HashEntries.getNext(hashEntryAdr);
+
+                freed += HashEntries.getAllocLen(hashEntryAdr);
+                if (epochs != null)
+                    epochs.retireEntry(hashEntryAdr);
+                else
+                    HashEntries.dereference(hashEntryAdr);
+            }
+        return freed;
+    }
+
     void removeEntry(long removeHashEntryAdr)
     {
-        lock.lock();
+        lockForWrite();
         try
         {
             long hash = HashEntries.getHash(removeHashEntryAdr);
             long prevEntryAdr = 0L;
-            for (long hashEntryAdr = table.getFirst(hash);
+            for (long hashEntryAdr = tableFor(hash).getFirst(hash);
                  hashEntryAdr != 0L;
                  prevEntryAdr = hashEntryAdr, hashEntryAdr = HashEntries.getNext(hashEntryAdr))
             {
@@ -338,20 +1019,21 @@ final class OffHeapMap
         }
         finally
         {
-            lock.unlock();
-            if (removeHashEntryAdr != 0L)
-                HashEntries.dereference(removeHashEntryAdr);
+            unlockForWrite(removeHashEntryAdr, null);
         }
     }
 
     void removeEntry(KeyBuffer key)
     {
         long removeHashEntryAdr = 0L;
-        lock.lock();
+        lockForWrite();
         try
         {
+            if (spillIndex != null)
+                spillIndex.remove(key.hash(), -1L);
+
             long prevEntryAdr = 0L;
-            for (long hashEntryAdr = table.getFirst(key.hash());
+            for (long hashEntryAdr = tableFor(key.hash()).getFirst(key.hash());
                  hashEntryAdr != 0L;
                  prevEntryAdr = hashEntryAdr, hashEntryAdr = HashEntries.getNext(hashEntryAdr))
             {
@@ -368,9 +1050,46 @@ final class OffHeapMap
         }
         finally
         {
-            lock.unlock();
-            if (removeHashEntryAdr != 0L)
-                HashEntries.dereference(removeHashEntryAdr);
+            unlockForWrite(removeHashEntryAdr, null);
+        }
+    }
+
+    /**
+     * Removes the entries for the keys {@code keys[from]} to {@code keys[to - 1]}, which must all belong to this
+     * segment. The lock is taken once for all keys.
+     */
+    void removeEntries(KeyBuffer[] keys, int from, int to)
+    {
+        LongArrayList derefList = null;
+        lockForWrite();
+        try
+        {
+            for (int i = from; i < to; i++)
+            {
+                KeyBuffer key = keys[i];
+
+                if (spillIndex != null)
+                    spillIndex.remove(key.hash(), -1L);
+
+                long prevEntryAdr = 0L;
+                for (long hashEntryAdr = tableFor(key.hash()).getFirst(key.hash());
+                     hashEntryAdr != 0L;
+                     prevEntryAdr = hashEntryAdr, hashEntryAdr = HashEntries.getNext(hashEntryAdr))
+                {
+                    if (notSameKey(key, hashEntryAdr))
+                        continue;
+
+                    // remove existing entry
+
+                    derefList = dereferenceLater(derefList, hashEntryAdr);
+                    removeIt(prevEntryAdr, hashEntryAdr);
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            unlockForWrite(0L, derefList);
         }
     }
 
@@ -400,8 +1119,56 @@ final class OffHeapMap
                || !HashEntries.compare(hashEntryAdr, Util.ENTRY_OFF_DATA, newHashEntryAdr, Util.ENTRY_OFF_DATA, serKeyLen);
     }
 
+    /**
+     * Allocates and initializes the hash table for the next rehash without holding the lock, if the hash table
+     * is almost full - allocating and zeroing a large hash table would otherwise stall the segment for
+     * milliseconds. Only one thread prepares a hash table at a time.
+     */
+    private void prepareRehash()
+    {
+        // unsynchronized reads - a stale value only lets rehash() allocate the hash table while holding the lock
+        Table tab = table;
+        if (tab == null || spareTable != null || size < threshold - (threshold >> 4))
+            return;
+
+        int tableSize = tab.size();
+        if (tableSize > MAX_TABLE_SIZE || !preparingRehashUpdater.compareAndSet(this, 0, 1))
+            return;
+        try
+        {
+            Table newTable = Table.create(tableSize * 2, false);
+            if (newTable == null)
+                return;
+
+            lock.lock();
+            try
+            {
+                if (spareTable == null && table != null && table.size() == tableSize)
+                {
+                    spareTable = newTable;
+                    newTable = null;
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            if (newTable != null)
+                newTable.release();
+        }
+        finally
+        {
+            preparingRehash = 0;
+        }
+    }
+
     private void rehash()
     {
+        if (oldTable != null)
+            // the previous rehash has not finished yet
+            migrate(Integer.MAX_VALUE);
+
         Table tab = table;
         int tableSize = tab.size();
         if (tableSize > MAX_TABLE_SIZE)
@@ -410,27 +1177,76 @@ final class OffHeapMap
             return;
         }
 
-        Table newTable = Table.create(tableSize * 2, throwOOME);
-        if (newTable == null)
+        Table newTable = spareTable;
+        spareTable = null;
+        if (newTable == null || newTable.size() != tableSize * 2)
+        {
+            if (newTable != null)
+                newTable.release();
+            newTable = Table.create(tableSize * 2, throwOOME);
+            if (newTable == null)
+                return;
+        }
+
+        // the hash entries are moved by the following writes, so a single write does not stall the segment
+        oldTable = tab;
+        migratedBuckets = 0;
+        table = newTable;
+
+        threshold = (long) ((float) newTable.size() * loadFactor);
+        evictionPolicy.resize(newTable.size());
+        rehashes++;
+    }
+
+    /**
+     * Moves the hash entries of the next buckets of the old hash table to the current one during an incremental
+     * rehash - lock must be held for write.
+     *
+     * @param buckets maximum number of buckets to move
+     */
+    private void migrate(int buckets)
+    {
+        Table tab = oldTable;
+        if (tab == null)
             return;
-        long next;
 
-        for (int part = 0; part < tableSize; part++)
+        int end = (int) Math.min((long) migratedBuckets + buckets, tab.size());
+        long next;
+        for (int part = migratedBuckets; part < end; part++)
+        {
             for (long hashEntryAdr = tab.getFirst(part);
                  hashEntryAdr != 0L;
                  hashEntryAdr = next)
             {
                 next = HashEntries.getNext(hashEntryAdr);
 
-                HashEntries.setNext(hashEntryAdr, 0L);
-
-                newTable.addAsHead(HashEntries.getHash(hashEntryAdr), hashEntryAdr);
+                table.addAsHead(HashEntries.getHash(hashEntryAdr), hashEntryAdr);
             }
+            tab.setFirst(part, 0L);
+        }
+        migratedBuckets = end;
 
-        threshold = (long) ((float) newTable.size() * loadFactor);
-        table.release();
-        table = newTable;
-        rehashes++;
+        if (end == tab.size())
+            releaseOldTable();
+    }
+
+    private void releaseOldTable()
+    {
+        if (epochs != null)
+            oldTable.retire(epochs);
+        else
+            oldTable.release();
+        oldTable = null;
+    }
+
+    /**
+     * @return the hash table that holds the bucket for the given hash - the old hash table during an incremental
+     * rehash, if the bucket has not been moved yet
+     */
+    private Table tableFor(long hash)
+    {
+        Table tab = oldTable;
+        return tab != null && tab.bucketIndexForHash(hash) >= migratedBuckets ? tab : table;
     }
 
     long[] hotN(int n)
@@ -438,14 +1254,21 @@ final class OffHeapMap
         lock.lock();
         try
         {
+            if (readBuffer != null)
+                readBuffer.drain(this);
+
             long[] r = new long[n];
-            int i = 0;
-            for (long hashEntryAdr = lruHead;
-                 hashEntryAdr != 0L && i < n;
-                 hashEntryAdr = HashEntries.getLRUNext(hashEntryAdr))
+            evictionPolicy.fillHotN(r);
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < r.length; i++)
             {
-                r[i++] = hashEntryAdr;
-                HashEntries.reference(hashEntryAdr);
+                long hashEntryAdr = r[i];
+                if (hashEntryAdr == 0L)
+                    continue;
+                if (expired(hashEntryAdr, now))
+                    r[i] = 0L;
+                else
+                    HashEntries.reference(hashEntryAdr);
             }
             return r;
         }
@@ -465,12 +1288,35 @@ final class OffHeapMap
         return table.size();
     }
 
+    /**
+     * @return whether an incremental rehash has not finished yet
+     */
+    boolean rehashing()
+    {
+        lock.lock();
+        try
+        {
+            return oldTable != null;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
     void updateBucketHistogram(EstimatedHistogram hist)
     {
         lock.lock();
         try
         {
-            table.updateBucketHistogram(hist);
+            for (int p = 0; p < table.size(); p++)
+            {
+                int len = 0;
+                for (long adr = tableFor(p).getFirst(p); adr != 0L; adr = HashEntries.getNext(adr))
+                    if (inBucket(adr, p))
+                        len++;
+                hist.add(len + 1);
+            }
         }
         finally
         {
@@ -483,11 +1329,14 @@ final class OffHeapMap
         lock.lock();
         try
         {
+            long now = System.currentTimeMillis();
             for (; nSegments-- > 0 && mapSegmentIndex < table.size(); mapSegmentIndex++)
-                for (long hashEntryAdr = table.getFirst(mapSegmentIndex);
+                for (long hashEntryAdr = tableFor(mapSegmentIndex).getFirst(mapSegmentIndex);
                      hashEntryAdr != 0L;
                      hashEntryAdr = HashEntries.getNext(hashEntryAdr))
                 {
+                    if (!inBucket(hashEntryAdr, mapSegmentIndex) || expired(hashEntryAdr, now))
+                        continue;
                     hashEntryAdrs.add(hashEntryAdr);
                     HashEntries.reference(hashEntryAdr);
                 }
@@ -498,6 +1347,17 @@ final class OffHeapMap
         }
     }
 
+    /**
+     * During an incremental rehash, a bucket of the old hash table holds the hash entries of two buckets of the
+     * current hash table.
+     *
+     * @return whether the hash entry belongs to the given bucket of the current hash table
+     */
+    private boolean inBucket(long hashEntryAdr, int bucket)
+    {
+        return table.bucketIndexForHash(HashEntries.getHash(hashEntryAdr)) == bucket;
+    }
+
     static final class Table
     {
         final int mask;
@@ -531,6 +1391,13 @@ final class OffHeapMap
             released = true;
         }
 
+        void retire(ReadEpochs epochs)
+        {
+            // optimistic readers may still access this table
+            epochs.retireMemory(address);
+            released = true;
+        }
+
         protected void finalize() throws Throwable
         {
             if (!released)
@@ -619,39 +1486,17 @@ final class OffHeapMap
         {
             return mask + 1;
         }
-
-        void updateBucketHistogram(EstimatedHistogram h)
-        {
-            for (int i = 0; i < size(); i++)
-            {
-                int len = 0;
-                for (long adr = getFirst(i); adr != 0L; adr = HashEntries.getNext(adr))
-                    len++;
-                h.add(len + 1);
-            }
-        }
     }
 
     private void removeInternal(long hashEntryAdr, long prevEntryAdr)
     {
         long hash = HashEntries.getHash(hashEntryAdr);
 
-        table.removeLink(hash, hashEntryAdr, prevEntryAdr);
-
-        // LRU stuff
-
-        long next = HashEntries.getLRUNext(hashEntryAdr);
-        long prev = HashEntries.getLRUPrev(hashEntryAdr);
+        tableFor(hash).removeLink(hash, hashEntryAdr, prevEntryAdr);
 
-        if (lruHead == hashEntryAdr)
-            lruHead = next;
-        if (lruTail == hashEntryAdr)
-            lruTail = prev;
-
-        if (next != 0L)
-            HashEntries.setLRUPrev(next, prev);
-        if (prev != 0L)
-            HashEntries.setLRUNext(prev, next);
+        evictionPolicy.removed(hashEntryAdr);
+        if (HashEntries.getDeadline(hashEntryAdr) != 0L)
+            expiringEntries--;
 
         freeCapacity += HashEntries.getAllocLen(hashEntryAdr);
     }
@@ -660,11 +1505,13 @@ final class OffHeapMap
     {
         LongArrayList derefList = null;
 
-        lock.lock();
+        lockForWrite();
         try
         {
+            derefList = expireEntries(derefList);
+
             long prevEntryAdr = 0L;
-            for (long hashEntryAdr = table.getFirst(hash);
+            for (long hashEntryAdr = tableFor(hash).getFirst(hash);
                  hashEntryAdr != 0L;
                  prevEntryAdr = hashEntryAdr, hashEntryAdr = HashEntries.getNext(hashEntryAdr))
             {
@@ -675,6 +1522,10 @@ final class OffHeapMap
 
                 replaceInternal(oldHashEntryAdr, prevEntryAdr, newHashEntryAdr);
 
+                if (readBuffer != null && freeCapacity < bytes)
+                    // apply pending LRU promotions before evicting
+                    readBuffer.drain(this);
+
                 while (freeCapacity < bytes)
                 {
                     long eldestHashAdr = removeEldest();
@@ -694,86 +1545,82 @@ final class OffHeapMap
         }
         finally
         {
-            lock.unlock();
-
-            if (derefList != null)
-                for (int i = 0; i < derefList.size(); i++)
-                    HashEntries.dereference(derefList.getLong(i));
+            unlockForWrite(0L, derefList);
         }
     }
 
-    private void replaceInternal(long hashEntryAdr, long prevEntryAdr, long newHashEntryAdr)
+    /**
+     * Moves a linked hash entry that is only referenced by this segment to a new block of the entry log.
+     *
+     * @return {@code false} if the hash entry is not linked, is referenced outside of this segment or
+     * no memory could be allocated
+     */
+    boolean relocateEntry(long oldHashEntryAdr, long hash, EntryLog entryLog)
     {
-        long hash = HashEntries.getHash(hashEntryAdr);
+        long removeHashEntryAdr = 0L;
 
-        table.replaceLink(hash, hashEntryAdr, prevEntryAdr, newHashEntryAdr);
+        lockForWrite();
+        try
+        {
+            long prevEntryAdr = 0L;
+            for (long hashEntryAdr = tableFor(hash).getFirst(hash);
+                 hashEntryAdr != 0L;
+                 prevEntryAdr = hashEntryAdr, hashEntryAdr = HashEntries.getNext(hashEntryAdr))
+            {
+                if (hashEntryAdr != oldHashEntryAdr)
+                    continue;
 
-        // LRU stuff
+                // pinned by a reader, a DirectValueAccess or a cache loader waiting for the sentinel
+                if (HashEntries.getRefCount(hashEntryAdr) != 1 || HashEntries.getSentinel(hashEntryAdr) != Util.SENTINEL_NOT_PRESENT)
+                    return false;
 
-        long next = HashEntries.getLRUNext(hashEntryAdr);
-        long prev = HashEntries.getLRUPrev(hashEntryAdr);
+                long bytes = HashEntries.getAllocLen(hashEntryAdr);
+                long newHashEntryAdr = entryLog.allocateRelocated(bytes);
+                if (newHashEntryAdr == 0L)
+                    return false;
 
-        HashEntries.setLRUNext(newHashEntryAdr, next);
-        HashEntries.setLRUPrev(newHashEntryAdr, prev);
+                Uns.copyMemory(hashEntryAdr, 0L, newHashEntryAdr, 0L, bytes);
+                // do not copy references of optimistic readers, that fail to validate
+                HashEntries.setRefCount(newHashEntryAdr, 1);
 
-        if (lruHead == hashEntryAdr)
-            lruHead = newHashEntryAdr;
-        if (lruTail == hashEntryAdr)
-            lruTail = newHashEntryAdr;
+                tableFor(hash).replaceLink(hash, hashEntryAdr, prevEntryAdr, newHashEntryAdr);
+                evictionPolicy.replaced(hashEntryAdr, newHashEntryAdr);
+                long deadline = HashEntries.getDeadline(newHashEntryAdr);
+                if (deadline != 0L)
+                    // the record for the old address is dropped by the timer wheel
+                    timerWheel.schedule(newHashEntryAdr, hash, deadline);
 
-        if (next != 0L)
-            HashEntries.setLRUPrev(next, newHashEntryAdr);
-        if (prev != 0L)
-            HashEntries.setLRUNext(prev, newHashEntryAdr);
+                removeHashEntryAdr = hashEntryAdr;
+                return true;
+            }
 
-        freeCapacity += HashEntries.getAllocLen(hashEntryAdr);
+            return false;
+        }
+        finally
+        {
+            unlockForWrite(removeHashEntryAdr, null);
+        }
     }
 
-    private void add(long hashEntryAdr, long hash)
+    private void replaceInternal(long hashEntryAdr, long prevEntryAdr, long newHashEntryAdr)
     {
-        table.addAsHead(hash, hashEntryAdr);
+        long hash = HashEntries.getHash(hashEntryAdr);
 
-        // LRU stuff
+        tableFor(hash).replaceLink(hash, hashEntryAdr, prevEntryAdr, newHashEntryAdr);
 
-        long h = lruHead;
-        HashEntries.setLRUNext(hashEntryAdr, h);
-        if (h != 0L)
-            HashEntries.setLRUPrev(h, hashEntryAdr);
-        HashEntries.setLRUPrev(hashEntryAdr, 0L);
-        lruHead = hashEntryAdr;
+        evictionPolicy.replaced(hashEntryAdr, newHashEntryAdr);
+        if (HashEntries.getDeadline(hashEntryAdr) != 0L)
+            expiringEntries--;
+        scheduleExpiration(newHashEntryAdr, hash);
 
-        if (lruTail == 0L)
-            lruTail = hashEntryAdr;
+        freeCapacity += HashEntries.getAllocLen(hashEntryAdr);
     }
 
-    private void touch(long hashEntryAdr)
+    private void add(long hashEntryAdr, long hash)
     {
-        long head = lruHead;
-
-        if (head == hashEntryAdr)
-            // short-cut - entry already at LRU head
-            return;
-
-        // LRU stuff
-
-        long next = HashEntries.getAndSetLRUNext(hashEntryAdr, head);
-        long prev = HashEntries.getAndSetLRUPrev(hashEntryAdr, 0L);
-
-        long tail = lruTail;
-        if (tail == hashEntryAdr)
-            lruTail = prev == 0L ? hashEntryAdr : prev;
-        else if (tail == 0L)
-            lruTail = hashEntryAdr;
-
-        if (next != 0L)
-            HashEntries.setLRUPrev(next, prev);
-        if (prev != 0L)
-            HashEntries.setLRUNext(prev, next);
-
-        // LRU stuff (basically an add to LRU linked list)
+        tableFor(hash).addAsHead(hash, hashEntryAdr);
 
-        if (head != 0L)
-            HashEntries.setLRUPrev(head, hashEntryAdr);
-        lruHead = hashEntryAdr;
+        evictionPolicy.added(hashEntryAdr, hash);
+        scheduleExpiration(hashEntryAdr, hash);
     }
 }
@@ -0,0 +1,111 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lossy ring buffer of hash entry accesses, drained in batches to apply LRU promotion while holding the segment lock.
+ * <p>
+ * Each slot holds a hash-entry-address and its hash, or {@link #MISSED} and the hash of a key that was not found.
+ * Accesses are dropped if the buffer is full or if a concurrent reader claimed the same slot. Buffered addresses are never dereferenced directly - the segment only promotes a
+ * buffered hash entry if it is still linked in the hash bucket for the recorded hash.
+ * </p>
+ */
+final class ReadBuffer
+{
+    /**
+     * Size of the read buffer used by optimistic reads if {@code readBufferSize} is not configured.
+     */
+    static final int DEFAULT_OPTIMISTIC_SIZE = 128;
+
+    // hash entry addresses are 8 byte aligned
+    private static final long MISSED = 1L;
+
+    private final AtomicLongArray buffer;
+    private final int mask;
+    private final int drainThreshold;
+
+    private final AtomicLong writeCounter = new AtomicLong();
+    // only modified while holding the segment lock
+    private volatile long readCounter;
+
+    ReadBuffer(int size)
+    {
+        size = (int) Util.roundUpToPowerOf2(Math.max(size, 16), 1 << 20);
+        this.buffer = new AtomicLongArray(size * 2);
+        this.mask = size - 1;
+        this.drainThreshold = size / 2;
+    }
+
+    /**
+     * Records an access to a hash entry.
+     *
+     * @return {@code true} if the buffer should be drained
+     */
+    boolean record(long hashEntryAdr, long hash)
+    {
+        long w = writeCounter.get();
+        long pending = w - readCounter;
+        if (pending > mask)
+            // buffer full - drop access
+            return true;
+        if (!writeCounter.compareAndSet(w, w + 1))
+            // contended - drop access
+            return false;
+
+        int slot = ((int) w & mask) << 1;
+        buffer.lazySet(slot + 1, hash);
+        buffer.lazySet(slot, hashEntryAdr);
+
+        return pending + 1 >= drainThreshold;
+    }
+
+    /**
+     * Records a lookup of a key that is not in the segment.
+     *
+     * @return {@code true} if the buffer should be drained
+     */
+    boolean recordMiss(long hash)
+    {
+        return record(MISSED, hash);
+    }
+
+    /**
+     * Applies all buffered accesses - must be called while holding the segment lock.
+     */
+    void drain(OffHeapMap map)
+    {
+        long w = writeCounter.get();
+        for (long r = readCounter; r < w; r++)
+        {
+            int slot = ((int) r & mask) << 1;
+            long hashEntryAdr = buffer.get(slot);
+            if (hashEntryAdr == 0L)
+                // slot claimed but not written yet
+                continue;
+            long hash = buffer.get(slot + 1);
+            buffer.lazySet(slot, 0L);
+
+            if (hashEntryAdr == MISSED)
+                map.missed(hash);
+            else
+                map.touchIfLinked(hashEntryAdr, hash);
+        }
+        readCounter = w;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+/**
+ * Off-heap index of the spilled hash entries of a segment, that maps the hash of a key to the position of its
+ * record in the {@link SpillStore}.
+ * <p>
+ * The index consists of buckets of {@link #BUCKET_SLOTS} slots. If all slots of a bucket are used, the slot that
+ * refers to the oldest record is replaced - that record is the next to be overwritten in the spill file anyway.
+ * Keys with the same hash share a slot, the key of a record is compared when it is read.
+ * </p>
+ * <p>
+ * Not thread-safe - guarded by the lock of the segment.
+ * </p>
+ */
+final class SpillIndex
+{
+    static final int BUCKET_SLOTS = 4;
+
+    // offset of the hash in a slot
+    private static final long SLOT_OFF_HASH = 0L;
+    // offset of the record position plus 1 in a slot, 0 for an unused slot
+    private static final long SLOT_OFF_POSITION = 8L;
+    private static final long SLOT_LEN = 16L;
+    private static final long BUCKET_LEN = BUCKET_SLOTS * SLOT_LEN;
+
+    private final long address;
+    private final int mask;
+
+    SpillIndex(int buckets, boolean throwOOME)
+    {
+        buckets = (int) Util.roundUpToPowerOf2(buckets, 1 << 30);
+        address = Uns.allocate(buckets * BUCKET_LEN, throwOOME);
+        if (address == 0L)
+            throw new RuntimeException("unable to allocate off-heap memory for spill index");
+        mask = buckets - 1;
+        clear();
+    }
+
+    private long bucket(long hash)
+    {
+        return ((int) hash & mask) * BUCKET_LEN;
+    }
+
+    /**
+     * @return position of the record or {@code -1L}
+     */
+    long get(long hash)
+    {
+        long bucket = bucket(hash);
+        for (long slot = bucket; slot < bucket + BUCKET_LEN; slot += SLOT_LEN)
+        {
+            long pos = Uns.getLong(address, slot + SLOT_OFF_POSITION);
+            if (pos != 0L && Uns.getLong(address, slot + SLOT_OFF_HASH) == hash)
+                return pos - 1L;
+        }
+        return -1L;
+    }
+
+    void put(long hash, long position)
+    {
+        long bucket = bucket(hash);
+        long victim = -1L;
+        long victimPos = Long.MAX_VALUE;
+        for (long slot = bucket; slot < bucket + BUCKET_LEN; slot += SLOT_LEN)
+        {
+            long pos = Uns.getLong(address, slot + SLOT_OFF_POSITION);
+            if (pos == 0L || Uns.getLong(address, slot + SLOT_OFF_HASH) == hash)
+            {
+                victim = slot;
+                break;
+            }
+            if (pos < victimPos)
+            {
+                victim = slot;
+                victimPos = pos;
+            }
+        }
+
+        Uns.putLong(address, victim + SLOT_OFF_HASH, hash);
+        Uns.putLong(address, victim + SLOT_OFF_POSITION, position + 1L);
+    }
+
+    /**
+     * Removes the slot for the given hash.
+     *
+     * @param position position of the record the slot must refer to or {@code -1L} to remove any record
+     * @return whether a slot has been removed
+     */
+    boolean remove(long hash, long position)
+    {
+        long bucket = bucket(hash);
+        for (long slot = bucket; slot < bucket + BUCKET_LEN; slot += SLOT_LEN)
+        {
+            long pos = Uns.getLong(address, slot + SLOT_OFF_POSITION);
+            if (pos != 0L && Uns.getLong(address, slot + SLOT_OFF_HASH) == hash)
+            {
+                if (position != -1L && pos - 1L != position)
+                    return false;
+                Uns.putLong(address, slot + SLOT_OFF_POSITION, 0L);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void clear()
+    {
+        Uns.setMemory(address, 0L, (mask + 1L) * BUCKET_LEN, (byte) 0);
+    }
+
+    void release()
+    {
+        Uns.free(address);
+    }
+}
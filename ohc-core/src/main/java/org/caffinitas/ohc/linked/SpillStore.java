@@ -0,0 +1,479 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Second tier for evicted hash entries in a file.
+ * <p>
+ * The file is used as a circular log: records are appended at an ever increasing log position, which is mapped
+ * to the file offset {@code position % capacity}, so new records overwrite the oldest ones. Records are appended
+ * to off-heap write buffers, which are written to the file by a background thread. An evicted hash entry is
+ * dropped, if no write buffer is available - evicting threads never wait for I/O. Evicting threads only reserve
+ * the space for a record while holding the monitor and copy the hash entry into the write buffer afterwards.
+ * A write buffer is written to the file after its last record has been copied.
+ * </p>
+ * <p>
+ * Each segment maps the hashes of its spilled keys to log positions in a {@link SpillIndex}. A record is valid
+ * as long as its region of the file has not been reused, which is checked again after the record has been read.
+ * </p>
+ */
+final class SpillStore
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillStore.class);
+
+    // offset of the hash
+    private static final long RECORD_OFF_HASH = 0L;
+    // offset of the value length (int)
+    private static final long RECORD_OFF_VALUE_LENGTH = 8L;
+    // offset of the key length (int)
+    private static final long RECORD_OFF_KEY_LENGTH = 12L;
+    // offset of time-to-live expiration timestamp (0 = does not expire)
+    private static final long RECORD_OFF_EXPIRE_AT = 16L;
+    // offset of max-idle expiration timestamp (0 = does not expire)
+    private static final long RECORD_OFF_IDLE_EXPIRE_AT = 24L;
+    // offset of the hash entry flags (int)
+    private static final long RECORD_OFF_FLAGS = 32L;
+    // offset of key and value
+    private static final long RECORD_OFF_DATA = 36L;
+
+    private static final int BUFFERS = 4;
+    private static final long MIN_BUFFER_SIZE = 64L * 1024L;
+    private static final long MAX_BUFFER_SIZE = 1024L * 1024L;
+    static final long MIN_CAPACITY = 16L * MIN_BUFFER_SIZE;
+
+    private final OHCacheImpl<?, ?> cache;
+
+    private final FileChannel channel;
+    private final long capacity;
+    private final long bufferSize;
+
+    // write buffers - buffer i holds the log block b with b % BUFFERS == i
+    private final long[] buffers = new long[BUFFERS];
+    // log position of the block held by a write buffer or -1 if the buffer is unused - guarded by this
+    private final long[] bufferPos = new long[BUFFERS];
+    // length of the records in a write buffer - guarded by this
+    private final long[] bufferLen = new long[BUFFERS];
+    // number of records reserved but not yet copied into a write buffer - guarded by this
+    private final int[] bufferCopies = new int[BUFFERS];
+    // whether a write buffer is complete and waits for its records to be copied - guarded by this
+    private final boolean[] bufferFull = new boolean[BUFFERS];
+    // write buffer appended to or -1 - guarded by this
+    private int current = -1;
+    // next log block to append to - guarded by this
+    private long nextBlock;
+    // records before this log position have been overwritten - guarded by this
+    private long validFrom;
+
+    private final ExecutorService writer;
+    private volatile boolean closed;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    SpillStore(OHCacheImpl<?, ?> cache, File path, long capacity, boolean throwOOME)
+    {
+        if (capacity < MIN_CAPACITY)
+            throw new IllegalArgumentException("Illegal spill capacity " + capacity);
+
+        this.cache = cache;
+
+        bufferSize = Util.roundUpToPowerOf2(Math.max(capacity / 64L, MIN_BUFFER_SIZE), MAX_BUFFER_SIZE);
+        this.capacity = capacity - capacity % bufferSize;
+
+        try
+        {
+            channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Failed to open spill file " + path, e);
+        }
+
+        for (int i = 0; i < BUFFERS; i++)
+        {
+            buffers[i] = Uns.allocate(bufferSize, throwOOME);
+            bufferPos[i] = -1L;
+            if (buffers[i] == 0L)
+            {
+                release();
+                throw new RuntimeException("unable to allocate off-heap memory for spill buffers");
+            }
+        }
+
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "OHC spill writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    long capacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Appends a record for an evicted hash entry.
+     *
+     * @return log position of the record or {@code -1L} if the hash entry has been dropped
+     */
+    long write(long hashEntryAdr)
+    {
+        long keyLen = HashEntries.getKeyLen(hashEntryAdr);
+        long valueLen = HashEntries.getValueLen(hashEntryAdr);
+        long len = Util.roundUpTo8(RECORD_OFF_DATA + keyLen + valueLen);
+        if (len > bufferSize)
+            return -1L;
+
+        int b;
+        long off;
+        long pos;
+        synchronized (this)
+        {
+            if (closed)
+                return -1L;
+
+            if (current == -1 || bufferLen[current] + len > bufferSize)
+            {
+                if (current != -1)
+                {
+                    complete(current);
+                    current = -1;
+                }
+
+                b = (int) (nextBlock % BUFFERS);
+                if (bufferPos[b] != -1L)
+                    // all write buffers are waiting to be written
+                    return -1L;
+
+                bufferPos[b] = nextBlock * bufferSize;
+                bufferLen[b] = 0L;
+                nextBlock++;
+                current = b;
+
+                // the region of the file for the new block is going to be overwritten
+                validFrom = Math.max(validFrom, bufferPos[b] + bufferSize - capacity);
+            }
+
+            b = current;
+            off = bufferLen[b];
+            pos = bufferPos[b] + off;
+            bufferLen[b] = off + len;
+            bufferCopies[b]++;
+        }
+
+        // the write buffer is neither written nor reused before all of its reserved records have been copied
+        try
+        {
+            long buffer = buffers[b];
+            Uns.putLong(buffer, off + RECORD_OFF_HASH, HashEntries.getHash(hashEntryAdr));
+            Uns.putInt(buffer, off + RECORD_OFF_VALUE_LENGTH, (int) valueLen);
+            Uns.putInt(buffer, off + RECORD_OFF_KEY_LENGTH, (int) keyLen);
+            Uns.putLong(buffer, off + RECORD_OFF_EXPIRE_AT, HashEntries.getExpireAt(hashEntryAdr));
+            Uns.putLong(buffer, off + RECORD_OFF_IDLE_EXPIRE_AT, HashEntries.getIdleExpireAt(hashEntryAdr));
+            Uns.putInt(buffer, off + RECORD_OFF_FLAGS, HashEntries.getFlags(hashEntryAdr) & Util.FLAG_COMPRESSED);
+            Uns.copyMemory(hashEntryAdr, Util.ENTRY_OFF_DATA, buffer, off + RECORD_OFF_DATA, keyLen + valueLen);
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                if (--bufferCopies[b] == 0)
+                {
+                    if (closed)
+                        notifyAll();
+                    else if (bufferFull[b])
+                        flush(b);
+                }
+            }
+        }
+
+        writeCount.incrementAndGet();
+        return pos;
+    }
+
+    /**
+     * Marks a write buffer as complete and writes it if all of its records have been copied - must be called
+     * while holding the monitor.
+     */
+    private void complete(int b)
+    {
+        if (bufferCopies[b] == 0)
+            flush(b);
+        else
+            bufferFull[b] = true;
+    }
+
+    private void flush(final int b)
+    {
+        bufferFull[b] = false;
+        writer.execute(new Runnable()
+        {
+            public void run()
+            {
+                long pos;
+                long len;
+                synchronized (SpillStore.this)
+                {
+                    pos = bufferPos[b];
+                    len = bufferLen[b];
+                }
+
+                long t0 = System.nanoTime();
+                try
+                {
+                    ByteBuffer bb = Uns.directBufferFor(buffers[b], 0L, len);
+                    long filePos = pos % capacity;
+                    while (bb.hasRemaining())
+                        channel.write(bb, filePos + bb.position());
+                }
+                catch (IOException e)
+                {
+                    LOGGER.error("Failed to write spill file", e);
+                }
+                finally
+                {
+                    writeNanos.addAndGet(System.nanoTime() - t0);
+                }
+
+                synchronized (SpillStore.this)
+                {
+                    if (!closed)
+                        bufferPos[b] = -1L;
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the record at the given log position into a new hash entry.
+     *
+     * @return address of the hash entry or {@code 0L} if the record has been overwritten or is not for the given key
+     */
+    long read(long pos, KeyBuffer key)
+    {
+        long t0 = System.nanoTime();
+        long headerAdr = Uns.allocate(RECORD_OFF_DATA);
+        if (headerAdr == 0L)
+            return 0L;
+        long hashEntryAdr = 0L;
+        try
+        {
+            if (!readAt(pos, headerAdr, 0L, RECORD_OFF_DATA))
+                return 0L;
+
+            long keyLen = Uns.getInt(headerAdr, RECORD_OFF_KEY_LENGTH);
+            long valueLen = Uns.getInt(headerAdr, RECORD_OFF_VALUE_LENGTH);
+            long expireAt = Uns.getLong(headerAdr, RECORD_OFF_EXPIRE_AT);
+            long idleExpireAt = Uns.getLong(headerAdr, RECORD_OFF_IDLE_EXPIRE_AT);
+            long now = System.currentTimeMillis();
+            if (Uns.getLong(headerAdr, RECORD_OFF_HASH) != key.hash() || keyLen != key.size()
+                || (expireAt != 0L && expireAt <= now)
+                || (idleExpireAt != 0L && idleExpireAt <= now))
+                return 0L;
+
+            hashEntryAdr = cache.allocateEntry(Util.allocLen(keyLen, valueLen));
+            if (hashEntryAdr == 0L)
+                return 0L;
+            HashEntries.init(key.hash(), keyLen, valueLen, hashEntryAdr, Util.SENTINEL_NOT_PRESENT,
+                             HashEntries.getFlags(hashEntryAdr) | Uns.getInt(headerAdr, RECORD_OFF_FLAGS));
+            HashEntries.setExpireAt(hashEntryAdr, expireAt);
+
+            if (!readAt(pos + RECORD_OFF_DATA, hashEntryAdr, Util.ENTRY_OFF_DATA, keyLen + valueLen)
+                || !HashEntries.compareKey(hashEntryAdr, key, keyLen))
+            {
+                HashEntries.free(hashEntryAdr);
+                return 0L;
+            }
+
+            long r = hashEntryAdr;
+            hashEntryAdr = 0L;
+            return r;
+        }
+        catch (IOException e)
+        {
+            LOGGER.error("Failed to read spill file", e);
+            if (hashEntryAdr != 0L)
+                HashEntries.free(hashEntryAdr);
+            return 0L;
+        }
+        finally
+        {
+            Uns.free(headerAdr);
+            readNanos.addAndGet(System.nanoTime() - t0);
+        }
+    }
+
+    private boolean readAt(long pos, long adr, long off, long len) throws IOException
+    {
+        synchronized (this)
+        {
+            if (closed || pos < validFrom)
+                return false;
+
+            // the record might not have been written to the file yet
+            int b = (int) ((pos / bufferSize) % BUFFERS);
+            if (bufferPos[b] == pos - pos % bufferSize)
+            {
+                Uns.copyMemory(buffers[b], pos - bufferPos[b], adr, off, len);
+                return true;
+            }
+        }
+
+        ByteBuffer bb = Uns.directBufferFor(adr, off, len);
+        long filePos = pos % capacity;
+        while (bb.hasRemaining())
+            if (channel.read(bb, filePos + bb.position()) < 0)
+                return false;
+
+        synchronized (this)
+        {
+            // the region of the file might have been overwritten while reading
+            return pos >= validFrom;
+        }
+    }
+
+    void hit()
+    {
+        hitCount.incrementAndGet();
+    }
+
+    void miss()
+    {
+        missCount.incrementAndGet();
+    }
+
+    long hitCount()
+    {
+        return hitCount.get();
+    }
+
+    long missCount()
+    {
+        return missCount.get();
+    }
+
+    long writeCount()
+    {
+        return writeCount.get();
+    }
+
+    long readNanos()
+    {
+        return readNanos.get();
+    }
+
+    long writeNanos()
+    {
+        return writeNanos.get();
+    }
+
+    void resetStatistics()
+    {
+        hitCount.set(0L);
+        missCount.set(0L);
+        writeCount.set(0L);
+        readNanos.set(0L);
+        writeNanos.set(0L);
+    }
+
+    void close()
+    {
+        synchronized (this)
+        {
+            // no write buffer is passed to the writer after this point
+            closed = true;
+        }
+        writer.shutdown();
+        try
+        {
+            writer.awaitTermination(60, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            // ignored
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this)
+        {
+            // evicting threads might still copy records into the write buffers
+            boolean interrupted = false;
+            while (copiesPending())
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            release();
+        }
+    }
+
+    private boolean copiesPending()
+    {
+        for (int i = 0; i < BUFFERS; i++)
+            if (bufferCopies[i] != 0)
+                return true;
+        return false;
+    }
+
+    private void release()
+    {
+        for (int i = 0; i < BUFFERS; i++)
+        {
+            Uns.free(buffers[i]);
+            buffers[i] = 0L;
+        }
+
+        try
+        {
+            // spilled entries are not reused after a restart
+            channel.truncate(0L);
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            LOGGER.error("Failed to close spill file", e);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timer wheel of hash entries that have an expiration deadline.
+ * <p>
+ * Each bucket is a list of off-heap chunks of {@code (hash-entry-address, hash)} records. A bucket of the first
+ * level covers 64ms, a bucket of the next level covers the whole previous level and so on. Advancing the wheel only
+ * visits the buckets whose time span has passed - expired hash entries are reclaimed in O(expired). Hash entries
+ * whose deadline moved (max-idle) are rescheduled when their bucket is visited.
+ * </p>
+ * <p>
+ * Recorded addresses are never dereferenced directly - the segment only looks at a recorded hash entry if it is
+ * still linked in the hash bucket for the recorded hash. Records of removed hash entries are dropped when their
+ * bucket is visited or when the wheel is compacted.
+ * </p>
+ * <p>
+ * Not thread safe - must only be used while holding the segment lock.
+ * </p>
+ */
+final class TimerWheel
+{
+    // bucket span of each level is 2^SHIFT milliseconds: 64ms, ~4s, ~4.4min, ~4.7h, ~12.4d
+    private static final int[] SHIFT = { 6, 12, 18, 24, 30 };
+    private static final int[] BUCKETS = { 64, 64, 64, 64, 1 };
+
+    private static final long CHUNK_LEN = 256L;
+    private static final long CHUNK_OFF_NEXT = 0L;
+    private static final long CHUNK_OFF_COUNT = 8L;
+    private static final long CHUNK_OFF_RECORDS = 16L;
+    private static final long RECORD_LEN = 16L;
+    private static final int CHUNK_RECORDS = (int) ((CHUNK_LEN - CHUNK_OFF_RECORDS) / RECORD_LEN);
+
+    private final boolean throwOOME;
+
+    private final long[][] buckets;
+    private long time;
+    private long records;
+
+    TimerWheel(long now, boolean throwOOME)
+    {
+        this.throwOOME = throwOOME;
+        this.time = now;
+
+        buckets = new long[BUCKETS.length][];
+        for (int level = 0; level < BUCKETS.length; level++)
+            buckets[level] = new long[BUCKETS[level]];
+    }
+
+    /**
+     * Number of records in the wheel - including records of hash entries that have been removed.
+     */
+    long records()
+    {
+        return records;
+    }
+
+    /**
+     * Schedules the hash entry for expiration at the given deadline.
+     *
+     * @return {@code false} if no off-heap memory could be allocated for the record
+     */
+    boolean schedule(long hashEntryAdr, long hash, long deadline)
+    {
+        long delta = deadline - time;
+        int level = 0;
+        while (level < SHIFT.length - 1 && delta >= 1L << SHIFT[level + 1])
+            level++;
+        int index = (int) (deadline >>> SHIFT[level]) & (BUCKETS[level] - 1);
+
+        long[] bucket = buckets[level];
+        long chunk = bucket[index];
+        int count;
+        if (chunk == 0L || (count = Uns.getInt(chunk, CHUNK_OFF_COUNT)) == CHUNK_RECORDS)
+        {
+            long adr = Uns.allocate(CHUNK_LEN, throwOOME);
+            if (adr == 0L)
+                return false;
+            Uns.putLong(adr, CHUNK_OFF_NEXT, chunk);
+            bucket[index] = chunk = adr;
+            count = 0;
+        }
+
+        long off = CHUNK_OFF_RECORDS + count * RECORD_LEN;
+        Uns.putLong(chunk, off, hashEntryAdr);
+        Uns.putLong(chunk, off + 8L, hash);
+        Uns.putInt(chunk, CHUNK_OFF_COUNT, count + 1);
+        records++;
+        return true;
+    }
+
+    /**
+     * Advances the wheel to the given time and lets the segment expire the hash entries of all passed buckets.
+     *
+     * @param derefList list of unlinked hash entries to add expired hash entries to, may be {@code null}
+     * @return list of unlinked hash entries, {@code null} if {@code derefList} is {@code null} and nothing expired
+     */
+    LongArrayList advance(OffHeapMap map, long now, LongArrayList derefList)
+    {
+        long previous = time;
+        if (now <= previous)
+            return derefList;
+        time = now;
+
+        for (int level = 0; level < SHIFT.length; level++)
+        {
+            long previousTicks = previous >>> SHIFT[level];
+            long currentTicks = now >>> SHIFT[level];
+            if (currentTicks == previousTicks)
+                break;
+
+            int mask = BUCKETS[level] - 1;
+            long steps = Math.min(currentTicks - previousTicks + 1L, BUCKETS[level]);
+            for (long i = 0L; i < steps; i++)
+            {
+                int index = (int) (previousTicks + i) & mask;
+                long chunk = buckets[level][index];
+                buckets[level][index] = 0L;
+                derefList = expire(map, chunk, derefList);
+            }
+        }
+
+        return derefList;
+    }
+
+    /**
+     * Visits all records to drop the records of removed hash entries.
+     *
+     * @param derefList list of unlinked hash entries to add expired hash entries to, may be {@code null}
+     * @return list of unlinked hash entries, {@code null} if {@code derefList} is {@code null} and nothing expired
+     */
+    LongArrayList compact(OffHeapMap map, LongArrayList derefList)
+    {
+        long[][] chunks = new long[buckets.length][];
+        for (int level = 0; level < buckets.length; level++)
+        {
+            chunks[level] = buckets[level].clone();
+            Arrays.fill(buckets[level], 0L);
+        }
+
+        for (long[] level : chunks)
+            for (long chunk : level)
+                derefList = expire(map, chunk, derefList);
+
+        return derefList;
+    }
+
+    private LongArrayList expire(OffHeapMap map, long chunk, LongArrayList derefList)
+    {
+        while (chunk != 0L)
+        {
+            int count = Uns.getInt(chunk, CHUNK_OFF_COUNT);
+            for (long off = CHUNK_OFF_RECORDS, end = off + count * RECORD_LEN; off < end; off += RECORD_LEN)
+            {
+                long hashEntryAdr = Uns.getLong(chunk, off);
+                long hash = Uns.getLong(chunk, off + 8L);
+                records--;
+
+                long deadline = map.expire(hashEntryAdr, hash, time);
+                if (deadline == -1L)
+                {
+                    if (derefList == null)
+                        derefList = new LongArrayList();
+                    derefList.add(hashEntryAdr);
+                }
+                else if (deadline != 0L)
+                    // deadline not reached yet - if this fails, the hash entry is just not reclaimed by the wheel
+                    schedule(hashEntryAdr, hash, deadline);
+            }
+
+            long next = Uns.getLong(chunk, CHUNK_OFF_NEXT);
+            Uns.free(chunk);
+            chunk = next;
+        }
+        return derefList;
+    }
+
+    void clear()
+    {
+        for (long[] bucket : buckets)
+            for (int index = 0; index < bucket.length; index++)
+            {
+                for (long chunk = bucket[index], next; chunk != 0L; chunk = next)
+                {
+                    next = Uns.getLong(chunk, CHUNK_OFF_NEXT);
+                    Uns.free(chunk);
+                }
+                bucket[index] = 0L;
+            }
+        records = 0L;
+    }
+}
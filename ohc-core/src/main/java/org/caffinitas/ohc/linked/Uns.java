@@ -18,6 +18,7 @@ package org.caffinitas.ohc.linked;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Map;
@@ -31,6 +32,7 @@ import org.slf4j.LoggerFactory;
 import org.caffinitas.ohc.OHCacheBuilder;
 import org.caffinitas.ohc.alloc.IAllocator;
 import org.caffinitas.ohc.alloc.JNANativeAllocator;
+import org.caffinitas.ohc.alloc.SlabAllocator;
 import org.caffinitas.ohc.alloc.UnsafeAllocator;
 import sun.misc.Unsafe;
 
@@ -111,6 +113,22 @@ final class Uns
         }
     }
 
+    /**
+     * Registers a block that has been carved out of an allocated region for debug access checks.
+     */
+    static void allocatedBlock(long address, long bytes)
+    {
+        allocated(address, bytes);
+    }
+
+    /**
+     * Unregisters a block registered via {@link #allocatedBlock(long, long)}.
+     */
+    static void freedBlock(long address)
+    {
+        freed(address);
+    }
+
     private static void validate(long address, long offset, long len)
     {
         if (__DEBUG_OFF_HEAP_MEMORY_ACCESS)
@@ -184,6 +202,10 @@ final class Uns
                     alloc = new UnsafeAllocator();
                     LOGGER.info("OHC using sun.misc.Unsafe memory allocation");
                     break;
+                case "slab":
+                    alloc = new SlabAllocator();
+                    LOGGER.info("OHC using slab memory allocation");
+                    break;
                 case "jna":
                 default:
                     alloc = new JNANativeAllocator();
@@ -209,6 +231,13 @@ final class Uns
         return unsafe.getLong(array, (long) Unsafe.ARRAY_BYTE_BASE_OFFSET + offset);
     }
 
+    static void putLongToByteArray(byte[] array, int offset, long value)
+    {
+        if (offset < 0 || offset + 8 > array.length)
+            throw new ArrayIndexOutOfBoundsException();
+        unsafe.putLong(array, (long) Unsafe.ARRAY_BYTE_BASE_OFFSET + offset, value);
+    }
+
     static int getIntFromByteArray(byte[] array, int offset)
     {
         if (offset < 0 || offset + 4 > array.length)
@@ -230,6 +259,13 @@ final class Uns
         return ext.getAndPutLong(address, offset, value);
     }
 
+    static long getAndAddLong(long address, long offset, long value)
+    {
+        validate(address, offset, 8L);
+
+        return ext.getAndAddLong(address, offset, value);
+    }
+
     static void putLong(long address, long offset, long value)
     {
         validate(address, offset, 8L);
@@ -333,12 +369,35 @@ final class Uns
         return v == 1;
     }
 
+    static boolean compareAndSwapLong(long address, long offset, long expected, long value)
+    {
+        validate(address, offset, 8L);
+        return unsafe.compareAndSwapLong(null, address + offset, expected, value);
+    }
+
     static void increment(long address, long offset)
     {
         validate(address, offset, 8L);
         ext.getAndAddInt(address, offset, 1);
     }
 
+    static boolean hasLoadFence()
+    {
+        return ext.hasLoadFence();
+    }
+
+    static void loadFence()
+    {
+        ext.loadFence();
+    }
+
+    static void copyMemory(long srcAddress, long srcOffset, long dstAddress, long dstOffset, long len)
+    {
+        validate(srcAddress, srcOffset, len);
+        validate(dstAddress, dstOffset, len);
+        unsafe.copyMemory(null, srcAddress + srcOffset, null, dstAddress + dstOffset, len);
+    }
+
     static void copyMemory(byte[] arr, int off, long address, long offset, long len)
     {
         validate(address, offset, len);
@@ -351,6 +410,29 @@ final class Uns
         unsafe.copyMemory(null, address + offset, arr, Unsafe.ARRAY_BYTE_BASE_OFFSET + off, len);
     }
 
+    /**
+     * Copies {@code len} bytes from the position of a direct or heap buffer without changing the buffer's position.
+     */
+    static void copyMemory(ByteBuffer buffer, long address, long offset, long len)
+    {
+        validate(address, offset, len);
+        if (len > buffer.remaining())
+            throw new BufferUnderflowException();
+        if (buffer.isDirect())
+            unsafe.copyMemory(null, unsafe.getLong(buffer, DIRECT_BYTE_BUFFER_ADDRESS_OFFSET) + buffer.position(),
+                              null, address + offset, len);
+        else if (buffer.hasArray())
+            unsafe.copyMemory(buffer.array(), Unsafe.ARRAY_BYTE_BASE_OFFSET + buffer.arrayOffset() + buffer.position(),
+                              null, address + offset, len);
+        else
+        {
+            // read-only heap buffer
+            byte[] arr = new byte[(int) len];
+            buffer.duplicate().get(arr);
+            copyMemory(arr, 0, address, offset, len);
+        }
+    }
+
     static void setMemory(long address, long offset, long len, byte val)
     {
         validate(address, offset, len);
@@ -425,6 +507,26 @@ final class Uns
         }
     }
 
+    static long directBufferAddress(ByteBuffer buffer)
+    {
+        if (!buffer.isDirect())
+            throw new IllegalArgumentException();
+        return unsafe.getLong(buffer, DIRECT_BYTE_BUFFER_ADDRESS_OFFSET);
+    }
+
+    /**
+     * Points an existing direct buffer, created by {@link #directBufferFor(long, long, long)}, to another memory
+     * region and clears it. Used to reuse buffer instances instead of allocating a new one for each access.
+     */
+    static void directBufferReset(ByteBuffer buffer, long address, long offset, long len)
+    {
+        if (len > Integer.MAX_VALUE || len < 0L || !buffer.isDirect())
+            throw new IllegalArgumentException();
+        unsafe.putLong(buffer, DIRECT_BYTE_BUFFER_ADDRESS_OFFSET, address + offset);
+        unsafe.putInt(buffer, DIRECT_BYTE_BUFFER_CAPACITY_OFFSET, (int) len);
+        buffer.clear();
+    }
+
     static ByteBuffer directBufferFor(long address, long offset, long len)
     {
         if (len > Integer.MAX_VALUE || len < 0L)
@@ -34,5 +34,9 @@ abstract class UnsExt
 
     abstract int getAndAddInt(long address, long offset, int value);
 
+    abstract boolean hasLoadFence();
+
+    abstract void loadFence();
+
     abstract long crc32(long address, long offset, long len);
 }
@@ -18,6 +18,7 @@ package org.caffinitas.ohc.linked;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
 
 final class Util
@@ -33,20 +34,27 @@ final class Util
     static final long ENTRY_OFF_NEXT = 16;
     // offset of entry reference counter
     static final long ENTRY_OFF_REFCOUNT = 24;
-    // offset of entry sentinel
+    // offset of entry sentinel (byte)
     static final long ENTRY_OFF_SENTINEL = 28;
+    // offset of the eviction queue the entry is linked in (byte)
+    static final long ENTRY_OFF_QUEUE = 29;
+    // offset of entry flags (byte)
+    static final long ENTRY_OFF_FLAGS = 30;
+    // offset of time-to-live expiration timestamp (0 = does not expire)
+    static final long ENTRY_OFF_EXPIRE_AT = 32;
+    // offset of max-idle expiration timestamp (0 = does not expire)
+    static final long ENTRY_OFF_IDLE_EXPIRE_AT = 40;
     // offset of serialized hash value
-    static final long ENTRY_OFF_HASH = 32;
-    // offset of serialized value length
-    static final long ENTRY_OFF_VALUE_LENGTH = 40;
-    // offset of serialized hash key length
-    static final long ENTRY_OFF_KEY_LENGTH = 48;
-    // offset of data in first block
-    static final long ENTRY_OFF_DATA = 56;
-
-    // Note: keep ENTRY_OFF_HASH, ENTRY_OFF_KEY_LENGTH, ENTRY_OFF_VALUE_LENGTH in exact that order
-    // and together and at the end of the header because
-    // org.caffinitas.ohc.SegmentedCacheImpl.(de)serializeEntry relies on it!
+    static final long ENTRY_OFF_HASH = 48;
+    // offset of serialized value length (int)
+    static final long ENTRY_OFF_VALUE_LENGTH = 56;
+    // offset of serialized hash key length (int)
+    static final long ENTRY_OFF_KEY_LENGTH = 60;
+    // offset of data in first block - the value immediately follows the key
+    static final long ENTRY_OFF_DATA = 64;
+
+    // Note: keep ENTRY_OFF_HASH, ENTRY_OFF_VALUE_LENGTH, ENTRY_OFF_KEY_LENGTH in exact that order
+    // and together and at the end of the header because OHCacheImpl.serializeEntry relies on it!
 
 // Hash bucket-table
 
@@ -67,6 +75,22 @@ final class Util
     static final int HEADER_KEYS = 0x4f48434b;
     // 'OHCK' reversed
     static final int HEADER_KEYS_WRONG = 0x4b43484f;
+    // 'OHCS' - marker of a single entry
+    static final int HEADER_ENTRY = 0x4f484353;
+    // 'OHCS' reversed
+    static final int HEADER_ENTRY_WRONG = 0x5343484f;
+    // 'OHCM'
+    static final int HEADER_MANIFEST = 0x4f48434d;
+    // 'OHCM' reversed
+    static final int HEADER_MANIFEST_WRONG = 0x4d43484f;
+
+    // version 1: hash, value length and key length as longs, key padded to 8 bytes, value
+    // version 2: hash as long, value length and key length as ints, key, value
+    // (also the version of a single entry, which is written with a marker since version 2 - version 1 without marker)
+    static final int HEADER_ENTRIES_VERSION = 2;
+    static final int HEADER_KEYS_VERSION = 1;
+    // version 1: number of snapshot files, number of entries and size in bytes of each snapshot file
+    static final int HEADER_MANIFEST_VERSION = 1;
 
 // sentinel values
 
@@ -76,6 +100,16 @@ final class Util
     static final int SENTINEL_TEMPORARY_FAILURE = 3;
     static final int SENTINEL_PERMANENT_FAILURE = 4;
 
+// hash entry flags
+
+    // hash entry is stored in a chunk of the entry log
+    static final int FLAG_LOG = 1;
+    // value is compressed - the value starts with the serialized length as an int, followed by the compressed bytes
+    static final int FLAG_COMPRESSED = 2;
+    // hash entry has a refresh-after-write timestamp (0 = no refresh due) at the next 8 byte boundary after the value,
+    // so entries of caches without refresh-after-write do not pay for it
+    static final int FLAG_REFRESH = 4;
+
     static long roundUpTo8(long val)
     {
         long rem = val & 7;
@@ -86,7 +120,36 @@ final class Util
 
     static long allocLen(long keyLen, long valueLen)
     {
-        return ENTRY_OFF_DATA + roundUpTo8(keyLen) + valueLen;
+        return ENTRY_OFF_DATA + keyLen + valueLen;
+    }
+
+    static long allocLen(long keyLen, long valueLen, int flags)
+    {
+        return (flags & FLAG_REFRESH) != 0
+               ? refreshAtOffset(keyLen, valueLen) + 8L
+               : allocLen(keyLen, valueLen);
+    }
+
+    static long refreshAtOffset(long keyLen, long valueLen)
+    {
+        return ENTRY_OFF_DATA + roundUpTo8(keyLen + valueLen);
+    }
+
+    // serialized length of the keys of OHLongCacheImpl
+    static final long LONG_KEY_LEN = 8L;
+
+    /**
+     * Hash of a key of {@link OHLongCacheImpl}. The murmur3 finalizer is sufficient to spread the bits of a
+     * {@code long} key over the segments and hash table buckets.
+     */
+    static long longKeyHash(long key)
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
     }
 
     static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException
@@ -106,6 +169,28 @@ final class Util
         return true;
     }
 
+    static boolean skip(ReadableByteChannel channel, long len) throws IOException
+    {
+        if (channel instanceof SeekableByteChannel)
+        {
+            SeekableByteChannel sc = (SeekableByteChannel) channel;
+            sc.position(sc.position() + len);
+            return true;
+        }
+
+        ByteBuffer tmp = ByteBuffer.allocate(8192);
+        while (len > 0L)
+        {
+            tmp.clear();
+            if (len < tmp.capacity())
+                tmp.limit((int) len);
+            if (!readFully(channel, tmp))
+                return false;
+            len -= tmp.limit();
+        }
+        return true;
+    }
+
     static int bitNum(long val)
     {
         int bit = 0;
@@ -0,0 +1,147 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reusable direct buffer instances pointed at the values or serialized forms of referenced hash entries (or temporary
+ * copies) to write them to a channel without copying them and without allocating buffers for each write.
+ * Instances are used by one thread at a time.
+ */
+final class ChannelViews
+{
+    private ByteBuffer[] buffers = new ByteBuffer[0];
+    // referenced hash entry or 0L for each buffer
+    private long[] hashEntryAdrs = new long[0];
+    // temporary copy to be freed or 0L for each buffer
+    private long[] valueCopyAdrs = new long[0];
+    private int count;
+    private boolean inUse;
+
+    boolean acquire()
+    {
+        if (inUse)
+            return false;
+        inUse = true;
+        return true;
+    }
+
+    int count()
+    {
+        return count;
+    }
+
+    /**
+     * Adds a view on the value of a hash entry, takes over the reference to the hash entry.
+     */
+    void addEntry(long hashEntryAdr, long keyLen, long valueLen)
+    {
+        add(hashEntryAdr, 0L, hashEntryAdr, Util.ENTRY_OFF_DATA + keyLen, valueLen);
+    }
+
+    /**
+     * Adds a view on the key and value of a hash entry, takes over the reference to the hash entry.
+     */
+    void addKeyValue(long hashEntryAdr, long keyLen, long valueLen)
+    {
+        add(hashEntryAdr, 0L, hashEntryAdr, Util.ENTRY_OFF_DATA, keyLen + valueLen);
+    }
+
+    /**
+     * Adds a view on memory owned by the caller, which must not be released before the views.
+     */
+    void addView(long address, long len)
+    {
+        add(0L, 0L, address, 0L, len);
+    }
+
+    /**
+     * Adds a view on a temporary copy, takes over the ownership of the copy.
+     */
+    void addCopy(long valueCopyAdr, long valueLen)
+    {
+        add(0L, valueCopyAdr, valueCopyAdr, 0L, valueLen);
+    }
+
+    private void add(long hashEntryAdr, long valueCopyAdr, long address, long offset, long len)
+    {
+        if (count == buffers.length)
+            grow();
+        Uns.directBufferReset(buffers[count], address, offset, len);
+        hashEntryAdrs[count] = hashEntryAdr;
+        valueCopyAdrs[count] = valueCopyAdr;
+        count++;
+    }
+
+    private void grow()
+    {
+        int size = Math.max(8, buffers.length * 2);
+        // allocate everything before modifying any state
+        ByteBuffer[] newBuffers = Arrays.copyOf(buffers, size);
+        for (int i = buffers.length; i < size; i++)
+            newBuffers[i] = Uns.directBufferFor(0L, 0L, 0L);
+        long[] newHashEntryAdrs = Arrays.copyOf(hashEntryAdrs, size);
+        long[] newValueCopyAdrs = Arrays.copyOf(valueCopyAdrs, size);
+        buffers = newBuffers;
+        hashEntryAdrs = newHashEntryAdrs;
+        valueCopyAdrs = newValueCopyAdrs;
+    }
+
+    void write(WritableByteChannel channel) throws IOException
+    {
+        for (int i = 0; i < count; i++)
+            Util.writeFully(channel, buffers[i]);
+    }
+
+    void write(GatheringByteChannel channel) throws IOException
+    {
+        long remaining = 0L;
+        for (int i = 0; i < count; i++)
+            remaining += buffers[i].remaining();
+
+        int first = 0;
+        while (remaining > 0L)
+        {
+            remaining -= channel.write(buffers, first, count - first);
+            while (first < count && !buffers[first].hasRemaining())
+                first++;
+        }
+    }
+
+    /**
+     * Releases all hash entries and value copies and detaches the buffers from their memory.
+     */
+    void release()
+    {
+        for (int i = 0; i < count; i++)
+        {
+            Uns.directBufferReset(buffers[i], 0L, 0L, 0L);
+            if (valueCopyAdrs[i] != 0L)
+                Uns.free(valueCopyAdrs[i]);
+            else if (hashEntryAdrs[i] != 0L)
+                HashEntries.dereference(hashEntryAdrs[i]);
+            hashEntryAdrs[i] = 0L;
+            valueCopyAdrs[i] = 0L;
+        }
+        count = 0;
+        inUse = false;
+    }
+}
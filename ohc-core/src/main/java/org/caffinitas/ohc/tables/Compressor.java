@@ -0,0 +1,117 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.caffinitas.ohc.Compression;
+import org.xerial.snappy.Snappy;
+
+/**
+ * Compresses serialized values stored in hash entries. Implementations are instantiated via reflection, so the
+ * compression libraries are only required in the class path if compression is enabled.
+ */
+abstract class Compressor
+{
+    static Compressor create(Compression compression)
+    {
+        String cls = Compressor.class.getName()
+                     + '$'
+                     + compression.name().substring(0, 1)
+                     + compression.name().substring(1).toLowerCase()
+                     + "Compressor";
+        try
+        {
+            return (Compressor) Class.forName(cls).newInstance();
+        }
+        catch (NoClassDefFoundError e)
+        {
+            throw new IllegalStateException("Library for compression " + compression + " not in class path", e);
+        }
+        catch (InstantiationException | ClassNotFoundException | IllegalAccessException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    abstract int maxCompressedLength(int length);
+
+    /**
+     * @return length of the compressed data
+     */
+    abstract int compress(long srcAdr, long srcOff, int length, long dstAdr, long dstOff, int maxLength) throws IOException;
+
+    abstract void decompress(long srcAdr, long srcOff, int compressedLength, long dstAdr, long dstOff, int length) throws IOException;
+
+    static final class Lz4Compressor extends Compressor
+    {
+        private final LZ4Compressor compressor;
+        private final LZ4FastDecompressor decompressor;
+
+        Lz4Compressor()
+        {
+            LZ4Factory factory = LZ4Factory.fastestInstance();
+            compressor = factory.fastCompressor();
+            decompressor = factory.fastDecompressor();
+        }
+
+        int maxCompressedLength(int length)
+        {
+            return compressor.maxCompressedLength(length);
+        }
+
+        int compress(long srcAdr, long srcOff, int length, long dstAdr, long dstOff, int maxLength)
+        {
+            ByteBuffer src = Uns.directBufferFor(srcAdr, srcOff, length);
+            ByteBuffer dst = Uns.directBufferFor(dstAdr, dstOff, maxLength);
+            return compressor.compress(src, 0, length, dst, 0, maxLength);
+        }
+
+        void decompress(long srcAdr, long srcOff, int compressedLength, long dstAdr, long dstOff, int length)
+        {
+            ByteBuffer src = Uns.directBufferFor(srcAdr, srcOff, compressedLength);
+            ByteBuffer dst = Uns.directBufferFor(dstAdr, dstOff, length);
+            decompressor.decompress(src, 0, dst, 0, length);
+        }
+    }
+
+    static final class SnappyCompressor extends Compressor
+    {
+        int maxCompressedLength(int length)
+        {
+            return Snappy.maxCompressedLength(length);
+        }
+
+        int compress(long srcAdr, long srcOff, int length, long dstAdr, long dstOff, int maxLength) throws IOException
+        {
+            ByteBuffer src = Uns.directBufferFor(srcAdr, srcOff, length);
+            ByteBuffer dst = Uns.directBufferFor(dstAdr, dstOff, maxLength);
+            return Snappy.compress(src, dst);
+        }
+
+        void decompress(long srcAdr, long srcOff, int compressedLength, long dstAdr, long dstOff, int length) throws IOException
+        {
+            ByteBuffer src = Uns.directBufferFor(srcAdr, srcOff, compressedLength);
+            ByteBuffer dst = Uns.directBufferFor(dstAdr, dstOff, length);
+            if (Snappy.uncompress(src, dst) != length)
+                throw new IOException("corrupted compressed value");
+        }
+    }
+}
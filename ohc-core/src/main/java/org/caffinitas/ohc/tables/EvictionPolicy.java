@@ -0,0 +1,601 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+import org.caffinitas.ohc.Eviction;
+import org.caffinitas.ohc.OHCacheBuilder;
+
+/**
+ * Replacement strategy of a segment.
+ * <p>
+ * Implementations maintain one or more LRU queues, each backed by an LRU-table of
+ * {@link org.caffinitas.ohc.tables.OffHeapMap.Table}. The LRU queue a hash entry is linked in is stored in the
+ * hash entry header, so there are no on-heap objects per hash entry.
+ * </p>
+ * <p>
+ * All methods must be called while holding the segment lock.
+ * </p>
+ */
+abstract class EvictionPolicy
+{
+    static EvictionPolicy create(OHCacheBuilder builder, long capacity, int hashTableSize)
+    {
+        Eviction eviction = builder.getEviction();
+        if (eviction == null)
+            eviction = Eviction.LRU;
+        switch (eviction)
+        {
+            case LRU:
+                return new Lru();
+            case W_TINY_LFU:
+                return new WTinyLfu(capacity, builder.getWindowSize(), hashTableSize, builder.isThrowOOME());
+            case LIRS:
+                return new Lirs(capacity, hashTableSize, builder.isThrowOOME());
+            case TWO_Q:
+                return new TwoQ(capacity, hashTableSize, builder.isThrowOOME());
+            default:
+                throw new IllegalArgumentException("unsupported eviction " + eviction);
+        }
+    }
+
+    private final long[] bytes;
+
+    private long lruCompactions;
+
+    EvictionPolicy(int lruQueues)
+    {
+        bytes = new long[lruQueues];
+    }
+
+    /**
+     * Number of LRU queues - i.e. LRU-tables - required by this policy.
+     */
+    final int lruQueues()
+    {
+        return bytes.length;
+    }
+
+    long lruCompactions()
+    {
+        return lruCompactions;
+    }
+
+    void resetStatistics()
+    {
+        lruCompactions = 0L;
+    }
+
+    /**
+     * Called after a new hash entry has been added to the bucket-entry-table.
+     */
+    abstract void added(OffHeapMap.Table table, long hashEntryAdr, long hash);
+
+    /**
+     * Called after a new hash entry has been added to the bucket-entry-table that replaces the given hash entry
+     * for the same key. The replaced hash entry has already been removed.
+     */
+    void updated(OffHeapMap.Table table, long hashEntryAdr, long hash, long replacedHashEntryAdr)
+    {
+        added(table, hashEntryAdr, hash);
+    }
+
+    /**
+     * Called for a hash entry that has been accessed.
+     */
+    abstract void accessed(OffHeapMap.Table table, long hashEntryAdr, long hash);
+
+    /**
+     * Chooses the next hash entry to evict - the returned hash entry must then be removed from the segment.
+     *
+     * @return address of the hash entry to evict or {@code 0L} if the segment is empty
+     */
+    abstract long victim(OffHeapMap.Table table);
+
+    /**
+     * Called for a lookup of a key that is not in the segment.
+     */
+    void missed(long hash)
+    {
+    }
+
+    /**
+     * Whether {@link #missed(long)} needs to be called at all.
+     */
+    boolean tracksMisses()
+    {
+        return false;
+    }
+
+    /**
+     * Called for a hash entry that has been removed from the bucket-entry-table and its LRU-table.
+     */
+    void removed(long hashEntryAdr)
+    {
+        bytes[HashEntries.getLRUQueue(hashEntryAdr)] -= HashEntries.getAllocLen(hashEntryAdr);
+    }
+
+    void clear()
+    {
+        for (int q = 0; q < bytes.length; q++)
+            bytes[q] = 0L;
+    }
+
+    /**
+     * Called after the capacity of the segment has been changed.
+     */
+    void updateCapacity(long diff)
+    {
+    }
+
+    /**
+     * Called after the hash table has been resized.
+     */
+    void resize(int hashTableSize)
+    {
+    }
+
+    void release()
+    {
+    }
+
+    /**
+     * Fills the given array with the hottest hash entries.
+     */
+    abstract void fillHotN(OffHeapMap.Table table, long[] r);
+
+    final long bytes(int lruQueue)
+    {
+        return bytes[lruQueue];
+    }
+
+    /**
+     * Adds the hash entry as the most recently used entry of the given LRU queue.
+     */
+    final void addFirst(OffHeapMap.Table table, int lruQueue, long hashEntryAdr)
+    {
+        if (table.addToLRU(lruQueue, hashEntryAdr))
+            lruCompactions++;
+        bytes[lruQueue] += HashEntries.getAllocLen(hashEntryAdr);
+    }
+
+    /**
+     * Moves the hash entry to the most recently used position of the given LRU queue.
+     */
+    final void moveToFront(OffHeapMap.Table table, int lruQueue, long hashEntryAdr)
+    {
+        int current = HashEntries.getLRUQueue(hashEntryAdr);
+        table.removeFromLRU(hashEntryAdr);
+        if (table.addToLRU(lruQueue, hashEntryAdr))
+            lruCompactions++;
+        if (current != lruQueue)
+        {
+            long allocLen = HashEntries.getAllocLen(hashEntryAdr);
+            bytes[current] -= allocLen;
+            bytes[lruQueue] += allocLen;
+        }
+    }
+
+    static final class Lru extends EvictionPolicy
+    {
+        Lru()
+        {
+            super(1);
+        }
+
+        void added(OffHeapMap.Table table, long hashEntryAdr, long hash)
+        {
+            addFirst(table, 0, hashEntryAdr);
+        }
+
+        void accessed(OffHeapMap.Table table, long hashEntryAdr, long hash)
+        {
+            moveToFront(table, 0, hashEntryAdr);
+        }
+
+        long victim(OffHeapMap.Table table)
+        {
+            return table.eldest(0);
+        }
+
+        void fillHotN(OffHeapMap.Table table, long[] r)
+        {
+            table.fillHotN(0, r, 0);
+        }
+    }
+
+    /**
+     * Window TinyLFU.
+     * <p>
+     * New hash entries are added to the <i>window</i> LRU queue. If the window exceeds its size, its eldest hash entry
+     * (the <i>candidate</i>) is moved to the <i>probation</i> queue as long as the main space (probation + protected)
+     * is not full. Otherwise the candidate is only admitted to the probation queue if its estimated access frequency
+     * is higher than the one of the eldest probation hash entry (the <i>victim</i>) - the loser gets evicted.
+     * Hits in the probation queue promote the hash entry to the <i>protected</i> queue, whose eldest hash entries
+     * are demoted to probation if the protected queue exceeds 80% of the main space.
+     * </p>
+     */
+    static final class WTinyLfu extends EvictionPolicy
+    {
+        private static final int WINDOW = 0;
+        private static final int PROBATION = 1;
+        private static final int PROTECTED = 2;
+
+        private final float windowSize;
+        private long capacity;
+        private long windowMax;
+        private long mainMax;
+        private long protectedMax;
+
+        private final FrequencySketch sketch;
+
+        WTinyLfu(long capacity, float windowSize, int hashTableSize, boolean throwOOME)
+        {
+            super(3);
+
+            if (windowSize < 0f || windowSize >= 1f)
+                throw new IllegalArgumentException("window size must be between 0 and 1");
+            this.windowSize = windowSize;
+            this.capacity = capacity;
+            limits();
+
+            this.sketch = new FrequencySketch(hashTableSize, throwOOME);
+        }
+
+        void added(OffHeapMap.Table table, long hashEntryAdr, long hash)
+        {
+            sketch.increment(hash);
+
+            addFirst(table, WINDOW, hashEntryAdr);
+
+            // move candidates to probation while the main space is not full
+            while (bytes(WINDOW) > windowMax)
+            {
+                long candidate = table.eldest(WINDOW);
+                if (candidate == hashEntryAdr
+                    || bytes(PROBATION) + bytes(PROTECTED) + HashEntries.getAllocLen(candidate) > mainMax)
+                    break;
+                moveToFront(table, PROBATION, candidate);
+            }
+        }
+
+        void accessed(OffHeapMap.Table table, long hashEntryAdr, long hash)
+        {
+            sketch.increment(hash);
+
+            switch (HashEntries.getLRUQueue(hashEntryAdr))
+            {
+                case WINDOW:
+                    moveToFront(table, WINDOW, hashEntryAdr);
+                    break;
+                case PROBATION:
+                    moveToFront(table, PROTECTED, hashEntryAdr);
+                    while (bytes(PROTECTED) > protectedMax)
+                    {
+                        long demote = table.eldest(PROTECTED);
+                        if (demote == hashEntryAdr)
+                            break;
+                        moveToFront(table, PROBATION, demote);
+                    }
+                    break;
+                case PROTECTED:
+                    moveToFront(table, PROTECTED, hashEntryAdr);
+                    break;
+            }
+        }
+
+        long victim(OffHeapMap.Table table)
+        {
+            long candidate = bytes(WINDOW) > windowMax ? table.eldest(WINDOW) : 0L;
+
+            long victim = table.eldest(PROBATION);
+            if (victim == 0L)
+                victim = table.eldest(PROTECTED);
+
+            if (candidate == 0L)
+                return victim != 0L ? victim : table.eldest(WINDOW);
+            if (victim == 0L)
+                return candidate;
+
+            if (sketch.frequency(HashEntries.getHash(candidate)) > sketch.frequency(HashEntries.getHash(victim)))
+            {
+                // admit candidate
+                moveToFront(table, PROBATION, candidate);
+                return victim;
+            }
+            return candidate;
+        }
+
+        void fillHotN(OffHeapMap.Table table, long[] r)
+        {
+            int c = table.fillHotN(PROTECTED, r, 0);
+            c = table.fillHotN(WINDOW, r, c);
+            table.fillHotN(PROBATION, r, c);
+        }
+
+        private void limits()
+        {
+            windowMax = (long) (capacity * (double) windowSize);
+            mainMax = capacity - windowMax;
+            protectedMax = (long) (mainMax * .8d);
+        }
+
+        void updateCapacity(long diff)
+        {
+            capacity += diff;
+            limits();
+        }
+
+        void missed(long hash)
+        {
+            sketch.increment(hash);
+        }
+
+        boolean tracksMisses()
+        {
+            return true;
+        }
+
+        void resize(int hashTableSize)
+        {
+            sketch.ensureCapacity(hashTableSize);
+        }
+
+        void release()
+        {
+            sketch.release();
+        }
+    }
+
+    /**
+     * LIRS.
+     * <p>
+     * Resident LIR entries are kept in the <i>LIR</i> LRU queue, resident HIR entries in the <i>HIR</i> LRU queue.
+     * The LIRS stack is not maintained explicitly: the stamp of the last access of each hash is recorded in a
+     * {@link HashHistory} and a hash is considered to be in the stack if its last access is more recent than the last
+     * access of the eldest LIR entry (the bottom of the stack). Non-resident HIR entries are just hashes in the
+     * history.
+     * </p>
+     * <p>
+     * An HIR entry that is accessed (or put again after eviction) while in the stack becomes an LIR entry. If the
+     * LIR entries exceed 99% of the capacity, the eldest LIR entries are demoted to HIR. Victims are taken from the
+     * HIR queue.
+     * </p>
+     */
+    static final class Lirs extends EvictionPolicy
+    {
+        private static final int LIR = 0;
+        private static final int HIR = 1;
+
+        private long capacity;
+        private long lirMax;
+
+        private final HashHistory history;
+        private long clock;
+
+        Lirs(long capacity, int hashTableSize, boolean throwOOME)
+        {
+            super(2);
+
+            this.capacity = capacity;
+            limits();
+
+            this.history = new HashHistory(hashTableSize * 2, throwOOME);
+        }
+
+        private void limits()
+        {
+            lirMax = (long) (capacity * .99d);
+        }
+
+        void added(OffHeapMap.Table table, long hashEntryAdr, long hash)
+        {
+            if (bytes(LIR) + HashEntries.getAllocLen(hashEntryAdr) <= lirMax)
+                // LIR space not full yet
+                addFirst(table, LIR, hashEntryAdr);
+            else if (inStack(table, hash))
+            {
+                // non-resident HIR entry in stack
+                addFirst(table, LIR, hashEntryAdr);
+                demote(table, hashEntryAdr);
+            }
+            else
+                addFirst(table, HIR, hashEntryAdr);
+
+            history.put(hash, ++clock);
+        }
+
+        void updated(OffHeapMap.Table table, long hashEntryAdr, long hash, long replacedHashEntryAdr)
+        {
+            int lruQueue = HashEntries.getLRUQueue(replacedHashEntryAdr);
+            addFirst(table, lruQueue, hashEntryAdr);
+            if (lruQueue == LIR)
+                demote(table, hashEntryAdr);
+
+            history.put(hash, ++clock);
+        }
+
+        void accessed(OffHeapMap.Table table, long hashEntryAdr, long hash)
+        {
+            if (HashEntries.getLRUQueue(hashEntryAdr) == LIR)
+                moveToFront(table, LIR, hashEntryAdr);
+            else if (inStack(table, hash))
+            {
+                // resident HIR entry in stack
+                moveToFront(table, LIR, hashEntryAdr);
+                demote(table, hashEntryAdr);
+            }
+            else
+                moveToFront(table, HIR, hashEntryAdr);
+
+            history.put(hash, ++clock);
+        }
+
+        private boolean inStack(OffHeapMap.Table table, long hash)
+        {
+            long stamp = history.get(hash);
+            if (stamp == 0L)
+                return false;
+            long bottom = table.eldest(LIR);
+            return bottom == 0L || stamp > history.get(HashEntries.getHash(bottom));
+        }
+
+        private void demote(OffHeapMap.Table table, long hashEntryAdr)
+        {
+            while (bytes(LIR) > lirMax)
+            {
+                long bottom = table.eldest(LIR);
+                if (bottom == hashEntryAdr)
+                    break;
+                moveToFront(table, HIR, bottom);
+            }
+        }
+
+        long victim(OffHeapMap.Table table)
+        {
+            long victim = table.eldest(HIR);
+            return victim != 0L ? victim : table.eldest(LIR);
+        }
+
+        void fillHotN(OffHeapMap.Table table, long[] r)
+        {
+            int c = table.fillHotN(LIR, r, 0);
+            table.fillHotN(HIR, r, c);
+        }
+
+        void clear()
+        {
+            super.clear();
+            history.clear();
+        }
+
+        void updateCapacity(long diff)
+        {
+            capacity += diff;
+            limits();
+        }
+
+        void resize(int hashTableSize)
+        {
+            history.ensureCapacity(hashTableSize * 2);
+        }
+
+        void release()
+        {
+            history.release();
+        }
+    }
+
+    /**
+     * 2Q (full version).
+     * <p>
+     * New hash entries are added to the <i>A1in</i> FIFO queue, which is not reordered on hits. If A1in exceeds 25% of
+     * the capacity, its eldest entries are evicted and their hashes are remembered in <i>A1out</i>, a {@link HashHistory}
+     * that tracks the last {@code hashTableSize / 2} hashes evicted from A1in. Keys put while remembered in A1out
+     * go to the <i>Am</i> LRU queue.
+     * </p>
+     */
+    static final class TwoQ extends EvictionPolicy
+    {
+        private static final int A1IN = 0;
+        private static final int AM = 1;
+
+        private long capacity;
+        private long a1inMax;
+        private int a1outMax;
+
+        private final HashHistory a1out;
+        private long a1outClock;
+
+        TwoQ(long capacity, int hashTableSize, boolean throwOOME)
+        {
+            super(2);
+
+            this.capacity = capacity;
+            limits();
+
+            this.a1outMax = hashTableSize / 2;
+            this.a1out = new HashHistory(hashTableSize * 2, throwOOME);
+        }
+
+        private void limits()
+        {
+            a1inMax = (long) (capacity * .25d);
+        }
+
+        void added(OffHeapMap.Table table, long hashEntryAdr, long hash)
+        {
+            long stamp = a1out.get(hash);
+            if (stamp != 0L && stamp > a1outClock - a1outMax)
+            {
+                a1out.remove(hash);
+                addFirst(table, AM, hashEntryAdr);
+            }
+            else
+                addFirst(table, A1IN, hashEntryAdr);
+        }
+
+        void updated(OffHeapMap.Table table, long hashEntryAdr, long hash, long replacedHashEntryAdr)
+        {
+            addFirst(table, HashEntries.getLRUQueue(replacedHashEntryAdr), hashEntryAdr);
+        }
+
+        void accessed(OffHeapMap.Table table, long hashEntryAdr, long hash)
+        {
+            if (HashEntries.getLRUQueue(hashEntryAdr) == AM)
+                moveToFront(table, AM, hashEntryAdr);
+        }
+
+        long victim(OffHeapMap.Table table)
+        {
+            long victim = bytes(A1IN) > a1inMax || bytes(AM) == 0L ? table.eldest(A1IN) : 0L;
+            if (victim != 0L)
+            {
+                a1out.put(HashEntries.getHash(victim), ++a1outClock);
+                return victim;
+            }
+            return table.eldest(AM);
+        }
+
+        void fillHotN(OffHeapMap.Table table, long[] r)
+        {
+            int c = table.fillHotN(AM, r, 0);
+            table.fillHotN(A1IN, r, c);
+        }
+
+        void clear()
+        {
+            super.clear();
+            a1out.clear();
+        }
+
+        void updateCapacity(long diff)
+        {
+            capacity += diff;
+            limits();
+        }
+
+        void resize(int hashTableSize)
+        {
+            a1outMax = hashTableSize / 2;
+            a1out.ensureCapacity(hashTableSize * 2);
+        }
+
+        void release()
+        {
+            a1out.release();
+        }
+    }
+}
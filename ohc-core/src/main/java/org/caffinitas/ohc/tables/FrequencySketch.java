@@ -0,0 +1,154 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+/**
+ * Off-heap count-min sketch with four 4-bit counters per hash used to estimate the access frequency of keys.
+ * <p>
+ * Each {@code long} of the off-heap table holds 16 counters. The four counters of a hash are taken from
+ * four different {@code long}s but at the same relative position, selected by two bits of the hash.
+ * All counters are halved when the number of increments reaches ten times the table length (aging).
+ * </p>
+ * <p>
+ * Not thread safe - must only be used while holding the segment lock.
+ * </p>
+ */
+final class FrequencySketch
+{
+    private static final long[] SEED = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private final boolean throwOOME;
+
+    private long address;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    FrequencySketch(int capacity, boolean throwOOME)
+    {
+        this.throwOOME = throwOOME;
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Resizes the sketch to the given number of distinct hashes, if necessary. Resizing resets all counters.
+     */
+    void ensureCapacity(int capacity)
+    {
+        int length = (int) Util.roundUpToPowerOf2(Math.max(capacity, 64), 1 << 30);
+        if (address != 0L && length <= tableMask + 1)
+            return;
+
+        long adr = Uns.allocate(length * 8L, throwOOME);
+        if (adr == 0L)
+        {
+            if (address != 0L)
+                // keep the current table
+                return;
+            throw new RuntimeException("unable to allocate off-heap memory for frequency sketch");
+        }
+        Uns.setMemory(adr, 0L, length * 8L, (byte) 0);
+
+        release();
+        address = adr;
+        tableMask = length - 1;
+        sampleSize = 10 * length;
+        size = 0;
+    }
+
+    void release()
+    {
+        if (address != 0L)
+        {
+            Uns.free(address);
+            address = 0L;
+        }
+    }
+
+    /**
+     * Estimated number of occurrences of the given hash, between {@code 0} and {@code 15}.
+     */
+    int frequency(long hash)
+    {
+        int h = spread(hash);
+        int start = (h & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++)
+        {
+            long word = Uns.getLong(address, indexOf(h, i) * 8L);
+            int count = (int) ((word >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Increments the counters of the given hash, if not already at the maximum value.
+     */
+    void increment(long hash)
+    {
+        int h = spread(hash);
+        int start = (h & 3) << 2;
+
+        boolean added = false;
+        for (int i = 0; i < 4; i++)
+            added |= incrementAt(indexOf(h, i), start + i);
+
+        if (added && ++size == sampleSize)
+            reset();
+    }
+
+    private boolean incrementAt(int i, int j)
+    {
+        long off = i * 8L;
+        int shift = j << 2;
+        long mask = 0xfL << shift;
+        long word = Uns.getLong(address, off);
+        if ((word & mask) == mask)
+            return false;
+        Uns.putLong(address, off, word + (1L << shift));
+        return true;
+    }
+
+    private void reset()
+    {
+        int count = 0;
+        for (long off = 0L, end = (tableMask + 1) * 8L; off < end; off += 8L)
+        {
+            long word = Uns.getLong(address, off);
+            count += Long.bitCount(word & ONE_MASK);
+            Uns.putLong(address, off, (word >>> 1) & RESET_MASK);
+        }
+        size = (size >>> 1) - (count >>> 2);
+    }
+
+    private int indexOf(int item, int i)
+    {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += hash >>> 32;
+        return ((int) hash) & tableMask;
+    }
+
+    private static int spread(long hash)
+    {
+        int x = (int) (hash ^ (hash >>> 32));
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -23,10 +23,13 @@ final class HashEntries
     static void init(long hash, long keyLen, long valueLen, long hashEntryAdr)
     {
         Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_HASH, hash);
-        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_KEY_LENGTH, keyLen);
-        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_VALUE_LENGTH, valueLen);
+        Uns.putInt(hashEntryAdr, Util.ENTRY_OFF_KEY_LENGTH, (int) keyLen);
+        Uns.putInt(hashEntryAdr, Util.ENTRY_OFF_VALUE_LENGTH, (int) valueLen);
         Uns.putInt(hashEntryAdr, Util.ENTRY_OFF_REFCOUNT, 1);
-        Uns.putInt(hashEntryAdr, Util.ENTRY_OFF_SENTINEL, 0);
+        Uns.putByte(hashEntryAdr, Util.ENTRY_OFF_SENTINEL, (byte) 0);
+        Uns.putByte(hashEntryAdr, Util.ENTRY_OFF_FLAGS, (byte) 0);
+        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_EXPIRE_AT, 0L);
+        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_IDLE_EXPIRE_AT, 0L);
     }
 
     static boolean compareKey(long hashEntryAdr, org.caffinitas.ohc.tables.KeyBuffer key, long serKeyLen)
@@ -34,6 +37,9 @@ final class HashEntries
         if (hashEntryAdr == 0L)
             return false;
 
+        if (key.isScratch())
+            return compare(hashEntryAdr, Util.ENTRY_OFF_DATA, key.address(), 0L, serKeyLen);
+
         long blkOff = Util.ENTRY_OFF_DATA;
         int p = 0;
         byte[] arr = key.array();
@@ -85,19 +91,75 @@ final class HashEntries
         Uns.putInt(hashEntryAdr, Util.ENTRY_OFF_LRU_INDEX, lruIndex);
     }
 
+    static int getLRUQueue(long hashEntryAdr)
+    {
+        return Uns.getByte(hashEntryAdr, Util.ENTRY_OFF_LRU_QUEUE);
+    }
+
+    static void setLRUQueue(long hashEntryAdr, int lruQueue)
+    {
+        Uns.putByte(hashEntryAdr, Util.ENTRY_OFF_LRU_QUEUE, (byte) lruQueue);
+    }
+
+    static int getFlags(long hashEntryAdr)
+    {
+        return Uns.getByte(hashEntryAdr, Util.ENTRY_OFF_FLAGS);
+    }
+
+    static void setFlags(long hashEntryAdr, int flags)
+    {
+        Uns.putByte(hashEntryAdr, Util.ENTRY_OFF_FLAGS, (byte) flags);
+    }
+
     static long getHash(long hashEntryAdr)
     {
         return Uns.getLong(hashEntryAdr, Util.ENTRY_OFF_HASH);
     }
 
+    static long getExpireAt(long hashEntryAdr)
+    {
+        return Uns.getLong(hashEntryAdr, Util.ENTRY_OFF_EXPIRE_AT);
+    }
+
+    static void setExpireAt(long hashEntryAdr, long expireAt)
+    {
+        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_EXPIRE_AT, expireAt);
+    }
+
+    static long getIdleExpireAt(long hashEntryAdr)
+    {
+        return Uns.getLong(hashEntryAdr, Util.ENTRY_OFF_IDLE_EXPIRE_AT);
+    }
+
+    static void setIdleExpireAt(long hashEntryAdr, long idleExpireAt)
+    {
+        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_IDLE_EXPIRE_AT, idleExpireAt);
+    }
+
+    /**
+     * Returns the earlier one of the time-to-live and max-idle expiration timestamps.
+     *
+     * @return expiration timestamp or {@code 0L} if the hash entry does not expire
+     */
+    static long getDeadline(long hashEntryAdr)
+    {
+        long expireAt = getExpireAt(hashEntryAdr);
+        long idleExpireAt = getIdleExpireAt(hashEntryAdr);
+        if (expireAt == 0L)
+            return idleExpireAt;
+        if (idleExpireAt == 0L)
+            return expireAt;
+        return Math.min(expireAt, idleExpireAt);
+    }
+
     static long getKeyLen(long hashEntryAdr)
     {
-        return Uns.getLong(hashEntryAdr, Util.ENTRY_OFF_KEY_LENGTH);
+        return Uns.getInt(hashEntryAdr, Util.ENTRY_OFF_KEY_LENGTH);
     }
 
     static long getValueLen(long hashEntryAdr)
     {
-        return Uns.getLong(hashEntryAdr, Util.ENTRY_OFF_VALUE_LENGTH);
+        return Uns.getInt(hashEntryAdr, Util.ENTRY_OFF_VALUE_LENGTH);
     }
 
     static long getAllocLen(long address)
@@ -24,7 +24,12 @@ final class HashEntryValueInput extends AbstractDataInput
 {
     HashEntryValueInput(long hashEntryAdr)
     {
-        super(hashEntryAdr, Util.ENTRY_OFF_DATA + Util.roundUpTo8(HashEntries.getKeyLen(hashEntryAdr)), HashEntries.getValueLen(hashEntryAdr));
+        super(hashEntryAdr, Util.ENTRY_OFF_DATA + HashEntries.getKeyLen(hashEntryAdr), HashEntries.getValueLen(hashEntryAdr));
+    }
+
+    HashEntryValueInput(long valueAdr, long valueLen)
+    {
+        super(valueAdr, 0L, valueLen);
     }
 
     public boolean readBoolean() throws IOException
@@ -0,0 +1,114 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+/**
+ * Off-heap direct-mapped table of {@code (hash, stamp)} pairs used by eviction policies to remember
+ * hashes of keys that are no longer (or not yet) resident.
+ * <p>
+ * Each hash maps to exactly one slot - a colliding hash overwrites the previous one, so information may be lost.
+ * That is acceptable for eviction bookkeeping and bounds the memory used for non-resident keys.
+ * </p>
+ * <p>
+ * Not thread safe - must only be used while holding the segment lock.
+ * </p>
+ */
+final class HashHistory
+{
+    private static final long SLOT_LEN = 16L;
+
+    private final boolean throwOOME;
+
+    private long address;
+    private int mask;
+
+    HashHistory(int capacity, boolean throwOOME)
+    {
+        this.throwOOME = throwOOME;
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Resizes the table to the given number of slots, if necessary. Resizing drops all pairs.
+     */
+    void ensureCapacity(int capacity)
+    {
+        int slots = (int) Util.roundUpToPowerOf2(Math.max(capacity, 64), 1 << 30);
+        if (address != 0L && slots <= mask + 1)
+            return;
+
+        long adr = Uns.allocate(slots * SLOT_LEN, throwOOME);
+        if (adr == 0L)
+        {
+            if (address != 0L)
+                // keep the current table
+                return;
+            throw new RuntimeException("unable to allocate off-heap memory for hash history");
+        }
+
+        release();
+        address = adr;
+        mask = slots - 1;
+        clear();
+    }
+
+    void clear()
+    {
+        Uns.setMemory(address, 0L, (mask + 1) * SLOT_LEN, (byte) 0);
+    }
+
+    void release()
+    {
+        if (address != 0L)
+        {
+            Uns.free(address);
+            address = 0L;
+        }
+    }
+
+    /**
+     * @param stamp stamp to record for the hash, must not be {@code 0L}
+     */
+    void put(long hash, long stamp)
+    {
+        long off = slotOffset(hash);
+        Uns.putLong(address, off, hash);
+        Uns.putLong(address, off + 8L, stamp);
+    }
+
+    /**
+     * @return stamp recorded for the hash or {@code 0L}
+     */
+    long get(long hash)
+    {
+        long off = slotOffset(hash);
+        return Uns.getLong(address, off) == hash ? Uns.getLong(address, off + 8L) : 0L;
+    }
+
+    void remove(long hash)
+    {
+        long off = slotOffset(hash);
+        if (Uns.getLong(address, off) == hash)
+            Uns.putLong(address, off + 8L, 0L);
+    }
+
+    private long slotOffset(long hash)
+    {
+        // bucket index uses the low bits of the hash - use the high bits here
+        int h = (int) (hash >>> 32) ^ (int) (hash >>> 17);
+        return (h & mask) * SLOT_LEN;
+    }
+}
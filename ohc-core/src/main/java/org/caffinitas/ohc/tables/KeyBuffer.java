@@ -15,32 +15,123 @@
  */
 package org.caffinitas.ohc.tables;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Serialized key used to look up, remove or load entries.
+ * <p>
+ * A key buffer is either backed by a heap array (keys that outlive a single operation, like bulk operations
+ * or loaders) or is a reusable off-heap scratch area taken from a small, fixed pool (single key operations), so that
+ * serializing, hashing and comparing a key for a lookup does not allocate on the heap.
+ * </p>
+ */
 final class KeyBuffer extends AbstractDataOutput
 {
+    private static final AtomicIntegerFieldUpdater<KeyBuffer> inUseUpdater = AtomicIntegerFieldUpdater.newUpdater(KeyBuffer.class, "inUse");
+
+    // keys that need more space use a heap key buffer
+    static final int MAX_SCRATCH_SIZE = 4096;
+    private static final int MIN_SCRATCH_SIZE = 64;
+
     private final byte[] array;
+
+    // off-heap scratch area (only if array == null)
+    private long address;
+    private int capacity;
+    private volatile int inUse;
+
+    private int size;
     private int p;
     private long hash;
 
-    // TODO maybe move 'array' to off-heap - depends on actual use.
-    // pro: reduces heap pressure
-    // pro: harmonize code for key + value (de)serialization in DataIn/Output implementations
-    // con: puts pressure on jemalloc
-
     KeyBuffer(int size)
     {
         array = new byte[size];
+        this.size = size;
+    }
+
+    private KeyBuffer()
+    {
+        array = null;
+    }
+
+    static KeyBuffer scratch()
+    {
+        return new KeyBuffer();
+    }
+
+    /**
+     * Takes this scratch key buffer and prepares it for a key of the given serialized size.
+     *
+     * @return {@code false} if this key buffer is already in use (by another thread or by the current thread, for
+     * example by a serializer calling back into the cache), has been freed or cannot provide the required space
+     */
+    boolean acquire(int size)
+    {
+        if (size > MAX_SCRATCH_SIZE || !inUseUpdater.compareAndSet(this, 0, 1))
+            return false;
+
+        if (capacity < size)
+        {
+            int cap = Math.max(MIN_SCRATCH_SIZE, Integer.highestOneBit(size - 1) << 1);
+            long adr = capacity < 0 ? 0L : Uns.allocate(cap);
+            if (adr == 0L)
+            {
+                inUse = 0;
+                return false;
+            }
+            Uns.free(address);
+            address = adr;
+            capacity = cap;
+        }
+
+        this.size = size;
+        p = 0;
+        return true;
+    }
+
+    /**
+     * Must be called when a key buffer from {@link OHCacheImpl#scratchKeySource(Object)} is no longer needed.
+     * No-op for heap key buffers.
+     */
+    void release()
+    {
+        if (array == null)
+            inUse = 0;
+    }
+
+    /**
+     * Frees the off-heap memory of this scratch key buffer, which cannot be acquired afterwards.
+     */
+    void free()
+    {
+        Uns.free(address);
+        address = 0L;
+        capacity = -1;
+    }
+
+    boolean isScratch()
+    {
+        return array == null;
     }
 
+    /**
+     * Returns the heap array of a heap key buffer or a copy of the serialized key of a scratch key buffer.
+     */
     byte[] array()
     {
-        return array;
+        if (array != null)
+            return array;
+        byte[] copy = new byte[size];
+        Uns.copyMemory(address, 0L, copy, 0, size);
+        return copy;
     }
 
-    int size()
+    long address()
     {
-        return array.length;
+        return address;
     }
 
     int position()
@@ -48,6 +139,11 @@ final class KeyBuffer extends AbstractDataOutput
         return p;
     }
 
+    int size()
+    {
+        return size;
+    }
+
     long hash()
     {
         return hash;
@@ -55,6 +151,12 @@ final class KeyBuffer extends AbstractDataOutput
 
     KeyBuffer finish()
     {
+        if (array == null)
+        {
+            hash = Murmur3.hash(address, 0L, size);
+            return this;
+        }
+
         int o = 0;
         int r = size();
 
@@ -164,14 +266,61 @@ final class KeyBuffer extends AbstractDataOutput
         return l;
     }
 
+    /**
+     * Stores a key of {@link OHLongCacheImpl} in native byte order, the same way it is stored in a hash entry,
+     * together with its hash.
+     */
+    KeyBuffer finishLongKey(long key)
+    {
+        if (array != null)
+            Uns.putLongToByteArray(array, 0, key);
+        else
+            Uns.putLong(address, 0L, key);
+        p = (int) Util.LONG_KEY_LEN;
+        hash = Util.longKeyHash(key);
+
+        return this;
+    }
+
     public void write(int b)
     {
-        array[p++] = (byte) b;
+        if (array != null)
+        {
+            array[p++] = (byte) b;
+            return;
+        }
+        if (p >= size)
+            throw new ArrayIndexOutOfBoundsException(p);
+        Uns.putByte(address, p++, (byte) b);
     }
 
     public void write(byte[] b, int off, int len)
     {
-        System.arraycopy(b, off, array, p, len);
+        if (array != null)
+            System.arraycopy(b, off, array, p, len);
+        else
+        {
+            if (off < 0 || len < 0 || off + len > b.length || p + len > size)
+                throw new ArrayIndexOutOfBoundsException();
+            Uns.copyMemory(b, off, address, p, len);
+        }
+        p += len;
+    }
+
+    /**
+     * Copies the remaining bytes of the given buffer without changing its position.
+     */
+    void write(ByteBuffer buffer)
+    {
+        int len = buffer.remaining();
+        if (array != null)
+            buffer.duplicate().get(array, p, len);
+        else
+        {
+            if (p + len > size)
+                throw new ArrayIndexOutOfBoundsException();
+            Uns.copyMemory(buffer, address, p, len);
+        }
         p += len;
     }
 
@@ -224,7 +373,7 @@ final class KeyBuffer extends AbstractDataOutput
 
         KeyBuffer keyBuffer = (KeyBuffer) o;
 
-        return Arrays.equals(array, keyBuffer.array);
+        return Arrays.equals(array(), keyBuffer.array());
     }
 
     public int hashCode()
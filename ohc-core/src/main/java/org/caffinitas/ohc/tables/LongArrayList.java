@@ -39,6 +39,11 @@ final class LongArrayList
         return size;
     }
 
+    public void clear()
+    {
+        size = 0;
+    }
+
     public void add(long value)
     {
         if (size == array.length)
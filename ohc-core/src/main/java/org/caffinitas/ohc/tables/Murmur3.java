@@ -50,4 +50,116 @@ final class Murmur3
     {
         return value & 0xff;
     }
+
+    /**
+     * 64 bit murmur3 hash of off-heap memory, same as the lower 64 bits of Guava's {@code murmur3_128}.
+     */
+    static long hash(long address, long offset, long length)
+    {
+        long o = offset;
+        long r = length;
+
+        long h1 = 0L;
+        long h2 = 0L;
+        long k1, k2;
+
+        for (; r >= 16; r -= 16)
+        {
+            k1 = getLong(address, o);
+            o += 8;
+            k2 = getLong(address, o);
+            o += 8;
+
+            // bmix64()
+
+            h1 ^= mixK1(k1);
+
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        if (r > 0)
+        {
+            k1 = 0;
+            k2 = 0;
+            switch ((int) r)
+            {
+                case 15:
+                    k2 ^= toLong(Uns.getByte(address, o + 14)) << 48; // fall through
+                case 14:
+                    k2 ^= toLong(Uns.getByte(address, o + 13)) << 40; // fall through
+                case 13:
+                    k2 ^= toLong(Uns.getByte(address, o + 12)) << 32; // fall through
+                case 12:
+                    k2 ^= toLong(Uns.getByte(address, o + 11)) << 24; // fall through
+                case 11:
+                    k2 ^= toLong(Uns.getByte(address, o + 10)) << 16; // fall through
+                case 10:
+                    k2 ^= toLong(Uns.getByte(address, o + 9)) << 8; // fall through
+                case 9:
+                    k2 ^= toLong(Uns.getByte(address, o + 8)); // fall through
+                case 8:
+                    k1 ^= getLong(address, o);
+                    break;
+                case 7:
+                    k1 ^= toLong(Uns.getByte(address, o + 6)) << 48; // fall through
+                case 6:
+                    k1 ^= toLong(Uns.getByte(address, o + 5)) << 40; // fall through
+                case 5:
+                    k1 ^= toLong(Uns.getByte(address, o + 4)) << 32; // fall through
+                case 4:
+                    k1 ^= toLong(Uns.getByte(address, o + 3)) << 24; // fall through
+                case 3:
+                    k1 ^= toLong(Uns.getByte(address, o + 2)) << 16; // fall through
+                case 2:
+                    k1 ^= toLong(Uns.getByte(address, o + 1)) << 8; // fall through
+                case 1:
+                    k1 ^= toLong(Uns.getByte(address, o));
+                    break;
+                default:
+                    throw new AssertionError("Should never get here.");
+            }
+
+            h1 ^= mixK1(k1);
+            h2 ^= mixK2(k2);
+        }
+
+        // makeHash()
+
+        h1 ^= length;
+        h2 ^= length;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+
+        h1 += h2;
+        //h2 += h1;
+
+        // padToLong()
+
+        return h1;
+    }
+
+    private static long getLong(long address, long o)
+    {
+        long l = toLong(Uns.getByte(address, o + 7)) << 56;
+        l |= toLong(Uns.getByte(address, o + 6)) << 48;
+        l |= toLong(Uns.getByte(address, o + 5)) << 40;
+        l |= toLong(Uns.getByte(address, o + 4)) << 32;
+        l |= toLong(Uns.getByte(address, o + 3)) << 24;
+        l |= toLong(Uns.getByte(address, o + 2)) << 16;
+        l |= toLong(Uns.getByte(address, o + 1)) << 8;
+        l |= toLong(Uns.getByte(address, o));
+        return l;
+    }
 }
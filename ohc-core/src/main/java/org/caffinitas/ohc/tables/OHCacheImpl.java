@@ -16,25 +16,37 @@
 package org.caffinitas.ohc.tables;
 
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.collect.AbstractIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.caffinitas.ohc.BulkCacheLoader;
 import org.caffinitas.ohc.CacheLoader;
 import org.caffinitas.ohc.CacheSerializer;
 import org.caffinitas.ohc.DirectValueAccess;
@@ -48,31 +60,89 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(OHCacheImpl.class);
 
+    // bounds the hash entries allocated ahead by putAll() and the time a segment lock is held by bulk operations
+    static final int BULK_BATCH_SIZE = 1024;
+
+    // snapshot files are written with gathering writes of up to this number of hash entries or bytes
+    private static final int SNAPSHOT_BATCH_ENTRIES = 512;
+    private static final long SNAPSHOT_BATCH_BYTES = 4L * 1024 * 1024;
+    private static final int SNAPSHOT_READ_BUFFER = 1024 * 1024;
+    private static final String SNAPSHOT_MANIFEST = "manifest";
+
+    // outcomes of deserializing a single entry
+    private static final int ENTRY_END = 0;
+    private static final int ENTRY_NOT_ADDED = 1;
+    private static final int ENTRY_ADDED = 2;
+
+    // number of pool slots tried for a scratch key buffer before falling back to a heap key buffer
+    private static final int SCRATCH_KEY_PROBES = 4;
+
     private final CacheSerializer<K> keySerializer;
     private final CacheSerializer<V> valueSerializer;
 
+    // fixed pool of reusable off-heap key buffers for single key operations, freed on close() - bounded, so that
+    // short-living threads do not accumulate off-heap memory
+    private final KeyBuffer[] scratchKeyBuffers;
+
+    // reusable buffer views of each thread to write values to channels
+    private final ThreadLocal<ChannelViews> channelViews = new ThreadLocal<>();
+
     private final OffHeapMap[] maps;
     private final long segmentMask;
     private final int segmentShift;
 
     private final long maxEntrySize;
+    private final long defaultTTLmillis;
 
     private long capacity;
 
     private volatile long putFailCount;
 
+    private boolean closed;
+
     private final boolean throwOOME;
 
+    private final Compressor compressor;
+    private final int compressionThreshold;
+    private final AtomicLong compressionInputBytes = new AtomicLong();
+    private final AtomicLong compressionOutputBytes = new AtomicLong();
+    private final AtomicLong compressionNanos = new AtomicLong();
+
     public OHCacheImpl(OHCacheBuilder<K, V> builder)
+    {
+        this(builder, false);
+    }
+
+    /**
+     * @param longKeys whether the cache is used by {@link OHLongCacheImpl}, which does not need a key serializer
+     */
+    OHCacheImpl(OHCacheBuilder<K, V> builder, boolean longKeys)
     {
         long capacity = builder.getCapacity();
         if (capacity <= 0L)
             throw new IllegalArgumentException("capacity");
+        if (builder.isLogStructured())
+            throw new IllegalArgumentException("log-structured storage not supported by tables implementation");
+        if (builder.getStorageFile() != null)
+            throw new IllegalArgumentException("storage file not supported by tables implementation");
+        if (builder.getSpillFile() != null)
+            throw new IllegalArgumentException("spill file not supported by tables implementation");
 
         this.capacity = capacity;
 
         this.throwOOME = builder.isThrowOOME();
 
+        int compressionThreshold = builder.getCompressionThreshold();
+        if (compressionThreshold < 0)
+            throw new IllegalArgumentException("compressionThreshold");
+        this.compressionThreshold = compressionThreshold;
+        this.compressor = compressionThreshold > 0 ? Compressor.create(builder.getCompression()) : null;
+
+        // off-heap memory of the scratch key buffers is allocated on first use
+        scratchKeyBuffers = new KeyBuffer[(int) Util.roundUpToPowerOf2(Runtime.getRuntime().availableProcessors() * 4, 1 << 16)];
+        for (int i = 0; i < scratchKeyBuffers.length; i++)
+            scratchKeyBuffers[i] = KeyBuffer.scratch();
+
         // build segments
         int segments = builder.getSegmentCount();
         if (segments <= 0)
@@ -100,14 +170,17 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
 
         // calculate max entry size
         long maxEntrySize = builder.getMaxEntrySize();
-        if (maxEntrySize > capacity / segments)
+        // key and value lengths are stored as 32 bit values in the entry header
+        if (maxEntrySize > capacity / segments || maxEntrySize > Integer.MAX_VALUE)
             throw new IllegalArgumentException("Illegal max entry size " + maxEntrySize);
         else if (maxEntrySize <= 0)
-            maxEntrySize = capacity / segments;
+            maxEntrySize = Math.min(capacity / segments, Integer.MAX_VALUE);
         this.maxEntrySize = maxEntrySize;
 
+        this.defaultTTLmillis = builder.getDefaultTTLmillis();
+
         this.keySerializer = builder.getKeySerializer();
-        if (keySerializer == null)
+        if (keySerializer == null && !longKeys)
             throw new NullPointerException("keySerializer == null");
         this.valueSerializer = builder.getValueSerializer();
         if (valueSerializer == null)
@@ -125,14 +198,56 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         if (key == null)
             throw new NullPointerException();
 
-        KeyBuffer keySource = keySource(key);
+        return getDirect(scratchKeySource(key));
+    }
+
+    public DirectValueAccess getRaw(ByteBuffer key)
+    {
+        if (key == null)
+            throw new NullPointerException();
+
+        return getDirect(rawKeySource(key));
+    }
 
-        long hashEntryAdr = segment(keySource.hash()).getEntry(keySource, true);
+    private DirectValueAccess getDirect(KeyBuffer keySource)
+    {
+        long hashEntryAdr;
+        try
+        {
+            hashEntryAdr = segment(keySource.hash()).getEntry(keySource, true);
+        }
+        finally
+        {
+            keySource.release();
+        }
 
         if (hashEntryAdr == 0L)
             return null;
 
-        return new DirectValueAccessImpl(hashEntryAdr);
+        return directValueAccess(hashEntryAdr);
+    }
+
+    /**
+     * Takes over the reference to the given hash entry.
+     */
+    private DirectValueAccess directValueAccess(long hashEntryAdr)
+    {
+        if (!isCompressed(hashEntryAdr))
+            return new DirectValueAccessImpl(hashEntryAdr);
+
+        // compressed values are accessed via a decompressed copy
+        try
+        {
+            return DirectValueAccessImpl.copyOf(decompress(hashEntryAdr), uncompressedValueLen(hashEntryAdr));
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            HashEntries.dereference(hashEntryAdr);
+        }
     }
 
 
@@ -141,17 +256,21 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         if (key == null)
             throw new NullPointerException();
 
-        KeyBuffer keySource = keySource(key);
-
-        OffHeapMap segment = segment(keySource.hash());
-        long hashEntryAdr = segment.getEntry(keySource, true);
+        return get(scratchKeySource(key));
+    }
 
+    /**
+     * Looks up the given key and releases the key buffer.
+     */
+    private V get(KeyBuffer keySource)
+    {
+        long hashEntryAdr = getEntry(keySource);
         if (hashEntryAdr == 0L)
             return null;
 
         try
         {
-            return valueSerializer.deserialize(new HashEntryValueInput(hashEntryAdr));
+            return deserializeValue(hashEntryAdr);
         }
         catch (IOException e)
         {
@@ -163,14 +282,261 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         }
     }
 
+    /**
+     * Looks up the given key and releases the key buffer.
+     *
+     * @return referenced hash entry or {@code 0L}
+     */
+    private long getEntry(KeyBuffer keySource)
+    {
+        try
+        {
+            long hashEntryAdr = segment(keySource.hash()).getEntry(keySource, true);
+            return hashEntryAdr;
+        }
+        finally
+        {
+            keySource.release();
+        }
+    }
+
     public boolean containsKey(K key)
     {
         if (key == null)
             throw new NullPointerException();
 
-        KeyBuffer keySource = keySource(key);
+        return containsKey(scratchKeySource(key));
+    }
+
+    private boolean containsKey(KeyBuffer keySource)
+    {
+        try
+        {
+            return segment(keySource.hash()).getEntry(keySource, false) != 0L;
+        }
+        finally
+        {
+            keySource.release();
+        }
+    }
+
+    public Map<K, V> getAll(Iterable<K> keys)
+    {
+        Object[] keyArr = toArray(keys);
+        long[] hashEntryAdrs = getEntries(keyArr);
+
+        Map<K, V> result = new HashMap<>(keyArr.length * 2);
+        try
+        {
+            for (int i = 0; i < keyArr.length; i++)
+                if (hashEntryAdrs[i] != 0L)
+                    result.put((K) keyArr[i], deserializeValue(hashEntryAdrs[i]));
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            dereference(hashEntryAdrs);
+        }
+        return result;
+    }
+
+    public Map<K, DirectValueAccess> getAllDirect(Iterable<K> keys)
+    {
+        Object[] keyArr = toArray(keys);
+        long[] hashEntryAdrs = getEntries(keyArr);
+
+        Map<K, DirectValueAccess> result = new HashMap<>(keyArr.length * 2);
+        try
+        {
+            for (int i = 0; i < keyArr.length; i++)
+            {
+                long hashEntryAdr = hashEntryAdrs[i];
+                if (hashEntryAdr == 0L)
+                    continue;
+                hashEntryAdrs[i] = 0L;
+                DirectValueAccess old = result.put((K) keyArr[i], directValueAccess(hashEntryAdr));
+                if (old != null)
+                    // duplicate key
+                    old.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            dereference(hashEntryAdrs);
+        }
+        return result;
+    }
+
+    public boolean getTo(K key, WritableByteChannel channel) throws IOException
+    {
+        if (key == null || channel == null)
+            throw new NullPointerException();
+
+        long hashEntryAdr = getEntry(scratchKeySource(key));
+        if (hashEntryAdr == 0L)
+            return false;
+
+        ChannelViews views = acquireChannelViews();
+        try
+        {
+            addView(views, hashEntryAdr);
+            views.write(channel);
+            return true;
+        }
+        finally
+        {
+            views.release();
+        }
+    }
+
+    public int getAllTo(Iterable<K> keys, GatheringByteChannel channel) throws IOException
+    {
+        if (channel == null)
+            throw new NullPointerException();
+
+        ChannelViews views = acquireChannelViews();
+        try
+        {
+            for (K key : keys)
+            {
+                if (key == null)
+                    throw new NullPointerException();
+                long hashEntryAdr = getEntry(scratchKeySource(key));
+                if (hashEntryAdr != 0L)
+                    addView(views, hashEntryAdr);
+            }
+            views.write(channel);
+            return views.count();
+        }
+        finally
+        {
+            views.release();
+        }
+    }
+
+    /**
+     * @return the channel views of the current thread or new channel views, if those are already in use
+     */
+    private ChannelViews acquireChannelViews()
+    {
+        ChannelViews views = channelViews.get();
+        if (views == null)
+        {
+            views = new ChannelViews();
+            channelViews.set(views);
+        }
+        if (views.acquire())
+            return views;
+
+        views = new ChannelViews();
+        views.acquire();
+        return views;
+    }
+
+    /**
+     * Adds a view on the value of the given hash entry, takes over the reference to the hash entry.
+     */
+    private void addView(ChannelViews views, long hashEntryAdr) throws IOException
+    {
+        if (!isCompressed(hashEntryAdr))
+        {
+            views.addEntry(hashEntryAdr, HashEntries.getKeyLen(hashEntryAdr), HashEntries.getValueLen(hashEntryAdr));
+            return;
+        }
+
+        long valueCopyAdr;
+        long valueLen;
+        try
+        {
+            valueLen = uncompressedValueLen(hashEntryAdr);
+            valueCopyAdr = decompress(hashEntryAdr);
+        }
+        finally
+        {
+            HashEntries.dereference(hashEntryAdr);
+        }
+        views.addCopy(valueCopyAdr, valueLen);
+    }
+
+    private Object[] toArray(Iterable<K> keys)
+    {
+        List<Object> keyList = new ArrayList<>();
+        for (K key : keys)
+        {
+            if (key == null)
+                throw new NullPointerException();
+            keyList.add(key);
+        }
+        return keyList.toArray();
+    }
+
+    /**
+     * Looks up the hash entries for the given keys. All keys are serialized and hashed first and then looked up
+     * grouped by segment, so each segment is locked only once. The keys are reordered by segment, the returned
+     * array contains the referenced hash entry for each key or {@code 0L}.
+     */
+    private long[] getEntries(Object[] keys)
+    {
+        int n = keys.length;
+        KeyBuffer[] keyBuffers = new KeyBuffer[n];
+        long[] hashes = new long[n];
+        for (int i = 0; i < n; i++)
+        {
+            keyBuffers[i] = keySource((K) keys[i]);
+            hashes[i] = keyBuffers[i].hash();
+        }
+
+        int[] order = new int[n];
+        int[] segStart = sortBySegment(hashes, n, order);
+        Object[] sortedKeys = new Object[n];
+        KeyBuffer[] sortedKeyBuffers = new KeyBuffer[n];
+        for (int p = 0; p < n; p++)
+        {
+            sortedKeys[p] = keys[order[p]];
+            sortedKeyBuffers[p] = keyBuffers[order[p]];
+        }
+        System.arraycopy(sortedKeys, 0, keys, 0, n);
+
+        long[] hashEntryAdrs = new long[n];
+        for (int seg = 0; seg < maps.length; seg++)
+            if (segStart[seg] < segStart[seg + 1])
+                maps[seg].getEntries(sortedKeyBuffers, segStart[seg], segStart[seg + 1], hashEntryAdrs);
+
+        return hashEntryAdrs;
+    }
+
+    /**
+     * Counting sort by segment. Stores the index of each of the first {@code n} hashes in segment order in
+     * {@code order}.
+     *
+     * @return index of the first element of each segment in {@code order}, followed by {@code n}
+     */
+    private int[] sortBySegment(long[] hashes, int n, int[] order)
+    {
+        int[] segStart = new int[maps.length + 1];
+        for (int i = 0; i < n; i++)
+            segStart[segmentIndex(hashes[i]) + 1]++;
+        for (int seg = 0; seg < maps.length; seg++)
+            segStart[seg + 1] += segStart[seg];
+
+        int[] pos = Arrays.copyOf(segStart, maps.length);
+        for (int i = 0; i < n; i++)
+            order[pos[segmentIndex(hashes[i])]++] = i;
+        return segStart;
+    }
 
-        return segment(keySource.hash()).getEntry(keySource, false) != 0L;
+    private static void dereference(long[] hashEntryAdrs)
+    {
+        for (long hashEntryAdr : hashEntryAdrs)
+            if (hashEntryAdr != 0L)
+                HashEntries.dereference(hashEntryAdr);
     }
 
     public DirectValueAccess putDirect(K k, long valueLen)
@@ -197,6 +563,7 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
 
         // initialize hash entry
         HashEntries.init(hash, keyLen, valueLen, hashEntryAdr); //, Util.SENTINEL_NOT_PRESENT);
+        HashEntries.setExpireAt(hashEntryAdr, expireAt(defaultTTLmillis));
 
         return new DirectValueAccessImpl(hashEntryAdr)
         {
@@ -211,22 +578,93 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         };
     }
 
+    public boolean putFrom(K key, ReadableByteChannel channel, long valueLen) throws IOException
+    {
+        if (key == null || channel == null)
+            throw new NullPointerException();
+        if (valueLen < 0L || valueLen > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("illegal value length " + valueLen);
+
+        DirectValueAccess direct = putDirect(key, valueLen);
+        if (direct == null)
+            return false;
+
+        boolean complete = false;
+        try
+        {
+            ByteBuffer buffer = direct.buffer();
+            if (!Util.readFully(channel, buffer))
+                throw new EOFException("channel ended after " + buffer.position() + " of " + valueLen + " bytes");
+            complete = true;
+        }
+        finally
+        {
+            if (complete)
+                direct.close();
+            else
+                direct.abort();
+        }
+        return true;
+    }
+
+    public Future<Boolean> putFromAsync(K key, ReadableByteChannel channel, long valueLen)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     public void put(K k, V v)
     {
-        putInternal(k, v, false, null);
+        putInternal(k, v, false, null, expireAt(defaultTTLmillis));
+    }
+
+    public void put(K k, V v, long ttl, TimeUnit unit)
+    {
+        putInternal(k, v, false, null, expireAt(unit.toMillis(ttl)));
     }
 
     public boolean addOrReplace(K key, V old, V value)
     {
-        return putInternal(key, value, false, old);
+        return putInternal(key, value, false, old, expireAt(defaultTTLmillis));
+    }
+
+    public void putRaw(ByteBuffer key, ByteBuffer value)
+    {
+        if (key == null || value == null)
+            throw new NullPointerException();
+
+        long hashEntryAdr = createRawEntry(key, value, expireAt(defaultTTLmillis));
+        if (hashEntryAdr == 0L)
+        {
+            // entry too large to be inserted or OS is not able to provide enough memory
+            putFailCount++;
+
+            removeRaw(key);
+
+            return;
+        }
+
+        long hash = HashEntries.getHash(hashEntryAdr);
+        long bytes = HashEntries.getAllocLen(hashEntryAdr);
+
+        if (!segment(hash).putEntry(hashEntryAdr, hash, key.remaining(), bytes, false, 0L, 0L))
+            Uns.free(hashEntryAdr);
     }
 
     public boolean putIfAbsent(K k, V v)
     {
-        return putInternal(k, v, true, null);
+        return putInternal(k, v, true, null, expireAt(defaultTTLmillis));
     }
 
-    private boolean putInternal(K k, V v, boolean ifAbsent, V old)
+    static long expireAt(long ttlMillis)
+    {
+        if (ttlMillis <= 0L)
+            return 0L;
+        long now = System.currentTimeMillis();
+        // guard against overflow for very long time-to-live values
+        return ttlMillis < Long.MAX_VALUE - now ? now + ttlMillis : Long.MAX_VALUE;
+    }
+
+    private boolean putInternal(K k, V v, boolean ifAbsent, V old, long expireAt)
     {
         if (k == null || v == null)
             throw new NullPointerException();
@@ -234,35 +672,24 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         long keyLen = keySerializer.serializedSize(k);
         long valueLen = valueSerializer.serializedSize(v);
 
-        long bytes = Util.allocLen(keyLen, valueLen);
-
         long oldValueAdr = 0L;
         long oldValueLen = 0L;
+        CompressedValue oldCompressed = null;
 
         try
         {
             if (old != null)
             {
                 oldValueLen = valueSerializer.serializedSize(old);
-                oldValueAdr = Uns.allocate(oldValueLen, throwOOME);
-                if (oldValueAdr == 0L)
-                    throw new RuntimeException("Unable to allocate " + oldValueLen + " bytes in off-heap");
-                try
-                {
-                    valueSerializer.serialize(old, new HashEntryValueOutput(oldValueAdr, oldValueLen));
-                }
-                catch (RuntimeException | Error e)
-                {
-                    throw e;
-                }
-                catch (Throwable e)
-                {
-                    throw new RuntimeException(e);
-                }
+                oldValueAdr = serializeValue(old, oldValueLen);
+
+                // the old value must be compared in the form it would have been stored
+                if (compresses(oldValueLen))
+                    oldCompressed = compress(oldValueAdr, 0L, oldValueLen);
             }
 
-            long hashEntryAdr;
-            if ((maxEntrySize > 0L && bytes > maxEntrySize) || (hashEntryAdr = Uns.allocate(bytes, throwOOME)) == 0L)
+            long hashEntryAdr = createEntry(k, v, keyLen, valueLen, expireAt);
+            if (hashEntryAdr == 0L)
             {
                 // entry too large to be inserted or OS is not able to provide enough memory
                 putFailCount++;
@@ -272,12 +699,12 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
                 return false;
             }
 
-            long hash = serializeForPut(k, v, keyLen, valueLen, hashEntryAdr);
-
-            // initialize hash entry
-            HashEntries.init(hash, keyLen, valueLen, hashEntryAdr);
+            long hash = HashEntries.getHash(hashEntryAdr);
+            long bytes = HashEntries.getAllocLen(hashEntryAdr);
 
-            if (segment(hash).putEntry(hashEntryAdr, hash, keyLen, bytes, ifAbsent, oldValueAdr, oldValueLen))
+            if (oldCompressed != null
+                ? segment(hash).putEntry(hashEntryAdr, hash, keyLen, bytes, ifAbsent, oldCompressed.address, oldCompressed.length)
+                : segment(hash).putEntry(hashEntryAdr, hash, keyLen, bytes, ifAbsent, oldValueAdr, oldValueLen))
                 return true;
 
             Uns.free(hashEntryAdr);
@@ -286,46 +713,395 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         finally
         {
             Uns.free(oldValueAdr);
+            if (oldCompressed != null)
+                Uns.free(oldCompressed.address);
         }
     }
 
-    private long serializeForPut(K k, V v, long keyLen, long valueLen, long hashEntryAdr)
+    /**
+     * Allocates and initializes a hash entry. The value is stored compressed, if it exceeds the compression threshold
+     * and compression saves memory.
+     *
+     * @return address of the hash entry or {@code 0L}, if the entry is too large or no memory could be allocated
+     */
+    private long createEntry(K k, V v, long keyLen, long valueLen, long expireAt)
     {
-        HashEntryKeyOutput key = new HashEntryKeyOutput(hashEntryAdr, keyLen);
+        return createEntry(k, 0L, v, keyLen, valueLen, expireAt);
+    }
+
+    /**
+     * @param k      key or {@code null} for a key of {@link OHLongCacheImpl}
+     * @param longKey key of {@link OHLongCacheImpl}, if {@code k} is {@code null}
+     */
+    private long createEntry(K k, long longKey, V v, long keyLen, long valueLen, long expireAt)
+    {
+        long valueAdr = 0L;
+        CompressedValue compressed = null;
         try
         {
-            keySerializer.serialize(k, key);
-            valueSerializer.serialize(v, new HashEntryValueOutput(hashEntryAdr, keyLen, valueLen));
-        }
-        catch (Throwable e)
-        {
-            freeAndThrow(e, hashEntryAdr);
-        }
+            if (compresses(valueLen))
+            {
+                valueAdr = serializeValue(v, valueLen);
+                compressed = compress(valueAdr, 0L, valueLen);
+                compressionInputBytes.addAndGet(valueLen);
+                compressionOutputBytes.addAndGet(compressed != null ? compressed.length : valueLen);
+            }
 
-        return key.hash();
-    }
+            long storedLen = compressed != null ? compressed.length : valueLen;
+            long bytes = Util.allocLen(keyLen, storedLen);
 
-    private static void freeAndThrow(Throwable e, long hashEntryAdr)
-    {
-        Uns.free(hashEntryAdr);
-        if (e instanceof RuntimeException)
-            throw (RuntimeException) e;
-        if (e instanceof Error)
-            throw (Error) e;
-        throw new RuntimeException(e);
-    }
+            long hashEntryAdr;
+            if ((maxEntrySize > 0L && bytes > maxEntrySize) || (hashEntryAdr = Uns.allocate(bytes, throwOOME)) == 0L)
+                return 0L;
 
-    public void remove(K k)
-    {
-        if (k == null)
-            throw new NullPointerException();
+            long hash = k != null
+                        ? serializeForPut(k, valueAdr == 0L ? v : null, keyLen, storedLen, hashEntryAdr)
+                        : serializeForPut(longKey, valueAdr == 0L ? v : null, storedLen, hashEntryAdr);
+
+            // initialize hash entry
+            HashEntries.init(hash, keyLen, storedLen, hashEntryAdr);
+            HashEntries.setExpireAt(hashEntryAdr, expireAt);
 
-        KeyBuffer key = keySource(k);
+            long valueOff = Util.ENTRY_OFF_DATA + keyLen;
+            if (compressed != null)
+            {
+                Uns.copyMemory(compressed.address, 0L, hashEntryAdr, valueOff, storedLen);
+                HashEntries.setFlags(hashEntryAdr, Util.FLAG_COMPRESSED);
+            }
+            else if (valueAdr != 0L)
+                Uns.copyMemory(valueAdr, 0L, hashEntryAdr, valueOff, valueLen);
 
-        segment(key.hash()).removeEntry(key);
+            return hashEntryAdr;
+        }
+        finally
+        {
+            Uns.free(valueAdr);
+            if (compressed != null)
+                Uns.free(compressed.address);
+        }
     }
 
-    public V getWithLoader(K key, CacheLoader<K, V> loader) throws InterruptedException, ExecutionException
+    /**
+     * Like {@link #createEntry(Object, Object, long, long, long)} for a key and value in serialized form.
+     * Key and value are copied directly from the buffers and the hash is computed from the key in the hash entry.
+     */
+    private long createRawEntry(ByteBuffer key, ByteBuffer value, long expireAt)
+    {
+        long keyLen = key.remaining();
+        long valueLen = value.remaining();
+
+        CompressedValue compressed = null;
+        try
+        {
+            if (compresses(valueLen))
+            {
+                long valueAdr = Uns.allocate(valueLen, throwOOME);
+                if (valueAdr == 0L)
+                    throw new RuntimeException("Unable to allocate " + valueLen + " bytes in off-heap");
+                try
+                {
+                    Uns.copyMemory(value, valueAdr, 0L, valueLen);
+                    compressed = compress(valueAdr, 0L, valueLen);
+                }
+                finally
+                {
+                    Uns.free(valueAdr);
+                }
+                compressionInputBytes.addAndGet(valueLen);
+                compressionOutputBytes.addAndGet(compressed != null ? compressed.length : valueLen);
+            }
+
+            long storedLen = compressed != null ? compressed.length : valueLen;
+            long bytes = Util.allocLen(keyLen, storedLen);
+
+            long hashEntryAdr;
+            if ((maxEntrySize > 0L && bytes > maxEntrySize) || (hashEntryAdr = Uns.allocate(bytes, throwOOME)) == 0L)
+                return 0L;
+
+            Uns.copyMemory(key, hashEntryAdr, Util.ENTRY_OFF_DATA, keyLen);
+            long hash = Murmur3.hash(hashEntryAdr, Util.ENTRY_OFF_DATA, keyLen);
+
+            // initialize hash entry
+            HashEntries.init(hash, keyLen, storedLen, hashEntryAdr);
+            HashEntries.setExpireAt(hashEntryAdr, expireAt);
+
+            long valueOff = Util.ENTRY_OFF_DATA + keyLen;
+            if (compressed != null)
+            {
+                Uns.copyMemory(compressed.address, 0L, hashEntryAdr, valueOff, storedLen);
+                HashEntries.setFlags(hashEntryAdr, Util.FLAG_COMPRESSED);
+            }
+            else
+                Uns.copyMemory(value, hashEntryAdr, valueOff, valueLen);
+
+            return hashEntryAdr;
+        }
+        finally
+        {
+            if (compressed != null)
+                Uns.free(compressed.address);
+        }
+    }
+
+    private long serializeForPut(K k, V v, long keyLen, long valueLen, long hashEntryAdr)
+    {
+        HashEntryKeyOutput key = new HashEntryKeyOutput(hashEntryAdr, keyLen);
+        try
+        {
+            keySerializer.serialize(k, key);
+            if (v != null)
+                valueSerializer.serialize(v, new HashEntryValueOutput(hashEntryAdr, keyLen, valueLen));
+        }
+        catch (Throwable e)
+        {
+            freeAndThrow(e, hashEntryAdr);
+        }
+
+        return key.hash();
+    }
+
+    private long serializeForPut(long k, V v, long valueLen, long hashEntryAdr)
+    {
+        Uns.putLong(hashEntryAdr, Util.ENTRY_OFF_DATA, k);
+        try
+        {
+            if (v != null)
+                valueSerializer.serialize(v, new HashEntryValueOutput(hashEntryAdr, Util.LONG_KEY_LEN, valueLen));
+        }
+        catch (Throwable e)
+        {
+            freeAndThrow(e, hashEntryAdr);
+        }
+
+        return Util.longKeyHash(k);
+    }
+
+    private static void freeAndThrow(Throwable e, long hashEntryAdr)
+    {
+        Uns.free(hashEntryAdr);
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof Error)
+            throw (Error) e;
+        throw new RuntimeException(e);
+    }
+
+    //
+    // value compression
+    //
+
+    /**
+     * Serialized value compressed into the form stored in hash entries:
+     * the serialized length as an int followed by the compressed bytes.
+     */
+    private static final class CompressedValue
+    {
+        final long address;
+        final long length;
+
+        CompressedValue(long address, long length)
+        {
+            this.address = address;
+            this.length = length;
+        }
+    }
+
+    private boolean compresses(long valueLen)
+    {
+        // compressors work on int lengths
+        return compressor != null && valueLen >= compressionThreshold && valueLen <= Integer.MAX_VALUE / 2;
+    }
+
+    private static boolean isCompressed(long hashEntryAdr)
+    {
+        return (HashEntries.getFlags(hashEntryAdr) & Util.FLAG_COMPRESSED) != 0;
+    }
+
+    private static long uncompressedValueLen(long hashEntryAdr)
+    {
+        return Uns.getInt(hashEntryAdr, Util.ENTRY_OFF_DATA + HashEntries.getKeyLen(hashEntryAdr));
+    }
+
+    /**
+     * Serializes a value into a temporary off-heap buffer.
+     */
+    private long serializeValue(V v, long valueLen)
+    {
+        long valueAdr = Uns.allocate(valueLen, throwOOME);
+        if (valueAdr == 0L)
+            throw new RuntimeException("Unable to allocate " + valueLen + " bytes in off-heap");
+        try
+        {
+            valueSerializer.serialize(v, new HashEntryValueOutput(valueAdr, valueLen));
+        }
+        catch (RuntimeException | Error e)
+        {
+            Uns.free(valueAdr);
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            Uns.free(valueAdr);
+            throw new RuntimeException(e);
+        }
+        return valueAdr;
+    }
+
+    /**
+     * Compresses a serialized value into a temporary off-heap buffer.
+     *
+     * @return the compressed value or {@code null}, if compression does not save memory
+     */
+    private CompressedValue compress(long valueAdr, long valueOff, long valueLen)
+    {
+        long start = System.nanoTime();
+
+        int maxLen = compressor.maxCompressedLength((int) valueLen);
+        long compressedAdr = Uns.allocate(4L + maxLen, throwOOME);
+        if (compressedAdr == 0L)
+            return null;
+
+        long compressedLen;
+        try
+        {
+            compressedLen = 4L + compressor.compress(valueAdr, valueOff, (int) valueLen, compressedAdr, 4L, maxLen);
+        }
+        catch (Throwable e)
+        {
+            Uns.free(compressedAdr);
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            compressionNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        if (compressedLen >= valueLen)
+        {
+            Uns.free(compressedAdr);
+            return null;
+        }
+
+        Uns.putInt(compressedAdr, 0L, (int) valueLen);
+        return new CompressedValue(compressedAdr, compressedLen);
+    }
+
+    /**
+     * Decompresses the value of a hash entry into a temporary off-heap buffer.
+     */
+    private long decompress(long hashEntryAdr) throws IOException
+    {
+        long valueOff = Util.ENTRY_OFF_DATA + HashEntries.getKeyLen(hashEntryAdr);
+        int valueLen = Uns.getInt(hashEntryAdr, valueOff);
+        long valueAdr = Uns.allocateIOException(valueLen, throwOOME);
+        try
+        {
+            compressor.decompress(hashEntryAdr, valueOff + 4L, (int) HashEntries.getValueLen(hashEntryAdr) - 4,
+                                  valueAdr, 0L, valueLen);
+        }
+        catch (IOException | RuntimeException | Error e)
+        {
+            Uns.free(valueAdr);
+            throw e;
+        }
+        return valueAdr;
+    }
+
+    private V deserializeValue(long hashEntryAdr) throws IOException
+    {
+        if (!isCompressed(hashEntryAdr))
+            return valueSerializer.deserialize(new HashEntryValueInput(hashEntryAdr));
+
+        long valueAdr = decompress(hashEntryAdr);
+        try
+        {
+            return valueSerializer.deserialize(new HashEntryValueInput(valueAdr, uncompressedValueLen(hashEntryAdr)));
+        }
+        finally
+        {
+            Uns.free(valueAdr);
+        }
+    }
+
+    //
+    // OHLongCacheImpl operations
+    //
+
+    V getLongKey(long key)
+    {
+        return get(longKeySource(key));
+    }
+
+    boolean containsLongKey(long key)
+    {
+        return containsKey(longKeySource(key));
+    }
+
+    void removeLongKey(long key)
+    {
+        remove(longKeySource(key));
+    }
+
+    boolean putLongKey(long key, V v, boolean ifAbsent)
+    {
+        return putLongKey(key, v, ifAbsent, expireAt(defaultTTLmillis));
+    }
+
+    boolean putLongKey(long key, V v, boolean ifAbsent, long expireAt)
+    {
+        if (v == null)
+            throw new NullPointerException();
+
+        long hashEntryAdr = createEntry(null, key, v, Util.LONG_KEY_LEN, valueSerializer.serializedSize(v), expireAt);
+        if (hashEntryAdr == 0L)
+        {
+            // entry too large to be inserted or OS is not able to provide enough memory
+            putFailCount++;
+
+            removeLongKey(key);
+
+            return false;
+        }
+
+        long hash = HashEntries.getHash(hashEntryAdr);
+        long bytes = HashEntries.getAllocLen(hashEntryAdr);
+
+        if (segment(hash).putEntry(hashEntryAdr, hash, Util.LONG_KEY_LEN, bytes, ifAbsent, 0L, 0L))
+            return true;
+
+        Uns.free(hashEntryAdr);
+        return false;
+    }
+
+    public void remove(K k)
+    {
+        if (k == null)
+            throw new NullPointerException();
+
+        remove(scratchKeySource(k));
+    }
+
+    public void removeRaw(ByteBuffer k)
+    {
+        if (k == null)
+            throw new NullPointerException();
+
+        remove(rawKeySource(k));
+    }
+
+    private void remove(KeyBuffer key)
+    {
+        try
+        {
+            segment(key.hash()).removeEntry(key);
+        }
+        finally
+        {
+            key.release();
+        }
+    }
+
+    public V getWithLoader(K key, CacheLoader<K, V> loader) throws InterruptedException, ExecutionException
     {
         return getWithLoaderAsync(key, loader).get();
     }
@@ -340,10 +1116,24 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         throw new UnsupportedOperationException();
     }
 
+    public Map<K, V> getAllWithLoader(Iterable<K> keys, BulkCacheLoader<K, V> loader) throws InterruptedException, ExecutionException
+    {
+        return getAllWithLoaderAsync(keys, loader).get();
+    }
+
+    public Future<Map<K, V>> getAllWithLoaderAsync(Iterable<K> keys, BulkCacheLoader<K, V> loader)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     private OffHeapMap segment(long hash)
     {
-        int seg = (int) ((hash & segmentMask) >>> segmentShift);
-        return maps[seg];
+        return maps[segmentIndex(hash)];
+    }
+
+    private int segmentIndex(long hash)
+    {
+        return (int) ((hash & segmentMask) >>> segmentShift);
     }
 
     private KeyBuffer keySource(K o)
@@ -362,6 +1152,81 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         return key.finish();
     }
 
+    /**
+     * Serializes the key into a pooled off-heap scratch key buffer, falling back to a heap key buffer
+     * for large keys or if no scratch key buffer is available.
+     * The returned key buffer must be released via {@link KeyBuffer#release()}.
+     */
+    KeyBuffer scratchKeySource(K o)
+    {
+        KeyBuffer key = acquireScratchKeyBuffer(keySerializer.serializedSize(o));
+        if (key == null)
+            return keySource(o);
+
+        try
+        {
+            keySerializer.serialize(o, key);
+        }
+        catch (IOException e)
+        {
+            key.release();
+            throw new RuntimeException(e);
+        }
+        catch (RuntimeException | Error e)
+        {
+            key.release();
+            throw e;
+        }
+        return key.finish();
+    }
+
+    /**
+     * Stores a key of {@link OHLongCacheImpl} in a pooled scratch key buffer or, if none is
+     * available, in a heap key buffer. The returned key buffer must be released via {@link KeyBuffer#release()}.
+     */
+    private KeyBuffer longKeySource(long k)
+    {
+        KeyBuffer key = acquireScratchKeyBuffer((int) Util.LONG_KEY_LEN);
+        if (key == null)
+            key = new KeyBuffer((int) Util.LONG_KEY_LEN);
+        return key.finishLongKey(k);
+    }
+
+    /**
+     * Copies a serialized key into a pooled scratch key buffer or, if none is available, into a
+     * heap key buffer. The returned key buffer must be released via {@link KeyBuffer#release()}.
+     */
+    private KeyBuffer rawKeySource(ByteBuffer k)
+    {
+        KeyBuffer key = acquireScratchKeyBuffer(k.remaining());
+        if (key == null)
+            key = new KeyBuffer(k.remaining());
+        key.write(k);
+        return key.finish();
+    }
+
+    /**
+     * Takes a scratch key buffer from the pool, starting at a slot derived from the current thread's ID, so that
+     * threads usually find "their" buffer at the first attempt.
+     *
+     * @return a scratch key buffer prepared for a key of the given size or {@code null}
+     */
+    private KeyBuffer acquireScratchKeyBuffer(int size)
+    {
+        if (size > KeyBuffer.MAX_SCRATCH_SIZE)
+            return null;
+
+        int mask = scratchKeyBuffers.length - 1;
+        int slot = (int) Thread.currentThread().getId();
+        for (int i = 0; i < SCRATCH_KEY_PROBES; i++)
+        {
+            KeyBuffer key = scratchKeyBuffers[(slot + i) & mask];
+            if (key.acquire(size))
+                return key;
+        }
+        return null;
+    }
+
     //
     // maintenance
     //
@@ -390,11 +1255,15 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
 
     public void close()
     {
+        closed = true;
         clear();
 
         for (OffHeapMap map : maps)
             map.release();
 
+        for (KeyBuffer key : scratchKeyBuffers)
+            key.free();
+
         if (LOGGER.isDebugEnabled())
             LOGGER.debug("Closing OHC instance");
     }
@@ -408,6 +1277,9 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         for (OffHeapMap map : maps)
             map.resetStatistics();
         putFailCount = 0;
+        compressionInputBytes.set(0L);
+        compressionOutputBytes.set(0L);
+        compressionNanos.set(0L);
     }
 
     public OHCacheStats stats()
@@ -429,7 +1301,16 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
                                putFailCount,
                                removeCount(),
                                Uns.getTotalAllocated(),
-                               lruCompactions());
+                               lruCompactions(),
+                               expiredEntries(),
+                               compressionInputBytes.get(),
+                               compressionOutputBytes.get(),
+                               compressionNanos.get(),
+                               0L,
+                               0L,
+                               0L,
+                               0L,
+                               0L);
     }
 
     private long putAddCount()
@@ -509,6 +1390,14 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         return lruCompactions;
     }
 
+    public long expiredEntries()
+    {
+        long expiredEntries = 0L;
+        for (OffHeapMap map : maps)
+            expiredEntries += map.expiredEntries();
+        return expiredEntries;
+    }
+
     public int segments()
     {
         return maps.length;
@@ -527,6 +1416,14 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         return r;
     }
 
+    boolean rehashing()
+    {
+        for (OffHeapMap map : maps)
+            if (map.rehashing())
+                return true;
+        return false;
+    }
+
     public long[] perSegmentSizes()
     {
         long[] r = new long[maps.length];
@@ -583,7 +1480,7 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
                 throw new IOException("File contains entries - expected keys");
             if (magic != Util.HEADER_KEYS)
                 throw new IOException("Illegal file header");
-            if (header.getInt() != 1)
+            if (header.getInt() != Util.HEADER_KEYS_VERSION)
                 throw new IOException("Illegal file version");
         }
         finally
@@ -687,67 +1584,202 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
 
     public boolean deserializeEntry(ReadableByteChannel channel) throws IOException
     {
-        // read hash, keyLen, valueLen
-        byte[] hashKeyValueLen = new byte[3 * 8];
-        ByteBuffer bb = ByteBuffer.wrap(hashKeyValueLen);
-        if (!Util.readFully(channel, bb))
+        // an entry of version 2 or later starts with a marker, an entry of version 1 with its hash
+        byte[] marker = new byte[8];
+        if (!Util.readFully(channel, ByteBuffer.wrap(marker)))
             return false;
 
-        long hash = Uns.getLongFromByteArray(hashKeyValueLen, 0);
-        long valueLen = Uns.getLongFromByteArray(hashKeyValueLen, 8);
-        long keyLen = Uns.getLongFromByteArray(hashKeyValueLen, 16);
+        int magic = Uns.getIntFromByteArray(marker, 0);
+        int version = Uns.getIntFromByteArray(marker, 4);
+        if (magic == Util.HEADER_ENTRY && version == Util.HEADER_ENTRIES_VERSION)
+            return deserializeEntry(channel, version) == ENTRY_ADDED;
+        if (magic == Util.HEADER_ENTRY_WRONG && version == Integer.reverseBytes(Util.HEADER_ENTRIES_VERSION))
+            throw new IOException("Entry from instance with different CPU architecture cannot be loaded");
 
-        long kvLen = Util.roundUpTo8(keyLen) + valueLen;
-        long totalLen = kvLen + Util.ENTRY_OFF_DATA;
+        byte[] valueKeyLen = new byte[2 * 8];
+        if (!Util.readFully(channel, ByteBuffer.wrap(valueKeyLen)))
+            return false;
+        long keyLen = Uns.getLongFromByteArray(valueKeyLen, 8);
+        return deserializeEntry(channel,
+                                Uns.getLongFromByteArray(marker, 0),
+                                Uns.getLongFromByteArray(valueKeyLen, 0),
+                                keyLen,
+                                Util.roundUpTo8(keyLen) - keyLen) == ENTRY_ADDED;
+    }
+
+    /**
+     * @return {@link #ENTRY_ADDED}, {@link #ENTRY_NOT_ADDED} if the entry has been read but could not be added or
+     * {@link #ENTRY_END} if there is no (complete) entry to read
+     */
+    private int deserializeEntry(ReadableByteChannel channel, int version) throws IOException
+    {
+        // read hash, valueLen, keyLen
+        long hash;
+        long valueLen;
+        long keyLen;
+        long keyPadding;
+        if (version == 1)
+        {
+            byte[] hashKeyValueLen = new byte[3 * 8];
+            ByteBuffer bb = ByteBuffer.wrap(hashKeyValueLen);
+            if (!Util.readFully(channel, bb))
+                return ENTRY_END;
+
+            hash = Uns.getLongFromByteArray(hashKeyValueLen, 0);
+            valueLen = Uns.getLongFromByteArray(hashKeyValueLen, 8);
+            keyLen = Uns.getLongFromByteArray(hashKeyValueLen, 16);
+            keyPadding = Util.roundUpTo8(keyLen) - keyLen;
+        }
+        else
+        {
+            byte[] hashKeyValueLen = new byte[8 + 2 * 4];
+            ByteBuffer bb = ByteBuffer.wrap(hashKeyValueLen);
+            if (!Util.readFully(channel, bb))
+                return ENTRY_END;
+
+            hash = Uns.getLongFromByteArray(hashKeyValueLen, 0);
+            valueLen = Uns.getIntFromByteArray(hashKeyValueLen, 8);
+            keyLen = Uns.getIntFromByteArray(hashKeyValueLen, 12);
+            keyPadding = 0L;
+        }
+
+        return deserializeEntry(channel, hash, valueLen, keyLen, keyPadding);
+    }
+
+    /**
+     * Reads key and value of an entry after its hash, value length and key length have been read.
+     */
+    private int deserializeEntry(ReadableByteChannel channel, long hash, long valueLen, long keyLen, long keyPadding) throws IOException
+    {
+        long totalLen = Util.allocLen(keyLen, valueLen);
         long hashEntryAdr;
         if ((maxEntrySize > 0L && totalLen > maxEntrySize) || (hashEntryAdr = Uns.allocate(totalLen, throwOOME)) == 0L)
         {
-            if (channel instanceof SeekableByteChannel)
-            {
-                SeekableByteChannel sc = (SeekableByteChannel) channel;
-                sc.position(sc.position() + kvLen);
-            }
-            else
-            {
-                ByteBuffer tmp = ByteBuffer.allocate(8192);
-                while (kvLen > 0L)
-                {
-                    tmp.clear();
-                    if (kvLen < tmp.capacity())
-                        tmp.limit((int) kvLen);
-                    if (!Util.readFully(channel, tmp))
-                        return false;
-                    kvLen -= tmp.limit();
-                }
-            }
-            return false;
+            return Util.skip(channel, keyLen + keyPadding + valueLen) ? ENTRY_NOT_ADDED : ENTRY_END;
         }
 
         HashEntries.init(hash, keyLen, valueLen, hashEntryAdr);
+        // expiration timestamps are not serialized
+        HashEntries.setExpireAt(hashEntryAdr, expireAt(defaultTTLmillis));
 
         // read key + value
-        if (!Util.readFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA, kvLen)) ||
-            !segment(hash).putEntry(hashEntryAdr, hash, keyLen, totalLen, false, 0L, 0L))
+        if (!Util.readFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA, keyLen)) ||
+            !Util.skip(channel, keyPadding) ||
+            !Util.readFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA + keyLen, valueLen)))
         {
             Uns.free(hashEntryAdr);
-            return false;
+            return ENTRY_END;
         }
 
-        return true;
+        if (compresses(valueLen))
+        {
+            hashEntryAdr = compressEntry(hashEntryAdr, keyLen, valueLen);
+            totalLen = HashEntries.getAllocLen(hashEntryAdr);
+        }
+
+        if (!segment(hash).putEntry(hashEntryAdr, hash, keyLen, totalLen, false, 0L, 0L))
+        {
+            Uns.free(hashEntryAdr);
+            return ENTRY_NOT_ADDED;
+        }
+
+        return ENTRY_ADDED;
+    }
+
+    /**
+     * Replaces a hash entry with an uncompressed value by a new hash entry with the compressed value,
+     * if compression saves memory.
+     */
+    private long compressEntry(long hashEntryAdr, long keyLen, long valueLen)
+    {
+        long valueOff = Util.ENTRY_OFF_DATA + keyLen;
+
+        CompressedValue compressed;
+        try
+        {
+            compressed = compress(hashEntryAdr, valueOff, valueLen);
+        }
+        catch (Throwable e)
+        {
+            freeAndThrow(e, hashEntryAdr);
+            return 0L;
+        }
+        compressionInputBytes.addAndGet(valueLen);
+        compressionOutputBytes.addAndGet(compressed != null ? compressed.length : valueLen);
+        if (compressed == null)
+            return hashEntryAdr;
+
+        try
+        {
+            long compressedEntryAdr = Uns.allocate(Util.allocLen(keyLen, compressed.length), throwOOME);
+            if (compressedEntryAdr == 0L)
+                return hashEntryAdr;
+
+            Uns.copyMemory(hashEntryAdr, Util.ENTRY_OFF_DATA, compressedEntryAdr, Util.ENTRY_OFF_DATA, keyLen);
+            Uns.copyMemory(compressed.address, 0L, compressedEntryAdr, valueOff, compressed.length);
+            HashEntries.init(HashEntries.getHash(hashEntryAdr), keyLen, compressed.length, compressedEntryAdr);
+            HashEntries.setExpireAt(compressedEntryAdr, HashEntries.getExpireAt(hashEntryAdr));
+            HashEntries.setFlags(compressedEntryAdr, Util.FLAG_COMPRESSED);
+
+            Uns.free(hashEntryAdr);
+            return compressedEntryAdr;
+        }
+        finally
+        {
+            Uns.free(compressed.address);
+        }
     }
 
     public boolean serializeEntry(K key, WritableByteChannel channel) throws IOException
     {
-        KeyBuffer keySource = keySource(key);
+        KeyBuffer keySource = scratchKeySource(key);
+        long hashEntryAdr;
+        try
+        {
+            hashEntryAdr = segment(keySource.hash()).getEntry(keySource, true);
+        }
+        finally
+        {
+            keySource.release();
+        }
 
-        OffHeapMap segment = segment(keySource.hash());
-        long hashEntryAdr = segment.getEntry(keySource, true);
+        if (hashEntryAdr == 0L)
+            return false;
 
-        return hashEntryAdr != 0L && serializeEntry(channel, hashEntryAdr);
+        try
+        {
+            ByteBuffer marker = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+            marker.putInt(Util.HEADER_ENTRY);
+            marker.putInt(Util.HEADER_ENTRIES_VERSION);
+            marker.flip();
+            Util.writeFully(channel, marker);
+        }
+        catch (IOException | RuntimeException | Error e)
+        {
+            HashEntries.dereference(hashEntryAdr);
+            throw e;
+        }
+        return serializeEntry(channel, hashEntryAdr);
     }
 
     public int deserializeEntries(ReadableByteChannel channel) throws IOException
     {
+        int version = readEntriesHeader(channel);
+
+        int count = 0;
+        while (deserializeEntry(channel, version) == ENTRY_ADDED)
+            count++;
+        return count;
+    }
+
+    /**
+     * Reads the header written by {@link #serializeHotNEntries(int, WritableByteChannel)}.
+     *
+     * @return version of the entries format
+     */
+    private int readEntriesHeader(ReadableByteChannel channel) throws IOException
+    {
+        int version;
         long headerAddress = Uns.allocateIOException(8);
         try
         {
@@ -761,7 +1793,8 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
                 throw new IOException("File contains keys - expected entries");
             if (magic != Util.HEADER_ENTRIES)
                 throw new IOException("Illegal file header");
-            if (header.getInt() != 1)
+            version = header.getInt();
+            if (version != 1 && version != Util.HEADER_ENTRIES_VERSION)
                 throw new IOException("Illegal file version");
         }
         finally
@@ -769,10 +1802,7 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
             Uns.free(headerAddress);
         }
 
-        int count = 0;
-        while (deserializeEntry(channel))
-            count++;
-        return count;
+        return version;
     }
 
     public int serializeHotNEntries(int n, WritableByteChannel channel) throws IOException
@@ -797,7 +1827,7 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         {
             ByteBuffer headerBuffer = Uns.directBufferFor(headerAddress, 0L, 8L);
             headerBuffer.putInt(entries ? Util.HEADER_ENTRIES : Util.HEADER_KEYS);
-            headerBuffer.putInt(1);
+            headerBuffer.putInt(entries ? Util.HEADER_ENTRIES_VERSION : Util.HEADER_KEYS_VERSION);
             headerBuffer.flip();
             Util.writeFully(channel, headerBuffer);
         }
@@ -846,17 +1876,23 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         return cnt;
     }
 
-    private static boolean serializeEntry(WritableByteChannel channel, long hashEntryAdr) throws IOException
+    private boolean serializeEntry(WritableByteChannel channel, long hashEntryAdr) throws IOException
     {
         try
         {
             long keyLen = HashEntries.getKeyLen(hashEntryAdr);
             long valueLen = HashEntries.getValueLen(hashEntryAdr);
 
-            long totalLen = 3 * 8L + Util.roundUpTo8(keyLen) + valueLen;
+            if (isCompressed(hashEntryAdr))
+            {
+                // compressed values are serialized uncompressed
+                serializeDecompressed(channel, hashEntryAdr, keyLen);
+                return true;
+            }
 
-            // write hash, keyLen, valueLen + key + value
-            Util.writeFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_HASH, totalLen));
+            // write hash, valueLen, keyLen + key + value
+            writeEntryHeader(channel, HashEntries.getHash(hashEntryAdr), valueLen, keyLen);
+            Util.writeFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA, keyLen + valueLen));
 
             return true;
         }
@@ -866,41 +1902,492 @@ public final class OHCacheImpl<K, V> implements OHCache<K, V>
         }
     }
 
-    private static boolean serializeKey(WritableByteChannel channel, long hashEntryAdr) throws IOException
+    private void serializeDecompressed(WritableByteChannel channel, long hashEntryAdr, long keyLen) throws IOException
+    {
+        long valueLen = uncompressedValueLen(hashEntryAdr);
+        long valueAdr = decompress(hashEntryAdr);
+        try
+        {
+            // write hash, valueLen, keyLen + key + value
+            writeEntryHeader(channel, HashEntries.getHash(hashEntryAdr), valueLen, keyLen);
+            Util.writeFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA, keyLen));
+            Util.writeFully(channel, Uns.directBufferFor(valueAdr, 0L, valueLen));
+        }
+        finally
+        {
+            Uns.free(valueAdr);
+        }
+    }
+
+    private void writeEntryHeader(WritableByteChannel channel, long hash, long valueLen, long keyLen) throws IOException
     {
+        long headerAddress = Uns.allocateIOException(8L + 2 * 4L, throwOOME);
+        try
+        {
+            Uns.putLong(headerAddress, 0L, hash);
+            Uns.putInt(headerAddress, 8L, (int) valueLen);
+            Uns.putInt(headerAddress, 12L, (int) keyLen);
+            Util.writeFully(channel, Uns.directBufferFor(headerAddress, 0L, 8L + 2 * 4L));
+        }
+        finally
+        {
+            Uns.free(headerAddress);
+        }
+    }
+
+    private boolean serializeKey(WritableByteChannel channel, long hashEntryAdr) throws IOException
+    {
+        long headerAddress = 0L;
         try
         {
             long keyLen = HashEntries.getKeyLen(hashEntryAdr);
 
-            long totalLen = 8L + keyLen;
+            headerAddress = Uns.allocateIOException(8L, throwOOME);
+            Uns.putLong(headerAddress, 0L, keyLen);
 
-            // write hash, keyLen, valueLen + key + value
-            Util.writeFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_KEY_LENGTH, totalLen));
+            // write keyLen + key
+            Util.writeFully(channel, Uns.directBufferFor(headerAddress, 0L, 8L));
+            Util.writeFully(channel, Uns.directBufferFor(hashEntryAdr, Util.ENTRY_OFF_DATA, keyLen));
 
             return true;
         }
         finally
+        {
+            Uns.free(headerAddress);
+            HashEntries.dereference(hashEntryAdr);
+        }
+    }
+
+    //
+    // snapshots - one file per segment in the format of serializeHotNEntries plus a manifest
+    //
+
+    public long snapshot(File directory, ExecutorService executor) throws IOException, InterruptedException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create snapshot directory " + directory);
+
+        // the manifest is written last and marks a complete snapshot
+        Files.deleteIfExists(new File(directory, SNAPSHOT_MANIFEST).toPath());
+
+        List<Callable<Long>> tasks = new ArrayList<>(maps.length);
+        for (int i = 0; i < maps.length; i++)
+        {
+            final OffHeapMap segment = maps[i];
+            final File file = snapshotFile(directory, i);
+            tasks.add(new Callable<Long>()
+            {
+                public Long call() throws IOException
+                {
+                    return snapshotSegment(segment, file);
+                }
+            });
+        }
+
+        long[] entries = runSnapshotTasks(tasks, executor);
+        long[] bytes = new long[maps.length];
+        long count = 0L;
+        for (int i = 0; i < maps.length; i++)
+        {
+            bytes[i] = snapshotFile(directory, i).length();
+            count += entries[i];
+        }
+
+        writeManifest(directory, entries, bytes);
+
+        return count;
+    }
+
+    public long restoreSnapshot(File directory, ExecutorService executor) throws IOException, InterruptedException
+    {
+        long[][] manifest = readManifest(directory);
+        long[] entries = manifest[0];
+        long[] bytes = manifest[1];
+
+        List<Callable<Long>> tasks = new ArrayList<>(bytes.length);
+        for (int i = 0; i < bytes.length; i++)
+        {
+            final File file = snapshotFile(directory, i);
+            if (file.length() != bytes[i])
+                throw new IOException("Snapshot file " + file + " does not match the manifest");
+            final long fileEntries = entries[i];
+            tasks.add(new Callable<Long>()
+            {
+                public Long call() throws IOException
+                {
+                    // entries are read in small pieces
+                    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                         BufferedReadableByteChannel buffered = new BufferedReadableByteChannel(channel, SNAPSHOT_READ_BUFFER))
+                    {
+                        return restoreSnapshotFile(buffered, file, fileEntries);
+                    }
+                }
+            });
+        }
+
+        long count = 0L;
+        for (long added : runSnapshotTasks(tasks, executor))
+            count += added;
+        return count;
+    }
+
+    /**
+     * Reads all entries of a snapshot file, also those that cannot be added, and verifies their number against
+     * the manifest.
+     *
+     * @return number of entries added
+     */
+    private long restoreSnapshotFile(ReadableByteChannel channel, File file, long expectedEntries) throws IOException
+    {
+        int version = readEntriesHeader(channel);
+
+        long read = 0L;
+        long added = 0L;
+        for (int outcome; (outcome = deserializeEntry(channel, version)) != ENTRY_END; read++)
+            if (outcome == ENTRY_ADDED)
+                added++;
+
+        if (read != expectedEntries)
+            throw new IOException("Snapshot file " + file + " contains " + read + " entries but the manifest " + expectedEntries);
+        return added;
+    }
+
+    private static File snapshotFile(File directory, int segment)
+    {
+        return new File(directory, "segment-" + segment);
+    }
+
+    private static long[] runSnapshotTasks(List<Callable<Long>> tasks, ExecutorService executor) throws IOException, InterruptedException
+    {
+        List<Future<Long>> futures = new ArrayList<>(tasks.size());
+        try
+        {
+            for (Callable<Long> task : tasks)
+                futures.add(executor.submit(task));
+        }
+        catch (RuntimeException | Error e)
+        {
+            // the submitted tasks access the segments
+            for (Future<Long> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (ExecutionException ignored)
+                {
+                    // the failure to submit is reported
+                }
+            }
+            throw e;
+        }
+
+        long[] results = new long[futures.size()];
+        Throwable failure = null;
+        for (int i = 0; i < results.length; i++)
+        {
+            try
+            {
+                results[i] = futures.get(i).get();
+            }
+            catch (ExecutionException e)
+            {
+                if (failure == null)
+                    failure = e.getCause();
+            }
+        }
+
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure instanceof Error)
+            throw (Error) failure;
+        if (failure != null)
+            throw new IOException(failure);
+        return results;
+    }
+
+    /**
+     * Writes the hash entries of a segment using gathering writes of up to {@link #SNAPSHOT_BATCH_ENTRIES}
+     * hash entries, which are referenced until they have been written.
+     *
+     * @return number of hash entries written
+     */
+    private long snapshotSegment(OffHeapMap segment, File file) throws IOException
+    {
+        ChannelViews views = new ChannelViews();
+        views.acquire();
+        List<Long> hashEntryAdrs = new ArrayList<>();
+        long entries = 0L;
+        // hash, value length and key length of each hash entry of a batch
+        long headersAdr = Uns.allocateIOException(SNAPSHOT_BATCH_ENTRIES * (8L + 2 * 4L), throwOOME);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+            header.putInt(Util.HEADER_ENTRIES);
+            header.putInt(Util.HEADER_ENTRIES_VERSION);
+            header.flip();
+            Util.writeFully(channel, header);
+
+            int batchEntries = 0;
+            long batchBytes = 0L;
+            for (int mapSegmentIndex = 0; mapSegmentIndex < segment.hashTableSize(); mapSegmentIndex += 1024)
+            {
+                segment.getEntryAddresses(mapSegmentIndex, 1024, hashEntryAdrs);
+                try
+                {
+                    for (int i = 0; i < hashEntryAdrs.size(); i++)
+                    {
+                        long headerAdr = headersAdr + batchEntries * (8L + 2 * 4L);
+                        batchBytes += addSerializedEntry(views, hashEntryAdrs.set(i, 0L), headerAdr);
+                        batchEntries++;
+                        entries++;
+
+                        if (batchEntries == SNAPSHOT_BATCH_ENTRIES || batchBytes >= SNAPSHOT_BATCH_BYTES)
+                        {
+                            views.write(channel);
+                            views.release();
+                            views.acquire();
+                            batchEntries = 0;
+                            batchBytes = 0L;
+                        }
+                    }
+                }
+                finally
+                {
+                    for (long hashEntryAdr : hashEntryAdrs)
+                        if (hashEntryAdr != 0L)
+                            HashEntries.dereference(hashEntryAdr);
+                    hashEntryAdrs.clear();
+                }
+            }
+
+            views.write(channel);
+
+            // the manifest must not become durable before the data it describes
+            channel.force(false);
+        }
+        finally
+        {
+            views.release();
+            Uns.free(headersAdr);
+        }
+        return entries;
+    }
+
+    /**
+     * Adds the serialized form of a hash entry, as {@link #serializeEntry(WritableByteChannel, long)} writes it,
+     * to the views. Takes over the reference to the hash entry.
+     *
+     * @param headerAdr memory for the hash, value length and key length of an uncompressed hash entry
+     * @return number of bytes added
+     */
+    private long addSerializedEntry(ChannelViews views, long hashEntryAdr, long headerAdr) throws IOException
+    {
+        long keyLen = HashEntries.getKeyLen(hashEntryAdr);
+
+        if (!isCompressed(hashEntryAdr))
+        {
+            long valueLen = HashEntries.getValueLen(hashEntryAdr);
+            Uns.putLong(headerAdr, 0L, HashEntries.getHash(hashEntryAdr));
+            Uns.putInt(headerAdr, 8L, (int) valueLen);
+            Uns.putInt(headerAdr, 12L, (int) keyLen);
+            views.addView(headerAdr, 8L + 2 * 4L);
+            views.addKeyValue(hashEntryAdr, keyLen, valueLen);
+            return 8L + 2 * 4L + keyLen + valueLen;
+        }
+
+        try
+        {
+            // compressed values are serialized uncompressed
+            long valueLen = uncompressedValueLen(hashEntryAdr);
+            long headerLen = 8L + 2 * 4L + keyLen;
+            long valueAdr = decompress(hashEntryAdr);
+            long copyAdr;
+            try
+            {
+                copyAdr = Uns.allocateIOException(headerLen, throwOOME);
+            }
+            catch (IOException | RuntimeException | Error e)
+            {
+                Uns.free(valueAdr);
+                throw e;
+            }
+
+            Uns.putLong(copyAdr, 0L, HashEntries.getHash(hashEntryAdr));
+            Uns.putInt(copyAdr, 8L, (int) valueLen);
+            Uns.putInt(copyAdr, 12L, (int) keyLen);
+            Uns.copyMemory(hashEntryAdr, Util.ENTRY_OFF_DATA, copyAdr, 8L + 2 * 4L, keyLen);
+            views.addCopy(copyAdr, headerLen);
+            views.addCopy(valueAdr, valueLen);
+            return headerLen + valueLen;
+        }
+        finally
         {
             HashEntries.dereference(hashEntryAdr);
         }
     }
 
+    private static void writeManifest(File directory, long[] entries, long[] bytes) throws IOException
+    {
+        ByteBuffer manifest = ByteBuffer.allocate(3 * 4 + entries.length * 2 * 8).order(ByteOrder.nativeOrder());
+        manifest.putInt(Util.HEADER_MANIFEST);
+        manifest.putInt(Util.HEADER_MANIFEST_VERSION);
+        manifest.putInt(entries.length);
+        for (int i = 0; i < entries.length; i++)
+        {
+            manifest.putLong(entries[i]);
+            manifest.putLong(bytes[i]);
+        }
+        manifest.flip();
+
+        try (FileChannel channel = FileChannel.open(new File(directory, SNAPSHOT_MANIFEST).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            Util.writeFully(channel, manifest);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * @return number of entries ({@code [0][file]}) and size in bytes ({@code [1][file]}) of each snapshot file
+     */
+    private static long[][] readManifest(File directory) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(new File(directory, SNAPSHOT_MANIFEST).toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(3 * 4).order(ByteOrder.nativeOrder());
+            if (!Util.readFully(channel, header))
+                throw new EOFException();
+            header.flip();
+            int magic = header.getInt();
+            if (magic == Util.HEADER_MANIFEST_WRONG)
+                throw new IOException("File from instance with different CPU architecture cannot be loaded");
+            if (magic != Util.HEADER_MANIFEST)
+                throw new IOException("Illegal file header");
+            if (header.getInt() != Util.HEADER_MANIFEST_VERSION)
+                throw new IOException("Illegal file version");
+            int files = header.getInt();
+            if (files < 0 || files > 1 << 24)
+                throw new IOException("Illegal number of snapshot files " + files);
+
+            ByteBuffer sizes = ByteBuffer.allocate(files * 2 * 8).order(ByteOrder.nativeOrder());
+            if (!Util.readFully(channel, sizes))
+                throw new EOFException();
+            sizes.flip();
+            long[][] manifest = new long[2][files];
+            for (int i = 0; i < files; i++)
+            {
+                manifest[0][i] = sizes.getLong();
+                manifest[1][i] = sizes.getLong();
+            }
+            return manifest;
+        }
+    }
+
     //
     // convenience methods
     //
 
     public void putAll(Map<? extends K, ? extends V> m)
     {
-        // could be improved by grouping puts by segment - but increases heap pressure and complexity - decide later
-        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet())
-            put(entry.getKey(), entry.getValue());
+        long expireAt = expireAt(defaultTTLmillis);
+        Iterator<? extends Map.Entry<? extends K, ? extends V>> entries = m.entrySet().iterator();
+        long[] hashEntryAdrs = new long[Math.max(1, Math.min(m.size(), BULK_BATCH_SIZE))];
+        while (entries.hasNext())
+        {
+            int n = 0;
+            try
+            {
+                // serialize and allocate the hash entries of a batch outside of the segment locks
+                while (n < hashEntryAdrs.length && entries.hasNext())
+                {
+                    Map.Entry<? extends K, ? extends V> entry = entries.next();
+                    K k = entry.getKey();
+                    V v = entry.getValue();
+                    if (k == null || v == null)
+                        throw new NullPointerException();
+
+                    long hashEntryAdr = createEntry(k, v, keySerializer.serializedSize(k), valueSerializer.serializedSize(v), expireAt);
+                    if (hashEntryAdr == 0L)
+                    {
+                        // entry too large to be inserted or OS is not able to provide enough memory
+                        putFailCount++;
+
+                        remove(k);
+
+                        continue;
+                    }
+                    hashEntryAdrs[n++] = hashEntryAdr;
+                }
+
+                putEntries(hashEntryAdrs, n);
+            }
+            finally
+            {
+                // hash entries that have not been added
+                for (int i = 0; i < n; i++)
+                    if (hashEntryAdrs[i] != 0L)
+                    {
+                        putFailCount++;
+                        Uns.free(hashEntryAdrs[i]);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Adds the given hash entries grouped by segment, so each segment is locked once. Added hash entries are set
+     * to {@code 0L}.
+     */
+    private void putEntries(long[] hashEntryAdrs, int n)
+    {
+        long[] hashes = new long[n];
+        for (int i = 0; i < n; i++)
+            hashes[i] = HashEntries.getHash(hashEntryAdrs[i]);
+
+        int[] order = new int[n];
+        int[] segStart = sortBySegment(hashes, n, order);
+        long[] sorted = new long[n];
+        for (int p = 0; p < n; p++)
+            sorted[p] = hashEntryAdrs[order[p]];
+        System.arraycopy(sorted, 0, hashEntryAdrs, 0, n);
+
+        for (int seg = 0; seg < maps.length; seg++)
+            if (segStart[seg] < segStart[seg + 1])
+                maps[seg].putEntries(hashEntryAdrs, segStart[seg], segStart[seg + 1]);
     }
 
     public void removeAll(Iterable<K> iterable)
     {
-        // could be improved by grouping removes by segment - but increases heap pressure and complexity - decide later
-        for (K o : iterable)
-            remove(o);
+        Iterator<K> keys = iterable.iterator();
+        List<KeyBuffer> batch = new ArrayList<>();
+        while (keys.hasNext())
+        {
+            batch.clear();
+            while (batch.size() < BULK_BATCH_SIZE && keys.hasNext())
+            {
+                K k = keys.next();
+                if (k == null)
+                    throw new NullPointerException();
+                batch.add(keySource(k));
+            }
+
+            int n = batch.size();
+            long[] hashes = new long[n];
+            for (int i = 0; i < n; i++)
+                hashes[i] = batch.get(i).hash();
+
+            int[] order = new int[n];
+            int[] segStart = sortBySegment(hashes, n, order);
+            KeyBuffer[] sorted = new KeyBuffer[n];
+            for (int p = 0; p < n; p++)
+                sorted[p] = batch.get(order[p]);
+
+            for (int seg = 0; seg < maps.length; seg++)
+                if (segStart[seg] < segStart[seg + 1])
+                    maps[seg].removeEntries(sorted, segStart[seg], segStart[seg + 1]);
+        }
     }
 
     public long memUsed()
@@ -0,0 +1,105 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+import java.util.concurrent.TimeUnit;
+
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.caffinitas.ohc.OHCacheStats;
+import org.caffinitas.ohc.OHLongCache;
+
+/**
+ * {@link OHLongCache} on top of the hash entries and segments of {@link OHCacheImpl}.
+ */
+public final class OHLongCacheImpl<V> implements OHLongCache<V>
+{
+    private final OHCacheImpl<Long, V> cache;
+
+    public OHLongCacheImpl(OHCacheBuilder<Long, V> builder)
+    {
+        this.cache = new OHCacheImpl<>(builder, true);
+    }
+
+    public void put(long key, V value)
+    {
+        cache.putLongKey(key, value, false);
+    }
+
+    public void put(long key, V value, long ttl, TimeUnit unit)
+    {
+        cache.putLongKey(key, value, false, OHCacheImpl.expireAt(unit.toMillis(ttl)));
+    }
+
+    public boolean putIfAbsent(long key, V value)
+    {
+        return cache.putLongKey(key, value, true);
+    }
+
+    public void remove(long key)
+    {
+        cache.removeLongKey(key);
+    }
+
+    public V get(long key)
+    {
+        return cache.getLongKey(key);
+    }
+
+    public boolean containsKey(long key)
+    {
+        return cache.containsLongKey(key);
+    }
+
+    public void clear()
+    {
+        cache.clear();
+    }
+
+    public void resetStatistics()
+    {
+        cache.resetStatistics();
+    }
+
+    public long size()
+    {
+        return cache.size();
+    }
+
+    public long capacity()
+    {
+        return cache.capacity();
+    }
+
+    public long memUsed()
+    {
+        return cache.memUsed();
+    }
+
+    public long freeCapacity()
+    {
+        return cache.freeCapacity();
+    }
+
+    public OHCacheStats stats()
+    {
+        return cache.stats();
+    }
+
+    public void close()
+    {
+        cache.close();
+    }
+}
@@ -15,7 +15,11 @@
  */
 package org.caffinitas.ohc.tables;
 
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.caffinitas.ohc.OHCacheBuilder;
@@ -25,19 +29,28 @@ final class OffHeapMap
 {
     // maximum hash table size
     private static final int MAX_TABLE_SIZE = 1 << 30;
+    // number of slots moved to the new hash table by each write or locked read during an incremental rehash
+    static final int REHASH_SLOTS = 64;
 
-    // TODO think of exchanging this "poor man's" open-address table to a real open-address table.
-    // Need to add "tombstone" for removed entries.
-    // Need to add "max probe length.
-
-    private final int entriesPerBucket;
+    // inserts that move a hash entry further away from its home slot resize the hash table
+    private final int maxProbeLength;
+    // whether the hash table has a tag-table
+    private final boolean probeTags;
     private long size;
     private Table table;
+    // Incremental rehash: the hash table being replaced by 'table' - null if no rehash is in progress.
+    // Its slots below 'migratedSlots' have been moved to 'table', the others are still used by lookups.
+    // Its LRU-tables are copied along with the slots, see Table.takeLRU().
+    private Table oldTable;
+    private int migratedSlots;
+    // hash table allocated in advance for the next rehash - see prepareRehash()
+    private Table spareTable;
+    private volatile int preparingRehash;
+    private static final AtomicIntegerFieldUpdater<OffHeapMap> preparingRehashUpdater = AtomicIntegerFieldUpdater.newUpdater(OffHeapMap.class, "preparingRehash");
 
     private long threshold;
     private final float loadFactor;
 
-    private long lruCompactions;
     private long hitCount;
     private long missCount;
     private long putAddCount;
@@ -46,6 +59,7 @@ final class OffHeapMap
 
     private long rehashes;
     private long evictedEntries;
+    private long expiredEntries;
 
     private long freeCapacity;
 
@@ -53,12 +67,45 @@ final class OffHeapMap
 
     private final boolean throwOOME;
 
+    private final EvictionPolicy evictionPolicy;
+
+    // Optimistic reads: readers do not acquire the lock but validate their result against this seqlock-like stamp.
+    // Writers increment the stamp before and after they modify the hash table (stamp is odd during modification).
+    // Memory unlinked by writers is retired via 'epochs' instead of being released immediately.
+    private volatile long stamp;
+    private static final AtomicLongFieldUpdater<OffHeapMap> stampUpdater = AtomicLongFieldUpdater.newUpdater(OffHeapMap.class, "stamp");
+    private final ReadEpochs epochs;
+
+    private volatile long optimisticHitCount;
+    private volatile long optimisticMissCount;
+    private static final AtomicLongFieldUpdater<OffHeapMap> optimisticHitCountUpdater = AtomicLongFieldUpdater.newUpdater(OffHeapMap.class, "optimisticHitCount");
+    private static final AtomicLongFieldUpdater<OffHeapMap> optimisticMissCountUpdater = AtomicLongFieldUpdater.newUpdater(OffHeapMap.class, "optimisticMissCount");
+
+    // buffered LRU promotion - null if hits are promoted immediately
+    private final ReadBuffer readBuffer;
+
+    // expiration of hash entries with a time-to-live or max-idle deadline
+    private final long maxIdleMillis;
+    private final TimerWheel timerWheel;
+    // number of linked hash entries with a deadline
+    private long expiringEntries;
+
     OffHeapMap(OHCacheBuilder builder, long freeCapacity)
     {
         this.freeCapacity = freeCapacity;
 
         this.throwOOME = builder.isThrowOOME();
 
+        this.epochs = builder.isOptimisticReads() && Uns.hasLoadFence() ? new ReadEpochs() : null;
+        // optimistic reads record hits and misses in a read buffer, since they do not hold the segment lock
+        int readBufferSize = builder.getReadBufferSize();
+        if (readBufferSize <= 0 && epochs != null)
+            readBufferSize = ReadBuffer.DEFAULT_OPTIMISTIC_SIZE;
+        this.readBuffer = readBufferSize > 0 ? new ReadBuffer(readBufferSize) : null;
+
+        this.maxIdleMillis = Math.max(builder.getMaxIdleMillis(), 0L);
+        this.timerWheel = new TimerWheel(System.currentTimeMillis(), throwOOME);
+
         int hts = builder.getHashTableSize();
         if (hts <= 0)
             hts = 8192;
@@ -66,12 +113,17 @@ final class OffHeapMap
             hts = 256;
         int bl = builder.getBucketLength();
         if (bl <= 0)
-            bl = 8;
+            bl = 64;
+        maxProbeLength = bl;
+        probeTags = builder.isProbeTags();
         int buckets = (int) Util.roundUpToPowerOf2(hts, MAX_TABLE_SIZE);
-        entriesPerBucket = (int) Util.roundUpToPowerOf2(bl, MAX_TABLE_SIZE);
-        table = Table.create(buckets, entriesPerBucket, throwOOME);
+        evictionPolicy = EvictionPolicy.create(builder, freeCapacity, buckets);
+        table = Table.create(buckets, evictionPolicy.lruQueues(), probeTags, throwOOME);
         if (table == null)
+        {
+            evictionPolicy.release();
             throw new RuntimeException("unable to allocate off-heap memory for segment");
+        }
 
         float lf = builder.getLoadFactor();
         if (lf <= .0d)
@@ -84,15 +136,27 @@ final class OffHeapMap
 
     void release()
     {
+        LongArrayList derefList = null;
         lock.lock();
         try
         {
             table.release();
             table = null;
+            if (oldTable != null)
+                oldTable.release();
+            oldTable = null;
+            if (spareTable != null)
+                spareTable.release();
+            spareTable = null;
+            evictionPolicy.release();
+            timerWheel.clear();
+            if (epochs != null)
+                derefList = epochs.reclaimAll();
         }
         finally
         {
             lock.unlock();
+            dereference(derefList);
         }
     }
 
@@ -103,12 +167,12 @@ final class OffHeapMap
 
     long hitCount()
     {
-        return hitCount;
+        return hitCount + optimisticHitCount;
     }
 
     long missCount()
     {
-        return missCount;
+        return missCount + optimisticMissCount;
     }
 
     long putAddCount()
@@ -130,12 +194,15 @@ final class OffHeapMap
     {
         rehashes = 0L;
         evictedEntries = 0L;
+        expiredEntries = 0L;
         hitCount = 0L;
         missCount = 0L;
+        optimisticHitCount = 0L;
+        optimisticMissCount = 0L;
         putAddCount = 0L;
         putReplaceCount = 0L;
         removeCount = 0L;
-        lruCompactions = 0L;
+        evictionPolicy.resetStatistics();
     }
 
     long rehashes()
@@ -154,6 +221,7 @@ final class OffHeapMap
         try
         {
             freeCapacity += diff;
+            evictionPolicy.updateCapacity(diff);
         }
         finally
         {
@@ -166,109 +234,481 @@ final class OffHeapMap
         return evictedEntries;
     }
 
+    long expiredEntries()
+    {
+        return expiredEntries;
+    }
+
     long lruCompactions()
     {
-        return lruCompactions;
+        return evictionPolicy.lruCompactions();
     }
 
     long getEntry(KeyBuffer key, boolean reference)
     {
+        if (epochs != null)
+        {
+            long hashEntryAdr = getEntryOptimistic(key, reference);
+            if (hashEntryAdr != -1L)
+            {
+                if (oldTable != null)
+                    tryMigrateOnRead();
+                return hashEntryAdr;
+            }
+            // fall back to locked read
+        }
+
         lock.lock();
         try
         {
-            long ptr = table.bucketOffset(key.hash());
-            long hashEntryAdr;
-            for (int idx = 0; idx < entriesPerBucket; idx++, ptr += Util.BUCKET_ENTRY_LEN)
+            migrateOnRead();
+            return getEntryLocked(key, reference);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Looks up the hash entries for the keys {@code keys[from]} to {@code keys[to - 1]}, which must all belong to this
+     * segment, and stores the referenced hash entry addresses (or {@code 0L}) at the same indexes in
+     * {@code hashEntryAdrs}. The lock is taken once for all keys.
+     */
+    void getEntries(KeyBuffer[] keys, int from, int to, long[] hashEntryAdrs)
+    {
+        boolean locked = epochs == null;
+        if (!locked)
+            for (int i = from; i < to; i++)
+                if ((hashEntryAdrs[i] = getEntryOptimistic(keys[i], true)) == -1L)
+                    // fall back to locked read
+                    locked = true;
+
+        if (!locked)
+        {
+            if (oldTable != null)
+                tryMigrateOnRead();
+            return;
+        }
+
+        lock.lock();
+        try
+        {
+            migrateOnRead();
+            for (int i = from; i < to; i++)
+                if (epochs == null || hashEntryAdrs[i] == -1L)
+                    hashEntryAdrs[i] = getEntryLocked(keys[i], true);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private long getEntryLocked(KeyBuffer key, boolean reference)
+    {
+        Table tab = table;
+        long ptr = find(tab, key);
+        if (ptr < 0L && oldTable != null)
+            ptr = find(tab = oldTable, key);
+
+        // expired hash entries are reclaimed by the timer wheel
+        long hashEntryAdr;
+        if (ptr >= 0L && !expiredOnAccess(hashEntryAdr = tab.getEntryAdr(ptr)))
+        {
+            // return existing entry
+
+            if (readBuffer == null)
+                evictionPolicy.accessed(table, hashEntryAdr, key.hash());
+            else if (readBuffer.record(hashEntryAdr, key.hash()))
+                readBuffer.drain(this);
+
+            if (reference)
+                HashEntries.reference(hashEntryAdr);
+
+            hitCount++;
+            return hashEntryAdr;
+        }
+
+        // not found
+        evictionPolicy.missed(key.hash());
+        missCount++;
+        return 0L;
+    }
+
+    /**
+     * Lock-free lookup. Returns {@code -1L} if the result could not be validated, e.g. due to a concurrent
+     * modification of the segment.
+     */
+    private long getEntryOptimistic(KeyBuffer key, boolean reference)
+    {
+        int slot = epochs.enter();
+        try
+        {
+            long stamp = this.stamp;
+            if ((stamp & 1L) != 0L)
+                // write in progress
+                return -1L;
+
+            Table table = this.table;
+            Table oldTable = this.oldTable;
+            long hashEntryAdr = findOptimistic(table, key, stamp);
+            if (hashEntryAdr == 0L && oldTable != null)
+                hashEntryAdr = findOptimistic(oldTable, key, stamp);
+            if (hashEntryAdr == -1L)
+                return -1L;
+
+            if (hashEntryAdr != 0L)
             {
-                hashEntryAdr = table.getEntryAdr(ptr);
-                if (hashEntryAdr == 0L)
-                    break;
-                if (table.getHash(ptr) != key.hash() || notSameKey(key, hashEntryAdr))
-                    continue;
+                if (expiredOnAccess(hashEntryAdr))
+                {
+                    if (!validate(stamp))
+                        return -1L;
+                    missedOptimistic(key.hash());
+                    return 0L;
+                }
 
                 // return existing entry
 
-                touch(hashEntryAdr);
-
                 if (reference)
                     HashEntries.reference(hashEntryAdr);
 
-                hitCount++;
+                if (!validate(stamp))
+                {
+                    if (reference)
+                        HashEntries.dereference(hashEntryAdr);
+                    return -1L;
+                }
+
+                promote(hashEntryAdr, key.hash());
+
+                optimisticHitCountUpdater.incrementAndGet(this);
                 return hashEntryAdr;
             }
 
+            if (!validate(stamp))
+                return -1L;
+
             // not found
-            missCount++;
+            missedOptimistic(key.hash());
             return 0L;
         }
         finally
+        {
+            epochs.exit(slot);
+        }
+    }
+
+    /**
+     * Lock-free lookup in the given hash table.
+     *
+     * @return address of the hash entry, {@code 0L} if there is none or {@code -1L} if the result could not be
+     * validated
+     */
+    private long findOptimistic(Table table, KeyBuffer key, long stamp)
+    {
+        // probe lengths read during a concurrent modification are bounded by the table size
+        for (int dist = table.nextCandidate(key.hash(), 0); dist >= 0; dist = table.nextCandidate(key.hash(), dist + 1))
+        {
+            long ptr = table.probeOffset(key.hash(), dist);
+            long hashEntryAdr = table.getEntryAdr(ptr);
+            if (hashEntryAdr != 0L && table.getHash(ptr, hashEntryAdr) == key.hash() && !notSameKey(key, hashEntryAdr))
+                return hashEntryAdr;
+            if (!validate(stamp))
+                return -1L;
+        }
+        return 0L;
+    }
+
+    private boolean validate(long stamp)
+    {
+        // order the reads of the hash table before the re-read of the stamp
+        Uns.loadFence();
+        return this.stamp == stamp;
+    }
+
+    private void promote(long hashEntryAdr, long hash)
+    {
+        if (readBuffer.record(hashEntryAdr, hash))
+            tryDrainReadBuffer();
+    }
+
+    private void missedOptimistic(long hash)
+    {
+        optimisticMissCountUpdater.incrementAndGet(this);
+        if (evictionPolicy.tracksMisses() && readBuffer.recordMiss(hash))
+            tryDrainReadBuffer();
+    }
+
+    private void tryDrainReadBuffer()
+    {
+        // skipped if the segment is busy - the read buffer is then drained by a later reader
+        if (!lock.tryLock())
+            return;
+        try
+        {
+            readBuffer.drain(this);
+        }
+        finally
         {
             lock.unlock();
         }
     }
 
+    /**
+     * Promotes a hash entry recorded in the read buffer, if it is still linked - lock must be held.
+     */
+    void touchIfLinked(long touchHashEntryAdr, long hash)
+    {
+        if (table.slotOf(touchHashEntryAdr, hash) >= 0L || (oldTable != null && oldTable.slotOf(touchHashEntryAdr, hash) >= 0L))
+            evictionPolicy.accessed(table, touchHashEntryAdr, hash);
+    }
+
+    /**
+     * Applies a miss recorded in the read buffer - lock must be held.
+     */
+    void missed(long hash)
+    {
+        evictionPolicy.missed(hash);
+    }
+
+    /**
+     * Checks whether a hash entry found by a lookup has expired and extends its max-idle deadline if not.
+     */
+    private boolean expiredOnAccess(long hashEntryAdr)
+    {
+        long expireAt = HashEntries.getExpireAt(hashEntryAdr);
+        if (expireAt == 0L && maxIdleMillis == 0L)
+            return false;
+
+        long now = System.currentTimeMillis();
+        if (expireAt != 0L && expireAt <= now)
+            return true;
+
+        long idleExpireAt = HashEntries.getIdleExpireAt(hashEntryAdr);
+        if (idleExpireAt == 0L)
+            return false;
+        if (idleExpireAt <= now)
+            return true;
+        // the timer wheel reschedules the hash entry when it visits the old deadline
+        HashEntries.setIdleExpireAt(hashEntryAdr, now + maxIdleMillis);
+        return false;
+    }
+
+    private static boolean expired(long hashEntryAdr, long now)
+    {
+        long deadline = HashEntries.getDeadline(hashEntryAdr);
+        return deadline != 0L && deadline <= now;
+    }
+
+    /**
+     * Removes a hash entry recorded in the timer wheel, if it is still linked and has expired - lock must be held.
+     *
+     * @return {@code -1L} if the hash entry has been unlinked, its deadline if it has not expired yet or
+     * {@code 0L} if the hash entry is not linked
+     */
+    long expire(long expireHashEntryAdr, long hash, long now)
+    {
+        Table tab = table;
+        long ptr = tab.slotOf(expireHashEntryAdr, hash);
+        if (ptr < 0L && oldTable != null)
+            ptr = (tab = oldTable).slotOf(expireHashEntryAdr, hash);
+        if (ptr < 0L)
+            return 0L;
+
+        long deadline = HashEntries.getDeadline(expireHashEntryAdr);
+        if (deadline == 0L || deadline > now)
+            return deadline;
+
+        unlink(tab, expireHashEntryAdr, ptr);
+        removed(expireHashEntryAdr);
+
+        freeCapacity += HashEntries.getAllocLen(expireHashEntryAdr);
+
+        size--;
+        expiredEntries++;
+
+        return -1L;
+    }
+
+    private LongArrayList expireEntries(LongArrayList derefList)
+    {
+        if (timerWheel.records() == 0L)
+            return derefList;
+
+        derefList = timerWheel.advance(this, System.currentTimeMillis(), derefList);
+
+        // drop records of hash entries that have been removed or replaced
+        if (timerWheel.records() > 2L * expiringEntries + 1024L)
+            derefList = timerWheel.compact(this, derefList);
+
+        return derefList;
+    }
+
+    private void scheduleExpiration(long hashEntryAdr, long hash)
+    {
+        if (maxIdleMillis > 0L)
+            HashEntries.setIdleExpireAt(hashEntryAdr, System.currentTimeMillis() + maxIdleMillis);
+
+        long deadline = HashEntries.getDeadline(hashEntryAdr);
+        if (deadline == 0L)
+            return;
+
+        expiringEntries++;
+        // if no record can be allocated, the hash entry is still treated as a miss after its deadline
+        timerWheel.schedule(hashEntryAdr, hash, deadline);
+    }
+
+    private void removed(long hashEntryAdr)
+    {
+        evictionPolicy.removed(hashEntryAdr);
+        if (HashEntries.getDeadline(hashEntryAdr) != 0L)
+            expiringEntries--;
+    }
+
+    /**
+     * Lets a lookup that holds the lock advance an incremental rehash, so it also completes without writes -
+     * hash entries and hash tables retired by the migration are reclaimed by the next write.
+     */
+    private void migrateOnRead()
+    {
+        if (oldTable == null)
+            return;
+
+        if (epochs == null)
+        {
+            migrate(REHASH_SLOTS);
+            return;
+        }
+
+        // moving hash entries is a modification for optimistic readers
+        stampUpdater.incrementAndGet(this);
+        migrate(REHASH_SLOTS);
+        stampUpdater.incrementAndGet(this);
+    }
+
+    private void tryMigrateOnRead()
+    {
+        // skipped if the segment is busy
+        if (!lock.tryLock())
+            return;
+        try
+        {
+            migrateOnRead();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void lockForWrite()
+    {
+        lock.lock();
+        if (epochs != null)
+            stampUpdater.incrementAndGet(this);
+        migrate(REHASH_SLOTS);
+    }
+
+    /**
+     * Unlocks the segment and dereferences the given hash entries, which have been unlinked while holding the lock.
+     */
+    private void unlockForWrite(long removeHashEntryAdr, LongArrayList derefList)
+    {
+        if (epochs != null)
+        {
+            // optimistic readers may still access unlinked hash entries
+            if (removeHashEntryAdr != 0L)
+                epochs.retireEntry(removeHashEntryAdr);
+            if (derefList != null)
+                for (int i = 0; i < derefList.size(); i++)
+                    epochs.retireEntry(derefList.getLong(i));
+            removeHashEntryAdr = 0L;
+            derefList = epochs.reclaim();
+
+            stampUpdater.incrementAndGet(this);
+        }
+
+        lock.unlock();
+
+        if (removeHashEntryAdr != 0L)
+            HashEntries.dereference(removeHashEntryAdr);
+        dereference(derefList);
+    }
+
+    private static void dereference(LongArrayList derefList)
+    {
+        if (derefList != null)
+            for (int i = 0; i < derefList.size(); i++)
+                HashEntries.dereference(derefList.getLong(i));
+    }
+
     boolean putEntry(long newHashEntryAdr, long hash, long keyLen, long bytes, boolean ifAbsent, long oldValueAdr, long oldValueLen)
     {
+        prepareRehash();
+
         long removeHashEntryAdr = 0L;
         LongArrayList derefList = null;
-        lock.lock();
+        lockForWrite();
         try
         {
-            long hashEntryAdr;
-            long ptr = table.bucketOffset(hash);
-            for (int idx = 0; idx < entriesPerBucket; idx++, ptr += Util.BUCKET_ENTRY_LEN)
-            {
-                if ((hashEntryAdr = table.getEntryAdr(ptr)) == 0L)
-                    break;
-
-                if (table.getHash(ptr) != hash)
-                    continue;
+            derefList = expireEntries(derefList);
 
-                // fetch allocLen here - same CPU cache line needed by key compare
+            Table tab = table;
+            long ptr = find(tab, hash, newHashEntryAdr, keyLen);
+            if (ptr < 0L && oldTable != null)
+                ptr = find(tab = oldTable, hash, newHashEntryAdr, keyLen);
+            if (ptr >= 0L)
+            {
+                long hashEntryAdr = tab.getEntryAdr(ptr);
                 long allocLen = HashEntries.getAllocLen(hashEntryAdr);
-                if (notSameKey(newHashEntryAdr, keyLen, hashEntryAdr))
-                    continue;
-
-                // replace existing entry
 
-                if (ifAbsent)
-                    return false;
+                if (expired(hashEntryAdr, System.currentTimeMillis()))
+                {
+                    // treat expired entry as absent
+                    freeCapacity += allocLen;
+                    unlink(tab, hashEntryAdr, ptr);
+                    removed(hashEntryAdr);
 
-                if (oldValueAdr != 0L)
+                    size--;
+                    expiredEntries++;
+                    if (derefList == null)
+                        derefList = new LongArrayList();
+                    derefList.add(hashEntryAdr);
+                }
+                else
                 {
-                    // code for replace() operation
-                    if (HashEntries.getValueLen(hashEntryAdr) != oldValueLen
-                        || !HashEntries.compare(hashEntryAdr, Util.ENTRY_OFF_DATA + Util.roundUpTo8(keyLen), oldValueAdr, 0L, oldValueLen))
+                    // replace existing entry
+
+                    if (ifAbsent)
                         return false;
-                }
 
-                freeCapacity += allocLen;
-                table.removeFromTableWithOff(hashEntryAdr, ptr, idx);
+                    if (oldValueAdr != 0L)
+                    {
+                        // code for replace() operation
+                        if (HashEntries.getValueLen(hashEntryAdr) != oldValueLen
+                            || !HashEntries.compare(hashEntryAdr, Util.ENTRY_OFF_DATA + keyLen, oldValueAdr, 0L, oldValueLen))
+                            return false;
+                    }
 
-                removeHashEntryAdr = hashEntryAdr;
+                    freeCapacity += allocLen;
+                    unlink(tab, hashEntryAdr, ptr);
+                    removed(hashEntryAdr);
 
-                break;
+                    removeHashEntryAdr = hashEntryAdr;
+                }
             }
 
+            if (readBuffer != null && freeCapacity < bytes)
+                // apply pending LRU promotions before evicting
+                readBuffer.drain(this);
+
+            derefList = evict(bytes, derefList);
             if (freeCapacity < bytes)
             {
-                derefList = new LongArrayList();
-                do
-                {
-                    long eldestEntryAdr = table.removeEldest();
-                    if (eldestEntryAdr == 0L)
-                    {
-                        if (removeHashEntryAdr != 0L)
-                            size--;
-                        return false;
-                    }
-
-                    freeCapacity += HashEntries.getAllocLen(eldestEntryAdr);
-
+                if (removeHashEntryAdr != 0L)
                     size--;
-                    evictedEntries++;
-                    derefList.add(eldestEntryAdr);
-                } while (freeCapacity < bytes);
+                return false;
             }
 
             if (removeHashEntryAdr == 0L)
@@ -279,7 +719,7 @@ final class OffHeapMap
                 size++;
             }
 
-            if (!add(newHashEntryAdr, hash))
+            if (!add(newHashEntryAdr, hash, removeHashEntryAdr))
                 return false;
 
             freeCapacity -= bytes;
@@ -293,114 +733,286 @@ final class OffHeapMap
         }
         finally
         {
-            lock.unlock();
-            if (removeHashEntryAdr != 0L)
-                HashEntries.dereference(removeHashEntryAdr);
-            if (derefList != null)
-                for (int i = 0; i < derefList.size(); i++)
-                    HashEntries.dereference(derefList.getLong(i));
+            unlockForWrite(removeHashEntryAdr, derefList);
         }
     }
 
-    void clear()
+    /**
+     * Adds the hash entries {@code hashEntryAdrs[from]} to {@code hashEntryAdrs[to - 1]}, which must all belong to
+     * this segment, replacing the existing entries for the same keys. The lock is taken once for all hash entries.
+     * Existing entries are unlinked first, then eldest entries are evicted at once to make room for the whole batch.
+     * Added hash entries are set to {@code 0L} in {@code hashEntryAdrs}, the caller must free the remaining ones.
+     */
+    void putEntries(long[] hashEntryAdrs, int from, int to)
     {
-        lock.lock();
+        prepareRehash();
+
+        LongArrayList derefList = null;
+        lockForWrite();
         try
         {
-            size = 0L;
+            derefList = expireEntries(derefList);
 
-            long freed = 0L;
-            long hashEntryAdr;
-            for (int p = 0; p < table.size(); p++)
+            long[] replaced = new long[to - from];
+            long bytes = 0L;
+            for (int i = from; i < to; i++)
             {
-                long ptr = table.bucketOffset(p);
-                for (int idx = 0; idx < entriesPerBucket; idx++, ptr += Util.BUCKET_ENTRY_LEN)
+                long newHashEntryAdr = hashEntryAdrs[i];
+
+                long hashEntryAdr = unlinkSameKey(newHashEntryAdr);
+                if (hashEntryAdr != 0L)
                 {
-                    if ((hashEntryAdr = table.getEntryAdr(ptr)) == 0L)
-                        break;
+                    if (expired(hashEntryAdr, System.currentTimeMillis()))
+                        expiredEntries++;
+                    else
+                        replaced[i - from] = hashEntryAdr;
+                    derefList = dereferenceLater(derefList, hashEntryAdr);
+                }
+
+                bytes += HashEntries.getAllocLen(newHashEntryAdr);
+            }
 
-                    freed += HashEntries.getAllocLen(hashEntryAdr);
-                    HashEntries.dereference(hashEntryAdr);
+            if (readBuffer != null && freeCapacity < bytes)
+                // apply pending LRU promotions before evicting
+                readBuffer.drain(this);
+
+            derefList = evict(bytes, derefList);
+
+            for (int i = from; i < to; i++)
+            {
+                long newHashEntryAdr = hashEntryAdrs[i];
+                long hash = HashEntries.getHash(newHashEntryAdr);
+                long entryBytes = HashEntries.getAllocLen(newHashEntryAdr);
+
+                // same key twice in the batch
+                long hashEntryAdr = unlinkSameKey(newHashEntryAdr);
+                if (hashEntryAdr != 0L)
+                {
+                    replaced[i - from] = hashEntryAdr;
+                    derefList = dereferenceLater(derefList, hashEntryAdr);
                 }
+
+                // only evicts, if the batch is larger than the capacity
+                derefList = evict(entryBytes, derefList);
+                if (freeCapacity < entryBytes)
+                    continue;
+
+                if (size >= threshold)
+                    rehash();
+
+                size++;
+                if (!add(newHashEntryAdr, hash, replaced[i - from]))
+                {
+                    size--;
+                    continue;
+                }
+
+                freeCapacity -= entryBytes;
+                hashEntryAdrs[i] = 0L;
+
+                if (replaced[i - from] != 0L)
+                    putReplaceCount++;
+                else
+                    putAddCount++;
+            }
+        }
+        finally
+        {
+            unlockForWrite(0L, derefList);
+        }
+    }
+
+    /**
+     * Unlinks the hash entry with the same key as the given new hash entry.
+     *
+     * @return the unlinked hash entry or {@code 0L}
+     */
+    private long unlinkSameKey(long newHashEntryAdr)
+    {
+        long hash = HashEntries.getHash(newHashEntryAdr);
+        long keyLen = HashEntries.getKeyLen(newHashEntryAdr);
+        Table tab = table;
+        long ptr = find(tab, hash, newHashEntryAdr, keyLen);
+        if (ptr < 0L && oldTable != null)
+            ptr = find(tab = oldTable, hash, newHashEntryAdr, keyLen);
+        if (ptr < 0L)
+            return 0L;
+
+        long hashEntryAdr = tab.getEntryAdr(ptr);
+        freeCapacity += HashEntries.getAllocLen(hashEntryAdr);
+        unlink(tab, hashEntryAdr, ptr);
+        removed(hashEntryAdr);
+
+        size--;
+        return hashEntryAdr;
+    }
+
+    /**
+     * Evicts eldest hash entries until the given number of bytes is free or no entry is left to evict.
+     */
+    private LongArrayList evict(long bytes, LongArrayList derefList)
+    {
+        while (freeCapacity < bytes)
+        {
+            long eldestEntryAdr = evictionPolicy.victim(table);
+            if (eldestEntryAdr == 0L)
+                break;
+
+            unlink(eldestEntryAdr);
+            removed(eldestEntryAdr);
+
+            freeCapacity += HashEntries.getAllocLen(eldestEntryAdr);
+
+            size--;
+            evictedEntries++;
+            derefList = dereferenceLater(derefList, eldestEntryAdr);
+        }
+        return derefList;
+    }
+
+    private static LongArrayList dereferenceLater(LongArrayList derefList, long hashEntryAdr)
+    {
+        if (derefList == null)
+            derefList = new LongArrayList();
+        derefList.add(hashEntryAdr);
+        return derefList;
+    }
+
+    void clear()
+    {
+        lockForWrite();
+        try
+        {
+            size = 0L;
+            expiringEntries = 0L;
+
+            long freed = clear(table);
+            if (oldTable != null)
+            {
+                freed += clear(oldTable);
+                releaseOldTable();
             }
 
             table.clear();
+            evictionPolicy.clear();
+            timerWheel.clear();
 
             freeCapacity += freed;
         }
         finally
         {
-            lock.unlock();
+            unlockForWrite(0L, null);
+        }
+    }
+
+    /**
+     * Dereferences the hash entries in the given hash table.
+     *
+     * @return number of bytes allocated by the hash entries
+     */
+    private long clear(Table tab)
+    {
+        long freed = 0L;
+        long hashEntryAdr;
+        for (int p = 0; p < tab.size(); p++)
+        {
+            if ((hashEntryAdr = tab.getEntryAdr(tab.slotOffset(p))) == 0L)
+                continue;
+
+            freed += HashEntries.getAllocLen(hashEntryAdr);
+            if (epochs != null)
+                epochs.retireEntry(hashEntryAdr);
+            else
+                HashEntries.dereference(hashEntryAdr);
         }
+        return freed;
     }
 
     void removeEntry(long removeHashEntryAdr)
     {
-        lock.lock();
+        lockForWrite();
         try
         {
             long hash = HashEntries.getHash(removeHashEntryAdr);
-            long hashEntryAdr;
-            long ptr = table.bucketOffset(hash);
-            for (int idx = 0; idx < entriesPerBucket; idx++, ptr += Util.BUCKET_ENTRY_LEN)
-            {
-                if ((hashEntryAdr = table.getEntryAdr(ptr)) == 0L)
-                    break;
-
-                if (hashEntryAdr != removeHashEntryAdr)
-                    continue;
+            Table tab = table;
+            long ptr = tab.slotOf(removeHashEntryAdr, hash);
+            if (ptr < 0L && oldTable != null)
+                ptr = (tab = oldTable).slotOf(removeHashEntryAdr, hash);
 
+            if (ptr >= 0L)
                 // remove existing entry
-
-                removeInternal(hashEntryAdr, ptr, idx);
-
-                return;
-            }
-            removeHashEntryAdr = 0L;
+                removeInternal(tab, removeHashEntryAdr, ptr);
+            else
+                removeHashEntryAdr = 0L;
         }
         finally
         {
-            lock.unlock();
-            if (removeHashEntryAdr != 0L)
-                HashEntries.dereference(removeHashEntryAdr);
+            unlockForWrite(removeHashEntryAdr, null);
         }
     }
 
     void removeEntry(KeyBuffer key)
     {
         long removeHashEntryAdr = 0L;
-        lock.lock();
+        lockForWrite();
         try
         {
-            long hashEntryAdr;
-            long ptr = table.bucketOffset(key.hash());
-            for (int idx = 0; idx < entriesPerBucket; idx++, ptr += Util.BUCKET_ENTRY_LEN)
+            Table tab = table;
+            long ptr = find(tab, key);
+            if (ptr < 0L && oldTable != null)
+                ptr = find(tab = oldTable, key);
+
+            if (ptr >= 0L)
             {
-                if ((hashEntryAdr = table.getEntryAdr(ptr)) == 0L)
-                    break;
+                // remove existing entry
 
-                if (table.getHash(ptr) != key.hash() || notSameKey(key, hashEntryAdr))
-                    continue;
+                removeHashEntryAdr = tab.getEntryAdr(ptr);
+                removeInternal(tab, removeHashEntryAdr, ptr);
+            }
+        }
+        finally
+        {
+            unlockForWrite(removeHashEntryAdr, null);
+        }
+    }
 
-                // remove existing entry
+    /**
+     * Removes the entries for the keys {@code keys[from]} to {@code keys[to - 1]}, which must all belong to this
+     * segment. The lock is taken once for all keys.
+     */
+    void removeEntries(KeyBuffer[] keys, int from, int to)
+    {
+        LongArrayList derefList = null;
+        lockForWrite();
+        try
+        {
+            for (int i = from; i < to; i++)
+            {
+                Table tab = table;
+                long ptr = find(tab, keys[i]);
+                if (ptr < 0L && oldTable != null)
+                    ptr = find(tab = oldTable, keys[i]);
 
-                removeHashEntryAdr = hashEntryAdr;
-                removeInternal(hashEntryAdr, ptr, idx);
+                if (ptr >= 0L)
+                {
+                    // remove existing entry
 
-                return;
+                    long hashEntryAdr = tab.getEntryAdr(ptr);
+                    derefList = dereferenceLater(derefList, hashEntryAdr);
+                    removeInternal(tab, hashEntryAdr, ptr);
+                }
             }
         }
         finally
         {
-            lock.unlock();
-            if (removeHashEntryAdr != 0L)
-                HashEntries.dereference(removeHashEntryAdr);
+            unlockForWrite(0L, derefList);
         }
     }
 
-    private void removeInternal(long hashEntryAdr, long off, int idx)
+    private void removeInternal(Table tab, long hashEntryAdr, long off)
     {
-        table.removeFromTableWithOff(hashEntryAdr, off, idx);
+        unlink(tab, hashEntryAdr, off);
+        removed(hashEntryAdr);
 
         freeCapacity += HashEntries.getAllocLen(hashEntryAdr);
 
@@ -408,6 +1020,61 @@ final class OffHeapMap
         removeCount++;
     }
 
+    /**
+     * Removes the hash entry in the given slot of the given hash table and from its LRU queue.
+     */
+    private void unlink(Table tab, long hashEntryAdr, long off)
+    {
+        tab.removeSlot(off);
+        table.removeFromLRU(hashEntryAdr);
+    }
+
+    /**
+     * Removes the given hash entry from the hash table that holds it and from its LRU queue.
+     */
+    private void unlink(long hashEntryAdr)
+    {
+        long hash = HashEntries.getHash(hashEntryAdr);
+        Table tab = table;
+        long ptr = tab.slotOf(hashEntryAdr, hash);
+        if (ptr < 0L && oldTable != null)
+            ptr = (tab = oldTable).slotOf(hashEntryAdr, hash);
+        if (ptr >= 0L)
+            tab.removeSlot(ptr);
+        table.removeFromLRU(hashEntryAdr);
+    }
+
+    /**
+     * @return offset of the slot of the hash entry for the given key in the given hash table or {@code -1L}
+     */
+    private static long find(Table table, KeyBuffer key)
+    {
+        for (int dist = table.nextCandidate(key.hash(), 0); dist >= 0; dist = table.nextCandidate(key.hash(), dist + 1))
+        {
+            long ptr = table.probeOffset(key.hash(), dist);
+            long hashEntryAdr = table.getEntryAdr(ptr);
+            if (table.getHash(ptr, hashEntryAdr) == key.hash() && !notSameKey(key, hashEntryAdr))
+                return ptr;
+        }
+        return -1L;
+    }
+
+    /**
+     * @return offset of the slot of the hash entry with the same key as the given new hash entry in the given
+     * hash table or {@code -1L}
+     */
+    private static long find(Table table, long hash, long newHashEntryAdr, long keyLen)
+    {
+        for (int dist = table.nextCandidate(hash, 0); dist >= 0; dist = table.nextCandidate(hash, dist + 1))
+        {
+            long ptr = table.probeOffset(hash, dist);
+            long hashEntryAdr = table.getEntryAdr(ptr);
+            if (table.getHash(ptr, hashEntryAdr) == hash && !notSameKey(newHashEntryAdr, keyLen, hashEntryAdr))
+                return ptr;
+        }
+        return -1L;
+    }
+
     private static boolean notSameKey(KeyBuffer key, long hashEntryAdr)
     {
         long serKeyLen = HashEntries.getKeyLen(hashEntryAdr);
@@ -422,8 +1089,56 @@ final class OffHeapMap
                || !HashEntries.compare(hashEntryAdr, Util.ENTRY_OFF_DATA, newHashEntryAdr, Util.ENTRY_OFF_DATA, serKeyLen);
     }
 
+    /**
+     * Allocates and initializes the hash table for the next rehash without holding the lock, if the hash table
+     * is almost full - allocating and zeroing a large hash table would otherwise stall the segment for
+     * milliseconds. Only one thread prepares a hash table at a time.
+     */
+    private void prepareRehash()
+    {
+        // unsynchronized reads - a stale value only lets rehash() allocate the hash table while holding the lock
+        Table tab = table;
+        if (tab == null || spareTable != null || size < threshold - (threshold >> 4))
+            return;
+
+        int tableSize = tab.size();
+        if (tableSize > MAX_TABLE_SIZE || !preparingRehashUpdater.compareAndSet(this, 0, 1))
+            return;
+        try
+        {
+            Table newTable = Table.create(tableSize * 2, evictionPolicy.lruQueues(), probeTags, false);
+            if (newTable == null)
+                return;
+
+            lock.lock();
+            try
+            {
+                if (spareTable == null && table != null && table.size() == tableSize)
+                {
+                    spareTable = newTable;
+                    newTable = null;
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            if (newTable != null)
+                newTable.release();
+        }
+        finally
+        {
+            preparingRehash = 0;
+        }
+    }
+
     private void rehash()
     {
+        if (oldTable != null)
+            // the previous rehash has not finished yet
+            migrate(Integer.MAX_VALUE);
+
         Table tab = table;
         int tableSize = tab.size();
         if (tableSize > MAX_TABLE_SIZE)
@@ -432,30 +1147,75 @@ final class OffHeapMap
             return;
         }
 
-        Table newTable = Table.create(tableSize * 2, entriesPerBucket, throwOOME);
-        if (newTable == null)
+        Table newTable = spareTable;
+        spareTable = null;
+        if (newTable == null || newTable.size() != tableSize * 2)
+        {
+            if (newTable != null)
+                newTable.release();
+            newTable = Table.create(tableSize * 2, evictionPolicy.lruQueues(), probeTags, throwOOME);
+            if (newTable == null)
+                return;
+        }
+
+        // the hash entries and the LRU-tables are moved by the following writes and locked reads, so a single
+        // write does not stall the segment
+        newTable.takeLRU(tab);
+        oldTable = tab;
+        migratedSlots = 0;
+        table = newTable;
+
+        threshold = (long) ((float) newTable.size() * loadFactor);
+        evictionPolicy.resize(newTable.size());
+        rehashes++;
+    }
+
+    /**
+     * Moves the hash entries of the next slots of the old hash table to the current one during an incremental
+     * rehash - lock must be held for write.
+     *
+     * @param slots maximum number of slots to move
+     */
+    private void migrate(int slots)
+    {
+        Table tab = oldTable;
+        if (tab == null)
             return;
 
-        for (int part = 0; part < tableSize; part++)
+        int end = (int) Math.min((long) migratedSlots + slots, tab.size());
+        for (; migratedSlots < end; migratedSlots++)
         {
+            // removal shifts the following hash entries of the probe sequence back into the slot,
+            // so all slots below 'migratedSlots' stay empty
+            long ptr = tab.slotOffset(migratedSlots);
             long hashEntryAdr;
-            long ptr = table.bucketOffset(part);
-            for (int idx = 0; idx < entriesPerBucket; idx++, ptr += Util.BUCKET_ENTRY_LEN)
+            while ((hashEntryAdr = tab.getEntryAdr(ptr)) != 0L)
             {
-                if ((hashEntryAdr = table.getEntryAdr(ptr)) == 0L)
-                    break;
-
-                if (!newTable.addToTable(table.getHash(ptr), hashEntryAdr))
+                long hash = tab.getHash(ptr);
+                tab.removeSlot(ptr);
+                if (table.addToTable(hash, hashEntryAdr) < 0)
+                {
                     // this should never occur - so don't care about expensive free()
-                    HashEntries.dereference(hashEntryAdr);
+                    if (epochs != null)
+                        epochs.retireEntry(hashEntryAdr);
+                    else
+                        HashEntries.dereference(hashEntryAdr);
+                }
             }
         }
-        newTable.copyLRU(table);
+        table.copyLRU(migratedSlots);
 
-        threshold = (long) ((float) newTable.size() * loadFactor);
-        table.release();
-        table = newTable;
-        rehashes++;
+        if (migratedSlots == tab.size())
+            releaseOldTable();
+    }
+
+    private void releaseOldTable()
+    {
+        if (epochs != null)
+            oldTable.retire(epochs);
+        else
+            oldTable.release();
+        oldTable = null;
     }
 
     long[] hotN(int n)
@@ -463,11 +1223,22 @@ final class OffHeapMap
         lock.lock();
         try
         {
+            if (readBuffer != null)
+                readBuffer.drain(this);
+
             long[] r = new long[n];
-            table.fillHotN(r, n);
-            for (long hashEntryAdr : r)
-                if (hashEntryAdr != 0L)
+            evictionPolicy.fillHotN(table, r);
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < r.length; i++)
+            {
+                long hashEntryAdr = r[i];
+                if (hashEntryAdr == 0L)
+                    continue;
+                if (expired(hashEntryAdr, now))
+                    r[i] = 0L;
+                else
                     HashEntries.reference(hashEntryAdr);
+            }
             return r;
         }
         finally
@@ -486,12 +1257,31 @@ final class OffHeapMap
         return table.size();
     }
 
+    /**
+     * @return whether an incremental rehash has not finished yet
+     */
+    boolean rehashing()
+    {
+        lock.lock();
+        try
+        {
+            return oldTable != null;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
     void updateBucketHistogram(EstimatedHistogram hist)
     {
         lock.lock();
         try
         {
             table.updateBucketHistogram(hist);
+            if (oldTable != null)
+                // incremental rehash in progress
+                oldTable.updateBucketHistogram(hist);
         }
         finally
         {
@@ -504,17 +1294,13 @@ final class OffHeapMap
         lock.lock();
         try
         {
+            long now = System.currentTimeMillis();
             for (; nSegments-- > 0 && mapSegmentIndex < table.size(); mapSegmentIndex++)
             {
-                long hashEntryAdr;
-                long ptr = table.bucketOffset(mapSegmentIndex);
-                for (int idx = 0; idx < entriesPerBucket; idx++, ptr += Util.BUCKET_ENTRY_LEN)
-                {
-                    if ((hashEntryAdr = table.getEntryAdr(ptr)) == 0L)
-                        break;
-                    hashEntryAdrs.add(hashEntryAdr);
-                    HashEntries.reference(hashEntryAdr);
-                }
+                addEntryAddress(table, mapSegmentIndex, now, hashEntryAdrs);
+                if (oldTable != null && mapSegmentIndex < oldTable.size())
+                    // incremental rehash in progress
+                    addEntryAddress(oldTable, mapSegmentIndex, now, hashEntryAdrs);
             }
         }
         finally
@@ -523,208 +1309,280 @@ final class OffHeapMap
         }
     }
 
+    private static void addEntryAddress(Table tab, int slot, long now, List<Long> hashEntryAdrs)
+    {
+        long hashEntryAdr;
+        if ((hashEntryAdr = tab.getEntryAdr(tab.slotOffset(slot))) == 0L)
+            return;
+        if (expired(hashEntryAdr, now))
+            return;
+        hashEntryAdrs.add(hashEntryAdr);
+        HashEntries.reference(hashEntryAdr);
+    }
+
     static final class Table
     {
         /*
-         * Holds an off-heap structure with two tables: the bucket-entry-table and the LRU-table.
+         * Holds an off-heap structure with the bucket-entry-table followed by one LRU-table per LRU queue.
          * The bucket-entry-table starts at 'address'.
-         * The LRU-table starts at 'address + lruOffset'.
+         * The LRU-table of LRU queue 'q' starts at 'address + lruOffset + q * size() * POINTER_LEN'.
          *
          * Layout of the bucket-entry-table:
          * +----------------+------------+----------------+------------+-----
-         * | hash-entry-adr | hash-value | hash-entry-adr | hash-value | ...
+         * | hash-entry-adr | hash-value | hash-entry-adr | hash-value | ...
          * +----------------+------------+----------------+------------+-----
-         * For each bucket the table holds as many entries as specified by 'entriesPerBucket'.
+         * The bucket-entry-table is an open-addressing table with linear Robin Hood probing. A hash entry is stored
+         * in the first free slot following its home slot ('hash & mask'), but takes the slot of a hash entry that is
+         * closer to its own home slot ("richer"). This keeps the hash entries ordered by home slot, so a lookup can
+         * stop at the first slot that holds a hash entry with a shorter probe length than the current one.
+         * Removal shifts the following hash entries of the probe sequence back by one slot instead of leaving a
+         * tombstone. The probe length is derived from the stored hash-value.
          *
-         * Layout of the LRU-table:
+         * If enabled, the bucket-entry-table only holds the hash-entry-adr (8 bytes per slot) and is followed by the
+         * tag-table, which holds one byte per slot: 0 for an empty slot, otherwise the high bit plus 7 bits of the
+         * hash-value. Lookups match 'TAG_GROUP' tags at once using word-at-a-time (SWAR) operations and only read the
+         * slots of matching tags. The first 'TAG_GROUP' tags are repeated after the last tag, so that a group can be
+         * read at any slot without wrapping around. The hash-value is read from the hash entry, which a hit reads
+         * anyway to compare the key. Inserts and removals read it to derive the probe lengths, and so do lookups
+         * that do not find an empty slot in a group of tags.
+         *
+         * Layout of an LRU-table:
          * +----------------+----------------+-----
          * | hash-entry-adr | hash-entry-adr | ...
          * +----------------+----------------+-----
          * The field 'lruWriteTarget' defines at which index in the LRU-table the next recently hash-entry-address goes.
          * The field 'lruEldestIndex' defines the index of the eldest entry in the LRU-table.
          * If there's no more room in the LRU-table ('lruWriteTarget == size()'), the whole LRU table is compacted.
-         * For fast access into the LRU-table, the hash-entry itself tracks the index of the hash-entry in the LRU-table.
+         * For fast access into the LRU-table, the hash-entry itself tracks the index of the hash-entry in the LRU-table
+         * and the LRU queue. Only the indexes below 'lruWriteTarget' are ever read, so the LRU-tables are not zeroed.
+         * After a rehash, the indexes from 'lruCopied' to the size of 'lruSource' are still read from and written to
+         * the LRU-tables of the old hash table until they have been copied.
          */
 
         final int mask;
         final long address;
-        private final int entriesPerBucket;
+        // number of used slots
+        private int count;
         private boolean released;
 
+        // length of a slot in the bucket-entry-table
+        private final long slotLen;
+        // -1 if there is no tag-table
+        private final long tagOffset;
         private final long lruOffset;
 
-        private int lruWriteTarget;
-        private int lruEldestIndex;
+        // per LRU queue
+        private final int[] lruWriteTarget;
+        private final int[] lruEldestIndex;
+
+        // incremental rehash: hash table whose LRU-tables are not completely copied yet, or null
+        private Table lruSource;
+        private int lruCopied;
 
-        static Table create(int hashTableSize, int entriesPerBucket, boolean throwOOME)
+        static Table create(int hashTableSize, int lruQueues, boolean tagged, boolean throwOOME)
         {
-            int msz = (int) Util.BUCKET_ENTRY_LEN * hashTableSize * entriesPerBucket;
+            long msz = (tagged ? Util.TAGGED_BUCKET_ENTRY_LEN : Util.BUCKET_ENTRY_LEN) * hashTableSize;
 
-            msz += hashTableSize * Util.POINTER_LEN;
+            if (tagged)
+                msz += hashTableSize + Util.TAG_GROUP;
+
+            msz += (long) lruQueues * hashTableSize * Util.POINTER_LEN;
 
             long address = Uns.allocate(msz, throwOOME);
-            return address != 0L ? new Table(address, hashTableSize, entriesPerBucket) : null;
+            return address != 0L ? new Table(address, hashTableSize, lruQueues, tagged) : null;
         }
 
-        private Table(long address, int hashTableSize, int entriesPerBucket)
+        private Table(long address, int hashTableSize, int lruQueues, boolean tagged)
         {
             this.address = address;
             this.mask = hashTableSize - 1;
-            this.entriesPerBucket = entriesPerBucket;
 
-            this.lruOffset = Util.BUCKET_ENTRY_LEN * hashTableSize * entriesPerBucket;
-            this.lruWriteTarget = 0;
+            this.slotLen = tagged ? Util.TAGGED_BUCKET_ENTRY_LEN : Util.BUCKET_ENTRY_LEN;
+            long tagTableOffset = slotLen * hashTableSize;
+            this.tagOffset = tagged ? tagTableOffset : -1L;
+            this.lruOffset = tagged ? tagTableOffset + hashTableSize + Util.TAG_GROUP : tagTableOffset;
+            this.lruWriteTarget = new int[lruQueues];
+            this.lruEldestIndex = new int[lruQueues];
 
             clear();
         }
 
         //
 
-        void removeFromTableWithOff(long hashEntryAdr, long off, int idx)
+        /**
+         * Removes the hash entry in the given slot - but not from its LRU queue.
+         */
+        void removeSlot(long off)
+        {
+            // backward shift the following hash entries that are not in their home slot
+            for (long next = nextOffset(off);
+                 getEntryAdr(next) != 0L && probeLength(next) > 0;
+                 off = next, next = nextOffset(next))
+                setSlot(off, getEntryAdr(next), getHash(next));
+            clearSlot(off);
+            count--;
+        }
+
+        /**
+         * @return offset of the slot of the given hash entry or {@code -1L}
+         */
+        long slotOf(long hashEntryAdr, long hash)
         {
-            for (; idx < entriesPerBucket; idx++, off += Util.BUCKET_ENTRY_LEN)
+            long off = bucketOffset(hash);
+            for (int dist = 0; ; dist++, off = nextOffset(off))
             {
-                if (idx < entriesPerBucket - 1)
-                {
-                    long adr = getEntryAdr(off + Util.BUCKET_ENTRY_LEN);
-                    long h = getHash(off + Util.BUCKET_ENTRY_LEN);
-                    setEntryAdr(off, adr);
-                    setHash(off, h);
-                    if (adr == 0L)
-                        break;
-                }
-                else
-                    setEntryAdr(off, 0L);
+                long adr = getEntryAdr(off);
+                if (adr == hashEntryAdr)
+                    return off;
+                if (adr == 0L || probeLength(off) < dist)
+                    return -1L;
             }
-            removeFromLRU(hashEntryAdr);
         }
 
-        long removeEldest()
+        /**
+         * Returns the eldest hash entry of the given LRU queue without removing it.
+         */
+        long eldest(int lruQueue)
         {
-            int i = lruEldestIndex;
-            long off = lruOffset(i);
-            for (; i < lruWriteTarget; i++, off += Util.POINTER_LEN)
+            int i = lruEldestIndex[lruQueue];
+            for (; i < lruWriteTarget[lruQueue]; i++)
             {
-                long hashEntryAdr = Uns.getAndPutLong(address, off, 0L);
+                long hashEntryAdr = getLRU(lruQueue, i);
                 if (hashEntryAdr != 0L)
                 {
-                    lruEldestIndex = i + 1;
-
-                    off = bucketOffset(HashEntries.getHash(hashEntryAdr));
-                    boolean st = false;
-                    for (i = 0; i < entriesPerBucket; i++, off += Util.BUCKET_ENTRY_LEN)
-                    {
-                        long adr;
-                        if (!st)
-                        {
-                            adr = getEntryAdr(off);
-                            if (adr == hashEntryAdr)
-                                st = true;
-                            else if (adr == 0L)
-                                break;
-                            else
-                                continue;
-                        }
-
-                        adr = getEntryAdr(off + Util.BUCKET_ENTRY_LEN);
-                        long h = getHash(off + Util.BUCKET_ENTRY_LEN);
-                        if (i < entriesPerBucket - 1)
-                        {
-                            setEntryAdr(off, adr);
-                            setHash(off, h);
-                        }
-                        else
-                            setEntryAdr(off, 0L);
-                        if (adr == 0L)
-                            break;
-                    }
-
+                    lruEldestIndex[lruQueue] = i;
                     return hashEntryAdr;
                 }
             }
-            return 0;
+            lruEldestIndex[lruQueue] = i;
+            return 0L;
         }
 
-        void fillHotN(long[] r, int n)
+        int fillHotN(int lruQueue, long[] r, int c)
         {
-            int c = 0;
             long hashEntryAdr;
-            int i = lruWriteTarget - 1;
-            long off = lruOffset(i);
-            for (; i >= lruEldestIndex; i--, off -= Util.POINTER_LEN)
+            int i = lruWriteTarget[lruQueue] - 1;
+            for (; i >= lruEldestIndex[lruQueue] && c < r.length; i--)
             {
-                if ((hashEntryAdr = Uns.getLong(address, off)) != 0L)
-                {
+                if ((hashEntryAdr = getLRU(lruQueue, i)) != 0L)
                     r[c++] = hashEntryAdr;
-                    if (c == n)
-                        return;
-                }
             }
+            return c;
+        }
+
+        /**
+         * Takes over the LRU queues of the given hash table - the LRU-tables are copied by {@link #copyLRU(int)}.
+         */
+        void takeLRU(Table srcTable)
+        {
+            for (int q = 0; q < lruWriteTarget.length; q++)
+            {
+                lruEldestIndex[q] = srcTable.lruEldestIndex[q];
+                lruWriteTarget[q] = srcTable.lruWriteTarget[q];
+            }
+            lruSource = srcTable;
+            lruCopied = 0;
         }
 
-        void copyLRU(Table srcTable)
+        /**
+         * Copies the LRU-tables of the hash table passed to {@link #takeLRU(Table)} up to the given index.
+         */
+        void copyLRU(int end)
         {
-            lruEldestIndex = srcTable.lruEldestIndex;
-            lruWriteTarget = srcTable.lruWriteTarget;
-            Uns.copyMemory(srcTable.address, srcTable.lruOffset(0), address, lruOffset(0), lruWriteTarget * Util.POINTER_LEN);
+            Table src = lruSource;
+            if (src == null || end <= lruCopied)
+                return;
+
+            end = Math.min(end, src.size());
+            for (int q = 0; q < lruWriteTarget.length; q++)
+                Uns.copyMemory(src.address, src.lruOffset(q, lruCopied), address, lruOffset(q, lruCopied),
+                               (long) (end - lruCopied) * Util.POINTER_LEN);
+            lruCopied = end;
+
+            if (end == src.size())
+                lruSource = null;
         }
 
-        boolean addToLRU(long hashEntryAdr)
+        boolean addToLRU(int lruQueue, long hashEntryAdr)
         {
-            if (lruWriteTarget < size())
+            HashEntries.setLRUQueue(hashEntryAdr, lruQueue);
+
+            if (lruWriteTarget[lruQueue] < size())
             {
                 // try to add to current-write-target
-                entryToLRU(hashEntryAdr, lruWriteTarget++);
+                entryToLRU(hashEntryAdr, lruQueue, lruWriteTarget[lruQueue]++);
                 return false;
             }
 
             // LRU table compaction needed
 
+            if (lruSource != null)
+                copyLRU(lruSource.size());
+
             int id = 0;
             long adr;
-            int is = lruEldestIndex;
-            long off = lruOffset(is);
+            int is = lruEldestIndex[lruQueue];
+            long off = lruOffset(lruQueue, is);
             for (; is < size(); is++, off += Util.POINTER_LEN)
                 if ((adr = Uns.getLong(address, off)) != 0L)
                 {
                     if (is != id)
-                        entryToLRU(adr, id);
+                        entryToLRU(adr, lruQueue, id);
                     id++;
                 }
 
             // add hash-entry to LRU
-            entryToLRU(hashEntryAdr, id++);
+            entryToLRU(hashEntryAdr, lruQueue, id++);
 
-            lruWriteTarget = id;
-            lruEldestIndex = 0;
+            lruWriteTarget[lruQueue] = id;
+            lruEldestIndex[lruQueue] = 0;
 
             // clear remaining LRU table
-            Uns.setMemory(address, lruOffset(id),
+            Uns.setMemory(address, lruOffset(lruQueue, id),
                           (size() - id) * Util.POINTER_LEN,
                           (byte) 0);
 
             return true;
         }
 
-        private void entryToLRU(long hashEntryAdr, int id)
+        private void entryToLRU(long hashEntryAdr, int lruQueue, int id)
         {
-            Uns.putLong(address, lruOffset(id), hashEntryAdr);
+            putLRU(lruQueue, id, hashEntryAdr);
             HashEntries.setLRUIndex(hashEntryAdr, id);
         }
 
         void removeFromLRU(long hashEntryAdr)
         {
+            int lruQueue = HashEntries.getLRUQueue(hashEntryAdr);
             int lruIndex = HashEntries.getLRUIndex(hashEntryAdr);
-            if (lruEldestIndex == lruIndex)
-                lruEldestIndex++;
-            if (lruIndex == lruWriteTarget - 1)
-                lruWriteTarget = lruIndex;
-            Uns.putLong(address, lruOffset(lruIndex), 0L);
+            if (lruEldestIndex[lruQueue] == lruIndex)
+                lruEldestIndex[lruQueue]++;
+            if (lruIndex == lruWriteTarget[lruQueue] - 1)
+                lruWriteTarget[lruQueue] = lruIndex;
+            if (lruEldestIndex[lruQueue] > lruWriteTarget[lruQueue])
+                // LRU queue is empty - next entry goes to lruWriteTarget
+                lruEldestIndex[lruQueue] = lruWriteTarget[lruQueue];
+            putLRU(lruQueue, lruIndex, 0L);
+        }
+
+        private long getLRU(int lruQueue, int i)
+        {
+            if (lruSource != null && i >= lruCopied && i < lruSource.size())
+                return lruSource.getLRU(lruQueue, i);
+            return Uns.getLong(address, lruOffset(lruQueue, i));
+        }
+
+        private void putLRU(int lruQueue, int i, long hashEntryAdr)
+        {
+            if (lruSource != null && i >= lruCopied && i < lruSource.size())
+                lruSource.putLRU(lruQueue, i, hashEntryAdr);
+            else
+                Uns.putLong(address, lruOffset(lruQueue, i), hashEntryAdr);
         }
 
-        private long lruOffset(int i)
+        private long lruOffset(int lruQueue, int i)
         {
-            return lruOffset + i * Util.POINTER_LEN;
+            return lruOffset + ((long) lruQueue * size() + i) * Util.POINTER_LEN;
         }
 
         //
@@ -733,10 +1591,12 @@ final class OffHeapMap
         {
             // It's important to initialize the hash table memory.
             // (uninitialized memory will cause problems - endless loops, JVM crashes, damaged data, etc)
-            Uns.setMemory(address, 0L,
-                          Util.BUCKET_ENTRY_LEN * entriesPerBucket * size() +
-                          Util.POINTER_LEN * size(),
-                          (byte) 0);
+            // The LRU-tables are only read below 'lruWriteTarget'.
+            Uns.setMemory(address, 0L, lruOffset, (byte) 0);
+            Arrays.fill(lruWriteTarget, 0);
+            Arrays.fill(lruEldestIndex, 0);
+            lruSource = null;
+            count = 0;
         }
 
         void release()
@@ -745,6 +1605,13 @@ final class OffHeapMap
             released = true;
         }
 
+        void retire(ReadEpochs epochs)
+        {
+            // optimistic readers may still access this table
+            epochs.retireMemory(address);
+            released = true;
+        }
+
         protected void finalize() throws Throwable
         {
             if (!released)
@@ -752,21 +1619,70 @@ final class OffHeapMap
             super.finalize();
         }
 
-        boolean addToTable(long hash, long hashEntryAdr)
+        /**
+         * @return the longest probe length of the hash entries placed by this insert or {@code -1} if the table is full
+         */
+        int addToTable(long hash, long hashEntryAdr)
         {
+            // keep one slot free, so that probe sequences terminate
+            if (count >= mask)
+                return -1;
+            count++;
+
+            int longest = 0;
             long off = bucketOffset(hash);
-            for (int i = 0; i < entriesPerBucket; i++, off += Util.BUCKET_ENTRY_LEN)
-                if (Uns.compareAndSwapLong(address, off, 0L, hashEntryAdr))
+            for (int dist = 0; ; dist++, off = nextOffset(off))
+            {
+                long adr = getEntryAdr(off);
+                if (adr == 0L)
                 {
-                    setHash(off, hash);
-                    return true;
+                    setSlot(off, hashEntryAdr, hash);
+                    return Math.max(longest, dist);
                 }
-            return false;
+
+                int probeLength = probeLength(off);
+                if (probeLength < dist)
+                {
+                    // take the slot of the hash entry closer to its home slot and continue with that one
+                    long h = getHash(off);
+                    setSlot(off, hashEntryAdr, hash);
+                    longest = Math.max(longest, dist);
+                    hashEntryAdr = adr;
+                    hash = h;
+                    dist = probeLength;
+                }
+            }
         }
 
+        /**
+         * @return offset of the home slot for the given hash
+         */
         long bucketOffset(long hash)
         {
-            return bucketIndexForHash(hash) * entriesPerBucket * Util.BUCKET_ENTRY_LEN;
+            return bucketIndexForHash(hash) * slotLen;
+        }
+
+        long slotOffset(int slot)
+        {
+            return slot * slotLen;
+        }
+
+        long nextOffset(long entryOff)
+        {
+            return (entryOff + slotLen) & (mask * slotLen);
+        }
+
+        /**
+         * @return distance of the slot at the given offset from the home slot of its hash entry
+         */
+        int probeLength(long entryOff)
+        {
+            return probeLength(entryOff, getHash(entryOff));
+        }
+
+        private int probeLength(long entryOff, long hash)
+        {
+            return (int) ((entryOff / slotLen - hash) & mask);
         }
 
         private int bucketIndexForHash(long hash)
@@ -785,15 +1701,23 @@ final class OffHeapMap
                 h.add(bucketLength(p) + 1);
         }
 
-        private int bucketLength(long hash)
+        /**
+         * @return number of hash entries with the given home slot
+         */
+        private int bucketLength(int slot)
         {
             int len = 0;
-            long off = bucketOffset(hash);
-            for (int i = 0; i < entriesPerBucket; i++, off += Util.BUCKET_ENTRY_LEN)
-                if (getEntryAdr(off) != 0L)
-                    len++;
-                else
+            long off = slotOffset(slot);
+            for (int dist = 0; ; dist++, off = nextOffset(off))
+            {
+                if (getEntryAdr(off) == 0L)
+                    break;
+                int probeLength = probeLength(off);
+                if (probeLength < dist)
                     break;
+                if (probeLength == dist)
+                    len++;
+            }
             return len;
         }
 
@@ -809,33 +1733,148 @@ final class OffHeapMap
 
         long getHash(long entryOff)
         {
+            if (tagOffset >= 0L)
+                // a hash table with tags does not store the hash-value
+                return HashEntries.getHash(getEntryAdr(entryOff));
             return Uns.getLong(address, entryOff + Util.BUCKET_OFF_HASH);
         }
 
-        private void setHash(long entryOff, long adr)
+        /**
+         * Variant of {@link #getHash(long)} for a slot whose (non-zero) hash-entry-adr has already been read.
+         */
+        long getHash(long entryOff, long hashEntryAdr)
         {
-            Uns.putLong(address, entryOff + Util.BUCKET_OFF_HASH, adr);
+            if (tagOffset >= 0L)
+                return HashEntries.getHash(hashEntryAdr);
+            return Uns.getLong(address, entryOff + Util.BUCKET_OFF_HASH);
         }
-    }
 
-    private boolean add(long hashEntryAdr, long hash)
-    {
-        if (!table.addToTable(hash, hashEntryAdr))
-            return false;
+        private void setSlot(long entryOff, long adr, long hash)
+        {
+            setEntryAdr(entryOff, adr);
+            if (tagOffset >= 0L)
+                setTag((int) (entryOff / slotLen), tag(hash));
+            else
+                Uns.putLong(address, entryOff + Util.BUCKET_OFF_HASH, hash);
+        }
 
-        addToLRU(hashEntryAdr);
-        return true;
-    }
+        private void clearSlot(long entryOff)
+        {
+            setEntryAdr(entryOff, 0L);
+            setTag((int) (entryOff / slotLen), 0);
+        }
 
-    private void touch(long hashEntryAdr)
-    {
-        table.removeFromLRU(hashEntryAdr);
-        addToLRU(hashEntryAdr);
+        //
+
+        private static final long LOW_BITS = 0x0101010101010101L;
+        private static final long HIGH_BITS = 0x8080808080808080L;
+        private static final long LOWER_7_BITS = 0x7f7f7f7f7f7f7f7fL;
+        private static final boolean BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+        /**
+         * Uses bits of the hash that neither select the segment nor the slot.
+         */
+        private static int tag(long hash)
+        {
+            return 0x80 | ((int) (hash >>> 32) & 0x7f);
+        }
+
+        private void setTag(int slot, int tag)
+        {
+            if (tagOffset < 0L)
+                return;
+            Uns.putByte(address, tagOffset + slot, (byte) tag);
+            if (slot < Util.TAG_GROUP)
+                Uns.putByte(address, tagOffset + size() + slot, (byte) tag);
+        }
+
+        /**
+         * @return tags of the 'TAG_GROUP' slots starting at the given slot - the tag of the first slot in the lowest byte
+         */
+        private long tagGroup(int slot)
+        {
+            long group = Uns.getLong(address, tagOffset + slot);
+            return BIG_ENDIAN ? Long.reverseBytes(group) : group;
+        }
+
+        /**
+         * @return the high bit of each byte that is zero
+         */
+        private static long zeroBytes(long x)
+        {
+            return ~(((x & LOWER_7_BITS) + LOWER_7_BITS) | x | LOWER_7_BITS);
+        }
+
+        /**
+         * Finds the next slot of the probe sequence of the given hash, whose tag matches the hash - or whose
+         * hash-value matches the hash, if there is no tag-table.
+         *
+         * @return probe distance of the slot, at least {@code dist}, or {@code -1} if the probe sequence ends before
+         */
+        int nextCandidate(long hash, int dist)
+        {
+            int home = bucketIndexForHash(hash);
+            if (tagOffset < 0L)
+            {
+                for (long off = slotOffset((home + dist) & mask); ; dist++, off = nextOffset(off))
+                {
+                    if (getEntryAdr(off) == 0L || probeLength(off) < dist)
+                        return -1;
+                    if (getHash(off) == hash)
+                        return dist;
+                }
+            }
+
+            long tags = tag(hash) * LOW_BITS;
+            while (true)
+            {
+                int slot = (home + dist) & mask;
+                long group = tagGroup(slot);
+                long matches = zeroBytes(group ^ tags);
+                long empty = ~group & HIGH_BITS;
+                if (empty != 0L)
+                    // the probe sequence ends at the first empty slot
+                    matches &= (empty & -empty) - 1L;
+                if (matches != 0L)
+                    return dist + (Long.numberOfTrailingZeros(matches) >>> 3);
+                if (empty != 0L)
+                    return -1;
+
+                // the probe sequence ends in this group, if the last slot holds a hash entry of a later home slot
+                int last = dist + Util.TAG_GROUP - 1;
+                long lastOff = slotOffset((home + last) & mask);
+                long lastAdr = getEntryAdr(lastOff);
+                if (lastAdr == 0L || probeLength(lastOff, HashEntries.getHash(lastAdr)) < last)
+                    return -1;
+                dist += Util.TAG_GROUP;
+            }
+        }
+
+        /**
+         * @return offset of the slot at the given probe distance for the given hash
+         */
+        long probeOffset(long hash, int dist)
+        {
+            return slotOffset((bucketIndexForHash(hash) + dist) & mask);
+        }
     }
 
-    private void addToLRU(long hashEntryAdr)
+    private boolean add(long hashEntryAdr, long hash, long replacedHashEntryAdr)
     {
-        if (table.addToLRU(hashEntryAdr))
-            lruCompactions++;
+        int probeLength = table.addToTable(hash, hashEntryAdr);
+        if (probeLength < 0)
+            return false;
+
+        if (replacedHashEntryAdr != 0L)
+            evictionPolicy.updated(table, hashEntryAdr, hash, replacedHashEntryAdr);
+        else
+            evictionPolicy.added(table, hashEntryAdr, hash);
+        scheduleExpiration(hashEntryAdr, hash);
+
+        // a long probe sequence below half of the load factor indicates poorly distributed hashes,
+        // which a larger hash table does not fix
+        if (probeLength > maxProbeLength && size >= threshold / 2)
+            rehash();
+        return true;
     }
 }
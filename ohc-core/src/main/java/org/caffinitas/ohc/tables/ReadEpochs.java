@@ -0,0 +1,152 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Two-epoch reader registry that protects memory accessed by optimistic (lock-free) readers of a segment.
+ * <p>
+ * Optimistic readers traverse the hash table without holding the segment lock. Hash entries and hash tables
+ * that are unlinked by a writer must therefore not be released while a reader may still access them.
+ * Writers <i>retire</i> unlinked memory into the current epoch. The epoch is flipped when the other epoch has
+ * no pending retirements and retired memory is released when no reader is registered in its epoch.
+ * </p>
+ * <p>
+ * {@link #enter()} and {@link #exit(int)} are called by readers without any lock. All other methods must only
+ * be called while holding the segment lock.
+ * </p>
+ */
+final class ReadEpochs
+{
+    // number of reader counters per epoch - reduces contention of concurrent readers
+    private static final int STRIPES = 8;
+    // distance in ints between two reader counters - one CPU cache line
+    private static final int PAD = 16;
+
+    private final AtomicIntegerArray readers = new AtomicIntegerArray(2 * STRIPES * PAD);
+    private volatile int epoch;
+
+    // hash entries still referenced by the map, per epoch
+    private final LongArrayList[] retiredEntries = { new LongArrayList(), new LongArrayList() };
+    // plain off-heap memory (old hash tables), per epoch
+    private final LongArrayList[] retiredMemory = { new LongArrayList(), new LongArrayList() };
+
+    /**
+     * Registers the current thread as a reader.
+     *
+     * @return reader slot, must be passed to {@link #exit(int)}
+     */
+    int enter()
+    {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        while (true)
+        {
+            int e = epoch;
+            int slot = (e * STRIPES + stripe) * PAD;
+            readers.incrementAndGet(slot);
+            if (epoch == e)
+                return slot;
+            // epoch flipped concurrently - retry with new epoch
+            readers.decrementAndGet(slot);
+        }
+    }
+
+    void exit(int slot)
+    {
+        readers.decrementAndGet(slot);
+    }
+
+    void retireEntry(long hashEntryAdr)
+    {
+        retiredEntries[epoch].add(hashEntryAdr);
+    }
+
+    void retireMemory(long address)
+    {
+        retiredMemory[epoch].add(address);
+    }
+
+    /**
+     * Releases retired off-heap memory that can no longer be accessed by readers and flips the epoch, if possible.
+     *
+     * @return hash entries to dereference after the segment lock has been released or {@code null}
+     */
+    LongArrayList reclaim()
+    {
+        LongArrayList derefList = null;
+
+        int current = epoch;
+        int previous = current ^ 1;
+
+        if (pending(previous))
+        {
+            if (hasReaders(previous))
+                return null;
+            derefList = release(previous, null);
+        }
+
+        if (pending(current))
+        {
+            epoch = previous;
+            if (!hasReaders(current))
+                derefList = release(current, derefList);
+        }
+
+        return derefList;
+    }
+
+    /**
+     * Releases all retired memory regardless of registered readers - used when the segment is released.
+     */
+    LongArrayList reclaimAll()
+    {
+        return release(1, release(0, null));
+    }
+
+    private boolean pending(int e)
+    {
+        return retiredEntries[e].size() > 0 || retiredMemory[e].size() > 0;
+    }
+
+    private boolean hasReaders(int e)
+    {
+        for (int stripe = 0; stripe < STRIPES; stripe++)
+            if (readers.get((e * STRIPES + stripe) * PAD) != 0)
+                return true;
+        return false;
+    }
+
+    private LongArrayList release(int e, LongArrayList derefList)
+    {
+        LongArrayList memory = retiredMemory[e];
+        for (int i = 0; i < memory.size(); i++)
+            Uns.free(memory.getLong(i));
+        memory.clear();
+
+        LongArrayList entries = retiredEntries[e];
+        if (entries.size() > 0)
+        {
+            if (derefList == null)
+                derefList = new LongArrayList();
+            for (int i = 0; i < entries.size(); i++)
+                derefList.add(entries.getLong(i));
+            entries.clear();
+        }
+
+        return derefList;
+    }
+}
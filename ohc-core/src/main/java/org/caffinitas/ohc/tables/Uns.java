@@ -18,6 +18,7 @@ package org.caffinitas.ohc.tables;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Map;
@@ -31,6 +32,7 @@ import org.slf4j.LoggerFactory;
 import org.caffinitas.ohc.OHCacheBuilder;
 import org.caffinitas.ohc.alloc.IAllocator;
 import org.caffinitas.ohc.alloc.JNANativeAllocator;
+import org.caffinitas.ohc.alloc.SlabAllocator;
 import org.caffinitas.ohc.alloc.UnsafeAllocator;
 import sun.misc.Unsafe;
 
@@ -169,6 +171,10 @@ final class Uns
                     alloc = new UnsafeAllocator();
                     LOGGER.info("OHC using sun.misc.Unsafe memory allocation");
                     break;
+                case "slab":
+                    alloc = new SlabAllocator();
+                    LOGGER.info("OHC using slab memory allocation");
+                    break;
                 case "jna":
                 default:
                     alloc = new JNANativeAllocator();
@@ -194,6 +200,13 @@ final class Uns
         return unsafe.getLong(array, (long) Unsafe.ARRAY_BYTE_BASE_OFFSET + offset);
     }
 
+    static void putLongToByteArray(byte[] array, int offset, long value)
+    {
+        if (offset < 0 || offset + 8 > array.length)
+            throw new ArrayIndexOutOfBoundsException();
+        unsafe.putLong(array, (long) Unsafe.ARRAY_BYTE_BASE_OFFSET + offset, value);
+    }
+
     static int getIntFromByteArray(byte[] array, int offset)
     {
         if (offset < 0 || offset + 4 > array.length)
@@ -330,6 +343,16 @@ final class Uns
         ext.getAndAddInt(address, offset, 1);
     }
 
+    static boolean hasLoadFence()
+    {
+        return ext.hasLoadFence();
+    }
+
+    static void loadFence()
+    {
+        ext.loadFence();
+    }
+
     static void copyMemory(long srcAddress, long srcOffset, long dstAddress, long dstOffset, long len)
     {
         validate(srcAddress, srcOffset, len);
@@ -349,6 +372,29 @@ final class Uns
         unsafe.copyMemory(null, srcAddress + srcOffset, arr, Unsafe.ARRAY_BYTE_BASE_OFFSET + off, len);
     }
 
+    /**
+     * Copies {@code len} bytes from the position of a direct or heap buffer without changing the buffer's position.
+     */
+    static void copyMemory(ByteBuffer buffer, long address, long offset, long len)
+    {
+        validate(address, offset, len);
+        if (len > buffer.remaining())
+            throw new BufferUnderflowException();
+        if (buffer.isDirect())
+            unsafe.copyMemory(null, unsafe.getLong(buffer, DIRECT_BYTE_BUFFER_ADDRESS_OFFSET) + buffer.position(),
+                              null, address + offset, len);
+        else if (buffer.hasArray())
+            unsafe.copyMemory(buffer.array(), Unsafe.ARRAY_BYTE_BASE_OFFSET + buffer.arrayOffset() + buffer.position(),
+                              null, address + offset, len);
+        else
+        {
+            // read-only heap buffer
+            byte[] arr = new byte[(int) len];
+            buffer.duplicate().get(arr);
+            copyMemory(arr, 0, address, offset, len);
+        }
+    }
+
     static void setMemory(long address, long offset, long len, byte val)
     {
         validate(address, offset, len);
@@ -417,6 +463,19 @@ final class Uns
         }
     }
 
+    /**
+     * Points an existing direct buffer, created by {@link #directBufferFor(long, long, long)}, to another memory
+     * region and clears it. Used to reuse buffer instances instead of allocating a new one for each access.
+     */
+    static void directBufferReset(ByteBuffer buffer, long address, long offset, long len)
+    {
+        if (len > Integer.MAX_VALUE || len < 0L || !buffer.isDirect())
+            throw new IllegalArgumentException();
+        unsafe.putLong(buffer, DIRECT_BYTE_BUFFER_ADDRESS_OFFSET, address + offset);
+        unsafe.putInt(buffer, DIRECT_BYTE_BUFFER_CAPACITY_OFFSET, (int) len);
+        buffer.clear();
+    }
+
     static ByteBuffer directBufferFor(long address, long offset, long len)
     {
         if (len > Integer.MAX_VALUE || len < 0L)
@@ -33,4 +33,8 @@ abstract class UnsExt
     abstract int getAndPutInt(long address, long offset, int value);
 
     abstract int getAndAddInt(long address, long offset, int value);
+
+    abstract boolean hasLoadFence();
+
+    abstract void loadFence();
 }
@@ -15,10 +15,31 @@
  */
 package org.caffinitas.ohc.tables;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
 import sun.misc.Unsafe;
 
 final class UnsExt7 extends UnsExt
 {
+    // sun.misc.Unsafe.loadFence() is only available since Java 8
+    private static final MethodHandle LOAD_FENCE;
+
+    static
+    {
+        MethodHandle mh;
+        try
+        {
+            mh = MethodHandles.lookup().findVirtual(Unsafe.class, "loadFence", MethodType.methodType(void.class));
+        }
+        catch (NoSuchMethodException | IllegalAccessException e)
+        {
+            mh = null;
+        }
+        LOAD_FENCE = mh;
+    }
+
     UnsExt7(Unsafe unsafe)
     {
         super(unsafe);
@@ -61,4 +82,25 @@ final class UnsExt7 extends UnsExt
                 return v;
         }
     }
+
+    boolean hasLoadFence()
+    {
+        return LOAD_FENCE != null;
+    }
+
+    void loadFence()
+    {
+        try
+        {
+            LOAD_FENCE.invokeExact(unsafe);
+        }
+        catch (RuntimeException | Error e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
 }
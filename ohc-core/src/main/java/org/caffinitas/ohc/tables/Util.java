@@ -18,6 +18,7 @@ package org.caffinitas.ohc.tables;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
 
 final class Util
@@ -28,29 +29,45 @@ final class Util
 
     // offset of entry reference counter
     static final long ENTRY_OFF_REFCOUNT = 0;
-    // offset of entry sentinel
+    // offset of entry sentinel (byte)
     static final long ENTRY_OFF_SENTINEL = 4;
-    // offset of serialized hash value
+    // offset of entry flags (byte)
+    static final long ENTRY_OFF_FLAGS = 5;
+    // offset of the LRU queue the entry is linked in (byte)
+    static final long ENTRY_OFF_LRU_QUEUE = 6;
+    // offset of the index in the LRU table (int)
     static final long ENTRY_OFF_LRU_INDEX = 8;
+    // offset of serialized value length (int)
+    static final long ENTRY_OFF_VALUE_LENGTH = 12;
+    // offset of time-to-live expiration timestamp (0 = does not expire)
+    static final long ENTRY_OFF_EXPIRE_AT = 16;
+    // offset of max-idle expiration timestamp (0 = does not expire)
+    static final long ENTRY_OFF_IDLE_EXPIRE_AT = 24;
     // offset of serialized hash value
-    static final long ENTRY_OFF_HASH = 16;
-    // offset of serialized value length
-    static final long ENTRY_OFF_VALUE_LENGTH = 24;
-    // offset of serialized hash key length
-    static final long ENTRY_OFF_KEY_LENGTH = 32;
-    // offset of data in first block
-    static final long ENTRY_OFF_DATA = 40;
-
-    // Note: keep ENTRY_OFF_HASH, ENTRY_OFF_KEY_LENGTH, ENTRY_OFF_VALUE_LENGTH in exact that order
-    // and together and at the end of the header because
-    // org.caffinitas.ohc.SegmentedCacheImpl.(de)serializeEntry relies on it!
+    static final long ENTRY_OFF_HASH = 32;
+    // offset of serialized hash key length (int)
+    static final long ENTRY_OFF_KEY_LENGTH = 40;
+    // offset of data in first block (4 bytes after the key length, so the key is 8 byte aligned for the
+    // key comparison) - the value immediately follows the key
+    static final long ENTRY_OFF_DATA = 48;
+
+    // Note: hash, value length and key length are not contiguous - OHCacheImpl.serializeEntry writes these explicitly
+
+// hash entry flags
+
+    // value is compressed - the value starts with the serialized length as an int, followed by the compressed bytes
+    static final int FLAG_COMPRESSED = 2;
 
 // Hash bucket-table
 
     // total memory required for a hash-partition
     static final long BUCKET_ENTRY_LEN = 16;
+    // total memory required for a hash-partition of a hash table with tags - without the hash value
+    static final long TAGGED_BUCKET_ENTRY_LEN = 8;
     // offset of serialized hash value
     static final long BUCKET_OFF_HASH = 8;
+    // number of tags (one byte per slot) matched at once
+    static final int TAG_GROUP = 8;
 
 // Compressed entries header
 
@@ -66,6 +83,22 @@ final class Util
     static final int HEADER_KEYS = 0x4f48434b;
     // 'OHCK' reversed
     static final int HEADER_KEYS_WRONG = 0x4b43484f;
+    // 'OHCS' - marker of a single entry
+    static final int HEADER_ENTRY = 0x4f484353;
+    // 'OHCS' reversed
+    static final int HEADER_ENTRY_WRONG = 0x5343484f;
+    // 'OHCM'
+    static final int HEADER_MANIFEST = 0x4f48434d;
+    // 'OHCM' reversed
+    static final int HEADER_MANIFEST_WRONG = 0x4d43484f;
+
+    // version 1: hash, value length and key length as longs, key padded to 8 bytes, value
+    // version 2: hash as long, value length and key length as ints, key, value
+    // (also the version of a single entry, which is written with a marker since version 2 - version 1 without marker)
+    static final int HEADER_ENTRIES_VERSION = 2;
+    static final int HEADER_KEYS_VERSION = 1;
+    // version 1: number of snapshot files, number of entries and size in bytes of each snapshot file
+    static final int HEADER_MANIFEST_VERSION = 1;
 
     static long roundUpTo8(long val)
     {
@@ -77,7 +110,24 @@ final class Util
 
     static long allocLen(long keyLen, long valueLen)
     {
-        return ENTRY_OFF_DATA + roundUpTo8(keyLen) + valueLen;
+        return ENTRY_OFF_DATA + keyLen + valueLen;
+    }
+
+    // serialized length of the keys of OHLongCacheImpl
+    static final long LONG_KEY_LEN = 8L;
+
+    /**
+     * Hash of a key of {@link OHLongCacheImpl}. The murmur3 finalizer is sufficient to spread the bits of a
+     * {@code long} key over the segments and hash table buckets.
+     */
+    static long longKeyHash(long key)
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
     }
 
     static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException
@@ -97,6 +147,28 @@ final class Util
         return true;
     }
 
+    static boolean skip(ReadableByteChannel channel, long len) throws IOException
+    {
+        if (channel instanceof SeekableByteChannel)
+        {
+            SeekableByteChannel sc = (SeekableByteChannel) channel;
+            sc.position(sc.position() + len);
+            return true;
+        }
+
+        ByteBuffer tmp = ByteBuffer.allocate(8192);
+        while (len > 0L)
+        {
+            tmp.clear();
+            if (len < tmp.capacity())
+                tmp.limit((int) len);
+            if (!readFully(channel, tmp))
+                return false;
+            len -= tmp.limit();
+        }
+        return true;
+    }
+
     static int bitNum(long val)
     {
         int bit = 0;
@@ -41,7 +41,7 @@ public class OHCacheBuilderTest
     public void testBucketLength() throws Exception
     {
         OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
-        Assert.assertEquals(builder.getBucketLength(), 8L);
+        Assert.assertEquals(builder.getBucketLength(), 64L);
         builder.bucketLength(12345);
         Assert.assertEquals(builder.getBucketLength(), 12345);
 
@@ -50,6 +50,19 @@ public class OHCacheBuilderTest
         Assert.assertEquals(builder.getBucketLength(), 98765);
     }
 
+    @Test
+    public void testProbeTags() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertFalse(builder.isProbeTags());
+        builder.probeTags(true);
+        Assert.assertTrue(builder.isProbeTags());
+
+        System.setProperty("org.caffinitas.ohc.probeTags", "true");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertTrue(builder.isProbeTags());
+    }
+
     @Test
     public void testCapacity() throws Exception
     {
@@ -122,6 +135,175 @@ public class OHCacheBuilderTest
         Assert.assertTrue(builder.isThrowOOME());
     }
 
+    @Test
+    public void testOptimisticReads() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertFalse(builder.isOptimisticReads());
+        builder.optimisticReads(true);
+        Assert.assertTrue(builder.isOptimisticReads());
+
+        System.setProperty("org.caffinitas.ohc.optimisticReads", "true");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertTrue(builder.isOptimisticReads());
+    }
+
+    @Test
+    public void testReadBufferSize() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getReadBufferSize(), 0);
+        builder.readBufferSize(64);
+        Assert.assertEquals(builder.getReadBufferSize(), 64);
+
+        System.setProperty("org.caffinitas.ohc.readBufferSize", "128");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getReadBufferSize(), 128);
+    }
+
+    @Test
+    public void testEviction() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertSame(builder.getEviction(), Eviction.LRU);
+        builder.eviction(Eviction.W_TINY_LFU);
+        Assert.assertSame(builder.getEviction(), Eviction.W_TINY_LFU);
+
+        System.setProperty("org.caffinitas.ohc.eviction", "W_TINY_LFU");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertSame(builder.getEviction(), Eviction.W_TINY_LFU);
+    }
+
+    @Test
+    public void testWindowSize() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getWindowSize(), .01f);
+        builder.windowSize(.2f);
+        Assert.assertEquals(builder.getWindowSize(), .2f);
+
+        System.setProperty("org.caffinitas.ohc.windowSize", ".05");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getWindowSize(), .05f);
+    }
+
+    @Test
+    public void testDefaultTTLmillis() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getDefaultTTLmillis(), 0L);
+        builder.defaultTTLmillis(12345);
+        Assert.assertEquals(builder.getDefaultTTLmillis(), 12345L);
+
+        System.setProperty("org.caffinitas.ohc.defaultTTLmillis", "98765");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getDefaultTTLmillis(), 98765L);
+    }
+
+    @Test
+    public void testMaxIdleMillis() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getMaxIdleMillis(), 0L);
+        builder.maxIdleMillis(12345);
+        Assert.assertEquals(builder.getMaxIdleMillis(), 12345L);
+
+        System.setProperty("org.caffinitas.ohc.maxIdleMillis", "98765");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getMaxIdleMillis(), 98765L);
+    }
+
+    @Test
+    public void testLogStructured() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertFalse(builder.isLogStructured());
+        builder.logStructured(true);
+        Assert.assertTrue(builder.isLogStructured());
+
+        System.setProperty("org.caffinitas.ohc.logStructured", "true");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertTrue(builder.isLogStructured());
+    }
+
+    @Test
+    public void testLogChunkSize() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getLogChunkSize(), 0L);
+        builder.logChunkSize(12345);
+        Assert.assertEquals(builder.getLogChunkSize(), 12345L);
+
+        System.setProperty("org.caffinitas.ohc.logChunkSize", "98765");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getLogChunkSize(), 98765L);
+    }
+
+    @Test
+    public void testStorageFile() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertNull(builder.getStorageFile());
+        builder.storageFile("/dev/shm/foo");
+        Assert.assertEquals(builder.getStorageFile(), "/dev/shm/foo");
+
+        System.setProperty("org.caffinitas.ohc.storageFile", "/tmp/bar");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getStorageFile(), "/tmp/bar");
+    }
+
+    @Test
+    public void testSpillFile() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertNull(builder.getSpillFile());
+        builder.spillFile("/mnt/ssd/foo");
+        Assert.assertEquals(builder.getSpillFile(), "/mnt/ssd/foo");
+
+        System.setProperty("org.caffinitas.ohc.spillFile", "/tmp/bar");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getSpillFile(), "/tmp/bar");
+    }
+
+    @Test
+    public void testSpillCapacity() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getSpillCapacity(), 0L);
+        builder.spillCapacity(12345L);
+        Assert.assertEquals(builder.getSpillCapacity(), 12345L);
+
+        System.setProperty("org.caffinitas.ohc.spillCapacity", "98765");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getSpillCapacity(), 98765L);
+    }
+
+    @Test
+    public void testCompression() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getCompression(), Compression.LZ4);
+        builder.compression(Compression.SNAPPY);
+        Assert.assertEquals(builder.getCompression(), Compression.SNAPPY);
+
+        System.setProperty("org.caffinitas.ohc.compression", "SNAPPY");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getCompression(), Compression.SNAPPY);
+    }
+
+    @Test
+    public void testCompressionThreshold() throws Exception
+    {
+        OHCacheBuilder<String, String> builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getCompressionThreshold(), 0);
+        builder.compressionThreshold(1024);
+        Assert.assertEquals(builder.getCompressionThreshold(), 1024);
+
+        System.setProperty("org.caffinitas.ohc.compressionThreshold", "4096");
+        builder = OHCacheBuilder.newBuilder();
+        Assert.assertEquals(builder.getCompressionThreshold(), 4096);
+    }
+
     @Test
     public void testExecutorService() throws Exception
     {
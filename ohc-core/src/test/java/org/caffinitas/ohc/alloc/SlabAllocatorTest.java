@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.caffinitas.ohc.alloc;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SlabAllocatorTest
+{
+    private static final long REGION = 1024 * 1024;
+
+    @Test
+    public void testSizeClasses()
+    {
+        long prev = 0L;
+        for (int c = 0; c < SlabAllocator.CLASSES; c++)
+        {
+            long size = SlabAllocator.classSize(c);
+            Assert.assertTrue(size > prev);
+            Assert.assertEquals(size % 8, 0L);
+            Assert.assertEquals(SlabAllocator.sizeClass(size), c);
+            Assert.assertEquals(SlabAllocator.sizeClass(prev + 1), c);
+            prev = size;
+        }
+        Assert.assertEquals(SlabAllocator.MAX_CLASS_SIZE, 256 * 1024);
+    }
+
+    @Test
+    public void testReuse()
+    {
+        SlabAllocator allocator = new SlabAllocator(1, REGION);
+        Assert.assertEquals(allocator.getTotalAllocated(), 0L);
+
+        long adr = allocator.allocate(100);
+        Assert.assertEquals(allocator.getTotalAllocated(), REGION);
+        UnsafeAllocator.unsafe.setMemory(adr, 100, (byte) 0xff);
+        allocator.free(adr);
+
+        // same size class is served from the free list
+        Assert.assertEquals(allocator.allocate(104), adr);
+        Assert.assertEquals(allocator.getTotalAllocated(), REGION);
+
+        // other size class is carved from its own region
+        long other = allocator.allocate(1000);
+        Assert.assertNotEquals(other, adr);
+        Assert.assertEquals(allocator.getTotalAllocated(), 2 * REGION);
+
+        // one empty region is kept, the other one is returned to the OS
+        allocator.free(other);
+        Assert.assertEquals(allocator.getTotalAllocated(), 2 * REGION);
+        allocator.free(adr);
+        Assert.assertEquals(allocator.getTotalAllocated(), REGION);
+    }
+
+    @Test
+    public void testRegions()
+    {
+        SlabAllocator allocator = new SlabAllocator(1, REGION);
+
+        Set<Long> addresses = new HashSet<>();
+        for (int i = 0; i < 3000; i++)
+            Assert.assertTrue(addresses.add(allocator.allocate(1000)));
+        Assert.assertEquals(allocator.getTotalAllocated(), 3 * REGION);
+
+        // empty regions are returned to the OS
+        for (long adr : addresses)
+            allocator.free(adr);
+        Assert.assertEquals(allocator.getTotalAllocated(), REGION);
+
+        addresses.clear();
+        for (int i = 0; i < 3000; i++)
+            Assert.assertTrue(addresses.add(allocator.allocate(1000)));
+        Assert.assertEquals(allocator.getTotalAllocated(), 3 * REGION);
+        for (long adr : addresses)
+            allocator.free(adr);
+    }
+
+    @Test
+    public void testRebalance()
+    {
+        SlabAllocator allocator = new SlabAllocator(1, REGION);
+
+        Set<Long> addresses = new HashSet<>();
+        for (int i = 0; i < 5000; i++)
+            addresses.add(allocator.allocate(100));
+        Assert.assertEquals(allocator.getTotalAllocated(), REGION);
+        for (long adr : addresses)
+            allocator.free(adr);
+
+        // the region freed by one size class is reused by another one
+        long adr = allocator.allocate(1000);
+        Assert.assertEquals(allocator.getTotalAllocated(), REGION);
+        allocator.free(adr);
+        Assert.assertEquals(allocator.getTotalAllocated(), REGION);
+    }
+
+    @Test
+    public void testLarge()
+    {
+        SlabAllocator allocator = new SlabAllocator(1, REGION);
+
+        long adr = allocator.allocate(SlabAllocator.MAX_CLASS_SIZE);
+        Assert.assertEquals(allocator.getTotalAllocated(), SlabAllocator.MAX_CLASS_SIZE + 8);
+        UnsafeAllocator.unsafe.setMemory(adr, SlabAllocator.MAX_CLASS_SIZE, (byte) 0xff);
+        allocator.free(adr);
+        Assert.assertEquals(allocator.getTotalAllocated(), 0L);
+    }
+
+    @Test
+    public void testConcurrent() throws Exception
+    {
+        final SlabAllocator allocator = new SlabAllocator(4, REGION);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++)
+        {
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        ThreadLocalRandom rand = ThreadLocalRandom.current();
+                        long[] adrs = new long[256];
+                        long[] sizes = new long[256];
+                        for (int i = 0; i < 100000; i++)
+                        {
+                            int slot = rand.nextInt(adrs.length);
+                            if (adrs[slot] != 0L)
+                            {
+                                for (long off = 0; off < sizes[slot]; off += 8)
+                                    Assert.assertEquals(UnsafeAllocator.unsafe.getLong(adrs[slot] + off), adrs[slot]);
+                                allocator.free(adrs[slot]);
+                            }
+                            long size = 8 * (1 + rand.nextInt(512));
+                            long adr = allocator.allocate(size);
+                            for (long off = 0; off < size; off += 8)
+                                UnsafeAllocator.unsafe.putLong(adr + off, adr);
+                            adrs[slot] = adr;
+                            sizes[slot] = size;
+                        }
+                        for (long adr : adrs)
+                            if (adr != 0L)
+                                allocator.free(adr);
+                    }
+                    catch (Throwable e)
+                    {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.caffinitas.ohc.BulkCacheLoader;
+import org.caffinitas.ohc.CacheLoader;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.caffinitas.ohc.PermanentLoadException;
+import org.caffinitas.ohc.TemporaryLoadException;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BulkCacheLoaderTest
+{
+    private ScheduledThreadPoolExecutor executorService;
+
+    @BeforeMethod
+    public void init()
+    {
+        executorService = new ScheduledThreadPoolExecutor(3);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deinit() throws InterruptedException
+    {
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+        Uns.clearUnsDebugForTest();
+    }
+
+    private OHCache<Integer, String> cache(long bulkLoadWindowMicros, int bulkLoadBatchSize)
+    {
+        return OHCacheBuilder.<Integer, String>newBuilder()
+                             .keySerializer(TestUtils.intSerializer)
+                             .valueSerializer(TestUtils.stringSerializer)
+                             .executorService(executorService)
+                             .bulkLoadWindowMicros(bulkLoadWindowMicros)
+                             .bulkLoadBatchSize(bulkLoadBatchSize)
+                             .build();
+    }
+
+    /**
+     * Records the keys of each bulk load and the number of single key loads.
+     */
+    static class RecordingLoader implements BulkCacheLoader<Integer, String>
+    {
+        final List<Set<Integer>> bulkLoads = Collections.synchronizedList(new ArrayList<Set<Integer>>());
+        final AtomicInteger loads = new AtomicInteger();
+        // keys without a value
+        final Set<Integer> missing = new HashSet<>();
+        volatile boolean permFail;
+
+        public Map<Integer, String> loadAll(Set<Integer> keys) throws Exception
+        {
+            bulkLoads.add(new HashSet<>(keys));
+            if (permFail)
+                throw new PermanentLoadException("bar");
+            Map<Integer, String> values = new HashMap<>();
+            for (Integer key : keys)
+                if (!missing.contains(key))
+                    values.put(key, key.toString());
+            return values;
+        }
+
+        public String load(Integer key) throws Exception
+        {
+            loads.incrementAndGet();
+            return key.toString();
+        }
+    }
+
+    private static Set<Integer> keys(Integer... keys)
+    {
+        return new HashSet<>(Arrays.asList(keys));
+    }
+
+    @Test
+    public void testGetAllWithLoader() throws Exception
+    {
+        try (OHCache<Integer, String> cache = cache(0L, 100))
+        {
+            cache.put(1, "one");
+
+            RecordingLoader loader = new RecordingLoader();
+            Map<Integer, String> values = cache.getAllWithLoader(Arrays.asList(1, 2, 3, 2), loader);
+
+            Map<Integer, String> expected = new HashMap<>();
+            expected.put(1, "one");
+            expected.put(2, "2");
+            expected.put(3, "3");
+            Assert.assertEquals(values, expected);
+            Assert.assertEquals(loader.bulkLoads, Collections.singletonList(keys(2, 3)));
+            Assert.assertEquals(loader.loads.get(), 0);
+
+            Assert.assertEquals(cache.get(2), "2");
+            Assert.assertEquals(cache.get(3), "3");
+
+            // everything present
+            Assert.assertEquals(cache.getAllWithLoader(Arrays.asList(1, 2, 3), loader), expected);
+            Assert.assertEquals(loader.bulkLoads.size(), 1);
+        }
+    }
+
+    @Test
+    public void testGetAllWithLoaderMissingValue() throws Exception
+    {
+        try (OHCache<Integer, String> cache = cache(0L, 100))
+        {
+            RecordingLoader loader = new RecordingLoader();
+            loader.missing.add(2);
+            try
+            {
+                cache.getAllWithLoader(Arrays.asList(1, 2, 3), loader);
+                Assert.fail();
+            }
+            catch (ExecutionException e)
+            {
+                Assert.assertEquals(e.getCause().getClass(), TemporaryLoadException.class);
+            }
+
+            Assert.assertEquals(cache.get(1), "1");
+            Assert.assertNull(cache.get(2));
+            Assert.assertEquals(cache.get(3), "3");
+            Assert.assertEquals(cache.size(), 2);
+
+            // the failed key is loaded again
+            loader.missing.clear();
+            Assert.assertEquals(cache.getWithLoader(2, loader), "2");
+        }
+    }
+
+    @Test
+    public void testGetAllWithLoaderPermFail() throws Exception
+    {
+        try (OHCache<Integer, String> cache = cache(0L, 100))
+        {
+            RecordingLoader loader = new RecordingLoader();
+            loader.permFail = true;
+            try
+            {
+                cache.getAllWithLoader(Arrays.asList(1, 2), loader);
+                Assert.fail();
+            }
+            catch (ExecutionException e)
+            {
+                Assert.assertEquals(e.getCause().getClass(), PermanentLoadException.class);
+            }
+
+            // the permanent failure is kept for each key
+            try
+            {
+                cache.getWithLoader(2, loader);
+                Assert.fail();
+            }
+            catch (ExecutionException e)
+            {
+                Assert.assertEquals(e.getCause().getClass(), PermanentLoadException.class);
+            }
+            Assert.assertEquals(loader.bulkLoads.size(), 1);
+            Assert.assertEquals(loader.loads.get(), 0);
+        }
+    }
+
+    @Test
+    public void testGetAllWithLoaderAwaitsLoadsInFlight() throws Exception
+    {
+        try (OHCache<Integer, String> cache = cache(0L, 100))
+        {
+            final CountDownLatch latch = new CountDownLatch(1);
+            Future<String> f1 = cache.getWithLoaderAsync(1, new CacheLoader<Integer, String>()
+            {
+                public String load(Integer key) throws Exception
+                {
+                    latch.await();
+                    return "one";
+                }
+            });
+
+            RecordingLoader loader = new RecordingLoader();
+            Future<Map<Integer, String>> all = cache.getAllWithLoaderAsync(Arrays.asList(1, 2), loader);
+
+            // key 1 is being loaded, so only key 2 is loaded in bulk
+            Assert.assertEquals(cache.getWithLoader(2, loader), "2");
+            Assert.assertFalse(all.isDone());
+
+            latch.countDown();
+            Assert.assertEquals(f1.get(5, TimeUnit.SECONDS), "one");
+            Map<Integer, String> values = all.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(values.get(1), "one");
+            Assert.assertEquals(values.get(2), "2");
+            Assert.assertEquals(loader.bulkLoads, Collections.singletonList(keys(2)));
+        }
+    }
+
+    @Test
+    public void testCoalesceMisses() throws Exception
+    {
+        // 100ms window
+        try (OHCache<Integer, String> cache = cache(100000L, 100))
+        {
+            RecordingLoader loader = new RecordingLoader();
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++)
+                futures.add(cache.getWithLoaderAsync(i, loader));
+            // adjacent request for a key in the pending bulk load
+            futures.add(cache.getWithLoaderAsync(3, loader));
+
+            for (int i = 0; i < 10; i++)
+                Assert.assertEquals(futures.get(i).get(5, TimeUnit.SECONDS), Integer.toString(i));
+            Assert.assertEquals(futures.get(10).get(5, TimeUnit.SECONDS), "3");
+
+            Assert.assertEquals(loader.bulkLoads, Collections.singletonList(keys(0, 1, 2, 3, 4, 5, 6, 7, 8, 9)));
+            Assert.assertEquals(loader.loads.get(), 0);
+            Assert.assertEquals(cache.size(), 10);
+        }
+    }
+
+    @Test
+    public void testCoalesceBatchSize() throws Exception
+    {
+        // 100s window, bulk loads start when 4 keys have been collected
+        try (OHCache<Integer, String> cache = cache(100000000L, 4))
+        {
+            RecordingLoader loader = new RecordingLoader();
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+                futures.add(cache.getWithLoaderAsync(i, loader));
+
+            for (int i = 0; i < 8; i++)
+                Assert.assertEquals(futures.get(i).get(5, TimeUnit.SECONDS), Integer.toString(i));
+
+            Assert.assertEquals(loader.bulkLoads.size(), 2);
+            Assert.assertTrue(loader.bulkLoads.contains(keys(0, 1, 2, 3)));
+            Assert.assertTrue(loader.bulkLoads.contains(keys(4, 5, 6, 7)));
+            Assert.assertEquals(loader.loads.get(), 0);
+        }
+    }
+
+    @Test
+    public void testNoCoalescing() throws Exception
+    {
+        try (OHCache<Integer, String> cache = cache(0L, 100))
+        {
+            RecordingLoader loader = new RecordingLoader();
+            for (int i = 0; i < 3; i++)
+                Assert.assertEquals(cache.getWithLoader(i, loader), Integer.toString(i));
+
+            Assert.assertTrue(loader.bulkLoads.isEmpty());
+            Assert.assertEquals(loader.loads.get(), 3);
+        }
+    }
+}
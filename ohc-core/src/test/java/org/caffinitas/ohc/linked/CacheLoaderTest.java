@@ -1,17 +1,23 @@
 package org.caffinitas.ohc.linked;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.caffinitas.ohc.CacheLoader;
 import org.caffinitas.ohc.OHCache;
 import org.caffinitas.ohc.OHCacheBuilder;
 import org.caffinitas.ohc.PermanentLoadException;
+import org.caffinitas.ohc.TemporaryLoadException;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.Test;
@@ -393,4 +399,114 @@ public class CacheLoaderTest
         }
     }
 
+    @Test
+    public void testGetWithLoaderAsyncWaiters() throws Exception
+    {
+        ScheduledThreadPoolExecutor executorService = new ScheduledThreadPoolExecutor(1);
+        try
+        {
+            try (OHCache<Integer, String> cache = OHCacheBuilder.<Integer, String>newBuilder()
+                                                                .keySerializer(TestUtils.intSerializer)
+                                                                .valueSerializer(TestUtils.stringSerializer)
+                                                                .executorService(executorService)
+                                                                .build())
+            {
+                final CountDownLatch latch = new CountDownLatch(1);
+                final AtomicInteger loads = new AtomicInteger();
+                CacheLoader<Integer, String> blockingLoader = new CacheLoader<Integer, String>()
+                {
+                    public String load(Integer key) throws Exception
+                    {
+                        loads.incrementAndGet();
+                        latch.await();
+                        return key.toString();
+                    }
+                };
+
+                Future<String> f1;
+                List<Future<String>> waiters = new ArrayList<>();
+                try
+                {
+                    f1 = cache.getWithLoaderAsync(1, blockingLoader);
+                    for (int i = 0; i < 100; i++)
+                        waiters.add(cache.getWithLoaderAsync(1, blockingLoader));
+
+                    // waiters are completed when the load completes
+                    Thread.sleep(100L);
+                    Assert.assertFalse(f1.isDone());
+                    for (Future<String> waiter : waiters)
+                        Assert.assertFalse(waiter.isDone());
+                }
+                finally
+                {
+                    latch.countDown();
+                }
+
+                Assert.assertEquals(f1.get(5, TimeUnit.SECONDS), "1");
+                for (Future<String> waiter : waiters)
+                    Assert.assertEquals(waiter.get(5, TimeUnit.SECONDS), "1");
+                Assert.assertEquals(loads.get(), 1);
+            }
+        }
+        finally
+        {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testGetWithLoaderAsyncWaitersTempFail() throws Exception
+    {
+        ScheduledThreadPoolExecutor executorService = new ScheduledThreadPoolExecutor(1);
+        try
+        {
+            try (OHCache<Integer, String> cache = OHCacheBuilder.<Integer, String>newBuilder()
+                                                                .keySerializer(TestUtils.intSerializer)
+                                                                .valueSerializer(TestUtils.stringSerializer)
+                                                                .executorService(executorService)
+                                                                .build())
+            {
+                final CountDownLatch latch = new CountDownLatch(1);
+                CacheLoader<Integer, String> blockingLoader = new CacheLoader<Integer, String>()
+                {
+                    public String load(Integer key) throws Exception
+                    {
+                        latch.await();
+                        throw new Exception("foo");
+                    }
+                };
+
+                Future<String> f1 = cache.getWithLoaderAsync(1, blockingLoader);
+                Future<String> f2 = cache.getWithLoaderAsync(1, loader);
+
+                latch.countDown();
+
+                try
+                {
+                    f1.get(5, TimeUnit.SECONDS);
+                    Assert.fail();
+                }
+                catch (ExecutionException e)
+                {
+                    Assert.assertEquals(e.getCause().getMessage(), "foo");
+                }
+                try
+                {
+                    f2.get(5, TimeUnit.SECONDS);
+                    Assert.fail();
+                }
+                catch (ExecutionException e)
+                {
+                    Assert.assertTrue(e.getCause() instanceof TemporaryLoadException);
+                }
+
+                // the failed load is not cached
+                Assert.assertEquals(cache.getWithLoader(1, loader, 5, TimeUnit.SECONDS), "1");
+            }
+        }
+        finally
+        {
+            executorService.shutdown();
+        }
+    }
 }
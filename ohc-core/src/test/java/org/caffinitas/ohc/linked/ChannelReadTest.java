@@ -0,0 +1,234 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Strings;
+
+import org.caffinitas.ohc.DirectValueAccess;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class ChannelReadTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    private static OHCacheBuilder<Integer, String> builder()
+    {
+        return OHCacheBuilder.<Integer, String>newBuilder()
+                             .keySerializer(TestUtils.intSerializer)
+                             .valueSerializer(TestUtils.stringSerializer)
+                             .type(OHCacheImpl.class);
+    }
+
+    /**
+     * Serialized form of a value as stored by the cache.
+     */
+    private static byte[] serialized(String value) throws IOException
+    {
+        try (OHCache<Integer, String> cache = builder().build())
+        {
+            cache.put(0, value);
+            try (DirectValueAccess direct = cache.getDirect(0))
+            {
+                ByteBuffer buffer = direct.buffer();
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                return bytes;
+            }
+        }
+    }
+
+    @Test
+    public void testPutFrom() throws IOException
+    {
+        try (OHCache<Integer, String> cache = builder().build())
+        {
+            for (int i = 0; i < 100; i++)
+            {
+                String value = Strings.repeat("value " + i + ' ', 1 + i % 20);
+                byte[] bytes = serialized(value);
+                Assert.assertTrue(cache.putFrom(i, new SlowChannel(bytes, 1 + i % 10, false), bytes.length));
+                Assert.assertEquals(cache.get(i), value);
+            }
+            Assert.assertEquals(cache.size(), 100L);
+
+            // replaces existing entries
+            byte[] bytes = serialized("other");
+            Assert.assertTrue(cache.putFrom(1, new SlowChannel(bytes, 100, false), bytes.length));
+            Assert.assertEquals(cache.get(1), "other");
+            Assert.assertEquals(cache.size(), 100L);
+        }
+    }
+
+    @Test
+    public void testPutFromEOF() throws IOException
+    {
+        try (OHCache<Integer, String> cache = builder().build())
+        {
+            cache.put(1, "one");
+
+            byte[] bytes = serialized("two");
+            try
+            {
+                cache.putFrom(1, new SlowChannel(bytes, 2, false), bytes.length + 10);
+                Assert.fail();
+            }
+            catch (EOFException e)
+            {
+                // expected
+            }
+            Assert.assertEquals(cache.get(1), "one");
+
+            try
+            {
+                cache.putFrom(2, new SlowChannel(bytes, 2, false), bytes.length + 10);
+                Assert.fail();
+            }
+            catch (EOFException e)
+            {
+                // expected
+            }
+            Assert.assertNull(cache.get(2));
+            Assert.assertEquals(cache.size(), 1L);
+        }
+    }
+
+    @Test
+    public void testPutFromFailure() throws IOException
+    {
+        try (OHCache<Integer, String> cache = builder().build())
+        {
+            cache.put(1, "one");
+
+            byte[] bytes = serialized("two");
+            try
+            {
+                cache.putFrom(1, new SlowChannel(bytes, 2, true), bytes.length);
+                Assert.fail();
+            }
+            catch (IOException e)
+            {
+                Assert.assertEquals(e.getMessage(), "failed");
+            }
+            Assert.assertEquals(cache.get(1), "one");
+            Assert.assertEquals(cache.size(), 1L);
+        }
+    }
+
+    @Test
+    public void testPutFromTooLarge() throws IOException
+    {
+        try (OHCache<Integer, String> cache = builder().maxEntrySize(2048).build())
+        {
+            cache.put(1, "one");
+
+            byte[] bytes = serialized(Strings.repeat("x", 4000));
+            Assert.assertFalse(cache.putFrom(1, new SlowChannel(bytes, 100, false), bytes.length));
+            Assert.assertNull(cache.get(1));
+            Assert.assertEquals(cache.stats().getPutFailCount(), 1L);
+        }
+    }
+
+    @Test
+    public void testPutFromAsync() throws Exception
+    {
+        ScheduledExecutorService executorService = Executors.newScheduledThreadPool(1);
+        try
+        {
+            try (OHCache<Integer, String> cache = builder().executorService(executorService).build())
+            {
+                byte[] bytes = serialized("async");
+                Future<Boolean> f = cache.putFromAsync(1, new SlowChannel(bytes, 3, false), bytes.length);
+                Assert.assertTrue(f.get(10, TimeUnit.SECONDS));
+                Assert.assertEquals(cache.get(1), "async");
+
+                f = cache.putFromAsync(2, new SlowChannel(bytes, 3, false), bytes.length + 1);
+                try
+                {
+                    f.get(10, TimeUnit.SECONDS);
+                    Assert.fail();
+                }
+                catch (ExecutionException e)
+                {
+                    Assert.assertTrue(e.getCause() instanceof EOFException);
+                }
+                Assert.assertNull(cache.get(2));
+            }
+        }
+        finally
+        {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Returns at most {@code maxRead} bytes per read, optionally fails after the first read.
+     */
+    static final class SlowChannel implements ReadableByteChannel
+    {
+        private final ByteBuffer data;
+        private final int maxRead;
+        private final boolean fail;
+        private int reads;
+
+        SlowChannel(byte[] data, int maxRead, boolean fail)
+        {
+            this.data = ByteBuffer.wrap(data);
+            this.maxRead = maxRead;
+            this.fail = fail;
+        }
+
+        public int read(ByteBuffer dst) throws IOException
+        {
+            if (fail && reads++ > 0)
+                throw new IOException("failed");
+            if (!data.hasRemaining())
+                return -1;
+            int n = Math.min(Math.min(maxRead, data.remaining()), dst.remaining());
+            ByteBuffer src = data.duplicate();
+            src.limit(src.position() + n);
+            dst.put(src);
+            data.position(data.position() + n);
+            return n;
+        }
+
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        public void close()
+        {
+        }
+    }
+}
@@ -15,16 +15,20 @@
  */
 package org.caffinitas.ohc.linked;
 
+import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -33,6 +37,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
 
+import org.caffinitas.ohc.BulkCacheLoader;
 import org.caffinitas.ohc.CacheLoader;
 import org.caffinitas.ohc.CacheSerializer;
 import org.caffinitas.ohc.DirectValueAccess;
@@ -157,6 +162,11 @@ final class CheckOHCacheImpl<K, V> implements OHCache<K, V>
             map.clear();
     }
 
+    public void put(K key, V value, long ttl, TimeUnit unit)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     public DirectValueAccess getDirect(K key)
     {
         throw new UnsupportedOperationException();
@@ -167,6 +177,58 @@ final class CheckOHCacheImpl<K, V> implements OHCache<K, V>
         throw new UnsupportedOperationException();
     }
 
+    public Map<K, V> getAll(Iterable<K> keys)
+    {
+        Map<K, V> r = new HashMap<>();
+        for (K key : keys)
+        {
+            V value = get(key);
+            if (value != null)
+                r.put(key, value);
+        }
+        return r;
+    }
+
+    public Map<K, DirectValueAccess> getAllDirect(Iterable<K> keys)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public void putRaw(ByteBuffer key, ByteBuffer value)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public DirectValueAccess getRaw(ByteBuffer key)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public void removeRaw(ByteBuffer key)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean getTo(K key, WritableByteChannel channel)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public int getAllTo(Iterable<K> keys, GatheringByteChannel channel)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean putFrom(K key, ReadableByteChannel channel, long valueLen)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public Future<Boolean> putFromAsync(K key, ReadableByteChannel channel, long valueLen)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     public V get(K key)
     {
         KeyBuffer keyBuffer = keySource(key);
@@ -208,6 +270,16 @@ final class CheckOHCacheImpl<K, V> implements OHCache<K, V>
         throw new UnsupportedOperationException();
     }
 
+    public Map<K, V> getAllWithLoader(Iterable<K> keys, BulkCacheLoader<K, V> loader) throws InterruptedException, ExecutionException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public Future<Map<K, V>> getAllWithLoaderAsync(Iterable<K> keys, BulkCacheLoader<K, V> loader)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     public CloseableIterator<K> hotKeyIterator(int n)
     {
         return new AbstractHotKeyIter<K>(n)
@@ -396,6 +468,16 @@ final class CheckOHCacheImpl<K, V> implements OHCache<K, V>
         throw new UnsupportedOperationException();
     }
 
+    public long snapshot(File directory, ExecutorService executor) throws IOException, InterruptedException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public long restoreSnapshot(File directory, ExecutorService executor) throws IOException, InterruptedException
+    {
+        throw new UnsupportedOperationException();
+    }
+
     public void resetStatistics()
     {
         for (CheckSegment map : maps)
@@ -471,6 +553,15 @@ final class CheckOHCacheImpl<K, V> implements OHCache<K, V>
                                putFailCount,
                                removeCount(),
                                memUsed(),
+                               0L,
+                               0L,
+                               0L,
+                               0L,
+                               0L,
+                               0L,
+                               0L,
+                               0L,
+                               0L,
                                0L
         );
     }
@@ -0,0 +1,213 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Random;
+
+import org.caffinitas.ohc.Compression;
+import org.caffinitas.ohc.DirectValueAccess;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.caffinitas.ohc.OHCacheStats;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class CompressionTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    @DataProvider(name = "compression")
+    public Object[][] compression()
+    {
+        return new Object[][]{ { Compression.LZ4 }, { Compression.SNAPPY } };
+    }
+
+    private static OHCache<Integer, String> cache(Compression compression, int threshold)
+    {
+        return OHCacheBuilder.<Integer, String>newBuilder()
+                             .keySerializer(TestUtils.intSerializer)
+                             .valueSerializer(TestUtils.stringSerializer)
+                             .capacity(64L * 1024 * 1024)
+                             .compression(compression)
+                             .compressionThreshold(threshold)
+                             .build();
+    }
+
+    private static String value(int i)
+    {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 2000)
+            sb.append("value-").append(i).append('-');
+        return sb.toString();
+    }
+
+    @Test(dataProvider = "compression")
+    public void testPutGet(Compression compression) throws IOException
+    {
+        try (OHCache<Integer, String> cache = cache(compression, 256))
+        {
+            long serialized = 0L;
+            for (int i = 0; i < 1000; i++)
+            {
+                cache.put(i, value(i));
+                serialized += TestUtils.stringSerializer.serializedSize(value(i));
+            }
+            cache.put(-1, "small");
+
+            for (int i = 0; i < 1000; i++)
+                Assert.assertEquals(cache.get(i), value(i));
+            Assert.assertEquals(cache.get(-1), "small");
+
+            OHCacheStats stats = cache.stats();
+            Assert.assertEquals(stats.getCompressionInputBytes(), serialized);
+            Assert.assertTrue(stats.getCompressionRatio() < .5d, stats.toString());
+
+            for (int i = 0; i < 1000; i += 2)
+                cache.remove(i);
+            for (int i = 0; i < 1000; i++)
+                if (i % 2 == 0)
+                    Assert.assertNull(cache.get(i));
+                else
+                    Assert.assertEquals(cache.get(i), value(i));
+        }
+    }
+
+    @Test(dataProvider = "compression")
+    public void testMemoryUsage(Compression compression) throws IOException
+    {
+        long uncompressed;
+        try (OHCache<Integer, String> cache = cache(compression, 0))
+        {
+            for (int i = 0; i < 1000; i++)
+                cache.put(i, value(i));
+            uncompressed = cache.memUsed();
+        }
+        try (OHCache<Integer, String> cache = cache(compression, 256))
+        {
+            for (int i = 0; i < 1000; i++)
+                cache.put(i, value(i));
+            Assert.assertTrue(cache.memUsed() < uncompressed / 2);
+        }
+    }
+
+    @Test(dataProvider = "compression")
+    public void testIncompressible(Compression compression) throws IOException
+    {
+        Random r = new Random();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            sb.append((char) (0x100 + r.nextInt(0x700)));
+        String v = sb.toString();
+
+        try (OHCache<Integer, String> cache = cache(compression, 256))
+        {
+            cache.put(1, v);
+            Assert.assertEquals(cache.get(1), v);
+
+            // stored uncompressed
+            OHCacheStats stats = cache.stats();
+            Assert.assertEquals(stats.getCompressionOutputBytes(), stats.getCompressionInputBytes());
+            Assert.assertEquals(stats.getCompressionRatio(), 1d);
+        }
+    }
+
+    @Test(dataProvider = "compression")
+    public void testAddOrReplace(Compression compression) throws IOException
+    {
+        try (OHCache<Integer, String> cache = cache(compression, 256))
+        {
+            cache.put(1, value(1));
+            Assert.assertFalse(cache.addOrReplace(1, value(2), value(3)));
+            Assert.assertEquals(cache.get(1), value(1));
+            Assert.assertTrue(cache.addOrReplace(1, value(1), value(3)));
+            Assert.assertEquals(cache.get(1), value(3));
+            Assert.assertFalse(cache.putIfAbsent(1, value(4)));
+            Assert.assertEquals(cache.get(1), value(3));
+        }
+    }
+
+    @Test(dataProvider = "compression")
+    public void testGetDirect(Compression compression) throws IOException
+    {
+        byte[] expected;
+        try (OHCache<Integer, String> cache = cache(compression, 0))
+        {
+            cache.put(1, value(1));
+            try (DirectValueAccess direct = cache.getDirect(1))
+            {
+                expected = new byte[direct.buffer().remaining()];
+                direct.buffer().get(expected);
+            }
+        }
+
+        try (OHCache<Integer, String> cache = cache(compression, 256))
+        {
+            cache.put(1, value(1));
+            DirectValueAccess direct = cache.getDirect(1);
+            ByteBuffer buffer = direct.buffer();
+            byte[] arr = new byte[buffer.remaining()];
+            buffer.get(arr);
+            Assert.assertEquals(arr, expected);
+
+            // the copy stays valid while the entry is removed
+            cache.remove(1);
+            direct.close();
+        }
+    }
+
+    @Test(dataProvider = "compression")
+    public void testSerializeEntries(Compression compression) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OHCache<Integer, String> cache = cache(compression, 256))
+        {
+            for (int i = 0; i < 100; i++)
+                cache.put(i, value(i));
+
+            try (WritableByteChannel ch = Channels.newChannel(out))
+            {
+                Assert.assertEquals(cache.serializeHotNEntries(1000, ch), 100);
+            }
+        }
+
+        // entries are serialized uncompressed
+        for (int threshold : new int[]{ 0, 256 })
+            try (OHCache<Integer, String> cache = cache(compression, threshold))
+            {
+                try (ReadableByteChannel ch = Channels.newChannel(new ByteArrayInputStream(out.toByteArray())))
+                {
+                    Assert.assertEquals(cache.deserializeEntries(ch), 100);
+                }
+
+                for (int i = 0; i < 100; i++)
+                    Assert.assertEquals(cache.get(i), value(i));
+                Assert.assertEquals(cache.stats().getCompressionInputBytes() > 0L, threshold > 0);
+            }
+    }
+}
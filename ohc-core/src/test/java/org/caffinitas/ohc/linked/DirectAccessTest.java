@@ -17,6 +17,9 @@ package org.caffinitas.ohc.linked;
 
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import org.caffinitas.ohc.DirectValueAccess;
 import org.caffinitas.ohc.OHCache;
@@ -85,4 +88,42 @@ public class DirectAccessTest
             }
         }
     }
+
+    @Test
+    public void testGetAllDirect() throws Exception
+    {
+        try (OHCache<Integer, String> cache = OHCacheBuilder.<Integer, String>newBuilder()
+                                                            .keySerializer(TestUtils.intSerializer)
+                                                            .valueSerializer(TestUtils.stringSerializer)
+                                                            .capacity(64 * 1024 * 1024)
+                                                            .build())
+        {
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 0; i < 100; i++)
+            {
+                keys.add(i);
+                if ((i & 1) == 0)
+                    continue;
+                try (DirectValueAccess direct = cache.putDirect(i, i + 10))
+                {
+                    for (int c = 0; c < i + 10; c++)
+                        direct.buffer().put((byte) i);
+                }
+            }
+
+            Map<Integer, DirectValueAccess> values = cache.getAllDirect(keys);
+            Assert.assertEquals(values.size(), 50);
+            for (Map.Entry<Integer, DirectValueAccess> entry : values.entrySet())
+            {
+                int i = entry.getKey();
+                try (DirectValueAccess direct = entry.getValue())
+                {
+                    Assert.assertEquals(i & 1, 1);
+                    Assert.assertEquals(direct.buffer().limit(), i + 10);
+                    for (int c = 0; c < i + 10; c++)
+                        Assert.assertEquals(direct.buffer().get(), i);
+                }
+            }
+        }
+    }
 }
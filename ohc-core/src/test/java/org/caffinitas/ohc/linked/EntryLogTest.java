@@ -0,0 +1,171 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.caffinitas.ohc.DirectValueAccess;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class EntryLogTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    private static OHCacheImpl<Integer, String> cache()
+    {
+        return (OHCacheImpl<Integer, String>) OHCacheBuilder.<Integer, String>newBuilder()
+                                                           .keySerializer(TestUtils.intSerializer)
+                                                           .valueSerializer(TestUtils.stringSerializer)
+                                                           .capacity(16L * 1024 * 1024)
+                                                           .segmentCount(4)
+                                                           .logStructured(true)
+                                                           .logChunkSize(EntryLog.MIN_CHUNK_SIZE)
+                                                           .build();
+    }
+
+    private static String value(int i)
+    {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 200)
+            sb.append(i).append('-');
+        return sb.toString();
+    }
+
+    @Test
+    public void testPutGetRemove() throws IOException
+    {
+        try (OHCacheImpl<Integer, String> cache = cache())
+        {
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, value(i));
+            Assert.assertTrue(cache.entryLog().chunks() > 1);
+
+            for (int i = 0; i < 10000; i++)
+                Assert.assertEquals(cache.get(i), value(i));
+
+            for (int i = 0; i < 10000; i += 2)
+                cache.remove(i);
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, value(i + 1));
+            for (int i = 0; i < 10000; i++)
+                Assert.assertEquals(cache.get(i), value(i + 1));
+        }
+    }
+
+    @Test
+    public void testCompaction() throws IOException
+    {
+        try (OHCacheImpl<Integer, String> cache = cache())
+        {
+            EntryLog entryLog = cache.entryLog();
+
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, value(i));
+            int chunks = entryLog.chunks();
+
+            for (int i = 0; i < 10000; i++)
+                if (i % 5 != 0)
+                    cache.remove(i);
+
+            entryLog.compact();
+
+            Assert.assertTrue(entryLog.relocatedEntries() > 0L);
+            Assert.assertTrue(entryLog.retiredChunks() > 0L);
+            Assert.assertTrue(entryLog.chunks() < chunks);
+
+            for (int i = 0; i < 10000; i++)
+                if (i % 5 != 0)
+                    Assert.assertNull(cache.get(i));
+                else
+                    Assert.assertEquals(cache.get(i), value(i));
+        }
+    }
+
+    @Test
+    public void testPinnedEntryNotMoved() throws IOException
+    {
+        try (OHCacheImpl<Integer, String> cache = cache())
+        {
+            EntryLog entryLog = cache.entryLog();
+
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, value(i));
+
+            DirectValueAccess direct = cache.getDirect(0);
+            ByteBuffer buffer = direct.buffer();
+            byte[] before = new byte[buffer.remaining()];
+            buffer.duplicate().get(before);
+
+            for (int i = 1; i < 10000; i++)
+                cache.remove(i);
+
+            entryLog.compact();
+
+            // the pinned hash entry is still accessible at its address
+            byte[] after = new byte[buffer.remaining()];
+            buffer.duplicate().get(after);
+            Assert.assertEquals(after, before);
+            Assert.assertEquals(cache.get(0), value(0));
+
+            long relocated = entryLog.relocatedEntries();
+            direct.close();
+            entryLog.compact();
+
+            Assert.assertEquals(entryLog.relocatedEntries(), relocated + 1L);
+            Assert.assertEquals(cache.get(0), value(0));
+        }
+    }
+
+    @Test
+    public void testLargeEntry() throws IOException
+    {
+        try (OHCacheImpl<Integer, String> cache = cache())
+        {
+            StringBuilder sb = new StringBuilder();
+            // larger than a chunk, but short enough for writeUTF()
+            while (sb.length() < EntryLog.MIN_CHUNK_SIZE - 100)
+                sb.append("large");
+            String large = sb.toString();
+
+            // allocated individually
+            cache.put(1, large);
+            cache.put(2, "small");
+            Assert.assertEquals(cache.get(1), large);
+            Assert.assertEquals(cache.get(2), "small");
+            cache.remove(1);
+            Assert.assertNull(cache.get(1));
+        }
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testTablesNotSupported()
+    {
+        OHCacheBuilder.<Integer, String>newBuilder()
+                      .keySerializer(TestUtils.intSerializer)
+                      .valueSerializer(TestUtils.stringSerializer)
+                      .type(org.caffinitas.ohc.tables.OHCacheImpl.class)
+                      .logStructured(true)
+                      .build();
+    }
+}
@@ -43,8 +43,8 @@ public class HashEntriesTest
             HashEntries.init(0x98765432abcddeafL, 5L, 10L, adr, 0);
 
             assertEquals(Uns.getLong(adr, Util.ENTRY_OFF_HASH), 0x98765432abcddeafL);
-            assertEquals(Uns.getLong(adr, Util.ENTRY_OFF_KEY_LENGTH), 5L);
-            assertEquals(Uns.getLong(adr, Util.ENTRY_OFF_VALUE_LENGTH), 10L);
+            assertEquals(Uns.getInt(adr, Util.ENTRY_OFF_KEY_LENGTH), 5);
+            assertEquals(Uns.getInt(adr, Util.ENTRY_OFF_VALUE_LENGTH), 10);
 
             assertEquals(HashEntries.getHash(adr), 0x98765432abcddeafL);
             assertEquals(HashEntries.getKeyLen(adr), 5L);
@@ -213,16 +213,16 @@ public class HashEntriesTest
             assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 10L);
 
             HashEntries.init(0x98765432abcddeafL, 5L, 10L, adr, 0);
-            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 8L + 10L);
+            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 5L + 10L);
 
             HashEntries.init(0x98765432abcddeafL, 8L, 10L, adr, 0);
             assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 8L + 10L);
 
             HashEntries.init(0x98765432abcddeafL, 9L, 10L, adr, 0);
-            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 16L + 10L);
+            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 9L + 10L);
 
             HashEntries.init(0x98765432abcddeafL, 15L, 10L, adr, 0);
-            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 16L + 10L);
+            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 15L + 10L);
 
             HashEntries.init(0x98765432abcddeafL, 16L, 10L, adr, 0);
             assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 16L + 10L);
@@ -233,6 +233,37 @@ public class HashEntriesTest
         }
     }
 
+    @Test
+    public void testRefreshAt() throws Exception
+    {
+        long adr = Uns.allocate(MIN_ALLOC_LEN);
+        try
+        {
+            // no refresh-after-write timestamp
+            HashEntries.init(0x98765432abcddeafL, 5L, 10L, adr, 0, 0);
+            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 5L + 10L);
+            HashEntries.setRefreshAt(adr, 42L);
+            assertEquals(HashEntries.getRefreshAt(adr), 0L);
+
+            // refresh-after-write timestamp at the next 8 byte boundary after the value
+            HashEntries.init(0x98765432abcddeafL, 5L, 10L, adr, 0, Util.FLAG_REFRESH);
+            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 16L + 8L);
+            assertEquals(HashEntries.getRefreshAt(adr), 0L);
+            HashEntries.setRefreshAt(adr, 42L);
+            assertEquals(HashEntries.getRefreshAt(adr), 42L);
+            assertEquals(Uns.getLong(adr, Util.ENTRY_OFF_DATA + 16L), 42L);
+            assertEquals(HashEntries.getValueLen(adr), 10L);
+
+            assertFalse(HashEntries.claimRefresh(adr, 41L));
+            assertTrue(HashEntries.claimRefresh(adr, 42L));
+            assertEquals(HashEntries.getRefreshAt(adr), 0L);
+        }
+        finally
+        {
+            Uns.free(adr);
+        }
+    }
+
     @Test
     public void testReferenceDereference() throws Exception
     {
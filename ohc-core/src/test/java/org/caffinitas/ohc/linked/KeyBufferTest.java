@@ -27,6 +27,8 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class KeyBufferTest
 {
@@ -241,6 +243,96 @@ public class KeyBufferTest
         assertEquals(in.readUTF(), ref4);
     }
 
+    @Test
+    public void testScratchHashAndContent() throws Exception
+    {
+        KeyBuffer scratch = KeyBuffer.scratch();
+        try
+        {
+            for (int i = 1; i < 300; i++)
+            {
+                byte[] ref = TestUtils.randomBytes(i);
+
+                assertTrue(scratch.acquire(i));
+                scratch.write(ref);
+                scratch.finish(org.caffinitas.ohc.linked.Hasher.create(HashAlgorithm.MURMUR3));
+
+                KeyBuffer heap = build(i);
+                heap.write(ref);
+                heap.finish(org.caffinitas.ohc.linked.Hasher.create(HashAlgorithm.MURMUR3));
+
+                assertTrue(scratch.isScratch());
+                assertEquals(scratch.size(), i);
+                assertEquals(scratch.array(), ref);
+                assertEquals(scratch.hash(), heap.hash());
+                assertEquals(scratch, heap);
+
+                scratch.release();
+            }
+        }
+        finally
+        {
+            scratch.free();
+        }
+    }
+
+    @Test
+    public void testScratchAcquire() throws Exception
+    {
+        KeyBuffer scratch = KeyBuffer.scratch();
+        try
+        {
+            assertTrue(scratch.acquire(8));
+            // in use
+            assertFalse(scratch.acquire(8));
+            assertFalse(acquireInOtherThread(scratch));
+            scratch.release();
+            assertTrue(acquireInOtherThread(scratch));
+            scratch.release();
+
+            assertFalse(scratch.acquire(KeyBuffer.MAX_SCRATCH_SIZE + 1));
+            assertTrue(scratch.acquire(KeyBuffer.MAX_SCRATCH_SIZE));
+            scratch.release();
+        }
+        finally
+        {
+            scratch.free();
+        }
+
+        // freed
+        assertFalse(scratch.acquire(8));
+    }
+
+    @Test(expectedExceptions = ArrayIndexOutOfBoundsException.class)
+    public void testScratchOverflow() throws Exception
+    {
+        KeyBuffer scratch = KeyBuffer.scratch();
+        try
+        {
+            assertTrue(scratch.acquire(3));
+            scratch.writeInt(42);
+        }
+        finally
+        {
+            scratch.free();
+        }
+    }
+
+    private static boolean acquireInOtherThread(final KeyBuffer scratch) throws InterruptedException
+    {
+        final boolean[] acquired = new boolean[1];
+        Thread t = new Thread()
+        {
+            public void run()
+            {
+                acquired[0] = scratch.acquire(8);
+            }
+        };
+        t.start();
+        t.join();
+        return acquired[0];
+    }
+
     private static KeyBuffer build(int len)
     {
         return new KeyBuffer(len);
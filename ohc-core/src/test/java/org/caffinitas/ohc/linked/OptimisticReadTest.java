@@ -0,0 +1,177 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class OptimisticReadTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    private static OHCache<Integer, String> cache(long capacity)
+    {
+        return OHCacheBuilder.<Integer, String>newBuilder()
+                             .keySerializer(TestUtils.intSerializer)
+                             .valueSerializer(TestUtils.stringSerializer)
+                             .hashTableSize(64)
+                             .segmentCount(4)
+                             .capacity(capacity)
+                             .optimisticReads(true)
+                             .build();
+    }
+
+    @Test
+    public void testBasics() throws IOException
+    {
+        try (OHCache<Integer, String> cache = cache(64 * 1024 * 1024))
+        {
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, Integer.toOctalString(i));
+
+            assertTrue(cache.stats().getRehashCount() > 0);
+
+            for (int i = 0; i < 10000; i++)
+            {
+                assertEquals(cache.get(i), Integer.toOctalString(i));
+                assertTrue(cache.containsKey(i));
+            }
+            assertEquals(cache.stats().getHitCount(), 20000L);
+
+            for (int i = 0; i < 10000; i += 2)
+                cache.remove(i);
+
+            for (int i = 0; i < 10000; i++)
+            {
+                if ((i & 1) == 0)
+                {
+                    assertNull(cache.get(i));
+                    assertFalse(cache.containsKey(i));
+                }
+                else
+                    assertEquals(cache.get(i), Integer.toOctalString(i));
+            }
+            assertEquals(cache.stats().getMissCount(), 10000L);
+
+            cache.clear();
+            assertEquals(cache.size(), 0L);
+            assertNull(cache.get(1));
+        }
+    }
+
+    @Test
+    public void testGetAll() throws IOException
+    {
+        try (OHCache<Integer, String> cache = cache(64 * 1024 * 1024))
+        {
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 0; i < 10000; i++)
+            {
+                keys.add(i);
+                if ((i & 1) != 0)
+                    cache.put(i, Integer.toOctalString(i));
+            }
+
+            Map<Integer, String> values = cache.getAll(keys);
+            assertEquals(values.size(), 5000);
+            for (int i = 1; i < 10000; i += 2)
+                assertEquals(values.get(i), Integer.toOctalString(i));
+            assertEquals(cache.stats().getHitCount(), 5000L);
+            assertEquals(cache.stats().getMissCount(), 5000L);
+        }
+    }
+
+    @Test
+    public void testConcurrentModification() throws Exception
+    {
+        try (final OHCache<Integer, String> cache = cache(4 * 1024 * 1024))
+        {
+            final AtomicBoolean stop = new AtomicBoolean();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+            Thread[] readers = new Thread[4];
+            for (int t = 0; t < readers.length; t++)
+            {
+                readers[t] = new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            ThreadLocalRandom rand = ThreadLocalRandom.current();
+                            while (!stop.get())
+                            {
+                                int k = rand.nextInt(50000);
+                                String v = cache.get(k);
+                                if (v != null)
+                                    assertEquals(v, Integer.toOctalString(k));
+                            }
+                        }
+                        catch (Throwable e)
+                        {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                };
+                readers[t].start();
+            }
+
+            try
+            {
+                // puts cause rehashes and evictions, removes unlink entries concurrently to the readers
+                for (int i = 0; i < 200000; i++)
+                {
+                    int k = i % 50000;
+                    if (i % 7 == 0)
+                        cache.remove(k);
+                    else
+                        cache.put(k, Integer.toOctalString(k));
+                }
+                cache.clear();
+            }
+            finally
+            {
+                stop.set(true);
+                for (Thread reader : readers)
+                    reader.join();
+            }
+
+            if (failure.get() != null)
+                throw new AssertionError(failure.get());
+
+            assertTrue(cache.stats().getEvictionCount() > 0);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.caffinitas.ohc.CacheLoader;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RefreshTest
+{
+    private ScheduledThreadPoolExecutor executorService;
+
+    @BeforeMethod
+    public void init()
+    {
+        executorService = new ScheduledThreadPoolExecutor(2);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deinit() throws InterruptedException
+    {
+        executorService.shutdown();
+        Assert.assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+        Uns.clearUnsDebugForTest();
+    }
+
+    private OHCache<Integer, String> cache()
+    {
+        return OHCacheBuilder.<Integer, String>newBuilder()
+                             .keySerializer(TestUtils.intSerializer)
+                             .valueSerializer(TestUtils.stringSerializer)
+                             .executorService(executorService)
+                             .refreshAfterWriteMillis(200)
+                             .build();
+    }
+
+    /**
+     * Returns the key and the number of the load.
+     */
+    static class CountingLoader implements CacheLoader<Integer, String>
+    {
+        final AtomicInteger loads = new AtomicInteger();
+        // loads after the first one wait for this latch
+        final CountDownLatch refreshLatch = new CountDownLatch(1);
+        volatile boolean fail;
+
+        public String load(Integer key) throws Exception
+        {
+            int load = loads.incrementAndGet();
+            if (load > 1)
+                refreshLatch.await();
+            if (fail)
+                throw new Exception("foo");
+            return key + "-" + load;
+        }
+    }
+
+    private static void awaitValue(OHCache<Integer, String> cache, int key, String value) throws InterruptedException
+    {
+        for (int i = 0; i < 500 && !value.equals(cache.get(key)); i++)
+            Thread.sleep(10);
+        Assert.assertEquals(cache.get(key), value);
+    }
+
+    private void awaitIdle() throws InterruptedException
+    {
+        for (int i = 0; i < 500 && executorService.getCompletedTaskCount() < executorService.getTaskCount(); i++)
+            Thread.sleep(10);
+        Assert.assertEquals(executorService.getCompletedTaskCount(), executorService.getTaskCount());
+    }
+
+    @Test
+    public void testRefreshAfterWrite() throws Exception
+    {
+        try (OHCache<Integer, String> cache = cache())
+        {
+            CountingLoader loader = new CountingLoader();
+            loader.refreshLatch.countDown();
+
+            Assert.assertEquals(cache.getWithLoader(1, loader), "1-1");
+            Assert.assertEquals(cache.getWithLoader(1, loader), "1-1");
+            Assert.assertEquals(loader.loads.get(), 1);
+
+            Thread.sleep(300);
+
+            // the stale value is returned, the refresh happens in the background
+            Assert.assertEquals(cache.getWithLoader(1, loader), "1-1");
+            awaitValue(cache, 1, "1-2");
+            Assert.assertEquals(loader.loads.get(), 2);
+
+            // plain reads do not refresh
+            Thread.sleep(300);
+            Assert.assertEquals(cache.get(1), "1-2");
+            Assert.assertEquals(loader.loads.get(), 2);
+        }
+    }
+
+    @Test
+    public void testSingleRefresh() throws Exception
+    {
+        try (OHCache<Integer, String> cache = cache())
+        {
+            CountingLoader loader = new CountingLoader();
+            Assert.assertEquals(cache.getWithLoader(1, loader), "1-1");
+
+            Thread.sleep(300);
+
+            for (int i = 0; i < 100; i++)
+                Assert.assertEquals(cache.getWithLoader(1, loader), "1-1");
+            Assert.assertEquals(loader.loads.get(), 2);
+
+            loader.refreshLatch.countDown();
+            awaitValue(cache, 1, "1-2");
+            Assert.assertEquals(loader.loads.get(), 2);
+        }
+    }
+
+    @Test
+    public void testRefreshFailure() throws Exception
+    {
+        try (OHCache<Integer, String> cache = cache())
+        {
+            CountingLoader loader = new CountingLoader();
+            Assert.assertEquals(cache.getWithLoader(1, loader), "1-1");
+
+            Thread.sleep(300);
+
+            loader.fail = true;
+            loader.refreshLatch.countDown();
+            Assert.assertEquals(cache.getWithLoader(1, loader), "1-1");
+            awaitIdle();
+            Assert.assertEquals(loader.loads.get(), 2);
+            Assert.assertEquals(cache.get(1), "1-1");
+
+            // the next access retries the refresh
+            loader.fail = false;
+            Assert.assertEquals(cache.getWithLoader(1, loader), "1-1");
+            awaitValue(cache, 1, "1-3");
+        }
+    }
+
+    @Test
+    public void testRefreshRemovedEntry() throws Exception
+    {
+        try (OHCache<Integer, String> cache = cache())
+        {
+            CountingLoader loader = new CountingLoader();
+            Assert.assertEquals(cache.getWithLoader(1, loader), "1-1");
+
+            Thread.sleep(300);
+
+            Assert.assertEquals(cache.getWithLoader(1, loader), "1-1");
+            cache.remove(1);
+            loader.refreshLatch.countDown();
+            awaitIdle();
+
+            // the refreshed value is not added for a removed entry
+            Assert.assertNull(cache.get(1));
+            Assert.assertEquals(loader.loads.get(), 2);
+        }
+    }
+
+    @Test
+    public void testNoRefresh() throws Exception
+    {
+        try (OHCache<Integer, String> cache = OHCacheBuilder.<Integer, String>newBuilder()
+                                                            .keySerializer(TestUtils.intSerializer)
+                                                            .valueSerializer(TestUtils.stringSerializer)
+                                                            .executorService(executorService)
+                                                            .build())
+        {
+            CountingLoader loader = new CountingLoader();
+            Assert.assertEquals(cache.getWithLoader(1, loader), "1-1");
+            Thread.sleep(300);
+            Assert.assertEquals(cache.getWithLoader(1, loader), "1-1");
+            Assert.assertEquals(loader.loads.get(), 1);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SnapshotTest
+{
+    private ExecutorService executor;
+    private File directory;
+
+    @BeforeMethod
+    public void init() throws IOException
+    {
+        executor = Executors.newFixedThreadPool(4);
+        directory = Files.createTempDirectory("SnapshotTest-").toFile();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        executor.shutdown();
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                Assert.assertTrue(file.delete());
+        Assert.assertTrue(directory.delete());
+        Uns.clearUnsDebugForTest();
+    }
+
+    private static OHCache<Integer, String> cache(int segmentCount, int compressionThreshold)
+    {
+        return OHCacheBuilder.<Integer, String>newBuilder()
+                             .keySerializer(TestUtils.intSerializer)
+                             .valueSerializer(TestUtils.stringSerializer)
+                             .segmentCount(segmentCount)
+                             .compressionThreshold(compressionThreshold)
+                             .capacity(64L * 1024 * 1024)
+                             .build();
+    }
+
+    @Test
+    public void testSnapshot() throws IOException, InterruptedException
+    {
+        long written;
+        try (OHCache<Integer, String> cache = cache(8, 0))
+        {
+            TestUtils.fillMany(cache);
+
+            written = cache.snapshot(directory, executor);
+            Assert.assertEquals(written, cache.size());
+        }
+
+        // one file per segment plus the manifest
+        Assert.assertEquals(directory.list().length, 8 + 1);
+
+        // restore into an instance with a different number of segments
+        try (OHCache<Integer, String> cache = cache(2, 0))
+        {
+            long count = cache.restoreSnapshot(directory, executor);
+            Assert.assertEquals(count, written);
+            TestUtils.checkManyForSerializedEntries(cache, (int) count);
+        }
+
+        // each file has the format of serializeHotNEntries
+        try (OHCache<Integer, String> cache = cache(2, 0);
+             FileChannel channel = FileChannel.open(new File(directory, "segment-0").toPath(), StandardOpenOption.READ))
+        {
+            int count = cache.deserializeEntries(channel);
+            Assert.assertTrue(count > 0);
+            Assert.assertEquals(cache.size(), count);
+        }
+    }
+
+    @Test
+    public void testSnapshotCompressed() throws IOException, InterruptedException
+    {
+        try (OHCache<Integer, String> cache = cache(4, 1024))
+        {
+            for (int i = 0; i < 100; i++)
+                cache.put(i, i % 2 == 0 ? i + " " + TestUtils.big : Integer.toString(i));
+
+            Assert.assertEquals(cache.snapshot(directory, executor), 100L);
+        }
+
+        // values are written uncompressed
+        try (OHCache<Integer, String> cache = cache(4, 0))
+        {
+            Assert.assertEquals(cache.restoreSnapshot(directory, executor), 100L);
+            for (int i = 0; i < 100; i++)
+                Assert.assertEquals(cache.get(i), i % 2 == 0 ? i + " " + TestUtils.big : Integer.toString(i));
+        }
+    }
+
+    @Test
+    public void testEmptySnapshot() throws IOException, InterruptedException
+    {
+        try (OHCache<Integer, String> cache = cache(4, 0))
+        {
+            Assert.assertEquals(cache.snapshot(directory, executor), 0L);
+            Assert.assertEquals(cache.restoreSnapshot(directory, executor), 0L);
+        }
+    }
+
+    @Test
+    public void testOverwriteSnapshot() throws IOException, InterruptedException
+    {
+        try (OHCache<Integer, String> cache = cache(4, 0))
+        {
+            TestUtils.fillMany(cache);
+            cache.snapshot(directory, executor);
+
+            cache.clear();
+            cache.put(1, "one");
+            Assert.assertEquals(cache.snapshot(directory, executor), 1L);
+        }
+
+        try (OHCache<Integer, String> cache = cache(4, 0))
+        {
+            Assert.assertEquals(cache.restoreSnapshot(directory, executor), 1L);
+            Assert.assertEquals(cache.get(1), "one");
+        }
+    }
+
+    @Test
+    public void testIncompleteSnapshot() throws IOException, InterruptedException
+    {
+        try (OHCache<Integer, String> cache = cache(4, 0))
+        {
+            TestUtils.fillMany(cache);
+            cache.snapshot(directory, executor);
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, "segment-1"), "rw"))
+        {
+            file.setLength(file.length() - 1);
+        }
+
+        try (OHCache<Integer, String> cache = cache(4, 0))
+        {
+            try
+            {
+                cache.restoreSnapshot(directory, executor);
+                Assert.fail();
+            }
+            catch (IOException e)
+            {
+                // expected
+            }
+            Assert.assertEquals(cache.size(), 0L);
+
+            Assert.assertTrue(new File(directory, "manifest").delete());
+            try
+            {
+                cache.restoreSnapshot(directory, executor);
+                Assert.fail();
+            }
+            catch (IOException e)
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotEntriesMismatch() throws IOException, InterruptedException
+    {
+        try (OHCache<Integer, String> cache = cache(4, 0))
+        {
+            TestUtils.fillMany(cache);
+            cache.snapshot(directory, executor);
+        }
+
+        // increment the number of entries of the first file in the manifest
+        try (FileChannel channel = FileChannel.open(new File(directory, "manifest").toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            ByteBuffer entries = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+            channel.read(entries, 12L);
+            entries.flip();
+            long count = entries.getLong();
+            entries.clear();
+            entries.putLong(count + 1);
+            entries.flip();
+            channel.write(entries, 12L);
+        }
+
+        try (OHCache<Integer, String> cache = cache(4, 0))
+        {
+            try
+            {
+                cache.restoreSnapshot(directory, executor);
+                Assert.fail();
+            }
+            catch (IOException e)
+            {
+                Assert.assertTrue(e.getMessage().contains("segment-0"), e.getMessage());
+            }
+        }
+    }
+}
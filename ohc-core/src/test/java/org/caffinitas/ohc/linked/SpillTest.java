@@ -0,0 +1,264 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.caffinitas.ohc.HashAlgorithm;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.caffinitas.ohc.OHCacheStats;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class SpillTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    private static OHCacheImpl<Integer, String> cache(File f)
+    {
+        return cache(f, 0L);
+    }
+
+    private static OHCacheImpl<Integer, String> cache(File f, long maxIdleMillis)
+    {
+        return (OHCacheImpl<Integer, String>) OHCacheBuilder.<Integer, String>newBuilder()
+                                                           .keySerializer(TestUtils.intSerializer)
+                                                           .valueSerializer(TestUtils.stringSerializer)
+                                                           .capacity(1024L * 1024)
+                                                           .segmentCount(4)
+                                                           .spillFile(f.getPath())
+                                                           .spillCapacity(16L * 1024 * 1024)
+                                                           .maxIdleMillis(maxIdleMillis)
+                                                           .build();
+    }
+
+    private static File spillFile() throws IOException
+    {
+        File f = File.createTempFile("SpillTest-", ".bin");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static String value(int i)
+    {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 200)
+            sb.append(i).append('-');
+        return sb.toString();
+    }
+
+    private static int spilledKey(OHCacheImpl<Integer, String> cache) throws IOException
+    {
+        for (int i = 0; i < 10000; i++)
+            if (!cache.containsKey(i))
+            {
+                KeyBuffer key = new KeyBuffer(TestUtils.intSerializer.serializedSize(i));
+                TestUtils.intSerializer.serialize(i, key);
+                key.finish(Hasher.create(HashAlgorithm.MURMUR3));
+                if (cache.segment(key.hash()).spillPosition(key) >= 0L)
+                    return i;
+            }
+        Assert.fail("no spilled key");
+        return -1;
+    }
+
+    @Test
+    public void testPromote() throws IOException
+    {
+        try (OHCacheImpl<Integer, String> cache = cache(spillFile()))
+        {
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, value(i));
+
+            OHCacheStats stats = cache.stats();
+            Assert.assertTrue(stats.getEvictionCount() > 0L);
+            Assert.assertTrue(stats.getSpillWriteCount() > 0L);
+            Assert.assertTrue(cache.size() < 10000L);
+
+            int found = 0;
+            for (int i = 0; i < 10000; i++)
+            {
+                String v = cache.get(i);
+                if (v != null)
+                {
+                    Assert.assertEquals(v, value(i));
+                    found++;
+                }
+            }
+
+            stats = cache.stats();
+            Assert.assertTrue(stats.getSpillHitCount() > 0L);
+            Assert.assertTrue(found > stats.getHitCount() - stats.getSpillHitCount());
+            Assert.assertTrue(stats.getSpillReadNanos() > 0L);
+        }
+    }
+
+    @Test
+    public void testPromotedEntryInMemory() throws IOException
+    {
+        try (OHCacheImpl<Integer, String> cache = cache(spillFile()))
+        {
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, value(i));
+
+            int k = spilledKey(cache);
+            Assert.assertEquals(cache.get(k), value(k));
+            Assert.assertTrue(cache.containsKey(k));
+            Assert.assertEquals(cache.stats().getSpillHitCount(), 1L);
+        }
+    }
+
+    @Test
+    public void testMaxIdleWhileSpilled() throws Exception
+    {
+        try (OHCacheImpl<Integer, String> cache = cache(spillFile(), 2000L))
+        {
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, value(i));
+
+            int k = spilledKey(cache);
+            Thread.sleep(2100L);
+
+            // the max-idle deadline passed while the hash entry was in the spill file
+            Assert.assertNull(cache.get(k));
+            Assert.assertEquals(cache.stats().getSpillHitCount(), 0L);
+        }
+    }
+
+    @Test
+    public void testConcurrentEvictions() throws Exception
+    {
+        try (final OHCacheImpl<Integer, String> cache = cache(spillFile()))
+        {
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++)
+            {
+                final int first = t * 10000;
+                threads[t] = new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            for (int i = first; i < first + 10000; i++)
+                                cache.put(i, value(i));
+                        }
+                        catch (Throwable e)
+                        {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+            if (failure.get() != null)
+                throw new AssertionError(failure.get());
+
+            Assert.assertTrue(cache.stats().getSpillWriteCount() > 0L);
+
+            for (int i = 0; i < threads.length * 10000; i++)
+            {
+                String v = cache.get(i);
+                if (v != null)
+                    Assert.assertEquals(v, value(i));
+            }
+            Assert.assertTrue(cache.stats().getSpillHitCount() > 0L);
+        }
+    }
+
+    @Test
+    public void testRemove() throws IOException
+    {
+        try (OHCacheImpl<Integer, String> cache = cache(spillFile()))
+        {
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, value(i));
+
+            int k = spilledKey(cache);
+            cache.remove(k);
+            Assert.assertNull(cache.get(k));
+            Assert.assertEquals(cache.stats().getSpillHitCount(), 0L);
+        }
+    }
+
+    @Test
+    public void testPutReplacesSpilled() throws IOException
+    {
+        try (OHCacheImpl<Integer, String> cache = cache(spillFile()))
+        {
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, value(i));
+
+            int k = spilledKey(cache);
+            cache.put(k, "foo");
+            Assert.assertEquals(cache.get(k), "foo");
+        }
+    }
+
+    @Test
+    public void testClear() throws IOException
+    {
+        try (OHCacheImpl<Integer, String> cache = cache(spillFile()))
+        {
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, value(i));
+
+            cache.clear();
+            for (int i = 0; i < 10000; i++)
+                Assert.assertNull(cache.get(i));
+            Assert.assertEquals(cache.stats().getSpillHitCount(), 0L);
+        }
+    }
+
+    @Test
+    public void testResetStatistics() throws IOException
+    {
+        try (OHCacheImpl<Integer, String> cache = cache(spillFile()))
+        {
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, value(i));
+            for (int i = 0; i < 10000; i++)
+                cache.get(i);
+
+            cache.resetStatistics();
+            OHCacheStats stats = cache.stats();
+            Assert.assertEquals(stats.getSpillHitCount(), 0L);
+            Assert.assertEquals(stats.getSpillMissCount(), 0L);
+            Assert.assertEquals(stats.getSpillWriteCount(), 0L);
+        }
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testTablesNotSupported() throws IOException
+    {
+        OHCacheBuilder.<Integer, String>newBuilder()
+                      .keySerializer(TestUtils.intSerializer)
+                      .valueSerializer(TestUtils.stringSerializer)
+                      .type(org.caffinitas.ohc.tables.OHCacheImpl.class)
+                      .spillFile(spillFile().getPath())
+                      .build();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.linked;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.caffinitas.ohc.HashAlgorithm;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class StorageFileTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    private static OHCacheImpl<Integer, String> cache(File f, HashAlgorithm hashAlgorithm)
+    {
+        return (OHCacheImpl<Integer, String>) OHCacheBuilder.<Integer, String>newBuilder()
+                                                           .keySerializer(TestUtils.intSerializer)
+                                                           .valueSerializer(TestUtils.stringSerializer)
+                                                           .capacity(16L * 1024 * 1024)
+                                                           .segmentCount(4)
+                                                           .logChunkSize(EntryLog.MIN_CHUNK_SIZE)
+                                                           .hashMode(hashAlgorithm)
+                                                           .storageFile(f.getPath())
+                                                           .build();
+    }
+
+    private static OHCacheImpl<Integer, String> cache(File f)
+    {
+        return cache(f, HashAlgorithm.MURMUR3);
+    }
+
+    private static File storageFile() throws IOException
+    {
+        File f = File.createTempFile("StorageFileTest-", ".bin");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static String value(int i)
+    {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 200)
+            sb.append(i).append('-');
+        return sb.toString();
+    }
+
+    private static void fill(File f) throws IOException
+    {
+        try (OHCacheImpl<Integer, String> cache = cache(f))
+        {
+            Assert.assertEquals(cache.entryLog().recoveredEntries(), 0L);
+            for (int i = 0; i < 10000; i++)
+                cache.put(i, value(i));
+            for (int i = 0; i < 10000; i += 3)
+                cache.remove(i);
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException
+    {
+        File f = storageFile();
+        fill(f);
+
+        try (OHCacheImpl<Integer, String> cache = cache(f))
+        {
+            Assert.assertEquals(cache.entryLog().recoveredEntries(), cache.size());
+            Assert.assertEquals(cache.size(), 10000L - 3334L);
+            for (int i = 0; i < 10000; i++)
+                if (i % 3 == 0)
+                    Assert.assertNull(cache.get(i));
+                else
+                    Assert.assertEquals(cache.get(i), value(i));
+
+            // the reopened cache is fully functional
+            for (int i = 0; i < 10000; i += 3)
+                cache.put(i, value(i + 1));
+            cache.put(1, "one");
+            cache.entryLog().compact();
+        }
+
+        try (OHCacheImpl<Integer, String> cache = cache(f))
+        {
+            Assert.assertEquals(cache.size(), 10000L);
+            Assert.assertEquals(cache.get(1), "one");
+            for (int i = 0; i < 10000; i += 3)
+                Assert.assertEquals(cache.get(i), value(i + 1));
+        }
+    }
+
+    @Test
+    public void testNotClosedCleanly() throws IOException
+    {
+        File f = storageFile();
+        fill(f);
+
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw"))
+        {
+            // cleanly-closed mark
+            raf.seek(28L);
+            raf.write(0);
+        }
+
+        try (OHCacheImpl<Integer, String> cache = cache(f))
+        {
+            Assert.assertEquals(cache.size(), 0L);
+            Assert.assertNull(cache.get(1));
+            cache.put(1, "one");
+            Assert.assertEquals(cache.get(1), "one");
+        }
+    }
+
+    @Test
+    public void testCorruptChunk() throws IOException
+    {
+        File f = storageFile();
+        fill(f);
+
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw"))
+        {
+            // value of the first hash entry in the first chunk
+            long pos = 4096L + 24L + 8L + Util.ENTRY_OFF_DATA + 20L;
+            raf.seek(pos);
+            int b = raf.read();
+            raf.seek(pos);
+            raf.write(b ^ 0xff);
+        }
+
+        try (OHCacheImpl<Integer, String> cache = cache(f))
+        {
+            long size = cache.size();
+            Assert.assertTrue(size > 0L);
+            Assert.assertTrue(size < 10000L - 3334L);
+            for (int i = 0; i < 10000; i++)
+            {
+                String v = cache.get(i);
+                if (v != null)
+                    Assert.assertEquals(v, value(i));
+            }
+        }
+    }
+
+    @Test
+    public void testConfigurationMismatch() throws IOException
+    {
+        File f = storageFile();
+        fill(f);
+
+        try (OHCacheImpl<Integer, String> cache = cache(f, HashAlgorithm.CRC32))
+        {
+            Assert.assertEquals(cache.size(), 0L);
+        }
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testTablesNotSupported() throws IOException
+    {
+        OHCacheBuilder.<Integer, String>newBuilder()
+                      .keySerializer(TestUtils.intSerializer)
+                      .valueSerializer(TestUtils.stringSerializer)
+                      .type(org.caffinitas.ohc.tables.OHCacheImpl.class)
+                      .storageFile(storageFile().getPath())
+                      .build();
+    }
+}
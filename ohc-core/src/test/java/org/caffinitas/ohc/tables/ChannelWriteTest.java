@@ -0,0 +1,222 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+import com.google.common.base.Strings;
+
+import org.caffinitas.ohc.Compression;
+import org.caffinitas.ohc.DirectValueAccess;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class ChannelWriteTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    @DataProvider(name = "compression")
+    public Object[][] compression()
+    {
+        return new Object[][]{ { null }, { Compression.LZ4 } };
+    }
+
+    private static OHCache<Integer, String> cache(Compression compression)
+    {
+        OHCacheBuilder<Integer, String> builder = OHCacheBuilder.<Integer, String>newBuilder()
+                                                                .keySerializer(TestUtils.intSerializer)
+                                                                .valueSerializer(TestUtils.stringSerializer)
+                                                                .type(OHCacheImpl.class);
+        if (compression != null)
+            builder.compression(compression).compressionThreshold(16);
+        return builder.build();
+    }
+
+    private static String value(int i)
+    {
+        return Strings.repeat("value " + i + ' ', 1 + i % 20);
+    }
+
+    private static byte[] serialized(OHCache<Integer, String> cache, int key) throws IOException
+    {
+        try (DirectValueAccess direct = cache.getDirect(key))
+        {
+            ByteBuffer buffer = direct.buffer();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+
+    @Test(dataProvider = "compression")
+    public void testGetTo(Compression compression) throws IOException
+    {
+        try (OHCache<Integer, String> cache = cache(compression))
+        {
+            for (int i = 0; i < 100; i++)
+                cache.put(i, value(i));
+
+            for (int i = 0; i < 100; i++)
+            {
+                CollectingChannel channel = new CollectingChannel(7);
+                Assert.assertTrue(cache.getTo(i, channel));
+                Assert.assertEquals(channel.bytes(), serialized(cache, i));
+            }
+
+            CollectingChannel channel = new CollectingChannel(7);
+            Assert.assertFalse(cache.getTo(100, channel));
+            Assert.assertEquals(channel.bytes().length, 0);
+        }
+    }
+
+    @Test(dataProvider = "compression")
+    public void testGetAllTo(Compression compression) throws IOException
+    {
+        try (OHCache<Integer, String> cache = cache(compression))
+        {
+            for (int i = 0; i < 100; i += 2)
+                cache.put(i, value(i));
+
+            // more keys than the initial number of views, in reverse order, half of the keys do not exist
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            Integer[] keys = new Integer[100];
+            for (int i = 0; i < 100; i++)
+            {
+                keys[i] = 99 - i;
+                if ((keys[i] & 1) == 0)
+                    expected.write(serialized(cache, keys[i]));
+            }
+
+            CollectingChannel channel = new CollectingChannel(13);
+            Assert.assertEquals(cache.getAllTo(Arrays.asList(keys), channel), 50);
+            Assert.assertEquals(channel.bytes(), expected.toByteArray());
+
+            // views are reused
+            channel = new CollectingChannel(Integer.MAX_VALUE);
+            Assert.assertEquals(cache.getAllTo(Arrays.asList(keys), channel), 50);
+            Assert.assertEquals(channel.bytes(), expected.toByteArray());
+
+            channel = new CollectingChannel(Integer.MAX_VALUE);
+            Assert.assertEquals(cache.getAllTo(Arrays.asList(1, 3, 5), channel), 0);
+            Assert.assertEquals(channel.bytes().length, 0);
+        }
+    }
+
+    @Test
+    public void testChannelFailure() throws IOException
+    {
+        try (OHCache<Integer, String> cache = cache(null))
+        {
+            cache.put(1, "one");
+            cache.put(2, "two");
+
+            CollectingChannel channel = new CollectingChannel(1);
+            channel.fail = true;
+            try
+            {
+                cache.getAllTo(Arrays.asList(1, 2), channel);
+                Assert.fail();
+            }
+            catch (IOException e)
+            {
+                // expected
+            }
+            try
+            {
+                cache.getTo(1, channel);
+                Assert.fail();
+            }
+            catch (IOException e)
+            {
+                // expected
+            }
+
+            // hash entries have been released
+            cache.remove(1);
+            cache.remove(2);
+            Assert.assertEquals(cache.stats().getSize(), 0L);
+        }
+    }
+
+    /**
+     * Collects written bytes, accepts at most {@code maxWrite} bytes per call.
+     */
+    static final class CollectingChannel implements GatheringByteChannel
+    {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final int maxWrite;
+        boolean fail;
+
+        CollectingChannel(int maxWrite)
+        {
+            this.maxWrite = maxWrite;
+        }
+
+        byte[] bytes()
+        {
+            return out.toByteArray();
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+        {
+            long written = 0L;
+            for (int i = offset; i < offset + length && written < maxWrite; i++)
+                written += write(srcs[i], (int) (maxWrite - written));
+            return written;
+        }
+
+        public long write(ByteBuffer[] srcs) throws IOException
+        {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public int write(ByteBuffer src) throws IOException
+        {
+            return write(src, maxWrite);
+        }
+
+        private int write(ByteBuffer src, int max) throws IOException
+        {
+            if (fail)
+                throw new IOException("failed");
+            int n = Math.min(src.remaining(), max);
+            for (int i = 0; i < n; i++)
+                out.write(src.get());
+            return n;
+        }
+
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        public void close()
+        {
+        }
+    }
+}
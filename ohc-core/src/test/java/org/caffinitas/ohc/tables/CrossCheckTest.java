@@ -18,6 +18,7 @@ package org.caffinitas.ohc.tables;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -27,6 +28,7 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TreeSet;
 
+import com.google.common.base.Strings;
 import com.google.common.io.ByteStreams;
 
 import org.caffinitas.ohc.CloseableIterator;
@@ -191,7 +193,7 @@ public class CrossCheckTest
         try (OHCache<Integer, String> cache = cache(4, -1, 1, -1))
         {
             int i;
-            for (i = 0; cache.freeCapacity() >= 1478; i++)
+            for (i = 0; cache.freeCapacity() >= 1494; i++)
                 cache.put(i, v);
 
             Assert.assertEquals(cache.stats().getEvictionCount(), 0L, "oops - cleanup triggered - fix the unit test!");
@@ -218,7 +220,7 @@ public class CrossCheckTest
         try (OHCache<Integer, String> cache = cache(4, -1, 1, -1))
         {
             int i;
-            for (i = 0; cache.freeCapacity() >= 1478; i++)
+            for (i = 0; cache.freeCapacity() >= 1494; i++)
                 cache.put(i, v);
             int k = i;
 
@@ -305,6 +307,78 @@ public class CrossCheckTest
         }
     }
 
+    @Test
+    public void testPutAllRemoveAllMany() throws Exception
+    {
+        try (OHCache<Integer, String> cache = cache(64))
+        {
+            // more entries than the batch size used by putAll and removeAll
+            Map<Integer, String> map = new HashMap<>();
+            for (int i = 0; i < 5000; i++)
+                map.put(i, Integer.toOctalString(i));
+            cache.putAll(map);
+            Assert.assertEquals(cache.size(), 5000);
+            Assert.assertEquals(cache.stats().getPutAddCount(), 5000);
+
+            // replace half of the entries, add some new ones
+            map.clear();
+            for (int i = 2500; i < 7500; i++)
+                map.put(i, Integer.toHexString(i));
+            cache.putAll(map);
+            Assert.assertEquals(cache.size(), 7500);
+            Assert.assertEquals(cache.stats().getPutReplaceCount(), 2500);
+            for (int i = 0; i < 7500; i++)
+                Assert.assertEquals(cache.get(i), i < 2500 ? Integer.toOctalString(i) : Integer.toHexString(i));
+
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 0; i < 7500; i += 3)
+                keys.add(i);
+            keys.add(10000);
+            cache.removeAll(keys);
+            Assert.assertEquals(cache.size(), 5000);
+            for (int i = 0; i < 7500; i++)
+                if (i % 3 == 0)
+                    Assert.assertNull(cache.get(i));
+                else
+                    Assert.assertNotNull(cache.get(i));
+        }
+    }
+
+    @Test
+    public void testPutAllEviction() throws Exception
+    {
+        try (OHCache<Integer, String> cache = OHCacheBuilder.<Integer, String>newBuilder()
+                                                            .type(OHCacheImpl.class)
+                                                            .keySerializer(TestUtils.intSerializer)
+                                                            .valueSerializer(TestUtils.stringSerializer)
+                                                            .segmentCount(1)
+                                                            .capacity(TestUtils.ONE_MB)
+                                                            .build())
+        {
+            String value = Strings.repeat("x", 1000);
+            for (int i = 0; i < 500; i++)
+                cache.put(i, value);
+
+            // the batch alone exceeds the capacity
+            Map<Integer, String> map = new HashMap<>();
+            for (int i = 1000; i < 3000; i++)
+                map.put(i, value);
+            cache.putAll(map);
+
+            OHCacheStats stats = cache.stats();
+            Assert.assertTrue(stats.getEvictionCount() >= 500);
+            Assert.assertTrue(cache.freeCapacity() >= 0L);
+            Assert.assertTrue(cache.size() > 0L);
+            for (int i = 0; i < 500; i++)
+                Assert.assertNull(cache.get(i));
+            long found = 0L;
+            for (int i = 1000; i < 3000; i++)
+                if (cache.get(i) != null)
+                    found++;
+            Assert.assertEquals(found, cache.size());
+        }
+    }
+
     @Test
     public void testRemove() throws Exception
     {
@@ -400,6 +474,30 @@ public class CrossCheckTest
         }
     }
 
+    @Test
+    public void testGetAll() throws Exception
+    {
+        try (OHCache<Integer, String> cache = cache())
+        {
+            for (int i = 0; i < 1000; i += 2)
+                cache.put(i, Integer.toOctalString(i));
+
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 0; i < 1000; i++)
+                keys.add(i);
+            // duplicate keys
+            keys.add(42);
+            keys.add(43);
+
+            Map<Integer, String> values = cache.getAll(keys);
+            Assert.assertEquals(values.size(), 500);
+            for (int i = 0; i < 1000; i += 2)
+                Assert.assertEquals(values.get(i), Integer.toOctalString(i));
+
+            Assert.assertTrue(cache.getAll(Collections.<Integer>emptyList()).isEmpty());
+        }
+    }
+
     @Test
     public void testContainsKey() throws Exception
     {
@@ -779,7 +877,7 @@ public class CrossCheckTest
     @Test
     public void testTooBigEntryOnPut() throws IOException
     {
-        try (OHCache<Integer, String> cache = cache(8, -1, -1, TestUtils.intSerializer.serializedSize(1) + Util.ENTRY_OFF_DATA + Util.roundUpTo8(5)))
+        try (OHCache<Integer, String> cache = cache(8, -1, -1, TestUtils.intSerializer.serializedSize(1) + Util.ENTRY_OFF_DATA + 5))
         {
             cache.put(1, new String(new byte[100]));
             Assert.assertEquals(cache.size(), 0);
@@ -15,18 +15,22 @@
  */
 package org.caffinitas.ohc.tables;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.caffinitas.ohc.BulkCacheLoader;
 import org.caffinitas.ohc.CacheLoader;
 import org.caffinitas.ohc.DirectValueAccess;
 import org.caffinitas.ohc.CloseableIterator;
@@ -58,6 +62,11 @@ public class DoubleCheckCacheImpl<K, V> implements OHCache<K, V>
         check.put(key, value);
     }
 
+    public void put(K key, V value, long ttl, TimeUnit unit)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     public boolean addOrReplace(K key, V old, V value)
     {
         boolean rProd = prod.addOrReplace(key, old, value);
@@ -108,6 +117,54 @@ public class DoubleCheckCacheImpl<K, V> implements OHCache<K, V>
         throw new UnsupportedOperationException();
     }
 
+    public Map<K, V> getAll(Iterable<K> keys)
+    {
+        Map<K, V> rProd = prod.getAll(keys);
+        Map<K, V> rCheck = check.getAll(keys);
+        Assert.assertEquals(rCheck, rProd);
+        return rProd;
+    }
+
+    public Map<K, DirectValueAccess> getAllDirect(Iterable<K> keys)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public void putRaw(ByteBuffer key, ByteBuffer value)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public DirectValueAccess getRaw(ByteBuffer key)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public void removeRaw(ByteBuffer key)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean getTo(K key, WritableByteChannel channel)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public int getAllTo(Iterable<K> keys, GatheringByteChannel channel)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean putFrom(K key, ReadableByteChannel channel, long valueLen)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public Future<Boolean> putFromAsync(K key, ReadableByteChannel channel, long valueLen)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     public V get(K key)
     {
         V rProd = prod.get(key);
@@ -139,6 +196,16 @@ public class DoubleCheckCacheImpl<K, V> implements OHCache<K, V>
         throw new UnsupportedOperationException();
     }
 
+    public Map<K, V> getAllWithLoader(Iterable<K> keys, BulkCacheLoader<K, V> loader) throws InterruptedException, ExecutionException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public Future<Map<K, V>> getAllWithLoaderAsync(Iterable<K> keys, BulkCacheLoader<K, V> loader)
+    {
+        throw new UnsupportedOperationException();
+    }
+
     public CloseableIterator<K> hotKeyIterator(int n)
     {
         return new CheckIterator<>(
@@ -205,6 +272,16 @@ public class DoubleCheckCacheImpl<K, V> implements OHCache<K, V>
         throw new UnsupportedOperationException();
     }
 
+    public long snapshot(File directory, ExecutorService executor) throws IOException, InterruptedException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public long restoreSnapshot(File directory, ExecutorService executor) throws IOException, InterruptedException
+    {
+        throw new UnsupportedOperationException();
+    }
+
     public void resetStatistics()
     {
         prod.resetStatistics();
@@ -0,0 +1,155 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.caffinitas.ohc.CloseableIterator;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class ExpirationTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    private static OHCacheBuilder<Integer, String> builder()
+    {
+        return OHCacheBuilder.<Integer, String>newBuilder()
+                             .keySerializer(TestUtils.intSerializer)
+                             .valueSerializer(TestUtils.stringSerializer)
+                             .segmentCount(1)
+                             .type(OHCacheImpl.class);
+    }
+
+    @Test
+    public void testTTL() throws IOException, InterruptedException
+    {
+        try (OHCache<Integer, String> cache = builder().build())
+        {
+            cache.put(1, "one", 300, TimeUnit.MILLISECONDS);
+            cache.put(2, "two");
+            cache.put(3, "three", 0, TimeUnit.MILLISECONDS);
+            Assert.assertEquals(cache.get(1), "one");
+
+            Thread.sleep(500);
+
+            Assert.assertNull(cache.get(1));
+            Assert.assertFalse(cache.containsKey(1));
+            Assert.assertEquals(cache.get(2), "two");
+            Assert.assertEquals(cache.get(3), "three");
+
+            int keys = 0;
+            try (CloseableIterator<Integer> iter = cache.keyIterator())
+            {
+                while (iter.hasNext())
+                {
+                    Assert.assertNotEquals(iter.next(), Integer.valueOf(1));
+                    keys++;
+                }
+            }
+            Assert.assertEquals(keys, 2);
+        }
+    }
+
+    @Test
+    public void testDefaultTTL() throws IOException, InterruptedException
+    {
+        try (OHCache<Integer, String> cache = builder().defaultTTLmillis(300).build())
+        {
+            cache.put(1, "one");
+            cache.put(2, "two", 1, TimeUnit.HOURS);
+            Assert.assertEquals(cache.get(1), "one");
+
+            Thread.sleep(500);
+
+            Assert.assertNull(cache.get(1));
+            Assert.assertEquals(cache.get(2), "two");
+        }
+    }
+
+    @Test
+    public void testMaxIdle() throws IOException, InterruptedException
+    {
+        try (OHCache<Integer, String> cache = builder().maxIdleMillis(300).build())
+        {
+            cache.put(1, "one");
+            cache.put(2, "two");
+
+            // accesses extend the max-idle deadline
+            for (int i = 0; i < 5; i++)
+            {
+                Thread.sleep(100);
+                Assert.assertEquals(cache.get(1), "one");
+            }
+            Assert.assertNull(cache.get(2));
+
+            Thread.sleep(500);
+
+            Assert.assertNull(cache.get(1));
+        }
+    }
+
+    @Test
+    public void testPutIfAbsentOverExpired() throws IOException, InterruptedException
+    {
+        try (OHCache<Integer, String> cache = builder().build())
+        {
+            cache.put(1, "one", 300, TimeUnit.MILLISECONDS);
+            Assert.assertFalse(cache.putIfAbsent(1, "uno"));
+
+            cache.put(2, "two", 300, TimeUnit.MILLISECONDS);
+            Assert.assertFalse(cache.addOrReplace(2, "zwei", "deux"));
+
+            Thread.sleep(500);
+
+            Assert.assertTrue(cache.putIfAbsent(1, "uno"));
+            Assert.assertEquals(cache.get(1), "uno");
+            Assert.assertTrue(cache.addOrReplace(2, "zwei", "deux"));
+            Assert.assertEquals(cache.get(2), "deux");
+            Assert.assertEquals(cache.size(), 2L);
+        }
+    }
+
+    @Test
+    public void testTimerWheel() throws IOException, InterruptedException
+    {
+        try (OHCache<Integer, String> cache = builder().build())
+        {
+            for (int i = 0; i < 1000; i++)
+                cache.put(i, "value-" + i, 500, TimeUnit.MILLISECONDS);
+            for (int i = 1000; i < 1100; i++)
+                cache.put(i, "value-" + i, 1, TimeUnit.HOURS);
+            Assert.assertEquals(cache.size(), 1100L);
+
+            Thread.sleep(1000);
+
+            // expired entries are reclaimed by the next write to the segment
+            cache.put(-1, "trigger");
+            Assert.assertEquals(cache.size(), 101L);
+            Assert.assertEquals(cache.stats().getExpireCount(), 1000L);
+            for (int i = 1000; i < 1100; i++)
+                Assert.assertEquals(cache.get(i), "value-" + i);
+        }
+    }
+}
@@ -42,8 +42,8 @@ public class HashEntriesTest
             HashEntries.init(0x98765432abcddeafL, 5L, 10L, adr);
 
             assertEquals(Uns.getLong(adr, Util.ENTRY_OFF_HASH), 0x98765432abcddeafL);
-            assertEquals(Uns.getLong(adr, Util.ENTRY_OFF_KEY_LENGTH), 5L);
-            assertEquals(Uns.getLong(adr, Util.ENTRY_OFF_VALUE_LENGTH), 10L);
+            assertEquals(Uns.getInt(adr, Util.ENTRY_OFF_KEY_LENGTH), 5);
+            assertEquals(Uns.getInt(adr, Util.ENTRY_OFF_VALUE_LENGTH), 10);
 
             assertEquals(HashEntries.getHash(adr), 0x98765432abcddeafL);
             assertEquals(HashEntries.getKeyLen(adr), 5L);
@@ -170,16 +170,16 @@ public class HashEntriesTest
             assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 10L);
 
             HashEntries.init(0x98765432abcddeafL, 5L, 10L, adr);
-            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 8L + 10L);
+            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 5L + 10L);
 
             HashEntries.init(0x98765432abcddeafL, 8L, 10L, adr);
             assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 8L + 10L);
 
             HashEntries.init(0x98765432abcddeafL, 9L, 10L, adr);
-            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 16L + 10L);
+            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 9L + 10L);
 
             HashEntries.init(0x98765432abcddeafL, 15L, 10L, adr);
-            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 16L + 10L);
+            assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 15L + 10L);
 
             HashEntries.init(0x98765432abcddeafL, 16L, 10L, adr);
             assertEquals(HashEntries.getAllocLen(adr), Util.ENTRY_OFF_DATA + 16L + 10L);
@@ -0,0 +1,163 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.caffinitas.ohc.CloseableIterator;
+import org.caffinitas.ohc.Eviction;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class LirsTwoQTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    private static OHCache<Integer, String> cache(Eviction eviction, long capacity, int segments, int hashTableSize)
+    {
+        return OHCacheBuilder.<Integer, String>newBuilder()
+                             .keySerializer(TestUtils.intSerializer)
+                             .valueSerializer(TestUtils.stringSerializer)
+                             .capacity(capacity)
+                             .segmentCount(segments)
+                             .hashTableSize(hashTableSize)
+                             .eviction(eviction)
+                             .type(OHCacheImpl.class)
+                             .build();
+    }
+
+    @Test
+    public void testLoop() throws IOException
+    {
+        // LRU evicts each key of a loop slightly larger than the cache before it is accessed again
+        Assert.assertTrue(loopHitRatio(Eviction.LRU) < .05d);
+        Assert.assertTrue(loopHitRatio(Eviction.LIRS) > .5d);
+        Assert.assertTrue(loopHitRatio(Eviction.TWO_Q) > .1d);
+    }
+
+    private static double loopHitRatio(Eviction eviction) throws IOException
+    {
+        char[] chars = new char[900];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = (char) ('A' + i % 26);
+        String v = new String(chars);
+
+        try (OHCache<Integer, String> cache = cache(eviction, 4 * TestUtils.ONE_MB, 1, 8192))
+        {
+            // ~4000 entries fit into the cache
+            int loop = 5000;
+            int hits = 0;
+            for (int r = 0; r < 10; r++)
+                for (int i = 0; i < loop; i++)
+                {
+                    if (cache.get(i) != null)
+                    {
+                        if (r > 0)
+                            hits++;
+                    }
+                    else
+                        cache.put(i, v);
+                }
+            Assert.assertTrue(cache.stats().getEvictionCount() > 0L);
+            return (double) hits / (9 * loop);
+        }
+    }
+
+    @Test
+    public void testRandomOperationsLirs() throws IOException
+    {
+        randomOperations(Eviction.LIRS);
+    }
+
+    @Test
+    public void testRandomOperationsTwoQ() throws IOException
+    {
+        randomOperations(Eviction.TWO_Q);
+    }
+
+    private static void randomOperations(Eviction eviction) throws IOException
+    {
+        Random rand = new Random(42);
+        Map<Integer, String> values = new HashMap<>();
+
+        // small hash table to trigger rehashes
+        try (OHCache<Integer, String> cache = cache(eviction, TestUtils.ONE_MB, 2, 256))
+        {
+            for (int i = 0; i < 50000; i++)
+            {
+                int k = rand.nextInt(3000);
+                int op = rand.nextInt(100);
+                if (op < 50)
+                {
+                    String v = Integer.toString(i) + new String(new char[rand.nextInt(1000)]);
+                    cache.put(k, v);
+                    values.put(k, v);
+                }
+                else if (op < 90)
+                {
+                    String v = cache.get(k);
+                    if (v != null)
+                        Assert.assertEquals(v, values.get(k));
+                }
+                else
+                {
+                    cache.remove(k);
+                    values.remove(k);
+                }
+            }
+
+            Assert.assertTrue(cache.stats().getEvictionCount() > 0L);
+            Assert.assertTrue(cache.stats().getRehashCount() > 0L);
+
+            long size = 0L;
+            try (CloseableIterator<Integer> iter = cache.keyIterator())
+            {
+                while (iter.hasNext())
+                {
+                    Integer k = iter.next();
+                    Assert.assertEquals(cache.get(k), values.get(k));
+                    size++;
+                }
+            }
+            Assert.assertEquals(cache.size(), size);
+
+            int hot = 0;
+            try (CloseableIterator<Integer> iter = cache.hotKeyIterator(100))
+            {
+                while (iter.hasNext())
+                {
+                    Assert.assertNotNull(iter.next());
+                    hot++;
+                }
+            }
+            Assert.assertTrue(hot >= Math.min(100, size));
+
+            cache.clear();
+            Assert.assertEquals(cache.size(), 0L);
+            Assert.assertEquals(cache.freeCapacity(), cache.capacity());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.caffinitas.ohc.OHLongCache;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class LongCacheTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    private static OHCacheBuilder<Long, String> builder()
+    {
+        return OHCacheBuilder.<Long, String>newBuilder()
+                             .valueSerializer(TestUtils.stringSerializer)
+                             .type(OHCacheImpl.class);
+    }
+
+    @Test
+    public void testBasics() throws IOException
+    {
+        try (OHLongCache<String> cache = builder().buildLongCache())
+        {
+            long[] keys = { 0L, 1L, -1L, 42L, Long.MIN_VALUE, Long.MAX_VALUE, 0x0102030405060708L };
+            for (long key : keys)
+                cache.put(key, Long.toString(key));
+            Assert.assertEquals(cache.size(), keys.length);
+
+            for (long key : keys)
+            {
+                Assert.assertEquals(cache.get(key), Long.toString(key));
+                Assert.assertTrue(cache.containsKey(key));
+            }
+            Assert.assertNull(cache.get(2L));
+            Assert.assertFalse(cache.containsKey(2L));
+
+            Assert.assertFalse(cache.putIfAbsent(42L, "foo"));
+            Assert.assertTrue(cache.putIfAbsent(2L, "two"));
+            cache.put(42L, "forty-two");
+            Assert.assertEquals(cache.get(42L), "forty-two");
+            Assert.assertEquals(cache.get(2L), "two");
+
+            cache.remove(42L);
+            Assert.assertNull(cache.get(42L));
+            Assert.assertEquals(cache.size(), keys.length);
+
+            cache.clear();
+            Assert.assertEquals(cache.size(), 0L);
+            Assert.assertNull(cache.get(0L));
+        }
+    }
+
+    @Test
+    public void testManyKeys() throws IOException
+    {
+        try (OHLongCache<String> cache = builder().capacity(64 * TestUtils.ONE_MB).buildLongCache())
+        {
+            for (long key = -50000L; key < 50000L; key++)
+                cache.put(key * 31L, Long.toHexString(key));
+            Assert.assertEquals(cache.size(), 100000L);
+            Assert.assertEquals(cache.stats().getEvictionCount(), 0L);
+
+            for (long key = -50000L; key < 50000L; key++)
+            {
+                Assert.assertEquals(cache.get(key * 31L), Long.toHexString(key));
+                Assert.assertNull(cache.get(key * 31L + 1L));
+            }
+        }
+    }
+
+    @Test
+    public void testEviction() throws IOException
+    {
+        try (OHLongCache<String> cache = builder().capacity(TestUtils.ONE_MB).segmentCount(1).buildLongCache())
+        {
+            for (long key = 0L; key < 100000L; key++)
+                cache.put(key, "value of " + key);
+
+            Assert.assertTrue(cache.stats().getEvictionCount() > 0L);
+            Assert.assertTrue(cache.size() < 100000L);
+            Assert.assertEquals(cache.get(99999L), "value of 99999");
+            Assert.assertNull(cache.get(0L));
+        }
+    }
+
+    @Test
+    public void testTTL() throws IOException, InterruptedException
+    {
+        try (OHLongCache<String> cache = builder().buildLongCache())
+        {
+            cache.put(1L, "one", 300, TimeUnit.MILLISECONDS);
+            cache.put(2L, "two");
+            Assert.assertEquals(cache.get(1L), "one");
+
+            Thread.sleep(500);
+
+            Assert.assertNull(cache.get(1L));
+            Assert.assertEquals(cache.get(2L), "two");
+        }
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testUnsupportedType() throws IOException
+    {
+        builder().type(CheckOHCacheImpl.class).buildLongCache();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.base.Strings;
+
+import org.caffinitas.ohc.CloseableIterator;
+import org.caffinitas.ohc.Compression;
+import org.caffinitas.ohc.DirectValueAccess;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class RawAccessTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    @DataProvider(name = "direct")
+    public Object[][] direct()
+    {
+        return new Object[][]{ { true }, { false } };
+    }
+
+    private static OHCacheBuilder<Integer, String> builder()
+    {
+        return OHCacheBuilder.<Integer, String>newBuilder()
+                             .keySerializer(TestUtils.intSerializer)
+                             .valueSerializer(TestUtils.stringSerializer)
+                             .type(OHCacheImpl.class);
+    }
+
+    private static ByteBuffer buffer(String s, boolean direct)
+    {
+        return buffer(s.getBytes(StandardCharsets.UTF_8), direct);
+    }
+
+    private static ByteBuffer buffer(byte[] bytes, boolean direct)
+    {
+        // leading garbage to verify that the position is honored
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bytes.length + 3) : ByteBuffer.allocate(bytes.length + 3);
+        buffer.put(new byte[]{ 1, 2, 3 }).put(bytes);
+        buffer.position(3);
+        return buffer;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static void assertValue(DirectValueAccess direct, String value) throws IOException
+    {
+        try
+        {
+            Assert.assertNotNull(direct);
+            Assert.assertEquals(new String(bytes(direct.buffer()), StandardCharsets.UTF_8), value);
+        }
+        finally
+        {
+            if (direct != null)
+                direct.close();
+        }
+    }
+
+    @Test(dataProvider = "direct")
+    public void testPutGetRemove(boolean direct) throws IOException
+    {
+        try (OHCache<Integer, String> cache = builder().build())
+        {
+            for (int i = 0; i < 1000; i++)
+            {
+                ByteBuffer key = buffer("key " + i, direct);
+                ByteBuffer value = buffer("value " + i, direct);
+                cache.putRaw(key, value);
+                Assert.assertEquals(key.position(), 3);
+                Assert.assertEquals(value.position(), 3);
+            }
+            Assert.assertEquals(cache.size(), 1000);
+
+            for (int i = 0; i < 1000; i++)
+                assertValue(cache.getRaw(buffer("key " + i, direct)), "value " + i);
+            Assert.assertNull(cache.getRaw(buffer("key 1000", direct)));
+
+            cache.putRaw(buffer("key 5", direct), buffer("five", direct));
+            assertValue(cache.getRaw(buffer("key 5", direct)), "five");
+            Assert.assertEquals(cache.size(), 1000);
+
+            for (int i = 0; i < 1000; i += 2)
+                cache.removeRaw(buffer("key " + i, direct));
+            Assert.assertEquals(cache.size(), 500);
+            for (int i = 0; i < 1000; i++)
+            {
+                DirectValueAccess value = cache.getRaw(buffer("key " + i, direct));
+                Assert.assertEquals(value != null, (i & 1) == 1);
+                if (value != null)
+                    value.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSerializedInterop() throws IOException
+    {
+        try (OHCache<Integer, String> source = builder().build();
+             OHCache<Integer, String> target = builder().build())
+        {
+            for (int i = 0; i < 100; i++)
+                source.put(i, "value " + i);
+
+            // copy the serialized form of all entries from one cache to another
+            try (CloseableIterator<ByteBuffer> keys = source.keyBufferIterator())
+            {
+                while (keys.hasNext())
+                {
+                    ByteBuffer key = keys.next();
+                    try (DirectValueAccess value = source.getRaw(key))
+                    {
+                        target.putRaw(key, value.buffer());
+                    }
+                }
+            }
+
+            Assert.assertEquals(target.size(), 100);
+            for (int i = 0; i < 100; i++)
+                Assert.assertEquals(target.get(i), "value " + i);
+        }
+    }
+
+    @Test
+    public void testReadOnlyBuffers() throws IOException
+    {
+        try (OHCache<Integer, String> cache = builder().build())
+        {
+            cache.putRaw(buffer("one", false).asReadOnlyBuffer(), buffer("eins", false).asReadOnlyBuffer());
+            assertValue(cache.getRaw(buffer("one", true).asReadOnlyBuffer()), "eins");
+            assertValue(cache.getRaw(buffer("one", false).asReadOnlyBuffer()), "eins");
+            cache.removeRaw(buffer("one", false).asReadOnlyBuffer());
+            Assert.assertEquals(cache.size(), 0L);
+        }
+    }
+
+    @Test(dataProvider = "direct")
+    public void testCompressed(boolean direct) throws IOException
+    {
+        try (OHCache<Integer, String> cache = builder().compression(Compression.LZ4).compressionThreshold(64).build())
+        {
+            String value = Strings.repeat("compress me ", 100);
+            cache.putRaw(buffer("key", direct), buffer(value, direct));
+
+            Assert.assertTrue(cache.stats().getCompressionRatio() < 1d);
+            assertValue(cache.getRaw(buffer("key", direct)), value);
+        }
+    }
+
+    @Test
+    public void testTooLarge() throws IOException
+    {
+        try (OHCache<Integer, String> cache = builder().maxEntrySize(256).build())
+        {
+            cache.putRaw(buffer("key", true), buffer("small", true));
+            cache.putRaw(buffer("key", true), buffer(new byte[1000], true));
+            Assert.assertNull(cache.getRaw(buffer("key", true)));
+            Assert.assertEquals(cache.stats().getPutFailCount(), 1L);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class ReadBufferTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    private static OHCache<Integer, String> cache(long capacity, int segments, boolean optimisticReads)
+    {
+        return OHCacheBuilder.<Integer, String>newBuilder()
+                             .type(OHCacheImpl.class)
+                             .keySerializer(TestUtils.intSerializer)
+                             .valueSerializer(TestUtils.stringSerializer)
+                             .capacity(capacity)
+                             .segmentCount(segments)
+                             .readBufferSize(16)
+                             .optimisticReads(optimisticReads)
+                             .build();
+    }
+
+    @Test
+    public void testLRU() throws IOException
+    {
+        char[] chars = new char[900];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = (char) ('A' + i % 26);
+        String v = new String(chars);
+
+        try (OHCache<Integer, String> cache = cache(4 * TestUtils.ONE_MB, 1, false))
+        {
+            int i;
+            for (i = 0; cache.freeCapacity() >= 1494; i++)
+                cache.put(i, v);
+            Assert.assertEquals(cache.stats().getEvictionCount(), 0L, "oops - cleanup triggered - fix the unit test!");
+            int k = i;
+
+            // reference ~50% - promotions are buffered but must be applied before eviction
+            for (int j = 0; j < k / 2; j++)
+                cache.get(j);
+
+            for (int j = 0; j < k / 2; j++, i++)
+                cache.put(i, v);
+
+            for (int j = 0; j < k / 2 - 1; j++)
+                Assert.assertEquals(cache.containsKey(j), true, Integer.toString(j));
+
+            for (int j = k / 2; j < k - 2; j++)
+                Assert.assertEquals(cache.containsKey(j), false, Integer.toString(j));
+        }
+    }
+
+    @Test
+    public void testConcurrentModification() throws Exception
+    {
+        for (boolean optimisticReads : new boolean[]{ false, true })
+        {
+            try (final OHCache<Integer, String> cache = cache(2 * TestUtils.ONE_MB, 2, optimisticReads))
+            {
+                final AtomicBoolean stop = new AtomicBoolean();
+                final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+                Thread[] readers = new Thread[4];
+                for (int t = 0; t < readers.length; t++)
+                {
+                    readers[t] = new Thread()
+                    {
+                        public void run()
+                        {
+                            try
+                            {
+                                ThreadLocalRandom rand = ThreadLocalRandom.current();
+                                while (!stop.get())
+                                {
+                                    int k = rand.nextInt(20000);
+                                    String v = cache.get(k);
+                                    if (v != null)
+                                        Assert.assertEquals(v, Integer.toOctalString(k));
+                                }
+                            }
+                            catch (Throwable e)
+                            {
+                                failure.compareAndSet(null, e);
+                            }
+                        }
+                    };
+                    readers[t].start();
+                }
+
+                try
+                {
+                    // buffered hash entries get evicted and removed while still in the read buffer
+                    for (int i = 0; i < 100000; i++)
+                    {
+                        int k = i % 20000;
+                        if (i % 5 == 0)
+                            cache.remove(k);
+                        else
+                            cache.put(k, Integer.toOctalString(k));
+                    }
+                }
+                finally
+                {
+                    stop.set(true);
+                    for (Thread reader : readers)
+                        reader.join();
+                }
+
+                if (failure.get() != null)
+                    throw new AssertionError(failure.get());
+            }
+        }
+    }
+}
@@ -17,12 +17,16 @@ package org.caffinitas.ohc.tables;
 
 import java.io.IOException;
 
+import org.caffinitas.ohc.CloseableIterator;
 import org.caffinitas.ohc.OHCache;
 import org.caffinitas.ohc.OHCacheBuilder;
+import org.caffinitas.ohc.histo.EstimatedHistogram;
 import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
 public class RehashTest
@@ -56,4 +60,175 @@ public class RehashTest
             }
         }
     }
+
+    @Test
+    public void testRehashProbeTags() throws IOException
+    {
+        try (OHCache<Integer, String> cache = OHCacheBuilder.<Integer, String>newBuilder()
+                                                            .keySerializer(TestUtils.intSerializer)
+                                                            .valueSerializer(TestUtils.stringSerializer)
+                                                            .type(OHCacheImpl.class)
+                                                            .probeTags(true)
+                                                            .hashTableSize(64)
+                                                            .segmentCount(4)
+                                                            .capacity(512 * 1024 * 1024)
+                                                            .build())
+        {
+            for (int i = 0; i < 100000; i++)
+                cache.put(i, Integer.toOctalString(i));
+
+            assertTrue(cache.stats().getRehashCount() > 0);
+
+            for (int i = 0; i < 100000; i++)
+            {
+                assertEquals(cache.get(i), Integer.toOctalString(i));
+                assertEquals(cache.get(-1 - i), null);
+            }
+        }
+    }
+
+    @DataProvider(name = "probeTags")
+    public Object[][] probeTags()
+    {
+        return new Object[][]{ { false }, { true } };
+    }
+
+    @Test(dataProvider = "probeTags")
+    public void testHighLoadFactor(boolean probeTags) throws IOException
+    {
+        try (OHCache<Integer, String> cache = OHCacheBuilder.<Integer, String>newBuilder()
+                                                            .keySerializer(TestUtils.intSerializer)
+                                                            .valueSerializer(TestUtils.stringSerializer)
+                                                            .type(OHCacheImpl.class)
+                                                            .probeTags(probeTags)
+                                                            .hashTableSize(1024)
+                                                            .segmentCount(1)
+                                                            .loadFactor(.95f)
+                                                            .capacity(64 * 1024 * 1024)
+                                                            .build())
+        {
+            for (int i = 0; i < 960; i++)
+                cache.put(i, Integer.toOctalString(i));
+
+            assertEquals(cache.stats().getRehashCount(), 0L);
+            assertEquals(cache.size(), 960L);
+
+            // removals shift the following entries of a probe sequence back
+            for (int i = 0; i < 960; i += 2)
+                cache.remove(i);
+            for (int i = 0; i < 960; i++)
+                assertEquals(cache.get(i), i % 2 == 0 ? null : Integer.toOctalString(i));
+
+            for (int i = 0; i < 960; i += 2)
+                cache.put(i, Integer.toOctalString(i));
+            for (int i = 0; i < 960; i++)
+                assertEquals(cache.get(i), Integer.toOctalString(i));
+
+            assertEquals(cache.stats().getRehashCount(), 0L);
+
+            // number of entries per home slot
+            EstimatedHistogram hist = cache.getBucketHistogram();
+            assertEquals(hist.count(), 1024L);
+            assertTrue(hist.max() < 10L);
+        }
+    }
+
+    @DataProvider(name = "optimisticReads")
+    public Object[][] optimisticReads()
+    {
+        return new Object[][]{ { false }, { true } };
+    }
+
+    @Test(dataProvider = "optimisticReads")
+    public void testIncrementalRehash(boolean optimisticReads) throws IOException
+    {
+        try (OHCache<Integer, String> cache = OHCacheBuilder.<Integer, String>newBuilder()
+                                                            .keySerializer(TestUtils.intSerializer)
+                                                            .valueSerializer(TestUtils.stringSerializer)
+                                                            .type(OHCacheImpl.class)
+                                                            .optimisticReads(optimisticReads)
+                                                            .hashTableSize(256)
+                                                            .segmentCount(1)
+                                                            .capacity(64 * 1024 * 1024)
+                                                            .build())
+        {
+            // each write moves a few slots of the old hash table, so most operations run during a rehash
+            for (int i = 0; i < 20000; i++)
+            {
+                cache.put(i, Integer.toOctalString(i));
+                if (i >= 500 && (i - 500) % 2 == 1)
+                    cache.put(i - 500, "replaced");
+                if (i >= 1000 && (i - 1000) % 2 == 0)
+                    cache.remove(i - 1000);
+
+                if (i % 100 == 0)
+                    for (int k = i % 97; k <= i; k += 97)
+                        assertEquals(cache.get(k), expected(k, i), "key " + k + " after " + i);
+            }
+
+            assertTrue(cache.stats().getRehashCount() >= 6L);
+            for (int k = 0; k < 20000; k++)
+                assertEquals(cache.get(k), expected(k, 19999));
+
+            int keys = 0;
+            try (CloseableIterator<Integer> iter = cache.keyIterator())
+            {
+                while (iter.hasNext())
+                {
+                    Integer k = iter.next();
+                    assertEquals(cache.get(k), expected(k, 19999));
+                    keys++;
+                }
+            }
+            assertEquals(keys, cache.size());
+
+            cache.clear();
+            assertEquals(cache.size(), 0L);
+            for (int k = 0; k < 20000; k++)
+                assertEquals(cache.get(k), null);
+
+            for (int k = 0; k < 20000; k++)
+                cache.put(k, Integer.toOctalString(k));
+            for (int k = 0; k < 20000; k++)
+                assertEquals(cache.get(k), Integer.toOctalString(k));
+        }
+    }
+
+    @Test(dataProvider = "optimisticReads")
+    public void testRehashCompletesOnReads(boolean optimisticReads) throws IOException
+    {
+        try (OHCacheImpl<Integer, String> cache = (OHCacheImpl<Integer, String>) OHCacheBuilder.<Integer, String>newBuilder()
+                                                                                               .keySerializer(TestUtils.intSerializer)
+                                                                                               .valueSerializer(TestUtils.stringSerializer)
+                                                                                               .type(OHCacheImpl.class)
+                                                                                               .optimisticReads(optimisticReads)
+                                                                                               .hashTableSize(256)
+                                                                                               .segmentCount(1)
+                                                                                               .capacity(64 * 1024 * 1024)
+                                                                                               .build())
+        {
+            int keys = 0;
+            while (cache.stats().getRehashCount() == 0L)
+            {
+                cache.put(keys, Integer.toOctalString(keys));
+                keys++;
+            }
+            assertTrue(cache.rehashing());
+
+            // no more writes - the lookups move the remaining slots and LRU-tables
+            for (int k = 0; k < keys; k++)
+                assertEquals(cache.get(k), Integer.toOctalString(k));
+            assertFalse(cache.rehashing());
+
+            for (int k = 0; k < keys; k++)
+                assertEquals(cache.get(k), Integer.toOctalString(k));
+        }
+    }
+
+    private static String expected(int key, int step)
+    {
+        if (key % 2 == 0)
+            return key <= step - 1000 ? null : Integer.toOctalString(key);
+        return key <= step - 500 ? "replaced" : Integer.toOctalString(key);
+    }
 }
@@ -15,9 +15,15 @@
  */
 package org.caffinitas.ohc.tables;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 
 import org.caffinitas.ohc.CloseableIterator;
@@ -320,6 +326,120 @@ public class SerializationTest
         }
     }
 
+    @Test
+    public void testReadVersion1Entries() throws IOException, InterruptedException
+    {
+        File f = File.createTempFile("EntrySerializationTest-version1-", ".bin");
+        f.deleteOnExit();
+
+        try (OHCache<Integer, String> cache = OHCacheBuilder.<Integer, String>newBuilder()
+                                                            .type(OHCacheImpl.class)
+                                                            .keySerializer(TestUtils.intSerializer)
+                                                            .valueSerializer(TestUtils.stringSerializer)
+                                                            .build())
+        {
+            TestUtils.fillMany(cache);
+
+            try (BufferedWritableByteChannel ch = new BufferedWritableByteChannel(FileChannel.open(f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), 8192))
+            {
+                cache.serializeHotNEntries(TestUtils.manyCount, ch);
+            }
+        }
+
+        // rewrite the entries in the version 1 format - 64 bit lengths and keys padded to 8 bytes
+        byte[] v2 = Files.readAllBytes(f.toPath());
+        ByteBuffer header = ByteBuffer.wrap(v2, 0, 8).order(ByteOrder.nativeOrder());
+        Assert.assertEquals(header.getInt(), Util.HEADER_ENTRIES);
+        Assert.assertEquals(header.getInt(), Util.HEADER_ENTRIES_VERSION);
+
+        ByteBuffer v1 = ByteBuffer.allocate(v2.length * 2).order(ByteOrder.nativeOrder());
+        v1.putInt(Util.HEADER_ENTRIES);
+        v1.putInt(1);
+        for (int off = 8; off < v2.length; )
+        {
+            long hash = Uns.getLongFromByteArray(v2, off);
+            int valueLen = Uns.getIntFromByteArray(v2, off + 8);
+            int keyLen = Uns.getIntFromByteArray(v2, off + 12);
+            off += 16;
+            v1.putLong(hash);
+            v1.putLong(valueLen);
+            v1.putLong(keyLen);
+            v1.put(v2, off, keyLen);
+            v1.position(v1.position() + (int) (Util.roundUpTo8(keyLen) - keyLen));
+            off += keyLen;
+            v1.put(v2, off, valueLen);
+            off += valueLen;
+        }
+        v1.flip();
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (v1.hasRemaining())
+                ch.write(v1);
+        }
+
+        try (OHCache<Integer, String> cache = OHCacheBuilder.<Integer, String>newBuilder()
+                                                            .type(OHCacheImpl.class)
+                                                            .keySerializer(TestUtils.intSerializer)
+                                                            .valueSerializer(TestUtils.stringSerializer)
+                                                            .build())
+        {
+            int count;
+
+            try (BufferedReadableByteChannel ch = new BufferedReadableByteChannel(FileChannel.open(f.toPath(), StandardOpenOption.READ), 8192))
+            {
+                count = cache.deserializeEntries(ch);
+            }
+
+            Assert.assertTrue(count > 0);
+            TestUtils.checkManyForSerializedEntries(cache, count);
+        }
+    }
+
+    @Test
+    public void testReadVersion1Entry() throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OHCache<Integer, String> cache = OHCacheBuilder.<Integer, String>newBuilder()
+                                                            .keySerializer(TestUtils.intSerializer)
+                                                            .valueSerializer(TestUtils.stringSerializer)
+                                                            .build())
+        {
+            cache.put(1, "one");
+            Assert.assertTrue(cache.serializeEntry(1, Channels.newChannel(out)));
+        }
+
+        // a single entry starts with a marker
+        byte[] v2 = out.toByteArray();
+        ByteBuffer marker = ByteBuffer.wrap(v2, 0, 8).order(ByteOrder.nativeOrder());
+        Assert.assertEquals(marker.getInt(), Util.HEADER_ENTRY);
+        Assert.assertEquals(marker.getInt(), Util.HEADER_ENTRIES_VERSION);
+
+        // rewrite the entry in the version 1 format - no marker, 64 bit lengths and key padded to 8 bytes
+        long hash = Uns.getLongFromByteArray(v2, 8);
+        int valueLen = Uns.getIntFromByteArray(v2, 16);
+        int keyLen = Uns.getIntFromByteArray(v2, 20);
+        ByteBuffer v1 = ByteBuffer.allocate(3 * 8 + (int) Util.roundUpTo8(keyLen) + valueLen).order(ByteOrder.nativeOrder());
+        v1.putLong(hash);
+        v1.putLong(valueLen);
+        v1.putLong(keyLen);
+        v1.put(v2, 24, keyLen);
+        v1.position(v1.position() + (int) (Util.roundUpTo8(keyLen) - keyLen));
+        v1.put(v2, 24 + keyLen, valueLen);
+
+        try (OHCache<Integer, String> cache = OHCacheBuilder.<Integer, String>newBuilder()
+                                                            .keySerializer(TestUtils.intSerializer)
+                                                            .valueSerializer(TestUtils.stringSerializer)
+                                                            .build())
+        {
+            Assert.assertTrue(cache.deserializeEntry(Channels.newChannel(new ByteArrayInputStream(v2))));
+            Assert.assertEquals(cache.get(1), "one");
+            cache.remove(1);
+
+            Assert.assertTrue(cache.deserializeEntry(Channels.newChannel(new ByteArrayInputStream(v1.array()))));
+            Assert.assertEquals(cache.get(1), "one");
+        }
+    }
+
     @Test
     public void testTooBigEntryOnDeserialize() throws IOException, InterruptedException
     {
@@ -358,7 +478,7 @@ public class SerializationTest
                                                             .keySerializer(TestUtils.intSerializer)
                                                             .valueSerializer(TestUtils.stringSerializer)
                                                             .capacity(512L * 1024 * 1024)
-                                                            .maxEntrySize(TestUtils.intSerializer.serializedSize(1) + Util.ENTRY_OFF_DATA + Util.roundUpTo8(9))
+                                                            .maxEntrySize(TestUtils.intSerializer.serializedSize(1) + Util.ENTRY_OFF_DATA + 9)
                                                             .build())
         {
             try (BufferedReadableByteChannel ch = new BufferedReadableByteChannel(FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING), 8192))
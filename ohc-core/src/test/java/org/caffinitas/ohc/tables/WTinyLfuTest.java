@@ -0,0 +1,196 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.tables;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.caffinitas.ohc.CloseableIterator;
+import org.caffinitas.ohc.Eviction;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class WTinyLfuTest
+{
+    @AfterMethod(alwaysRun = true)
+    public void deinit()
+    {
+        Uns.clearUnsDebugForTest();
+    }
+
+    private static OHCache<Integer, String> cache(Eviction eviction, long capacity, int segments, int hashTableSize)
+    {
+        return cache(eviction, capacity, segments, hashTableSize, false);
+    }
+
+    private static OHCache<Integer, String> cache(Eviction eviction, long capacity, int segments, int hashTableSize,
+                                                  boolean optimisticReads)
+    {
+        return OHCacheBuilder.<Integer, String>newBuilder()
+                             .keySerializer(TestUtils.intSerializer)
+                             .valueSerializer(TestUtils.stringSerializer)
+                             .capacity(capacity)
+                             .segmentCount(segments)
+                             .hashTableSize(hashTableSize)
+                             .eviction(eviction)
+                             .type(OHCacheImpl.class)
+                             .build();
+    }
+
+    @Test
+    public void testScanResistance() throws IOException
+    {
+        Assert.assertEquals(hotKeysRetainedAfterScan(Eviction.LRU), 0);
+        Assert.assertTrue(hotKeysRetainedAfterScan(Eviction.W_TINY_LFU) >= 900);
+    }
+
+    private static int hotKeysRetainedAfterScan(Eviction eviction) throws IOException
+    {
+        char[] chars = new char[900];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = (char) ('A' + i % 26);
+        String v = new String(chars);
+
+        try (OHCache<Integer, String> cache = cache(eviction, 4 * TestUtils.ONE_MB, 1, 8192))
+        {
+            // 1000 frequently accessed keys use ~25% of the capacity
+            for (int i = 0; i < 1000; i++)
+                cache.put(i, v);
+            for (int r = 0; r < 3; r++)
+                for (int i = 0; i < 1000; i++)
+                    Assert.assertEquals(cache.get(i), v);
+
+            // scan - 10000 keys accessed once
+            for (int i = 0; i < 10000; i++)
+                cache.put(100000 + i, v);
+            Assert.assertTrue(cache.stats().getEvictionCount() > 0L);
+
+            int retained = 0;
+            for (int i = 0; i < 1000; i++)
+                if (cache.containsKey(i))
+                    retained++;
+            return retained;
+        }
+    }
+
+    @Test
+    public void testMissesRecorded() throws IOException
+    {
+        Assert.assertTrue(missedKeysRetainedAfterScan(false) >= 450);
+        Assert.assertTrue(missedKeysRetainedAfterScan(true) >= 450);
+    }
+
+    private static int missedKeysRetainedAfterScan(boolean optimisticReads) throws IOException
+    {
+        char[] chars = new char[900];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = (char) ('A' + i % 26);
+        String v = new String(chars);
+
+        try (OHCache<Integer, String> cache = cache(Eviction.W_TINY_LFU, 4 * TestUtils.ONE_MB, 1, 8192, optimisticReads))
+        {
+            for (int i = 0; i < 10000; i++)
+                cache.put(200000 + i, v);
+
+            // 500 keys requested several times before they are added
+            for (int r = 0; r < 3; r++)
+                for (int i = 0; i < 500; i++)
+                    Assert.assertNull(cache.get(i));
+            for (int i = 0; i < 500; i++)
+                cache.put(i, v);
+
+            // scan - 10000 keys accessed once
+            for (int i = 0; i < 10000; i++)
+                cache.put(100000 + i, v);
+            Assert.assertTrue(cache.stats().getEvictionCount() > 0L);
+
+            int retained = 0;
+            for (int i = 0; i < 500; i++)
+                if (cache.containsKey(i))
+                    retained++;
+            return retained;
+        }
+    }
+
+    @Test
+    public void testRandomOperations() throws IOException
+    {
+        Random rand = new Random(42);
+        Map<Integer, String> values = new HashMap<>();
+
+        // small hash table to trigger rehashes
+        try (OHCache<Integer, String> cache = cache(Eviction.W_TINY_LFU, TestUtils.ONE_MB, 2, 256))
+        {
+            for (int i = 0; i < 50000; i++)
+            {
+                int k = rand.nextInt(3000);
+                int op = rand.nextInt(100);
+                if (op < 50)
+                {
+                    String v = Integer.toString(i) + new String(new char[rand.nextInt(1000)]);
+                    cache.put(k, v);
+                    values.put(k, v);
+                }
+                else if (op < 90)
+                {
+                    String v = cache.get(k);
+                    if (v != null)
+                        Assert.assertEquals(v, values.get(k));
+                }
+                else
+                {
+                    cache.remove(k);
+                    values.remove(k);
+                }
+            }
+
+            Assert.assertTrue(cache.stats().getEvictionCount() > 0L);
+            Assert.assertTrue(cache.stats().getRehashCount() > 0L);
+
+            long size = 0L;
+            try (CloseableIterator<Integer> iter = cache.keyIterator())
+            {
+                while (iter.hasNext())
+                {
+                    Integer k = iter.next();
+                    Assert.assertEquals(cache.get(k), values.get(k));
+                    size++;
+                }
+            }
+            Assert.assertEquals(cache.size(), size);
+
+            int hot = 0;
+            try (CloseableIterator<Integer> iter = cache.hotKeyIterator(100))
+            {
+                while (iter.hasNext())
+                {
+                    Assert.assertNotNull(iter.next());
+                    hot++;
+                }
+            }
+            Assert.assertTrue(hot >= Math.min(100, size));
+
+            cache.clear();
+            Assert.assertEquals(cache.size(), 0L);
+            Assert.assertEquals(cache.freeCapacity(), cache.capacity());
+        }
+    }
+}
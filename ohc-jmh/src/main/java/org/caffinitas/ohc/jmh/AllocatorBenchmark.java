@@ -0,0 +1,118 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.caffinitas.ohc.alloc.IAllocator;
+import org.caffinitas.ohc.alloc.JNANativeAllocator;
+import org.caffinitas.ohc.alloc.SlabAllocator;
+import org.caffinitas.ohc.alloc.UnsafeAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the off-heap allocators - a plain allocate/free pair and an allocation churn with a working set of
+ * live blocks of random sizes, which resembles puts and evictions of a full cache.
+ */
+@BenchmarkMode({ Mode.AverageTime, Mode.Throughput })
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Threads(4)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512M")
+public class AllocatorBenchmark
+{
+    private IAllocator allocator;
+
+    @Param({"jna", "unsafe", "slab"})
+    private String allocatorType = "jna";
+    @Param({"64", "1024", "16384"})
+    private int maxSize = 1024;
+    @Param("4096")
+    private int liveBlocks = 4096;
+
+    @State(Scope.Thread)
+    public static class ChurnState
+    {
+        long[] blocks;
+        int next;
+
+        @Setup
+        public void setup(AllocatorBenchmark bench)
+        {
+            blocks = new long[bench.liveBlocks];
+            for (int i = 0; i < blocks.length; i++)
+                blocks[i] = bench.allocator.allocate(bench.randomSize());
+        }
+
+        @TearDown
+        public void tearDown(AllocatorBenchmark bench)
+        {
+            for (long adr : blocks)
+                bench.allocator.free(adr);
+        }
+    }
+
+    @Setup
+    public void setup()
+    {
+        switch (allocatorType)
+        {
+            case "unsafe":
+                allocator = new UnsafeAllocator();
+                break;
+            case "slab":
+                allocator = new SlabAllocator();
+                break;
+            default:
+                allocator = new JNANativeAllocator();
+        }
+    }
+
+    private long randomSize()
+    {
+        return 8 + ThreadLocalRandom.current().nextInt(maxSize);
+    }
+
+    @Benchmark
+    public void allocateFree()
+    {
+        allocator.free(allocator.allocate(maxSize));
+    }
+
+    @Benchmark
+    public void churn(ChurnState state)
+    {
+        int i = state.next;
+        allocator.free(state.blocks[i]);
+        state.blocks[i] = allocator.allocate(randomSize());
+        state.next = i + 1 == state.blocks.length ? 0 : i + 1;
+    }
+}
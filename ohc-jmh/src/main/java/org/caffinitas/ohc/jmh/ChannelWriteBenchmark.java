@@ -0,0 +1,215 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.jmh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.caffinitas.ohc.DirectValueAccess;
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link OHCache#getTo(Object, java.nio.channels.WritableByteChannel)} and
+ * {@link OHCache#getAllTo(Iterable, GatheringByteChannel)} against {@link OHCache#getDirect(Object)} followed by
+ * a write loop. The channel discards all data.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Threads(1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512M")
+public class ChannelWriteBenchmark
+{
+    private OHCache<Integer, byte[]> cache;
+
+    @Param("1024")
+    private int valueSize = 1024;
+    @Param("268435456")
+    private long capacity = 256 * 1024 * 1024;
+    @Param("-1")
+    private int segmentCount = -1;
+    @Param("100000")
+    private int keys = 100000;
+    @Param("16")
+    private int batchSize = 16;
+    @Param({"linked", "tables"})
+    private String impl = "linked";
+
+    // boxed keys and batches of random keys created upfront
+    private Integer[] keyObjects;
+    private List<List<Integer>> batches;
+
+    @State(Scope.Thread)
+    public static class ThreadState
+    {
+        public final NullChannel channel = new NullChannel();
+        public int key;
+        public int batch;
+    }
+
+    @Setup
+    public void setup() throws ClassNotFoundException
+    {
+        cache = OHCacheBuilder.<Integer, byte[]>newBuilder()
+                              .capacity(capacity)
+                              .segmentCount(segmentCount)
+                              .type((Class<? extends OHCache>) Class.forName("org.caffinitas.ohc." + impl + ".OHCacheImpl"))
+                              .keySerializer(Utils.intSerializer)
+                              .valueSerializer(Utils.byteArraySerializer)
+                              .build();
+
+        keyObjects = new Integer[keys];
+        for (int i = 0; i < keys; i++)
+        {
+            keyObjects[i] = i;
+            cache.put(i, new byte[valueSize]);
+        }
+
+        Random r = new Random(42);
+        batches = new ArrayList<>();
+        for (int b = 0; b < 1024; b++)
+        {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++)
+                batch.add(keyObjects[r.nextInt(keys)]);
+            batches.add(batch);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        cache.close();
+    }
+
+    private Integer nextKey(ThreadState state)
+    {
+        Integer key = keyObjects[state.key++];
+        if (state.key == keys)
+            state.key = 0;
+        return key;
+    }
+
+    private List<Integer> nextBatch(ThreadState state)
+    {
+        return batches.get(state.batch++ & (batches.size() - 1));
+    }
+
+    @Benchmark
+    public boolean getTo(ThreadState state) throws IOException
+    {
+        return cache.getTo(nextKey(state), state.channel);
+    }
+
+    @Benchmark
+    public boolean getDirectWrite(ThreadState state) throws IOException
+    {
+        return getDirectWrite(nextKey(state), state.channel);
+    }
+
+    @Benchmark
+    public int getAllTo(ThreadState state) throws IOException
+    {
+        return cache.getAllTo(nextBatch(state), state.channel);
+    }
+
+    @Benchmark
+    public int getDirectWriteLoop(ThreadState state) throws IOException
+    {
+        int n = 0;
+        for (Integer key : nextBatch(state))
+            if (getDirectWrite(key, state.channel))
+                n++;
+        return n;
+    }
+
+    private boolean getDirectWrite(Integer key, NullChannel channel) throws IOException
+    {
+        DirectValueAccess direct = cache.getDirect(key);
+        if (direct == null)
+            return false;
+        try
+        {
+            ByteBuffer buffer = direct.buffer();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            return true;
+        }
+        finally
+        {
+            direct.close();
+        }
+    }
+
+    /**
+     * Consumes all bytes without reading them.
+     */
+    public static final class NullChannel implements GatheringByteChannel
+    {
+        public long written;
+
+        public int write(ByteBuffer src)
+        {
+            int n = src.remaining();
+            src.position(src.limit());
+            written += n;
+            return n;
+        }
+
+        public long write(ByteBuffer[] srcs, int offset, int length)
+        {
+            long n = 0L;
+            for (int i = offset; i < offset + length; i++)
+                n += write(srcs[i]);
+            return n;
+        }
+
+        public long write(ByteBuffer[] srcs)
+        {
+            return write(srcs, 0, srcs.length);
+        }
+
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.jmh;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link OHCache#getAll(Iterable)} against a loop of {@link OHCache#get(Object)} calls that collects the
+ * values in a map.
+ * Scores are per batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Threads(4)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512M")
+public class GetAllBenchmark
+{
+    private OHCache<Integer, byte[]> cache;
+
+    @Param({"8", "64", "256", "1024"})
+    private int batchSize = 64;
+    @Param("64")
+    private int valueSize = 64;
+    @Param("268435456")
+    private long capacity = 256 * 1024 * 1024;
+    @Param("-1")
+    private int segmentCount = -1;
+    @Param("500000")
+    private int keys = 500000;
+    @Param({"linked", "tables"})
+    private String impl = "linked";
+    @Param({"false", "true"})
+    private boolean optimisticReads;
+
+    // batches of random keys, a quarter of the keys is not in the cache
+    private List<List<Integer>> batches;
+
+    @State(Scope.Thread)
+    public static class BatchState
+    {
+        public int batch;
+    }
+
+    @Setup
+    public void setup() throws ClassNotFoundException
+    {
+        cache = OHCacheBuilder.<Integer, byte[]>newBuilder()
+                              .capacity(capacity)
+                              .segmentCount(segmentCount)
+                              .type((Class<? extends OHCache>) Class.forName("org.caffinitas.ohc." + impl + ".OHCacheImpl"))
+                              .keySerializer(Utils.intSerializer)
+                              .valueSerializer(Utils.byteArraySerializer)
+                              .optimisticReads(optimisticReads)
+                              .build();
+
+        for (int i = 0; i < keys; i++)
+            cache.put(i, new byte[valueSize]);
+
+        Random r = new Random(42);
+        batches = new ArrayList<>();
+        for (int b = 0; b < 1024; b++)
+        {
+            List<Integer> batch = new ArrayList<>(batchSize);
+            for (int i = 0; i < batchSize; i++)
+                batch.add(r.nextInt(keys + keys / 3));
+            batches.add(batch);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        cache.close();
+    }
+
+    private List<Integer> nextBatch(BatchState state)
+    {
+        return batches.get(state.batch++ & (batches.size() - 1));
+    }
+
+    @Benchmark
+    public Map<Integer, byte[]> getAll(BatchState state)
+    {
+        return cache.getAll(nextBatch(state));
+    }
+
+    @Benchmark
+    public Map<Integer, byte[]> getLoop(BatchState state)
+    {
+        return getLoop(nextBatch(state));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Map<Integer, byte[]> getAllSingleThreaded(BatchState state)
+    {
+        return cache.getAll(nextBatch(state));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Map<Integer, byte[]> getLoopSingleThreaded(BatchState state)
+    {
+        return getLoop(nextBatch(state));
+    }
+
+    private Map<Integer, byte[]> getLoop(List<Integer> batch)
+    {
+        Map<Integer, byte[]> r = new HashMap<>();
+        for (Integer key : batch)
+        {
+            byte[] value = cache.get(key);
+            if (value != null)
+                r.put(key, value);
+        }
+        return r;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.jmh;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.caffinitas.ohc.OHLongCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link OHLongCache} against an {@link OHCache} with boxed {@code Long} keys and a key serializer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Threads(1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512M")
+public class LongKeyBenchmark
+{
+    private OHCache<Long, byte[]> cache;
+    private OHLongCache<byte[]> longCache;
+
+    @Param("64")
+    private int valueSize = 64;
+    @Param("268435456")
+    private long capacity = 256 * 1024 * 1024;
+    @Param("-1")
+    private int segmentCount = -1;
+    @Param("500000")
+    private int keys = 500000;
+    @Param({"linked", "tables"})
+    private String impl = "linked";
+
+    @State(Scope.Thread)
+    public static class KeyState
+    {
+        // spread the keys, so that they are not served from the Long cache of the JVM
+        public long key = 1000;
+    }
+
+    @Setup
+    public void setup() throws ClassNotFoundException
+    {
+        cache = builder().keySerializer(Utils.longSerializer).build();
+        longCache = builder().buildLongCache();
+
+        for (long i = 0; i < keys; i++)
+        {
+            cache.put(i, new byte[valueSize]);
+            longCache.put(i, new byte[valueSize]);
+        }
+    }
+
+    private OHCacheBuilder<Long, byte[]> builder() throws ClassNotFoundException
+    {
+        return OHCacheBuilder.<Long, byte[]>newBuilder()
+                             .capacity(capacity)
+                             .segmentCount(segmentCount)
+                             .type((Class<? extends OHCache>) Class.forName("org.caffinitas.ohc." + impl + ".OHCacheImpl"))
+                             .valueSerializer(Utils.byteArraySerializer);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        cache.close();
+        longCache.close();
+    }
+
+    private long nextKey(KeyState state)
+    {
+        long key = state.key++;
+        if (state.key >= keys)
+            state.key = 1000;
+        return key;
+    }
+
+    @Benchmark
+    public boolean containsKeyBoxed(KeyState state)
+    {
+        return cache.containsKey(nextKey(state));
+    }
+
+    @Benchmark
+    public boolean containsKeyLong(KeyState state)
+    {
+        return longCache.containsKey(nextKey(state));
+    }
+
+    @Benchmark
+    public byte[] getBoxed(KeyState state)
+    {
+        return cache.get(nextKey(state));
+    }
+
+    @Benchmark
+    public byte[] getLong(KeyState state)
+    {
+        return longCache.get(nextKey(state));
+    }
+}
@@ -56,10 +56,14 @@ public class ProtoBenchmark
     private int hashTableSize = -1;
     @Param("1000000")
     private int keys = 1000000;
-    @Param({"linked"/*, "tables"*/})
+    @Param({"linked", "tables"})
     private String impl = "linked";
     @Param({"MURMUR3"/*, "CRC32", "XX"*/})
     private HashAlgorithm hashAlgorithm;
+    @Param({"false", "true"})
+    private boolean optimisticReads;
+    @Param({"false", "true"})
+    private boolean probeTags;
 
     @State(Scope.Thread)
     public static class PutState
@@ -83,6 +87,8 @@ public class ProtoBenchmark
                               .type((Class<? extends OHCache>) Class.forName("org.caffinitas.ohc." + impl + ".OHCacheImpl"))
                               .keySerializer(Utils.intSerializer)
                               .valueSerializer(Utils.byteArraySerializer)
+                              .optimisticReads(optimisticReads)
+                              .probeTags(probeTags)
                               .build();
 
         for (int i = 0; i < keys; i++)
@@ -98,13 +104,14 @@ public class ProtoBenchmark
     @Benchmark
     public void getNonExisting()
     {
-        cache.get(0);
+        // keys 0 .. keys-1 are loaded in setup()
+        cache.get(-1);
     }
 
     @Benchmark
     public void containsNonExisting()
     {
-        cache.containsKey(0);
+        cache.containsKey(-1);
     }
 
     @Benchmark
@@ -133,6 +140,16 @@ public class ProtoBenchmark
             state.key = 1;
     }
 
+    @Benchmark
+    @Threads(value = 1)
+    public void getNonExistingSingleThreaded(GetState state)
+    {
+        // negative keys are not loaded
+        cache.get(-state.key++);
+        if (state.key > keys)
+            state.key = 1;
+    }
+
     @Benchmark
     public void getMultiThreaded(GetState state)
     {
@@ -140,4 +157,22 @@ public class ProtoBenchmark
         if (state.key > keys)
             state.key = 1;
     }
+
+    @Benchmark
+    @Threads(value = 16)
+    public void getMultiThreaded16(GetState state)
+    {
+        cache.get(state.key++);
+        if (state.key > keys)
+            state.key = 1;
+    }
+
+    @Benchmark
+    @Threads(value = 64)
+    public void getMultiThreaded64(GetState state)
+    {
+        cache.get(state.key++);
+        if (state.key > keys)
+            state.key = 1;
+    }
 }
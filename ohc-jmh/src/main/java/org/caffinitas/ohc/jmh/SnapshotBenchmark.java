@@ -0,0 +1,123 @@
+/*
+ *      Copyright (C) 2014 Robert Stupp, Koeln, Germany, robert-stupp.de
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.caffinitas.ohc.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.caffinitas.ohc.OHCache;
+import org.caffinitas.ohc.OHCacheBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link OHCache#snapshot(File, ExecutorService)} against
+ * {@link OHCache#serializeHotNEntries(int, java.nio.channels.WritableByteChannel)} to a single file.
+ * Both write all entries of the cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Threads(1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512M")
+public class SnapshotBenchmark
+{
+    private OHCache<Integer, byte[]> cache;
+
+    @Param("1024")
+    private int valueSize = 1024;
+    @Param("268435456")
+    private long capacity = 256 * 1024 * 1024;
+    @Param("-1")
+    private int segmentCount = -1;
+    @Param("100000")
+    private int keys = 100000;
+    @Param("-1")
+    private int threads = -1;
+    @Param({"linked", "tables"})
+    private String impl = "linked";
+
+    private File directory;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() throws ClassNotFoundException, IOException
+    {
+        cache = OHCacheBuilder.<Integer, byte[]>newBuilder()
+                              .capacity(capacity)
+                              .segmentCount(segmentCount)
+                              .type((Class<? extends OHCache>) Class.forName("org.caffinitas.ohc." + impl + ".OHCacheImpl"))
+                              .keySerializer(Utils.intSerializer)
+                              .valueSerializer(Utils.byteArraySerializer)
+                              .build();
+
+        for (int i = 0; i < keys; i++)
+            cache.put(i, new byte[valueSize]);
+
+        directory = Files.createTempDirectory("ohc-snapshot-bench").toFile();
+        executor = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        executor.shutdown();
+        cache.close();
+
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public long serializeHotNEntries() throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(new File(directory, "entries").toPath(),
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            return cache.serializeHotNEntries(keys, channel);
+        }
+    }
+
+    @Benchmark
+    public long snapshot() throws IOException, InterruptedException
+    {
+        return cache.snapshot(directory, executor);
+    }
+}
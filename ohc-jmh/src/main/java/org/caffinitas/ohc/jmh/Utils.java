@@ -61,4 +61,22 @@ public final class Utils
             return 4;
         }
     };
+
+    public static final CacheSerializer<Long> longSerializer = new CacheSerializer<Long>()
+    {
+        public void serialize(Long l, DataOutput out) throws IOException
+        {
+            out.writeLong(l);
+        }
+
+        public Long deserialize(DataInput in) throws IOException
+        {
+            return in.readLong();
+        }
+
+        public int serializedSize(Long l)
+        {
+            return 8;
+        }
+    };
 }